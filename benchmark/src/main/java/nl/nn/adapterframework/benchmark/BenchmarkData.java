@@ -0,0 +1,43 @@
+/*
+   Copyright 2016 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.benchmark;
+
+/**
+ * Generates the messages used by the benchmarks, so that every run uses exactly the same input.
+ * 
+ * @since   7.0
+ */
+public class BenchmarkData {
+
+	private BenchmarkData() {
+	}
+
+	/**
+	 * Creates a document with a root element containing <code>items</code> item elements, alternately
+	 * of type a and b, each with some text that needs to be escaped.
+	 */
+	public static String createDocument(int items) {
+		StringBuffer sb = new StringBuffer("<root xmlns:ns=\"urn:benchmark\">");
+		for (int i = 0; i < items; i++) {
+			sb.append("<item id=\"").append(i).append("\" type=\"").append(i % 2 == 0 ? "a" : "b").append("\">");
+			sb.append("<name>item ").append(i).append("</name>");
+			sb.append("<description>value &amp; description &lt;").append(i).append("&gt;</description>");
+			sb.append("</item>");
+		}
+		sb.append("</root>");
+		return sb.toString();
+	}
+}
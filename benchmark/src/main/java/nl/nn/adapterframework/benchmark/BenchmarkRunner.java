@@ -0,0 +1,151 @@
+/*
+   Copyright 2016 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks of this module and compares the results to a baseline.
+ * <p>
+ * The results are written to <code>target/benchmark-results.properties</code>, one line per benchmark
+ * and parameter combination. When the file referred to by the system property <code>benchmark.baseline</code>
+ * exists, each result is compared to the baseline score; a benchmark that became slower by more than
+ * <code>benchmark.threshold</code> percent (default 10) is reported as a regression. When the system property
+ * <code>benchmark.failOnRegression</code> is set to <code>true</code>, regressions make the runner exit with
+ * status 1. To establish a new baseline, copy the results file over the baseline file.
+ * </p>
+ * <p>
+ * The first argument, if present, is a regular expression selecting the benchmarks to run.
+ * </p>
+ * 
+ * @since   7.0
+ */
+public class BenchmarkRunner {
+
+	public static final String RESULTS_FILE = "target/benchmark-results.properties";
+
+	public static void main(String[] args) throws Exception {
+		String include = args.length > 0 ? args[0] : ".*Benchmark.*";
+		Collection<RunResult> runResults = new Runner(new OptionsBuilder().include(include).build()).run();
+
+		Properties results = new Properties();
+		for (RunResult runResult : runResults) {
+			results.setProperty(getKey(runResult.getParams()), Double.toString(runResult.getPrimaryResult().getScore()));
+		}
+		File resultsFile = new File(RESULTS_FILE);
+		store(results, resultsFile);
+		System.out.println("results written to [" + resultsFile.getAbsolutePath() + "]");
+
+		double threshold = Double.parseDouble(System.getProperty("benchmark.threshold", "10"));
+		String baselineFilename = System.getProperty("benchmark.baseline");
+		if (baselineFilename == null || baselineFilename.length() == 0 || !new File(baselineFilename).exists()) {
+			System.out.println("no baseline found" + (baselineFilename == null ? "" : " at [" + baselineFilename + "]")
+					+ ", copy [" + resultsFile.getPath() + "] to the baseline file to compare future runs against it");
+			return;
+		}
+		Properties baseline = load(new File(baselineFilename));
+		int regressions = compare(baseline, results, threshold);
+		if (regressions > 0 && Boolean.getBoolean("benchmark.failOnRegression")) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Prints a comparison of the current results to the baseline and returns the number of regressions.
+	 * Lower scores are better, as all benchmarks measure average time.
+	 */
+	public static int compare(Properties baseline, Properties results, double threshold) {
+		List<String> keys = new ArrayList<String>();
+		for (Object key : results.keySet()) {
+			keys.add((String)key);
+		}
+		Collections.sort(keys);
+		int regressions = 0;
+		System.out.println(String.format("%-70s %12s %12s %9s  %s", "benchmark", "baseline", "current", "change", ""));
+		for (String key : keys) {
+			double current = Double.parseDouble(results.getProperty(key));
+			String baselineValue = baseline.getProperty(key);
+			if (baselineValue == null) {
+				System.out.println(String.format("%-70s %12s %12.3f %9s  %s", key, "-", current, "-", "new"));
+				continue;
+			}
+			double previous = Double.parseDouble(baselineValue);
+			double change = previous == 0 ? 0 : (current - previous) * 100 / previous;
+			String verdict;
+			if (change > threshold) {
+				verdict = "REGRESSION";
+				regressions++;
+			} else if (change < -threshold) {
+				verdict = "IMPROVED";
+			} else {
+				verdict = "ok";
+			}
+			System.out.println(String.format("%-70s %12.3f %12.3f %8.1f%%  %s", key, previous, current, change, verdict));
+		}
+		System.out.println(regressions + " regression(s) above threshold of " + threshold + "%");
+		return regressions;
+	}
+
+	private static String getKey(BenchmarkParams params) {
+		StringBuilder key = new StringBuilder(params.getBenchmark());
+		for (String paramKey : params.getParamsKeys()) {
+			key.append(',').append(paramKey).append('=').append(params.getParam(paramKey));
+		}
+		if (params.getThreads() > 1) {
+			key.append(",threads=").append(params.getThreads());
+		}
+		return key.toString();
+	}
+
+	private static Properties load(File file) throws IOException {
+		Properties properties = new Properties();
+		InputStream in = new FileInputStream(file);
+		try {
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+		return properties;
+	}
+
+	private static void store(Properties properties, File file) throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.exists()) {
+			parent.mkdirs();
+		}
+		OutputStream out = new FileOutputStream(file);
+		try {
+			properties.store(out, "benchmark results, average time per operation");
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,165 @@
+/*
+   Copyright 2016 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.benchmark;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import nl.nn.adapterframework.configuration.BasicAdapterServiceImpl;
+import nl.nn.adapterframework.configuration.Configuration;
+import nl.nn.adapterframework.configuration.ConfigurationDigester;
+import nl.nn.adapterframework.configuration.SetterPlan;
+import nl.nn.adapterframework.pipes.XsltPipe;
+
+import org.apache.commons.beanutils.BeanUtils;
+import org.apache.commons.digester.Digester;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the steps of reloading an unchanged configuration with and without the digester cache:
+ * creating the digester with its rules, resolving the properties of a configuration with a large
+ * number of adapters, and setting the attributes of a pipe.
+ * 
+ * @since   7.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigurationReloadBenchmark {
+
+	@Param({"300"})
+	public int adapters;
+
+	private File configurationFile;
+	private String original;
+	private Configuration configuration;
+	private ConfigurationDigester uncachedDigester;
+	private ConfigurationDigester cachedDigester;
+	private Map<String,String> attributes;
+	private Digester digester;
+	private String previousOutputType;
+
+	@Setup
+	public void setUp() throws Exception {
+		StringBuffer sb = new StringBuffer("<configuration name=\"benchmark\">\n");
+		for (int i=0; i<adapters; i++) {
+			sb.append("<adapter name=\"adapter").append(i).append("\" description=\"${instance.name} adapter ").append(i).append("\">\n");
+			sb.append("<receiver className=\"nl.nn.adapterframework.receivers.GenericReceiver\" name=\"receiver").append(i).append("\">\n");
+			sb.append("<listener className=\"nl.nn.adapterframework.receivers.JavaListener\" name=\"listener").append(i).append("\"/>\n");
+			sb.append("</receiver>\n");
+			sb.append("<pipeline firstPipe=\"xslt\">\n");
+			sb.append("<exits><exit path=\"EXIT\" state=\"success\"/></exits>\n");
+			sb.append("<pipe name=\"xslt\" className=\"nl.nn.adapterframework.pipes.XsltPipe\" xpathExpression=\"/root\" outputType=\"${benchmark.outputType}\">\n");
+			sb.append("<forward name=\"success\" path=\"EXIT\"/>\n");
+			sb.append("</pipe>\n");
+			sb.append("</pipeline>\n");
+			sb.append("</adapter>\n");
+		}
+		sb.append("</configuration>\n");
+		original = sb.toString();
+		previousOutputType = System.setProperty("benchmark.outputType", "xml");
+
+		configurationFile = File.createTempFile("ConfigurationReloadBenchmark", ".xml");
+		FileWriter writer = new FileWriter(configurationFile);
+		try {
+			writer.write(original);
+		} finally {
+			writer.close();
+		}
+		configuration = new Configuration(new BasicAdapterServiceImpl());
+		configuration.setName("benchmark");
+		configuration.setConfigurationURL(configurationFile.toURI().toURL());
+
+		uncachedDigester = new ConfigurationDigester();
+		uncachedDigester.setUseCache(false);
+		cachedDigester = new ConfigurationDigester();
+		cachedDigester.setUseCache(true);
+
+		attributes = new LinkedHashMap<String,String>();
+		attributes.put("name", "xslt");
+		attributes.put("xpathExpression", "/root");
+		attributes.put("outputType", "xml");
+		attributes.put("omitXmlDeclaration", "true");
+		attributes.put("removeNamespaces", "false");
+		digester = new Digester();
+	}
+
+	@TearDown
+	public void tearDown() {
+		configurationFile.delete();
+		if (previousOutputType == null) {
+			System.clearProperty("benchmark.outputType");
+		} else {
+			System.setProperty("benchmark.outputType", previousOutputType);
+		}
+	}
+
+	@Benchmark
+	public Digester getDigesterUncached() throws Exception {
+		return uncachedDigester.getDigester(configuration);
+	}
+
+	@Benchmark
+	public Digester getDigesterCached() throws Exception {
+		return cachedDigester.getDigester(configuration);
+	}
+
+	@Benchmark
+	public String resolveConfigurationUncached() throws Exception {
+		return uncachedDigester.resolveConfiguration(configuration, original);
+	}
+
+	@Benchmark
+	public String resolveConfigurationCached() throws Exception {
+		return cachedDigester.resolveConfiguration(configuration, original);
+	}
+
+	@Benchmark
+	public Object setPropertiesBeanUtils() throws Exception {
+		XsltPipe pipe = new XsltPipe();
+		BeanUtils.populate(pipe, attributes);
+		return pipe;
+	}
+
+	@Benchmark
+	public Object setPropertiesSetterPlan() throws Exception {
+		XsltPipe pipe = new XsltPipe();
+		SetterPlan setterPlan = SetterPlan.getPlan(digester, XsltPipe.class);
+		for (Iterator<Map.Entry<String,String>> it = attributes.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<String,String> entry = it.next();
+			setterPlan.setProperty(pipe, entry.getKey(), entry.getValue());
+		}
+		return pipe;
+	}
+}
@@ -0,0 +1,84 @@
+/*
+   Copyright 2016 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import nl.nn.adapterframework.core.IPipeLineSession;
+import nl.nn.adapterframework.core.PipeLineSessionBase;
+import nl.nn.adapterframework.parameters.Parameter;
+import nl.nn.adapterframework.parameters.ParameterList;
+import nl.nn.adapterframework.parameters.ParameterResolutionContext;
+import nl.nn.adapterframework.parameters.ParameterValueList;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures resolving a typical set of parameters: one taken from the session, one with an xpathExpression
+ * on the input and one with a pattern.
+ * 
+ * @since   7.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParameterResolutionContextBenchmark {
+
+	private ParameterList<Parameter> parameters;
+	private IPipeLineSession session;
+	private String input;
+
+	@Setup
+	public void setUp() throws Exception {
+		parameters = new ParameterList<Parameter>();
+		Parameter sessionKeyParameter = new Parameter();
+		sessionKeyParameter.setName("fromSession");
+		sessionKeyParameter.setSessionKey("key1");
+		parameters.add(sessionKeyParameter);
+		Parameter xpathParameter = new Parameter();
+		xpathParameter.setName("fromInput");
+		xpathParameter.setXpathExpression("/root/item[1]/name");
+		parameters.add(xpathParameter);
+		Parameter patternParameter = new Parameter();
+		patternParameter.setName("fromPattern");
+		patternParameter.setPattern("{key1}-{key2}");
+		parameters.add(patternParameter);
+		parameters.configure();
+
+		session = new PipeLineSessionBase();
+		session.put("key1", "value1");
+		session.put("key2", "value2");
+		input = BenchmarkData.createDocument(10);
+	}
+
+	@Benchmark
+	public ParameterValueList getValues() throws Exception {
+		ParameterResolutionContext prc = new ParameterResolutionContext(input, session);
+		return prc.getValues(parameters);
+	}
+}
@@ -0,0 +1,143 @@
+/*
+   Copyright 2016 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import nl.nn.adapterframework.core.Adapter;
+import nl.nn.adapterframework.core.PipeForward;
+import nl.nn.adapterframework.core.PipeLine;
+import nl.nn.adapterframework.core.PipeLineExit;
+import nl.nn.adapterframework.core.PipeLineResult;
+import nl.nn.adapterframework.core.PipeLineSessionBase;
+import nl.nn.adapterframework.pipes.AbstractPipe;
+import nl.nn.adapterframework.pipes.EchoPipe;
+import nl.nn.adapterframework.pipes.ForEachChildElementPipe;
+import nl.nn.adapterframework.pipes.XmlSwitch;
+import nl.nn.adapterframework.pipes.XsltPipe;
+import nl.nn.adapterframework.processors.CheckMessageSizePipeProcessor;
+import nl.nn.adapterframework.processors.CorePipeLineProcessor;
+import nl.nn.adapterframework.processors.CorePipeProcessor;
+import nl.nn.adapterframework.processors.InputOutputPipeProcessor;
+import nl.nn.adapterframework.processors.MonitoringPipeProcessor;
+import nl.nn.adapterframework.senders.EchoSender;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a message passing an in-memory pipeline of an EchoPipe, an XsltPipe, an XmlSwitch and a
+ * ForEachChildElementPipe with an EchoSender, processed by the same chain of pipe processors as a
+ * configured adapter uses, apart from the transaction, locker and semaphore processors.
+ * 
+ * @since   7.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipeLineBenchmark {
+
+	@Param({"10", "1000"})
+	public int items;
+
+	private PipeLine pipeLine;
+	private String input;
+
+	@Setup
+	public void setUp() throws Exception {
+		Adapter adapter = new Adapter();
+		adapter.setName("benchmark");
+
+		pipeLine = new PipeLine();
+		CorePipeLineProcessor pipeLineProcessor = new CorePipeLineProcessor();
+		MonitoringPipeProcessor monitoringPipeProcessor = new MonitoringPipeProcessor();
+		InputOutputPipeProcessor inputOutputPipeProcessor = new InputOutputPipeProcessor();
+		CheckMessageSizePipeProcessor checkMessageSizePipeProcessor = new CheckMessageSizePipeProcessor();
+		pipeLineProcessor.setPipeProcessor(monitoringPipeProcessor);
+		monitoringPipeProcessor.setPipeProcessor(inputOutputPipeProcessor);
+		inputOutputPipeProcessor.setPipeProcessor(checkMessageSizePipeProcessor);
+		checkMessageSizePipeProcessor.setPipeProcessor(new CorePipeProcessor());
+		pipeLine.setPipeLineProcessor(pipeLineProcessor);
+
+		EchoPipe echoPipe = new EchoPipe();
+		addPipe(echoPipe, "echo", "xslt");
+
+		XsltPipe xsltPipe = new XsltPipe();
+		xsltPipe.setXpathExpression("/root");
+		xsltPipe.setOutputType("xml");
+		addPipe(xsltPipe, "xslt", "switch");
+
+		XmlSwitch xmlSwitch = new XmlSwitch();
+		xmlSwitch.setXpathExpression("local-name(/*)");
+		xmlSwitch.setNotFoundForwardName("notFound");
+		xmlSwitch.registerForward(new PipeForward("notFound", "EXIT"));
+		addPipe(xmlSwitch, "switch", "forEach");
+		xmlSwitch.registerForward(new PipeForward("root", "forEach"));
+
+		ForEachChildElementPipe forEachChildElementPipe = new ForEachChildElementPipe();
+		forEachChildElementPipe.setSender(new EchoSender());
+		forEachChildElementPipe.setElementXPathExpression("/root/item");
+		addPipe(forEachChildElementPipe, "forEach", "EXIT");
+
+		PipeLineExit exit = new PipeLineExit();
+		exit.setPath("EXIT");
+		exit.setState("success");
+		pipeLine.registerPipeLineExit(exit);
+		pipeLine.setFirstPipe("echo");
+
+		adapter.registerPipeLine(pipeLine);
+		pipeLine.configure();
+		pipeLine.start();
+
+		input = BenchmarkData.createDocument(items);
+	}
+
+	private void addPipe(AbstractPipe pipe, String name, String successPath) throws Exception {
+		pipe.setName(name);
+		pipe.registerForward(new PipeForward("success", successPath));
+		pipeLine.addPipe(pipe);
+	}
+
+	@TearDown
+	public void tearDown() {
+		pipeLine.stop();
+	}
+
+	@Benchmark
+	public PipeLineResult process() throws Exception {
+		return pipeLine.process("benchmark", input, new PipeLineSessionBase());
+	}
+
+	@Benchmark
+	@Threads(4)
+	public PipeLineResult processContended() throws Exception {
+		return pipeLine.process("benchmark", input, new PipeLineSessionBase());
+	}
+}
@@ -0,0 +1,77 @@
+/*
+   Copyright 2016 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.benchmark;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import nl.nn.adapterframework.util.AppConstants;
+import nl.nn.adapterframework.util.StringResolver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures resolving <code>${...}</code> references with {@link StringResolver} and {@link AppConstants}.
+ * 
+ * @since   7.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PropertyResolutionBenchmark {
+
+	private Properties properties;
+	private AppConstants appConstants;
+
+	@Setup
+	public void setUp() {
+		properties = new Properties();
+		properties.put("benchmark.host", "localhost");
+		properties.put("benchmark.port", "8080");
+		properties.put("benchmark.url", "http://${benchmark.host}:${benchmark.port}/service");
+		appConstants = AppConstants.getInstance();
+		appConstants.put("benchmark.host", "localhost");
+		appConstants.put("benchmark.port", "8080");
+		appConstants.put("benchmark.url", "http://${benchmark.host}:${benchmark.port}/service");
+	}
+
+	@Benchmark
+	public String substVars() {
+		return StringResolver.substVars("url [${benchmark.url}] on port [${benchmark.port}]", properties);
+	}
+
+	@Benchmark
+	public String getResolvedProperty() {
+		return appConstants.getResolvedProperty("benchmark.url");
+	}
+
+	@Benchmark
+	public AppConstants getInstance() {
+		return AppConstants.getInstance();
+	}
+}
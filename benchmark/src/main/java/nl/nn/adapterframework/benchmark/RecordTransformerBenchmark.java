@@ -0,0 +1,98 @@
+/*
+   Copyright 2016 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.benchmark;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import nl.nn.adapterframework.batch.RecordTransformer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the RecordTransformer parsing and transforming all records of a synthetic fixed length file,
+ * using alignment, substrings, date conversion, a condition and a lookup.
+ * 
+ * @since   7.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecordTransformerBenchmark {
+
+	@Param({"1000000"})
+	public int records;
+
+	private RecordTransformer transformer;
+	private String file;
+
+	@Setup
+	public void setUp() throws Exception {
+		transformer = new RecordTransformer();
+		transformer.setName("transformer");
+		transformer.setInputFields("10,30,12,8,1,39");
+		transformer.setTrim(true);
+		transformer.setOutputFields("incopy(1);string(|);inalign(2,40,right,_);string(|);substr(3,0,8);string(|);indate(4,yyyyMMdd,dd-MM-yyyy);"
+				+ "if(5,eq,{D|C});string(|debit or credit);endif();lookup(5,D=-,C=+,*=0);align(end,10,left, )");
+		transformer.configure();
+
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < records; i++) {
+			append(sb, Integer.toString(i), 10);
+			append(sb, "name of record " + i, 30);
+			append(sb, Integer.toString(i * 37 % 100000), 12);
+			append(sb, "2016" + (10 + i % 3) + (10 + i % 19), 8);
+			append(sb, i % 5 == 0 ? "X" : i % 2 == 0 ? "D" : "C", 1);
+			append(sb, "description", 39);
+			sb.append('\n');
+		}
+		file = sb.toString();
+	}
+
+	private void append(StringBuffer sb, String value, int length) {
+		sb.append(value);
+		for (int i = value.length(); i < length; i++) {
+			sb.append(' ');
+		}
+	}
+
+	@Benchmark
+	public long transform() throws Exception {
+		BufferedReader reader = new BufferedReader(new StringReader(file));
+		long length = 0;
+		String record;
+		while ((record = reader.readLine()) != null) {
+			List parsedRecord = transformer.parse(null, record);
+			length += ((String)transformer.handleRecord(null, parsedRecord, null)).length();
+		}
+		return length;
+	}
+}
@@ -0,0 +1,137 @@
+/*
+   Copyright 2016 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import nl.nn.adapterframework.batch.AbstractRecordHandler;
+import nl.nn.adapterframework.batch.RecordTransformer;
+import nl.nn.adapterframework.batch.RecordXmlTransformer;
+import nl.nn.adapterframework.batch.Result2StringWriter;
+import nl.nn.adapterframework.batch.StreamTransformerPipe;
+import nl.nn.adapterframework.core.PipeForward;
+import nl.nn.adapterframework.core.PipeLineSessionBase;
+import nl.nn.adapterframework.core.PipeRunResult;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of the StreamTransformerPipe on a generated fixed width file, with the records
+ * transformed by a RecordTransformer or by a RecordXmlTransformer with an xpathExpression, on a single
+ * thread or by parallel recordHandlerThreads.
+ * 
+ * @since   7.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamTransformerPipeBenchmark {
+
+	@Param({"transformer", "xml"})
+	public String recordHandler;
+
+	@Param({"1", "4"})
+	public int recordHandlerThreads;
+
+	@Param({"10000"})
+	public int records;
+
+	private StreamTransformerPipe pipe;
+	private byte[] file;
+
+	@Setup
+	public void setUp() throws Exception {
+		AbstractRecordHandler handler;
+		if ("xml".equals(recordHandler)) {
+			RecordXmlTransformer xmlTransformer = new RecordXmlTransformer();
+			xmlTransformer.setOutputFields("id,name,amount,date,description");
+			xmlTransformer.setXpathExpression("concat(record/id,';',normalize-space(record/name),';',number(record/amount) div 100,';',record/date)");
+			handler = xmlTransformer;
+		} else {
+			RecordTransformer transformer = new RecordTransformer();
+			transformer.setOutputFields("incopy(1);string(|);inalign(2,40,right,_);string(|);substr(3,0,8);string(|);indate(4,yyyyMMdd,dd-MM-yyyy);string(|);lookup(5,description=D)");
+			handler = transformer;
+		}
+		handler.setName("handler");
+		handler.setInputFields("10,30,12,8,40");
+		handler.setTrim(true);
+
+		Result2StringWriter resultHandler = new Result2StringWriter();
+		resultHandler.setName("result");
+
+		pipe = new StreamTransformerPipe();
+		pipe.setName("transformer");
+		pipe.setRecordHandlerThreads(recordHandlerThreads);
+		pipe.registerRecordHandler(handler);
+		pipe.registerResultHandler(resultHandler);
+		pipe.registerForward(new PipeForward("success", "EXIT"));
+		pipe.configure();
+		pipe.start();
+
+		file = createFile(records).getBytes("UTF-8");
+	}
+
+	/**
+	 * Creates a fixed width file with records of 100 characters: an id of 10, a name of 30, an amount of 12,
+	 * a date of 8 and a description of 40 characters.
+	 */
+	private String createFile(int count) {
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < count; i++) {
+			append(sb, Integer.toString(i), 10);
+			append(sb, "name of record " + i, 30);
+			append(sb, Integer.toString(i * 37 % 100000), 12);
+			append(sb, "2016" + (10 + i % 3) + (10 + i % 19), 8);
+			append(sb, "description", 40);
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+
+	private void append(StringBuffer sb, String value, int length) {
+		sb.append(value);
+		for (int i = value.length(); i < length; i++) {
+			sb.append(' ');
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		pipe.stop();
+	}
+
+	@Benchmark
+	public PipeRunResult transform() throws Exception {
+		PipeLineSessionBase session = new PipeLineSessionBase();
+		session.put(PipeLineSessionBase.messageIdKey, "benchmark");
+		return pipe.doPipe(new ByteArrayInputStream(file), session);
+	}
+}
@@ -0,0 +1,83 @@
+/*
+   Copyright 2016 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import nl.nn.adapterframework.util.TransformerPool;
+import nl.nn.adapterframework.util.XmlUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures transformations by {@link TransformerPool}, single threaded and with contention on the pool.
+ * 
+ * @since   7.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformerPoolBenchmark {
+
+	private static final String IDENTITY_XSLT =
+		"<xsl:stylesheet xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\" version=\"1.0\">" +
+		"<xsl:template match=\"@*|node()\"><xsl:copy><xsl:apply-templates select=\"@*|node()\"/></xsl:copy></xsl:template>" +
+		"</xsl:stylesheet>";
+
+	@Param({"10", "1000"})
+	public int items;
+
+	private String input;
+	private TransformerPool identity;
+	private TransformerPool xpath;
+
+	@Setup
+	public void setUp() throws Exception {
+		input = BenchmarkData.createDocument(items);
+		identity = new TransformerPool(IDENTITY_XSLT);
+		xpath = new TransformerPool(XmlUtils.createXPathEvaluatorSource("count(/root/item[@type='b'])"));
+	}
+
+	@Benchmark
+	public String identityTransform() throws Exception {
+		return identity.transform(input, null);
+	}
+
+	@Benchmark
+	public String xpathEvaluation() throws Exception {
+		return xpath.transform(input, null);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public String identityTransformContended() throws Exception {
+		return identity.transform(input, null);
+	}
+}
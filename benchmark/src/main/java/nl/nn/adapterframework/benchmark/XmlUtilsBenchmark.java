@@ -0,0 +1,77 @@
+/*
+   Copyright 2016 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import nl.nn.adapterframework.util.XmlUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+/**
+ * Measures frequently used {@link XmlUtils} operations.
+ * 
+ * @since   7.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XmlUtilsBenchmark {
+
+	@Param({"10", "1000"})
+	public int items;
+
+	private String input;
+
+	@Setup
+	public void setUp() {
+		input = BenchmarkData.createDocument(items);
+	}
+
+	@Benchmark
+	public String encodeChars() {
+		return XmlUtils.encodeChars(input);
+	}
+
+	@Benchmark
+	public boolean isWellFormed() {
+		return XmlUtils.isWellFormed(input);
+	}
+
+	@Benchmark
+	public Document buildDomDocument() throws Exception {
+		return XmlUtils.buildDomDocument(input, true);
+	}
+
+	@Benchmark
+	public String getRootNamespace() {
+		return XmlUtils.getRootNamespace(input);
+	}
+}
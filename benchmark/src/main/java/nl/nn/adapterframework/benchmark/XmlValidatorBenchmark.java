@@ -0,0 +1,126 @@
+/*
+   Copyright 2016 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import nl.nn.adapterframework.core.IPipeLineSession;
+import nl.nn.adapterframework.core.PipeForward;
+import nl.nn.adapterframework.core.PipeLineSessionBase;
+import nl.nn.adapterframework.pipes.AbstractPipe;
+import nl.nn.adapterframework.pipes.XmlValidator;
+import nl.nn.adapterframework.pipes.XsltPipe;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares an {@link XmlValidator} followed by an {@link XsltPipe}, which parse the message twice
+ * (the XsltPipe builds a DOM document of it), to an XmlValidator with an xpathExpression, which
+ * transforms the message in the same parse as the validation.
+ * 
+ * @since   7.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XmlValidatorBenchmark {
+
+	private static final String SCHEMA = "/Benchmark/document.xsd";
+	private static final String XPATH = "count(/root/item[@type='a'])";
+
+	@Param({"10", "1000"})
+	public int items;
+
+	private XmlValidator validator;
+	private XsltPipe xsltPipe;
+	private XmlValidator transformingValidator;
+	private String input;
+
+	@Setup
+	public void setUp() throws Exception {
+		validator = createValidator("validator");
+		validator.configure();
+
+		xsltPipe = new XsltPipe();
+		xsltPipe.setXpathExpression(XPATH);
+		xsltPipe.setNamespaceAware(true);
+		configure(xsltPipe, "xslt");
+
+		transformingValidator = createValidator("transformingValidator");
+		transformingValidator.setXpathExpression(XPATH);
+		transformingValidator.configure();
+
+		validator.start();
+		xsltPipe.start();
+		transformingValidator.start();
+
+		input = BenchmarkData.createDocument(items);
+		String separate = (String)xsltPipe.doPipe(validator.doPipe(input, new PipeLineSessionBase()).getResult(), new PipeLineSessionBase()).getResult();
+		String streamed = (String)transformingValidator.doPipe(input, new PipeLineSessionBase()).getResult();
+		if (!separate.equals(streamed)) {
+			throw new IllegalStateException("results differ [" + separate + "] [" + streamed + "]");
+		}
+	}
+
+	private XmlValidator createValidator(String name) {
+		XmlValidator xmlValidator = new XmlValidator();
+		xmlValidator.setNoNamespaceSchemaLocation(SCHEMA);
+		xmlValidator.setRoot("root");
+		xmlValidator.setThrowException(true);
+		xmlValidator.setName(name);
+		xmlValidator.registerForward(new PipeForward("success", "EXIT"));
+		return xmlValidator;
+	}
+
+	private void configure(AbstractPipe pipe, String name) throws Exception {
+		pipe.setName(name);
+		pipe.registerForward(new PipeForward("success", "EXIT"));
+		pipe.configure();
+	}
+
+	@TearDown
+	public void tearDown() {
+		validator.stop();
+		xsltPipe.stop();
+		transformingValidator.stop();
+	}
+
+	@Benchmark
+	public Object validateThenTransform() throws Exception {
+		IPipeLineSession session = new PipeLineSessionBase();
+		Object validated = validator.doPipe(input, session).getResult();
+		return xsltPipe.doPipe(validated, session).getResult();
+	}
+
+	@Benchmark
+	public Object transformWhileValidating() throws Exception {
+		return transformingValidator.doPipe(input, new PipeLineSessionBase()).getResult();
+	}
+}
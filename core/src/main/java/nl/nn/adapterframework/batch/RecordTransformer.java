@@ -1,5 +1,5 @@
 /*
-   Copyright 2013 Nationale-Nederlanden
+   Copyright 2013, 2016 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -18,15 +18,13 @@ package nl.nn.adapterframework.batch;
 import java.lang.reflect.Constructor;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
 import java.util.StringTokenizer;
-import java.util.Vector;
 
 import nl.nn.adapterframework.configuration.ConfigurationException;
 import nl.nn.adapterframework.configuration.ConfigurationWarnings;
@@ -78,42 +76,126 @@ public class RecordTransformer extends AbstractRecordHandler {
 
 	private List outputFields=new LinkedList();
 
-	
+	private volatile OutputPlan outputPlan;
+
+	private static final int MAX_REUSED_BUFFER_CAPACITY=64*1024;
+	private static final int MAX_CONVERTED_DATES=1000;
+	private ThreadLocal<StringBuffer> outputBuffer = new ThreadLocal<StringBuffer>();
+
+	public void configure() throws ConfigurationException {
+		super.configure();
+		outputPlan = new OutputPlan();
+	}
+
 	public Object handleRecord(IPipeLineSession session, List parsedRecord, ParameterResolutionContext prc) throws Exception {
-		StringBuffer output = new StringBuffer();
-		Stack conditions = new Stack();
-		
-		for (Iterator outputFieldIt = outputFields.iterator(); outputFieldIt.hasNext();) {
-			IOutputField outputField = (IOutputField) outputFieldIt.next();
-			
-			// if outputfields are to be seperator with delimiter
-			if (outputSeparator != null && output.length() > 0) {
-				output.append(outputSeparator); 
+		OutputPlan plan = outputPlan;
+		if (plan == null) {
+			plan = new OutputPlan();
+			outputPlan = plan;
+		}
+		StringBuffer output = outputBuffer.get();
+		if (output == null) {
+			output = new StringBuffer();
+			outputBuffer.set(output);
+		}
+		output.setLength(0);
+		try {
+			plan.appendOutput(output, parsedRecord);
+			if (output.length() > 0) {
+				return output.toString();
 			}
-			
-			// if not in a condition
-			if (conditions.isEmpty()) {
-				IOutputField condition = outputField.appendValue(outputField, output, parsedRecord);
-				if (condition != null) {
-					conditions.push(condition);
+			return null;
+		} finally {
+			if (output.capacity() > MAX_REUSED_BUFFER_CAPACITY) {
+				outputBuffer.remove();
+			}
+		}
+	}
+
+	/**
+	 * The outputFields compiled into a flat list of steps. Conditions know beforehand where 
+	 * their endif is, so a record is transformed without maintaining a stack of conditions. 
+	 * As before, the outputSeparator is appended for every field, including the fields that 
+	 * are skipped because a condition is false.
+	 */
+	private class OutputPlan {
+		private static final int VALUE=0;
+		private static final int CONDITION=1;
+		private static final int ENDIF=2;
+		private static final int UNMATCHED_ENDIF=3;
+
+		private IOutputField[] fields;
+		private int[] kinds;
+		private int[] endIndexes; // for conditions, the index of the last field skipped when the condition is false
+		private String[] skippedSeparators; // for conditions, the separators appended when the condition is false
+		private String separator;
+
+		OutputPlan() {
+			separator = outputSeparator;
+			fields = (IOutputField[])outputFields.toArray(new IOutputField[outputFields.size()]);
+			kinds = new int[fields.length];
+			endIndexes = new int[fields.length];
+			skippedSeparators = new String[fields.length];
+			List<Integer> openConditions = new ArrayList<Integer>();
+			for (int i=0; i<fields.length; i++) {
+				if (fields[i] instanceof Condition) {
+					kinds[i] = CONDITION;
+					endIndexes[i] = fields.length - 1;
+					openConditions.add(i);
+				} else if (fields[i] instanceof EndIfCondition) {
+					if (openConditions.isEmpty()) {
+						kinds[i] = UNMATCHED_ENDIF;
+					} else {
+						kinds[i] = ENDIF;
+						endIndexes[openConditions.remove(openConditions.size()-1)] = i;
+					}
+				} else {
+					kinds[i] = VALUE;
 				}
 			}
-			// in condition
-			else {
-				IOutputField condition = (IOutputField)conditions.pop();
-				IOutputField newCondition = condition.appendValue(outputField, output, parsedRecord);
-				if (newCondition != null) {
-					conditions.push(condition);
-					if (newCondition != condition) {
-						conditions.push(newCondition);
+			if (separator != null) {
+				for (int i=0; i<fields.length; i++) {
+					if (kinds[i] == CONDITION) {
+						StringBuffer sb = new StringBuffer();
+						for (int j=i; j<endIndexes[i]; j++) {
+							sb.append(separator);
+						}
+						skippedSeparators[i] = sb.toString();
 					}
 				}
 			}
 		}
-		if (output.length() > 0) {
-			return output.toString();
+
+		void appendOutput(StringBuffer output, List parsedRecord) throws Exception {
+			int i=0;
+			while (i < fields.length) {
+				// if outputfields are to be seperator with delimiter
+				if (separator != null && output.length() > 0) {
+					output.append(separator); 
+				}
+				switch (kinds[i]) {
+					case VALUE:
+						fields[i].appendValue(fields[i], output, parsedRecord);
+						i++;
+						break;
+					case CONDITION:
+						if (((Condition)fields[i]).conditionIsTrue(parsedRecord)) {
+							i++;
+						} else {
+							if (separator != null && output.length() > 0) {
+								output.append(skippedSeparators[i]); 
+							}
+							i = endIndexes[i] + 1;
+						}
+						break;
+					case ENDIF:
+						i++;
+						break;
+					default:
+						throw new Exception("Endif function has no corresponding if");
+				}
+			}
 		}
-		return null;
 	}
 
 	/*
@@ -121,10 +203,12 @@ public class RecordTransformer extends AbstractRecordHandler {
 	 */
 	private void addOutputField(IOutputField field) {
 		outputFields.add(field);
+		outputPlan = null;
 	}
 	
 	public void clearOutputFields() {
 		outputFields.clear();
+		outputPlan = null;
 	}
 	
 	public void addOutputInput(int inputFieldIndex) throws ConfigurationException {
@@ -346,6 +430,7 @@ public class RecordTransformer extends AbstractRecordHandler {
 	class Substring extends OutputInput {
 		private int startIndex;
 		private int endIndex;
+		private char[] fill;
 		
 		Substring(int inputFieldIndex, int startIndex, int endIndex) throws ConfigurationException {
 			super(inputFieldIndex);
@@ -355,6 +440,7 @@ public class RecordTransformer extends AbstractRecordHandler {
 			if (startIndex < 0 || endIndex <= startIndex) {
 				throw new ConfigurationException("Incorrect indexes");
 			}
+			fill = FileUtils.getFilledArray(endIndex - startIndex, ' ');
 		}
 		
 		public IOutputField appendValue(IOutputField curFunction, StringBuffer result, List inputFields) throws ConfigurationException {
@@ -362,20 +448,20 @@ public class RecordTransformer extends AbstractRecordHandler {
 			
 			if (startIndex >= val.length()) {
 				if (StringUtils.isEmpty(getOutputSeparator())) {
-					result.append(FileUtils.getFilledArray(endIndex - startIndex, ' '));
+					result.append(fill);
 				}
 			}
 			else if (endIndex >= val.length()) {
-				result.append(val.substring(startIndex));
+				result.append(val, startIndex, val.length());
 				if (StringUtils.isEmpty(getOutputSeparator())) {
 					int fillSize = endIndex - startIndex - val.length();
 					if (fillSize > 0) {
-						result.append(FileUtils.getFilledArray(fillSize, ' '));
+						result.append(fill, 0, fillSize);
 					}
 				}
 			}
 			else {
-				result.append(val.substring(startIndex, endIndex));
+				result.append(val, startIndex, endIndex);
 			}
 			return null;
 		}
@@ -389,17 +475,26 @@ public class RecordTransformer extends AbstractRecordHandler {
 		private int length;
 		private char fillchar;
 		private boolean leftAlign;
+		private char[] fill;
 		
 		OutputAlignedInput(int inputFieldIndex, int length, boolean leftAlign, char fill) throws ConfigurationException {
 			super(inputFieldIndex);
 			this.fillchar = fill;
 			this.length = length;
 			this.leftAlign = leftAlign;
+			this.fill = FileUtils.getFilledArray(Math.max(length, 0), fill);
 		}
 		
 		public IOutputField appendValue(IOutputField curFunction, StringBuffer result, List inputFields) throws ConfigurationException {
 			String val = ((String)super.toValue(inputFields)).trim();
-			FileUtils.align(result, val, length, leftAlign, fillchar);
+			int fillSize = length - val.length();
+			if (fillSize <= 0) {
+				FileUtils.align(result, val, length, leftAlign, fillchar);
+			} else if (leftAlign) {
+				result.append(val).append(fill, 0, fillSize);			
+			} else {
+				result.append(fill, 0, fillSize).append(val);
+			}
 			return null;
 		}
 	}
@@ -447,10 +542,12 @@ public class RecordTransformer extends AbstractRecordHandler {
 	 */
 	class Lookup extends OutputInput {
 		private Map lookupValues;
+		private String defaultValue;
 		
 		Lookup(int fieldNr, Map lookupValues) {
 			super(fieldNr);
 			this.lookupValues = lookupValues;
+			this.defaultValue = (String)lookupValues.get("*");
 		}
 		
 		public IOutputField appendValue(IOutputField curFunction, StringBuffer result, List inputFields) throws ConfigurationException {
@@ -460,7 +557,7 @@ public class RecordTransformer extends AbstractRecordHandler {
 				outVal = (String)lookupValues.get(inVal.trim());
 			}
 			if (outVal == null) {
-				outVal = (String)lookupValues.get("*");
+				outVal = defaultValue;
 				if (outVal == null) {
 					throw new ConfigurationException("Loopupvalue for ["+inVal+"] not found");
 				}
@@ -478,6 +575,15 @@ public class RecordTransformer extends AbstractRecordHandler {
 		private int inputFieldIndex = -1;
 		private SimpleDateFormat outFormatter;
 		private SimpleDateFormat inFormatter;
+		// SimpleDateFormat is not thread safe, and records can be transformed in parallel, so each thread reuses its own copies
+		private ThreadLocal<DateConversion> conversion = new ThreadLocal<DateConversion>();
+
+		private class DateConversion {
+			private SimpleDateFormat outFormatter = (SimpleDateFormat)FixedDateOutput.this.outFormatter.clone();
+			private SimpleDateFormat inFormatter = (SimpleDateFormat)FixedDateOutput.this.inFormatter.clone();
+			// the dates in a file usually have only a limited number of different values
+			private Map<String,String> converted = new HashMap<String,String>();
+		}
 		
 		FixedDateOutput(String outFormatPattern, String inFormatPattern, int inputFieldIndex) {
 			this.inputFieldIndex = inputFieldIndex;
@@ -496,59 +602,45 @@ public class RecordTransformer extends AbstractRecordHandler {
 		}
 		
 		public IOutputField appendValue(IOutputField curFunction, StringBuffer result, List inputFields) throws ParseException, ConfigurationException {
-			Date date = null;
-			
+			DateConversion dateConversion = conversion.get();
+			if (dateConversion == null) {
+				dateConversion = new DateConversion();
+				conversion.set(dateConversion);
+			}
 			if (inputFieldIndex < 0) {
-				date = new Date();
+				result.append(dateConversion.outFormatter.format(new Date()));
+				return null;
 			}
-			else {
-				if (inputFieldIndex >= inputFields.size()) {
-					throw new ConfigurationException("Function refers to a non-existing inputfield [" + inputFieldIndex + "]");				
+			if (inputFieldIndex >= inputFields.size()) {
+				throw new ConfigurationException("Function refers to a non-existing inputfield [" + inputFieldIndex + "]");				
+			}
+			String input = (String)inputFields.get(inputFieldIndex);
+			String output = dateConversion.converted.get(input);
+			if (output == null) {
+				output = dateConversion.outFormatter.format(dateConversion.inFormatter.parse(input));
+				if (dateConversion.converted.size() >= MAX_CONVERTED_DATES) {
+					dateConversion.converted.clear();
 				}
-				date = inFormatter.parse((String)inputFields.get(inputFieldIndex));
+				dateConversion.converted.put(input, output);
 			}
-			result.append(outFormatter.format(date));
+			result.append(output);
 			return null;
 		}		
 	}
 	
 	/**
-	 * Abstract class for condition. Only if the condition is met, output is written  
+	 * Abstract class for condition. Only if the condition is met, output is written.
+	 * The condition is evaluated by the {@link OutputPlan}, that skips the fields up to the corresponding endif when it is not met.
 	 * @author John Dekker
 	 */
 	abstract class Condition implements IOutputField {
-		private boolean output;
-		 
+
 		public IOutputField appendValue(IOutputField curFunction, StringBuffer result, List inputFields) throws Exception {
-			// first call, check wether the condition is true or false 
-			if (this == curFunction) {
-				output = conditionIsTrue(inputFields);
-				return this;	
-			}
-			
-			// check if the condition has to be left
-			if (isEndMarker(curFunction)) {
-				return null;
-			}
-			
-			if (output) {
-				// write the result of the funtion to the output
-				IOutputField condition = curFunction.appendValue(curFunction, result, inputFields);
-				if (condition != null)
-					return condition;
-			}
-			else {
-				// function is a subcondition within this condition 
-				if (curFunction instanceof Condition) {
-					((Condition)curFunction).output = false;
-					return curFunction; 
-				}
-			}
-			return this;
+			// a condition does not write output itself
+			return null;
 		}
 		
 		protected abstract boolean conditionIsTrue(List inputFields) throws ConfigurationException;
-		protected abstract boolean isEndMarker(IOutputField function);
 	}
 
 	/**
@@ -559,6 +651,7 @@ public class RecordTransformer extends AbstractRecordHandler {
 		private int inputFieldIndex;
 		private int comparator;
 		private String compareValue;
+		private List<String> compareValues; // when compareValue contains multiple values
 		 
 		IfCondition(int inputFieldIndex, String comparator, String compareValue) throws ConfigurationException {
 			this.inputFieldIndex = inputFieldIndex;
@@ -576,6 +669,13 @@ public class RecordTransformer extends AbstractRecordHandler {
 				throw new ConfigurationException("If function does not support [" + comparator + "]");				
 
 			this.compareValue = compareValue;			
+			if (compareValue.startsWith("{") && compareValue.endsWith("}")) { 
+				compareValues = new ArrayList<String>();
+				StringTokenizer st = new StringTokenizer(compareValue.substring(1, compareValue.length() - 1),"|");
+				while (st.hasMoreTokens()) {
+					compareValues.add(st.nextToken());
+				}
+			}
 		}
 		 
 		protected boolean conditionIsTrue(List inputFields) throws ConfigurationException {
@@ -584,18 +684,14 @@ public class RecordTransformer extends AbstractRecordHandler {
 			}
 			String val = (String)inputFields.get(inputFieldIndex);
 
-			if (compareValue.startsWith("{") && compareValue.endsWith("}")) { 
-				Vector v = new Vector();
-				StringTokenizer st = new StringTokenizer(compareValue.substring(1, compareValue.length() - 1),"|");
-				while (st.hasMoreTokens()) {
-					v.add(st.nextToken());
-				}
+			if (compareValues != null) { 
+				List<String> v = compareValues;
 				switch(comparator) {
 					case 1: // eq
 						return v.contains(val);
 					case 3: // sw
 						for (int i = 0; i < v.size(); i++) {
-							String  vs = (String)v.elementAt(i);
+							String  vs = v.get(i);
 							if (val.startsWith(vs)) {
 								return true;
 							}
@@ -603,7 +699,7 @@ public class RecordTransformer extends AbstractRecordHandler {
 						return false;
 					case 4: // ns
 						for (int i = 0; i < v.size(); i++) {
-							String  vs = (String)v.elementAt(i);
+							String  vs = v.get(i);
 							if (val.startsWith(vs)) {
 								return false;
 							}
@@ -625,10 +721,6 @@ public class RecordTransformer extends AbstractRecordHandler {
 				}
 			}
 		}
-		
-		protected boolean isEndMarker(RecordTransformer.IOutputField function) {
-			return (function instanceof EndIfCondition);
-		}
 	}
 	
 	/**
@@ -685,6 +777,7 @@ public class RecordTransformer extends AbstractRecordHandler {
 	}
 	public void setOutputSeparator(String string) {
 		outputSeparator = string;
+		outputPlan = null;
 	}
 	public String getOutputSeparator() {
 		return outputSeparator;
@@ -1,5 +1,5 @@
 /*
-   Copyright 2013 Nationale-Nederlanden
+   Copyright 2013, 2016 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -23,12 +23,21 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import nl.nn.adapterframework.configuration.ConfigurationException;
 import nl.nn.adapterframework.configuration.ConfigurationWarnings;
 import nl.nn.adapterframework.core.IPipeLineSession;
+import nl.nn.adapterframework.core.PipeLineSessionBase;
 import nl.nn.adapterframework.core.PipeRunException;
 import nl.nn.adapterframework.core.PipeRunResult;
 import nl.nn.adapterframework.core.PipeStartException;
@@ -50,6 +59,11 @@ import org.apache.commons.lang.StringUtils;
  * <tr><td>{@link #setStoreOriginalBlock(boolean) storeOriginalBlock}</td><td>when set <code>true</code> the original block is stored under the session key originalBlock</td><td>false</td></tr>
  * <tr><td>{@link #setCloseInputstreamOnExit(boolean) closeInputstreamOnExit}</td><td>when set to <code>false</code>, the inputstream is not closed after it has been used</td><td>true</td></tr>
  * <tr><td>{@link #setCharset(String) charset}</td><td>characterset used for reading file or inputstream</td><td>UTF-8</td></tr>
+ * <tr><td>{@link #setRecordHandlerThreads(int) recordHandlerThreads}</td><td>when larger than 1, records are parsed and transformed by the recordHandlers in parallel by this number of threads. 
+ * 			Blocks and results are still handled one record at a time, in the order of the input. The recordHandlers are then called with a read-only copy of the session 
+ * 			as it was at the start of the transformation, so they do not see session keys that are changed during the transformation, like originalBlock</td><td>1</td></tr>
+ * <tr><td>{@link #setMaxCharactersInProgress(int) maxCharactersInProgress}</td><td>when <code>recordHandlerThreads</code> is larger than 1, the maximum total length of the records that are read, but of which the results are not handled yet. 
+ * 			Limits the memory used to keep the results in order</td><td>1000000</td></tr>
  * </table>
  * </p>
  * <table border="1">
@@ -79,6 +93,8 @@ public class StreamTransformerPipe extends FixedForwardPipe {
 	private boolean storeOriginalBlock=false;
 	private boolean closeInputstreamOnExit=true;
 	private String charset=Misc.DEFAULT_INPUT_STREAM_ENCODING;
+	private int recordHandlerThreads=1;
+	private int maxCharactersInProgress=1000000;
 
 	private IRecordHandlerManager initialManager=null;
 	private IResultHandler defaultHandler=null;
@@ -88,6 +104,8 @@ public class StreamTransformerPipe extends FixedForwardPipe {
 	
 	private IInputStreamReaderFactory readerFactory=new InputStreamReaderFactory();
 
+	private ExecutorService recordHandlerExecutor=null;
+
 	protected String getStreamId(Object input, IPipeLineSession session) throws PipeRunException {
 		return session.getMessageId();
 	}
@@ -142,6 +160,9 @@ public class StreamTransformerPipe extends FixedForwardPipe {
 		if (initialManager==null) {
 			throw new ConfigurationException(getLogPrefix(null)+"no initial manager specified");
 		}
+		if (getRecordHandlerThreads()>1 && getMaxCharactersInProgress()<=0) {
+			throw new ConfigurationException(getLogPrefix(null)+"maxCharactersInProgress must be larger than 0");
+		}
 		for (Iterator it = registeredManagers.keySet().iterator(); it.hasNext();) {
 			String managerName = (String)it.next();
 			IRecordHandlerManager manager = getManager(managerName);
@@ -180,9 +201,25 @@ public class StreamTransformerPipe extends FixedForwardPipe {
 				throw new PipeStartException(getLogPrefix(null)+"cannot start resulthandler ["+resultHandlerName+"]", e);
 			}
 		}
+		if (getRecordHandlerThreads()>1) {
+			final String threadNamePrefix=getName()+"-recordHandler-";
+			recordHandlerExecutor=Executors.newFixedThreadPool(getRecordHandlerThreads(), new ThreadFactory() {
+				private AtomicInteger count = new AtomicInteger();
+
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, threadNamePrefix+count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
 	}
 	public void stop() {
 		super.stop();
+		if (recordHandlerExecutor!=null) {
+			recordHandlerExecutor.shutdownNow();
+			recordHandlerExecutor=null;
+		}
 		for (Iterator it = registeredRecordHandlers.keySet().iterator(); it.hasNext();) {
 			String recordHandlerName = (String)it.next();
 			IRecordHandler handler = getRecordHandler(recordHandlerName);
@@ -433,19 +470,113 @@ public class StreamTransformerPipe extends FixedForwardPipe {
 	}
 
 
+	/*
+	 * Line read from the input, together with the flow that handles it and, once the
+	 * recordHandler of the flow has been applied, the parsed record and the result.
+	 */
+	private class Record implements Callable<Record> {
+		private int linenumber;
+		private String rawRecord;
+		private IRecordHandlerManager manager;
+		private RecordHandlingFlow flow;
+		private IPipeLineSession session;
+		private List parsedRecord;
+		private Object result;
+		private Future<Record> future;
+
+		Record(int linenumber, String rawRecord, IRecordHandlerManager manager, RecordHandlingFlow flow, IPipeLineSession session) {
+			this.linenumber=linenumber;
+			this.rawRecord=rawRecord;
+			this.manager=manager;
+			this.flow=flow;
+			this.session=session;
+		}
+
+		void handle(ParameterResolutionContext prc) throws Exception {
+			IRecordHandler curHandler = flow.getRecordHandler();
+			parsedRecord = curHandler.parse(session, rawRecord);
+			result = curHandler.handleRecord(session, parsedRecord, prc);
+		}
+
+		public Record call() throws Exception {
+			handle(new ParameterResolutionContext("", session));
+			return this;
+		}
+
+		/*
+		 * Applies the recordHandler, or waits for the result when it is applied in parallel.
+		 */
+		void awaitHandled(ParameterResolutionContext prc) throws Exception {
+			if (future==null) {
+				handle(prc);
+			} else {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					Throwable cause=e.getCause();
+					if (cause instanceof Exception) {
+						throw (Exception)cause;
+					}
+					throw e;
+				}
+			}
+		}
+	}
+
+	/*
+	 * Copy of the session for the recordHandlers that run in parallel, as the session itself is not thread safe
+	 * and is changed by the thread that handles the results.
+	 */
+	private static class ReadOnlySession extends PipeLineSessionBase {
+
+		ReadOnlySession(Map session) {
+			super(session);
+		}
+
+		public Object put(Object key, Object value) {
+			throw new UnsupportedOperationException("session is read-only for recordHandlers that run in parallel");
+		}
+
+		public void putAll(Map map) {
+			throw new UnsupportedOperationException("session is read-only for recordHandlers that run in parallel");
+		}
+
+		public Object remove(Object key) {
+			throw new UnsupportedOperationException("session is read-only for recordHandlers that run in parallel");
+		}
+
+		public void clear() {
+			throw new UnsupportedOperationException("session is read-only for recordHandlers that run in parallel");
+		}
+	}
+
+	/*
+	 * State of the transformation that is carried from record to record.
+	 */
+	private class TransformationState {
+		private int counter = 0;
+		private StringBuffer sb = null;
+		private List prevParsedRecord = null; 
+		private IRecordHandler prevHandler = null;
+		private int linenumber = 0;
+	}
+
 	/*
 	 * Read all lines from the reader, treat every line as a record and transform 
 	 * it using the registered managers, record- and result handlers.
+	 * When recordHandlers are applied in parallel, the records read are kept in 
+	 * order in a queue until their results are handled. 
 	 */	
 	private Object transform(String streamId, BufferedReader reader, IPipeLineSession session, ParameterResolutionContext prc) throws PipeRunException {
 		String rawRecord = null;
 		int linenumber = 0;
-		int counter = 0;
-		StringBuffer sb = null;
-		List prevParsedRecord = null; 
-		IRecordHandler prevHandler = null;
+		TransformationState state = new TransformationState();
+		ExecutorService executor = recordHandlerExecutor;
+		LinkedList<Record> inProgress = new LinkedList<Record>();
+		int charactersInProgress = 0;
 
 		IRecordHandlerManager currentManager = initialManager.getRecordFactoryUsingFilename(session, streamId);
+		IPipeLineSession recordHandlerSession = executor==null ? session : new ReadOnlySession(session);
 		try {
 			openDocument(session,streamId, prc);
 			while ((rawRecord = reader.readLine()) != null) {
@@ -453,6 +584,7 @@ public class StreamTransformerPipe extends FixedForwardPipe {
 					throw new InterruptedException();
 				}
 				linenumber++; // remember linenumber for exception handler
+				state.linenumber = linenumber;
 				if (StringUtils.isEmpty(rawRecord)) {
 					continue; // ignore empty line
 				}
@@ -465,91 +597,128 @@ public class StreamTransformerPipe extends FixedForwardPipe {
 				} else {
 					//log.debug("flow ["+flow.getRecordKey()+"] openBlockBeforeLine ["+flow.getOpenBlockBeforeLine()+"]");
 				}
-				IResultHandler resultHandler = flow.getResultHandler();
-				closeBlock(session, resultHandler, streamId, flow, flow.getCloseBlockBeforeLine(),"closeBlockBeforeLine of flow ["+flow.getRecordKey()+"]", prc);
-				String obbl = null;
-				if (flow.getOpenBlockBeforeLineNumber()>0) {
-					if (counter%flow.getOpenBlockBeforeLineNumber()==0) {
-						obbl = flow.getOpenBlockBeforeLine();
-					}
+				Record record = new Record(linenumber, rawRecord, currentManager, flow, recordHandlerSession);
+				if (executor==null) {
+					handleRecord(streamId, record, state, session, prc);
 				} else {
-					obbl = flow.getOpenBlockBeforeLine();				
-				}
-				openBlock(session, resultHandler, streamId, flow, obbl, prc);
-
-				if (isStoreOriginalBlock()) {
-					if (resultHandler instanceof ResultBlock2Sender) {
-						// If session does not contain a previous block, it never existed, or has been removed by closing the block.
-						// In both cases a new block has just started
-						if (!session.containsKey(originalBlockKey)) {
-							sb = new StringBuffer();
-						}
-						if (sb.length()>0) {
-							sb.append(System.getProperty("line.separator"));
-						}
-						sb.append(rawRecord);
-						// already put the block in the session, also if the block is not yet complete.
-						session.put(originalBlockKey, sb.toString());
+					if (flow.getRecordHandler() != null) {
+						record.future = executor.submit(record);
 					}
-				}
-
-				IRecordHandler curHandler = flow.getRecordHandler(); 
-				if (curHandler != null) {
-					log.debug("manager ["+currentManager.getName()+"] key ["+flow.getRecordKey()+"] record handler ["+curHandler.getName()+"] line ["+linenumber+"]: "+rawRecord);
-					// there is a record handler, so transform the line
-					List parsedRecord = curHandler.parse(session, rawRecord);
-					Object result = curHandler.handleRecord(session, parsedRecord, prc);
-					counter++;
-				
-					// if there is a result handler, write the transformed result
-					if (result != null && resultHandler != null) {
-						boolean recordTypeChanged = curHandler.isNewRecordType(session, curHandler.equals(prevHandler), prevParsedRecord, parsedRecord);
-						log.debug("manager ["+currentManager.getName()+"] key ["+flow.getRecordKey()+"] record handler ["+curHandler.getName()+"] recordTypeChanged ["+recordTypeChanged+"]");
-						if (recordTypeChanged && prevHandler!=null && resultHandler.isBlockByRecordType()) {
-							String prevRecordType = prevHandler.getRecordType(prevParsedRecord);
-							log.debug("record handler ["+prevHandler.getName()+"] result handler ["+resultHandler.getName()+"] closing block for record type ["+prevRecordType+"]");
-							closeBlock(session, resultHandler, streamId, flow, prevRecordType, "record type change", prc);
-						}
-						// the hasPrefix() call allows users use a suffix without a prefix. 
-						// The suffix is then only written at the end of the file.
-						if (recordTypeChanged && resultHandler.hasPrefix()) {   
-							if (prevHandler != null)  {
-								resultHandler.closeRecordType(session, streamId, prc);
-							}
-							resultHandler.openRecordType(session, streamId, prc);
-						}
-						if (recordTypeChanged && resultHandler.isBlockByRecordType()) {
-							String recordType = curHandler.getRecordType(parsedRecord);
-							log.debug("record handler ["+curHandler.getName()+"] result handler ["+resultHandler.getName()+"] opening block ["+recordType+"]");
-							openBlock(session, resultHandler, streamId, flow, recordType, prc);
-						}
-						resultHandler.handleResult(session, streamId, flow.getRecordKey(), result, prc);
+					inProgress.add(record);
+					charactersInProgress += rawRecord.length();
+					while (charactersInProgress > getMaxCharactersInProgress()) {
+						Record oldest = inProgress.removeFirst();
+						charactersInProgress -= oldest.rawRecord.length();
+						handleRecord(streamId, oldest, state, session, prc);
 					}
-					prevParsedRecord = parsedRecord;
-					prevHandler = curHandler;
-				} else {
-					log.debug("manager ["+currentManager.getName()+"] key ["+flow.getRecordKey()+"], no record handler: "+rawRecord);
 				}
 				
-				closeBlock(session, resultHandler, streamId, flow, flow.getCloseBlockAfterLine(),"closeBlockAfterLine of flow ["+flow.getRecordKey()+"]", prc);
-				openBlock(session, resultHandler, streamId, flow, flow.getOpenBlockAfterLine(), prc);
-				
 				// get the manager for the next record
 				currentManager = flow.getNextRecordHandlerManager();
 			}
+			while (!inProgress.isEmpty()) {
+				handleRecord(streamId, inProgress.removeFirst(), state, session, prc);
+			}
 			return finalizeResult(session, streamId, false, prc);
 		} catch(Exception e) {
+			for (Record record:inProgress) {
+				if (record.future != null) {
+					record.future.cancel(true);
+				}
+			}
 			try {
 				finalizeResult(session, streamId, true, prc);
 		 	} catch(Throwable t) {
 				log.error("Unexpected error during finalizeResult of [" + streamId + "]", t);
 			}
-			throw new PipeRunException(this, "Error while transforming [" + streamId + "] at or after line [" + linenumber+"]", e);		
+			throw new PipeRunException(this, "Error while transforming [" + streamId + "] at or after line [" + state.linenumber+"]", e);		
 		} finally {
 			closeDocument(session,streamId, prc);
 		}
 	}
 
+	/*
+	 * Handles the blocks and the result of a single record. Records must be handled in the order they were read.
+	 */
+	private void handleRecord(String streamId, Record record, TransformationState state, IPipeLineSession session, ParameterResolutionContext prc) throws Exception {
+		IRecordHandlerManager currentManager = record.manager;
+		RecordHandlingFlow flow = record.flow;
+		String rawRecord = record.rawRecord;
+		state.linenumber = record.linenumber;
+
+		IResultHandler resultHandler = flow.getResultHandler();
+		closeBlock(session, resultHandler, streamId, flow, flow.getCloseBlockBeforeLine(),"closeBlockBeforeLine of flow ["+flow.getRecordKey()+"]", prc);
+		String obbl = null;
+		if (flow.getOpenBlockBeforeLineNumber()>0) {
+			if (state.counter%flow.getOpenBlockBeforeLineNumber()==0) {
+				obbl = flow.getOpenBlockBeforeLine();
+			}
+		} else {
+			obbl = flow.getOpenBlockBeforeLine();				
+		}
+		openBlock(session, resultHandler, streamId, flow, obbl, prc);
+
+		if (isStoreOriginalBlock()) {
+			if (resultHandler instanceof ResultBlock2Sender) {
+				// If session does not contain a previous block, it never existed, or has been removed by closing the block.
+				// In both cases a new block has just started
+				if (!session.containsKey(originalBlockKey)) {
+					state.sb = new StringBuffer();
+				}
+				if (state.sb.length()>0) {
+					state.sb.append(System.getProperty("line.separator"));
+				}
+				state.sb.append(rawRecord);
+				// already put the block in the session, also if the block is not yet complete.
+				session.put(originalBlockKey, state.sb.toString());
+			}
+		}
+
+		IRecordHandler curHandler = flow.getRecordHandler(); 
+		if (curHandler != null) {
+			log.debug("manager ["+currentManager.getName()+"] key ["+flow.getRecordKey()+"] record handler ["+curHandler.getName()+"] line ["+record.linenumber+"]: "+rawRecord);
+			// there is a record handler, so transform the line
+			record.awaitHandled(prc);
+			List parsedRecord = record.parsedRecord;
+			Object result = record.result;
+			state.counter++;
+		
+			// if there is a result handler, write the transformed result
+			if (result != null && resultHandler != null) {
+				IRecordHandler prevHandler = state.prevHandler;
+				List prevParsedRecord = state.prevParsedRecord;
+				boolean recordTypeChanged = curHandler.isNewRecordType(session, curHandler.equals(prevHandler), prevParsedRecord, parsedRecord);
+				log.debug("manager ["+currentManager.getName()+"] key ["+flow.getRecordKey()+"] record handler ["+curHandler.getName()+"] recordTypeChanged ["+recordTypeChanged+"]");
+				if (recordTypeChanged && prevHandler!=null && resultHandler.isBlockByRecordType()) {
+					String prevRecordType = prevHandler.getRecordType(prevParsedRecord);
+					log.debug("record handler ["+prevHandler.getName()+"] result handler ["+resultHandler.getName()+"] closing block for record type ["+prevRecordType+"]");
+					closeBlock(session, resultHandler, streamId, flow, prevRecordType, "record type change", prc);
+				}
+				// the hasPrefix() call allows users use a suffix without a prefix. 
+				// The suffix is then only written at the end of the file.
+				if (recordTypeChanged && resultHandler.hasPrefix()) {   
+					if (prevHandler != null)  {
+						resultHandler.closeRecordType(session, streamId, prc);
+					}
+					resultHandler.openRecordType(session, streamId, prc);
+				}
+				if (recordTypeChanged && resultHandler.isBlockByRecordType()) {
+					String recordType = curHandler.getRecordType(parsedRecord);
+					log.debug("record handler ["+curHandler.getName()+"] result handler ["+resultHandler.getName()+"] opening block ["+recordType+"]");
+					openBlock(session, resultHandler, streamId, flow, recordType, prc);
+				}
+				resultHandler.handleResult(session, streamId, flow.getRecordKey(), result, prc);
+			}
+			state.prevParsedRecord = parsedRecord;
+			state.prevHandler = curHandler;
+		} else {
+			log.debug("manager ["+currentManager.getName()+"] key ["+flow.getRecordKey()+"], no record handler: "+rawRecord);
+		}
+		
+		closeBlock(session, resultHandler, streamId, flow, flow.getCloseBlockAfterLine(),"closeBlockAfterLine of flow ["+flow.getRecordKey()+"]", prc);
+		openBlock(session, resultHandler, streamId, flow, flow.getOpenBlockAfterLine(), prc);
+	}
+
 	private void openDocument(IPipeLineSession session, String inputFilename, ParameterResolutionContext prc) throws Exception {
 		for (Iterator it = registeredResultHandlers.values().iterator(); it.hasNext();) {
 			IResultHandler resultHandler = (IResultHandler)it.next();
@@ -604,6 +773,20 @@ public class StreamTransformerPipe extends FixedForwardPipe {
 		return charset;
 	}
 
+	public void setRecordHandlerThreads(int i) {
+		recordHandlerThreads = i;
+	}
+	public int getRecordHandlerThreads() {
+		return recordHandlerThreads;
+	}
+
+	public void setMaxCharactersInProgress(int i) {
+		maxCharactersInProgress = i;
+	}
+	public int getMaxCharactersInProgress() {
+		return maxCharactersInProgress;
+	}
+
 	public void setReaderFactory(IInputStreamReaderFactory factory) {
 		readerFactory = factory;
 	}
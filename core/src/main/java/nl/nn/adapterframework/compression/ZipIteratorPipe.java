@@ -19,6 +19,7 @@ import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Map;
@@ -48,6 +49,8 @@ import org.apache.commons.lang.StringUtils;
  * </ul>
  * The message sent each time to the sender is the filename of the entry found in the archive. 
  * The contents of the archive is available as a Stream or a String in a session variable. 
+ * The stream is bounded to the current entry: it returns end-of-file at the end of the entry, and closing it only skips the
+ * rest of the entry. Only with streamingContents=false the contents of each entry are read into memory.
  *
  * <p><b>Configuration </b><i>(where deviating from IteratingPipe)</i><b>:</b>
  * <table border="1">
@@ -88,6 +91,21 @@ public class ZipIteratorPipe extends IteratingPipe {
 			}
 	}
 	
+	/**
+	 * Stream to the contents of a single zip entry. Closing it skips to the end of the entry, instead of closing the 
+	 * complete archive, so a sender that closes its input does not end the iteration.
+	 */
+	private class ZipEntryInputStream extends FilterInputStream {
+
+		ZipEntryInputStream(ZipInputStream source) {
+			super(source);
+		}
+
+		public void close() throws IOException {
+			((ZipInputStream)in).closeEntry();
+		}
+	}
+
 	private class ZipStreamIterator implements IDataIterator {
 		
 		ZipInputStream source; 
@@ -136,7 +154,7 @@ public class ZipIteratorPipe extends IteratingPipe {
 				String filename=current.getName();
 				if (isStreamingContents()) {
 					if (log.isDebugEnabled()) log.debug(getLogPrefix(session)+"storing stream to contents of zip entries under session key ["+getContentsSessionKey()+"]");
-					session.put(getContentsSessionKey(),source); // do this each time, to allow reuse of the session key when an item is optionally encoded
+					session.put(getContentsSessionKey(),new ZipEntryInputStream(source)); // do this each time, to allow reuse of the session key when an item is optionally encoded
 				} else { 
 					if (log.isDebugEnabled()) log.debug(getLogPrefix(session)+"storing contents of zip entry under session key ["+getContentsSessionKey()+"]");
 					String content;
@@ -15,12 +15,18 @@
 */
 package nl.nn.adapterframework.compression;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
-
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -34,12 +40,19 @@ import org.apache.log4j.Logger;
 
 /**
  * Helper class to create Zip archives.
+ * <p>
+ * Entries written by {@link #writeEntry(String, Object, boolean, String) writeEntry()} are deflated while streaming; 
+ * their crc-32 and sizes are computed on the fly and written in a data descriptor after the entry data, so the
+ * contents are never held in memory completely.
  * 
  * @author  Gerrit van Brakel
  * @since   4.9.10
  */
 public class ZipWriter {
 	protected Logger log = LogUtil.getLogger(this);
+
+	public static final int BUFFER_SIZE=64*1024;
+	public static final int SPOOL_THRESHOLD=1024*1024;
 	
 	private ZipOutputStream zipoutput;
 	private boolean entryOpen=false;
@@ -115,6 +128,8 @@ public class ZipWriter {
 						is.close();
 					}
 				}
+			} else if (contents instanceof File) {
+				Misc.fileToStream(((File)contents).getPath(),getZipoutput());
 			} else {
 				getZipoutput().write(contents.toString().getBytes(charset));
 			}
@@ -124,54 +139,115 @@ public class ZipWriter {
 		closeEntry();
 	}
 
+	/**
+	 * Writes an entry with method STORED, i.e. with crc-32 and sizes in the local file header. 
+	 * The contents are read at most once into memory: byte arrays and strings are used as is, files are read twice 
+	 * directly from disk, and streams are spooled to a temporary file when they are larger than {@link #SPOOL_THRESHOLD}.
+	 */
 	public void writeEntryWithCompletedHeader(String filename, Object contents, boolean close, String charset) throws CompressionException, IOException {
 		if (StringUtils.isEmpty(filename)) {
 			throw new CompressionException("filename cannot be empty");		
 		}
-		
-		byte[] contentBytes = null;
-		BufferedInputStream bis = null;
-		long size = 0;
-		if (contents!=null) {
-			if (contents instanceof byte[]) {
-				contentBytes = (byte[])contents;
-			} else if (contents instanceof InputStream) {
-				contentBytes = Misc.streamToBytes((InputStream)contents);
-			} else {
-				contentBytes = contents.toString().getBytes(charset);
-			}
-			bis = new BufferedInputStream(new ByteArrayInputStream(contentBytes));
-			size = bis.available();
-		} else { 
+		closeEntry();
+		if (contents==null) {
 			log.warn("contents of zip entry ["+filename+"] is null");
-		}
-		
-		int bytesRead;
-		byte[] buffer = new byte[1024];
-		CRC32 crc = new CRC32();
-		crc.reset();
-		if (bis!=null) {
-			while ((bytesRead = bis.read(buffer)) != -1) {
-				crc.update(buffer, 0, bytesRead);
+			putStoredEntry(filename, 0, new CRC32().getValue());
+		} else if (contents instanceof byte[]) {
+			writeStoredEntry(filename, (byte[])contents, ((byte[])contents).length);
+		} else if (contents instanceof File) {
+			writeStoredEntry(filename, (File)contents);
+		} else if (contents instanceof InputStream) {
+			InputStream is = (InputStream)contents;
+			try {
+				writeStoredEntry(filename, is);
+			} finally {
+				if (close) {
+					is.close();
+				}
 			}
-			bis.close();
-		}
-		if (contents!=null) {
-			bis = new BufferedInputStream(new ByteArrayInputStream(contentBytes));
+		} else {
+			byte[] contentBytes = contents.toString().getBytes(charset);
+			writeStoredEntry(filename, contentBytes, contentBytes.length);
 		}
+	}
+
+	private void putStoredEntry(String filename, long size, long crc) throws IOException {
 		ZipEntry entry = new ZipEntry(filename);
 		entry.setMethod(ZipEntry.STORED);
 		entry.setCompressedSize(size);
 		entry.setSize(size);
-		entry.setCrc(crc.getValue());
+		entry.setCrc(crc);
 		getZipoutput().putNextEntry(entry);
-		if (bis!=null) {
-			while ((bytesRead = bis.read(buffer)) != -1) {
-				getZipoutput().write(buffer, 0, bytesRead);
+	}
+
+	private void writeStoredEntry(String filename, byte[] contents, int length) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(contents, 0, length);
+		putStoredEntry(filename, length, crc.getValue());
+		getZipoutput().write(contents, 0, length);
+		getZipoutput().closeEntry();
+	}
+
+	private void writeStoredEntry(String filename, File file) throws IOException {
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			FileChannel channel = fis.getChannel();
+			long size = channel.size();
+			CRC32 crc = new CRC32();
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			while (channel.read(buffer)>0) {
+				crc.update(buffer.array(), 0, buffer.position());
+				buffer.clear();
+			}
+			putStoredEntry(filename, size, crc.getValue());
+			WritableByteChannel target = Channels.newChannel(getZipoutput());
+			long position = 0;
+			while (position<size) {
+				position += channel.transferTo(position, size-position, target);
+			}
+			getZipoutput().closeEntry();
+		} finally {
+			fis.close();
+		}
+	}
+
+	private void writeStoredEntry(String filename, InputStream is) throws IOException {
+		ByteArrayOutputStream memorySpool = new ByteArrayOutputStream();
+		File fileSpool = null;
+		OutputStream spool = memorySpool;
+		try {
+			CRC32 crc = new CRC32();
+			long size = 0;
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int bytesRead;
+			while ((bytesRead = is.read(buffer)) != -1) {
+				crc.update(buffer, 0, bytesRead);
+				size += bytesRead;
+				if (fileSpool==null && size>SPOOL_THRESHOLD) {
+					fileSpool = File.createTempFile("zipentry", ".tmp");
+					if (log.isDebugEnabled()) log.debug("spooling contents of zip entry ["+filename+"] to ["+fileSpool.getPath()+"]");
+					spool = new BufferedOutputStream(new FileOutputStream(fileSpool));
+					memorySpool.writeTo(spool);
+					memorySpool = null;
+				}
+				spool.write(buffer, 0, bytesRead);
+			}
+			spool.close();
+			putStoredEntry(filename, size, crc.getValue());
+			if (fileSpool==null) {
+				memorySpool.writeTo(getZipoutput());
+			} else {
+				Misc.fileToStream(fileSpool.getPath(), getZipoutput());
+			}
+			getZipoutput().closeEntry();
+		} finally {
+			if (fileSpool!=null) {
+				spool.close();
+				if (!fileSpool.delete()) {
+					log.warn("could not delete spool file ["+fileSpool.getPath()+"]");
+				}
 			}
-			bis.close();
 		}
-		getZipoutput().closeEntry();
 	}
 		
 	public String getLogPrefix(String handlekey) {
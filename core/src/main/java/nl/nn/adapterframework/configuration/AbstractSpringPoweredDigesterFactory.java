@@ -18,13 +18,11 @@ package nl.nn.adapterframework.configuration;
 import nl.nn.adapterframework.core.INamedObject;
 import nl.nn.adapterframework.util.LogUtil;
 
-import java.beans.PropertyDescriptor;
 import java.lang.reflect.Method;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 
-import org.apache.commons.beanutils.PropertyUtils;
 import org.apache.commons.digester.AbstractObjectCreationFactory;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
@@ -173,57 +171,54 @@ public abstract class AbstractSpringPoweredDigesterFactory extends AbstractObjec
 
 	protected void checkAttribute(Object currObj, String beanName,
 			String attributeName, String value, Map<String, String> attrs) throws Exception {
-		PropertyDescriptor pd = PropertyUtils.getPropertyDescriptor(currObj, attributeName);
-		if (pd!=null) {
-			Method rm = PropertyUtils.getReadMethod(pd);
-			if (rm!=null) {
-				try {
-					Object dv = rm.invoke(currObj, new Object[0]);
-					if (currObj instanceof HasSpecialDefaultValues) {
-						dv = ((HasSpecialDefaultValues)currObj).getSpecialDefaultValue(attributeName, dv, attrs);
-					}
-					if (dv!=null) {
-						if (dv instanceof String) {
-							if (value.equals(dv)) {
-								addSetToDefaultConfigWarning(currObj, beanName, attributeName, value);
-							}
+		Method rm = SetterPlan.getPlan(getDigester(), currObj.getClass()).getReadMethod(attributeName);
+		if (rm!=null) {
+			try {
+				Object dv = rm.invoke(currObj, new Object[0]);
+				if (currObj instanceof HasSpecialDefaultValues) {
+					dv = ((HasSpecialDefaultValues)currObj).getSpecialDefaultValue(attributeName, dv, attrs);
+				}
+				if (dv!=null) {
+					if (dv instanceof String) {
+						if (value.equals(dv)) {
+							addSetToDefaultConfigWarning(currObj, beanName, attributeName, value);
+						}
+					} else {
+						if (value.length()==0) {
+							addConfigWarning(currObj, beanName, "attribute ["+ attributeName+"] with type ["+dv.getClass().getName()+"] has no value");
 						} else {
-							if (value.length()==0) {
-								addConfigWarning(currObj, beanName, "attribute ["+ attributeName+"] with type ["+dv.getClass().getName()+"] has no value");
+							if (dv instanceof Boolean) {
+								if (Boolean.valueOf(value).equals(dv)) {
+									addSetToDefaultConfigWarning(currObj, beanName, attributeName, value);
+								}
 							} else {
-								if (dv instanceof Boolean) {
-									if (Boolean.valueOf(value).equals(dv)) {
-										addSetToDefaultConfigWarning(currObj, beanName, attributeName, value);
+								if (dv instanceof Integer) {
+									try {
+										if (Integer.valueOf(value).equals(dv)) {
+											addSetToDefaultConfigWarning(currObj, beanName, attributeName, value);
+										}
+									} catch (NumberFormatException e) {
+										addConfigWarning(currObj, beanName, "attribute ["+ attributeName+"] String ["+value+"] cannot be converted to Integer: "+e.getMessage());
 									}
 								} else {
-									if (dv instanceof Integer) {
+									if (dv instanceof Long) {
 										try {
-											if (Integer.valueOf(value).equals(dv)) {
+											if (Long.valueOf(value).equals(dv)) {
 												addSetToDefaultConfigWarning(currObj, beanName, attributeName, value);
 											}
 										} catch (NumberFormatException e) {
-											addConfigWarning(currObj, beanName, "attribute ["+ attributeName+"] String ["+value+"] cannot be converted to Integer: "+e.getMessage());
+											addConfigWarning(currObj, beanName, "attribute ["+ attributeName+"] String ["+value+"] cannot be converted to Long: "+e.getMessage());
 										}
 									} else {
-										if (dv instanceof Long) {
-											try {
-												if (Long.valueOf(value).equals(dv)) {
-													addSetToDefaultConfigWarning(currObj, beanName, attributeName, value);
-												}
-											} catch (NumberFormatException e) {
-												addConfigWarning(currObj, beanName, "attribute ["+ attributeName+"] String ["+value+"] cannot be converted to Long: "+e.getMessage());
-											}
-										} else {
-											log.warn("Unknown returning type [" + rm.getReturnType() + "] for getter method [" + rm.getName() + "], object [" + getObjectName(currObj, beanName) + "]");
-										}
+										log.warn("Unknown returning type [" + rm.getReturnType() + "] for getter method [" + rm.getName() + "], object [" + getObjectName(currObj, beanName) + "]");
 									}
 								}
 							}
 						}
 					}
-				} catch (Throwable t) {
-					log.warn("Error on getting default for object [" + getObjectName(currObj, beanName) + "] with method [" + rm.getName() + "]", t);
 				}
+			} catch (Throwable t) {
+				log.warn("Error on getting default for object [" + getObjectName(currObj, beanName) + "] with method [" + rm.getName() + "]", t);
 			}
 		}
 	}
@@ -0,0 +1,250 @@
+/*
+   Copyright 2016 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.configuration;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nl.nn.adapterframework.core.Adapter;
+import nl.nn.adapterframework.core.IAdapter;
+import nl.nn.adapterframework.util.LogUtil;
+import nl.nn.adapterframework.util.MessageKeeperMessage;
+import nl.nn.adapterframework.util.RunStateEnum;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Starts a set of adapters on a bounded pool of threads, respecting the order declared
+ * with the <code>dependsOn</code> attribute of the adapters.
+ * <p>
+ * An adapter is handed to the pool as soon as all adapters it depends on have finished
+ * starting. When one of them did not reach the state STARTED, the adapter is not started
+ * and a warning is added to its message keeper. Dependencies on adapters that are not part
+ * of the set are ignored, as are dependencies that form a cycle: when no adapter can be
+ * started anymore while some are still waiting, the first waiting adapter is started regardless,
+ * after which the adapters depending on it follow in order.
+ * </p>
+ * <p>
+ * {@link #startAdapters(Collection)} returns immediately, like {@link IAdapter#startRunning()}
+ * does; the pool is shut down when all adapters have been handled.
+ * </p>
+ * 
+ * @since   7.0
+ */
+public class AdapterStarter {
+	protected Logger log = LogUtil.getLogger(this);
+
+	private String name;
+	private int threads;
+
+	private ExecutorService pool;
+	private Map<String, IAdapter> adapters = new LinkedHashMap<String, IAdapter>();
+	private Map<String, Set<String>> pendingDependencies = new HashMap<String, Set<String>>();
+	private Map<String, List<String>> dependents = new HashMap<String, List<String>>();
+	private Set<String> failed = new HashSet<String>();
+	private int running = 0;
+	private long startTime;
+
+	public AdapterStarter(String name, int threads) {
+		this.name = name;
+		this.threads = threads < 1 ? 1 : threads;
+	}
+
+	public synchronized void startAdapters(Collection<IAdapter> adaptersToStart) {
+		startTime = System.currentTimeMillis();
+		for (IAdapter adapter : adaptersToStart) {
+			adapters.put(adapter.getName(), adapter);
+		}
+		for (IAdapter adapter : adaptersToStart) {
+			Set<String> dependencies = new HashSet<String>();
+			if (adapter instanceof Adapter) {
+				String dependsOn = ((Adapter)adapter).getDependsOn();
+				if (StringUtils.isNotEmpty(dependsOn)) {
+					for (String dependency : dependsOn.split("\\s*,\\s*")) {
+						if (dependency.length() == 0 || dependency.equals(adapter.getName())) {
+							continue;
+						}
+						if (adapters.containsKey(dependency)) {
+							dependencies.add(dependency);
+							List<String> list = dependents.get(dependency);
+							if (list == null) {
+								list = new ArrayList<String>();
+								dependents.put(dependency, list);
+							}
+							list.add(adapter.getName());
+						} else {
+							log.warn("adapter [" + adapter.getName() + "] depends on adapter [" + dependency + "] that is not started with configuration [" + name + "], ignoring dependency");
+						}
+					}
+				}
+			}
+			pendingDependencies.put(adapter.getName(), dependencies);
+		}
+		log.info("starting [" + adapters.size() + "] adapters of [" + name + "] using [" + threads + "] threads");
+		pool = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, adapters.size())), new StarterThreadFactory());
+		scheduleReadyAdapters();
+	}
+
+	/**
+	 * Waits until all adapters have been handled, i.e. have been started, failed to start or
+	 * were skipped, and returns <code>false</code> when the timeout elapsed before that.
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		ExecutorService pool;
+		synchronized (this) {
+			pool = this.pool;
+		}
+		return pool == null || pool.awaitTermination(timeout, unit);
+	}
+
+	/**
+	 * Hands all adapters without pending dependencies to the pool. Must be called while holding the lock.
+	 */
+	private void scheduleReadyAdapters() {
+		boolean scheduled = true;
+		while (scheduled) {
+			scheduled = false;
+			List<String> ready = new ArrayList<String>();
+			for (Map.Entry<String, Set<String>> entry : pendingDependencies.entrySet()) {
+				if (entry.getValue().isEmpty()) {
+					ready.add(entry.getKey());
+				}
+			}
+			if (ready.isEmpty() && running == 0 && !pendingDependencies.isEmpty()) {
+				for (String adapterName : adapters.keySet()) {
+					if (pendingDependencies.containsKey(adapterName)) {
+						log.warn("adapters " + pendingDependencies.keySet() + " of [" + name + "] have circular dependencies, starting adapter [" + adapterName + "] regardless of its dependencies " + pendingDependencies.get(adapterName));
+						ready.add(adapterName);
+						break;
+					}
+				}
+			}
+			for (String adapterName : ready) {
+				pendingDependencies.remove(adapterName);
+				schedule(adapters.get(adapterName));
+				scheduled = true;
+			}
+		}
+		if (pendingDependencies.isEmpty() && running == 0 && !pool.isShutdown()) {
+			pool.shutdown();
+			log.info("started adapters of [" + name + "] in " + (System.currentTimeMillis() - startTime) + " ms");
+		}
+	}
+
+	private void schedule(final IAdapter adapter) {
+		running++;
+		Executor executor = new Executor() {
+			@Override
+			public void execute(final Runnable command) {
+				pool.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							command.run();
+						} finally {
+							finished(adapter);
+						}
+					}
+				});
+			}
+		};
+		try {
+			for (String dependency : getDependencies(adapter)) {
+				if (failed.contains(dependency)) {
+					String msg = "Adapter [" + adapter.getName() + "] not started, as adapter [" + dependency + "] it depends on did not start";
+					log.warn(msg);
+					adapter.getMessageKeeper().add(msg, MessageKeeperMessage.WARN_LEVEL);
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							// nothing to start, only signal completion
+						}
+					});
+					return;
+				}
+			}
+			if (adapter instanceof Adapter) {
+				((Adapter)adapter).startRunning(executor);
+			} else {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						adapter.startRunning();
+					}
+				});
+			}
+		} catch (RuntimeException e) {
+			log.error("could not start adapter [" + adapter.getName() + "]", e);
+			release(adapter);
+		}
+	}
+
+	private List<String> getDependencies(IAdapter adapter) {
+		List<String> result = new ArrayList<String>();
+		for (Map.Entry<String, List<String>> entry : dependents.entrySet()) {
+			if (entry.getValue().contains(adapter.getName())) {
+				result.add(entry.getKey());
+			}
+		}
+		return result;
+	}
+
+	private synchronized void finished(IAdapter adapter) {
+		release(adapter);
+		scheduleReadyAdapters();
+	}
+
+	private void release(IAdapter adapter) {
+		running--;
+		String adapterName = adapter.getName();
+		if (!RunStateEnum.STARTED.equals(adapter.getRunState())) {
+			failed.add(adapterName);
+		}
+		List<String> list = dependents.get(adapterName);
+		if (list != null) {
+			for (String dependent : list) {
+				Set<String> dependencies = pendingDependencies.get(dependent);
+				if (dependencies != null) {
+					dependencies.remove(adapterName);
+				}
+			}
+		}
+	}
+
+	private class StarterThreadFactory implements ThreadFactory {
+		private AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "AdapterStarter-" + name + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
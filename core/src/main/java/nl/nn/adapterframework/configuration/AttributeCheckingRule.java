@@ -15,13 +15,11 @@
 */
 package nl.nn.adapterframework.configuration;
 
-import java.beans.PropertyDescriptor;
 import java.lang.reflect.Method;
 
 import nl.nn.adapterframework.core.INamedObject;
 import nl.nn.adapterframework.util.LogUtil;
 
-import org.apache.commons.beanutils.PropertyUtils;
 import org.apache.commons.digester.Rule;
 import org.apache.log4j.Logger;
 import org.xml.sax.Attributes;
@@ -58,11 +56,7 @@ public class AttributeCheckingRule extends Rule {
 //				if (log.isDebugEnabled()) {
 //					log.debug(getObjectName(top)+" checking for setter for attribute ["+name+"]");
 //				}
-				PropertyDescriptor pd = PropertyUtils.getPropertyDescriptor(top, name);
-				Method m=null;
-				if (pd!=null) {
-					m = PropertyUtils.getWriteMethod(pd);
-				}
+				Method m = SetterPlan.getPlan(digester, top.getClass()).getWriteMethod(name);
 				if (m==null) {
 					Locator loc = digester.getDocumentLocator();
 					String msg ="line "+loc.getLineNumber()+", col "+loc.getColumnNumber()+": "+getObjectName(top)+" does not have an attribute ["+name+"] to set to value ["+attributes.getValue(name)+"]";
@@ -0,0 +1,45 @@
+/*
+   Copyright 2016 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.configuration;
+
+import org.apache.commons.digester.Rule;
+import org.xml.sax.Attributes;
+
+/**
+ * Replacement for the digester's <code>SetPropertiesRule</code> that sets the attributes of an
+ * element on the object on top of the stack using the {@link SetterPlan} of its class.
+ * Attributes without a corresponding setter are ignored, like the <code>SetPropertiesRule</code>
+ * does; {@link AttributeCheckingRule} reports them.
+ * 
+ * @since   7.0
+ */
+public class CachedSetPropertiesRule extends Rule {
+
+	public void begin(String namespace, String name, Attributes attributes) throws Exception {
+		Object top = digester.peek();
+		if (top == null) {
+			return;
+		}
+		SetterPlan plan = SetterPlan.getPlan(digester, top.getClass());
+		for (int i = 0; i < attributes.getLength(); i++) {
+			String attributeName = attributes.getLocalName(i);
+			if ("".equals(attributeName)) {
+				attributeName = attributes.getQName(i);
+			}
+			plan.setProperty(top, attributeName, attributes.getValue(i));
+		}
+	}
+}
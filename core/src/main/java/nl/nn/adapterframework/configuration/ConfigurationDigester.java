@@ -19,12 +19,19 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
 import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.transform.Transformer;
 
@@ -36,6 +43,7 @@ import nl.nn.adapterframework.util.Misc;
 import nl.nn.adapterframework.util.StringResolver;
 import nl.nn.adapterframework.util.XmlUtils;
 
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.digester.Digester;
 import org.apache.commons.digester.Rule;
 import org.apache.commons.digester.xmlrules.FromXmlRuleSet;
@@ -87,6 +95,7 @@ public class ConfigurationDigester {
 	private static final String DIGESTER_RULES_DEFAULT = "digester-rules.xml";
 
 	private static final String CONFIGURATION_VALIDATION_KEY = "validate.configuration";
+	private static final String CONFIGURATION_CACHE_KEY = "configurations.digester.cache";
 
 	private static final String attributesGetter_xslt = "/xml/xsl/AttributesGetter.xsl";
 
@@ -94,6 +103,10 @@ public class ConfigurationDigester {
 	private String digesterRulesFile = DIGESTER_RULES_DEFAULT;
 
 	String lastResolvedEntity = null;
+	private boolean useCache = AppConstants.getInstance().getBoolean(CONFIGURATION_CACHE_KEY, true);
+
+	// last resolved version of each configuration, by configuration name
+	private static final Map<String, ResolvedConfiguration> RESOLVED_CONFIGURATIONS = new ConcurrentHashMap<String, ResolvedConfiguration>();
 
 	private class XmlErrorHandler implements ErrorHandler  {
 		public void warning(SAXParseException exception) throws SAXParseException {
@@ -116,8 +129,10 @@ public class ConfigurationDigester {
 		digester.push(configuration);
 
 		URL digesterRulesURL = ClassUtils.getResourceURL(this, getDigesterRules());
-		FromXmlRuleSet ruleSet = new FromXmlRuleSet(digesterRulesURL);
-		digester.addRuleSet(ruleSet);
+		if (!isUseCache() || !DigesterRulesCache.addRules(digester, digesterRulesURL)) {
+			FromXmlRuleSet ruleSet = new FromXmlRuleSet(digesterRulesURL);
+			digester.addRuleSet(ruleSet);
+		}
 
 		Rule attributeChecker = new AttributeCheckingRule();
 		digester.addRule("*/jmsRealms", attributeChecker);
@@ -186,27 +201,13 @@ public class ConfigurationDigester {
 			}
 			configuration.setDigesterRulesURL(digesterRulesURL);
 			configuration.setConfigurationURL(configurationFileURL);
-			fillConfigWarnDefaultValueExceptions(configuration);
 			String lineSeparator = SystemUtils.LINE_SEPARATOR;
 			if (null == lineSeparator) lineSeparator = "\n";
 			String original = Misc.resourceToString(configurationFileURL, lineSeparator, false);
 			original = XmlUtils.identityTransform(classLoader, original);
 			configuration.setOriginalConfiguration(original);
-			List<String> propsToHide = new ArrayList<String>();
-			String propertiesHideString = AppConstants.getInstance(Thread.currentThread().getContextClassLoader()).getString("properties.hide", null);
-			if (propertiesHideString != null) {
-				propsToHide.addAll(Arrays.asList(propertiesHideString.split("[,\\s]+")));
-			}
-			String loaded = StringResolver.substVars(original, AppConstants.getInstance(Thread.currentThread().getContextClassLoader()));
-			String loadedHide = StringResolver.substVars(original, AppConstants.getInstance(Thread.currentThread().getContextClassLoader()), null, propsToHide);
-			loaded = ConfigurationUtils.getActivatedConfiguration(configuration, loaded);
-			loadedHide = ConfigurationUtils.getActivatedConfiguration(configuration, loadedHide);
-			if (ConfigurationUtils.stubConfiguration()) {
-				loaded = ConfigurationUtils.getStubbedConfiguration(configuration, loaded);
-				loadedHide = ConfigurationUtils.getStubbedConfiguration(configuration, loadedHide);
-			}
-			configuration.setLoadedConfiguration(loadedHide);
-			saveConfig(loadedHide, configLogAppend);
+			String loaded = resolveConfiguration(configuration, original);
+			saveConfig(configuration.getLoadedConfiguration(), configLogAppend);
 			digester.parse(new StringReader(loaded));
 		} catch (Throwable t) {
 			// wrap exception to be sure it gets rendered via the IbisException-renderer
@@ -223,7 +224,101 @@ public class ConfigurationDigester {
 		}
 	}
 
+	/**
+	 * Resolves the properties in the configuration and applies activation and stubbing, sets the result
+	 * with hidden properties as loaded configuration, registers the attributes that are set to a property
+	 * as default value exceptions and returns the result to be digested.
+	 * When the cache is used, the result is reused as long as neither the configuration nor the
+	 * properties it is resolved against have changed.
+	 */
+	public String resolveConfiguration(Configuration configuration, String original) throws Exception {
+		String key = null;
+		if (isUseCache()) {
+			key = getCacheKey(original);
+			ResolvedConfiguration resolved = RESOLVED_CONFIGURATIONS.get(configuration.getName());
+			if (resolved != null && resolved.key.equals(key)) {
+				LOG.debug("reusing resolved configuration [" + configuration.getName() + "]");
+				for (String defaultValueException : resolved.defaultValueExceptions) {
+					configWarnings.addDefaultValueExceptions(defaultValueException);
+				}
+				configuration.setLoadedConfiguration(resolved.loadedHide);
+				return resolved.loaded;
+			}
+		}
+		List<String> defaultValueExceptions = fillConfigWarnDefaultValueExceptions(configuration);
+		List<String> propsToHide = new ArrayList<String>();
+		String propertiesHideString = AppConstants.getInstance(Thread.currentThread().getContextClassLoader()).getString("properties.hide", null);
+		if (propertiesHideString != null) {
+			propsToHide.addAll(Arrays.asList(propertiesHideString.split("[,\\s]+")));
+		}
+		String loaded = StringResolver.substVars(original, AppConstants.getInstance(Thread.currentThread().getContextClassLoader()));
+		String loadedHide = StringResolver.substVars(original, AppConstants.getInstance(Thread.currentThread().getContextClassLoader()), null, propsToHide);
+		loaded = ConfigurationUtils.getActivatedConfiguration(configuration, loaded);
+		loadedHide = ConfigurationUtils.getActivatedConfiguration(configuration, loadedHide);
+		if (ConfigurationUtils.stubConfiguration()) {
+			loaded = ConfigurationUtils.getStubbedConfiguration(configuration, loaded);
+			loadedHide = ConfigurationUtils.getStubbedConfiguration(configuration, loadedHide);
+		}
+		configuration.setLoadedConfiguration(loadedHide);
+		if (key != null) {
+			RESOLVED_CONFIGURATIONS.put(configuration.getName(), new ResolvedConfiguration(key, loaded, loadedHide, defaultValueExceptions));
+		}
+		return loaded;
+	}
+
+	/**
+	 * Returns a hash of the configuration, of all properties that may be used to resolve it, sorted by
+	 * key and resolved, and of the stub mode.
+	 */
+	String getCacheKey(String original) throws NoSuchAlgorithmException, UnsupportedEncodingException {
+		MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+		messageDigest.update(original.getBytes("UTF-8"));
+		digestProperties(messageDigest, "system", System.getProperties());
+		digestProperties(messageDigest, "appConstants", AppConstants.getInstance());
+		digestProperties(messageDigest, "configuration", AppConstants.getInstance(Thread.currentThread().getContextClassLoader()));
+		messageDigest.update(("stub=" + ConfigurationUtils.stubConfiguration()).getBytes("UTF-8"));
+		return new String(Hex.encodeHex(messageDigest.digest()));
+	}
+
+	private void digestProperties(MessageDigest messageDigest, String name, Properties properties) throws UnsupportedEncodingException {
+		Map<String, String> sorted = new TreeMap<String, String>();
+		for (String key : properties.stringPropertyNames()) {
+			String value = properties.getProperty(key);
+			if (value != null) {
+				sorted.put(key, value);
+			}
+		}
+		messageDigest.update(name.getBytes("UTF-8"));
+		for (Map.Entry<String, String> entry : sorted.entrySet()) {
+			messageDigest.update((byte)0);
+			messageDigest.update(entry.getKey().getBytes("UTF-8"));
+			messageDigest.update((byte)1);
+			messageDigest.update(entry.getValue().getBytes("UTF-8"));
+		}
+		messageDigest.update((byte)2);
+	}
+
+	private static class ResolvedConfiguration {
+		private String key;
+		private String loaded;
+		private String loadedHide;
+		private List<String> defaultValueExceptions;
+
+		ResolvedConfiguration(String key, String loaded, String loadedHide, List<String> defaultValueExceptions) {
+			this.key = key;
+			this.loaded = loaded;
+			this.loadedHide = loadedHide;
+			this.defaultValueExceptions = defaultValueExceptions;
+		}
+	}
+
 	private void saveConfig(String config, boolean append) {
+		synchronized (ConfigurationDigester.class) {
+			writeConfig(config, append);
+		}
+	}
+
+	private void writeConfig(String config, boolean append) {
 		String directoryName = AppConstants.getInstance().getResolvedProperty("log.dir");
 		String fileName = AppConstants.getInstance().getResolvedProperty("instance.name.lc")+"-config.xml";
 		File file = new File(directoryName, fileName);
@@ -244,7 +339,8 @@ public class ConfigurationDigester {
 		}
 	}
 	
-	private  void fillConfigWarnDefaultValueExceptions(Configuration configuration) throws Exception {
+	private List<String> fillConfigWarnDefaultValueExceptions(Configuration configuration) throws Exception {
+		List<String> result = new ArrayList<String>();
 		URL xsltSource = ClassUtils.getResourceURL(this, attributesGetter_xslt);
 		if (xsltSource == null) {
 			throw new ConfigurationException("cannot find resource ["+attributesGetter_xslt+"]");
@@ -271,8 +367,10 @@ public class ConfigurationDigester {
 				String name = XmlUtils.getStringValue(nameElement);
 				String mergedKey = element + "/" + (name==null?"":name) + "/" + key;
 				configWarnings.addDefaultValueExceptions(mergedKey);
+				result.add(mergedKey);
 			}
 		}
+		return result;
 	}
 
 	public void setConfigurationFile(String string) {
@@ -283,6 +381,17 @@ public class ConfigurationDigester {
 	}
 
 
+	/**
+	 * When <code>true</code>, parsed digester rules and resolved configurations are reused
+	 * by subsequent loads. Defaults to the property <code>configurations.digester.cache</code>.
+	 */
+	public void setUseCache(boolean b) {
+		useCache = b;
+	}
+	public boolean isUseCache() {
+		return useCache;
+	}
+
 	public void setDigesterRules(String string) {
 		digesterRulesFile = string;
 	}
@@ -24,7 +24,8 @@ import org.apache.log4j.Logger;
  */
 public final class ConfigurationWarnings extends BaseConfigurationWarnings {
 	private static ConfigurationWarnings self = null;
-	private Configuration activeConfiguration = null;
+	// per thread, as configurations may be loaded in parallel
+	private ThreadLocal<Configuration> activeConfiguration = new ThreadLocal<Configuration>();
 	
 	public static synchronized ConfigurationWarnings getInstance() {
 		if (self == null) {
@@ -34,6 +35,7 @@ public final class ConfigurationWarnings extends BaseConfigurationWarnings {
 	}
 
 	public boolean add(Logger log, String msg, boolean onlyOnce) {
+		Configuration activeConfiguration = this.activeConfiguration.get();
 		if (activeConfiguration!=null) {
 			return activeConfiguration.getConfigurationWarnings().add(log, msg, onlyOnce);
 		} else {
@@ -42,6 +44,7 @@ public final class ConfigurationWarnings extends BaseConfigurationWarnings {
 	}
 
 	public boolean containsDefaultValueExceptions(String key) {
+		Configuration activeConfiguration = this.activeConfiguration.get();
 		if (activeConfiguration!=null) {
 			return activeConfiguration.getConfigurationWarnings().containsDefaultValueExceptions(key);
 		} else {
@@ -50,6 +53,7 @@ public final class ConfigurationWarnings extends BaseConfigurationWarnings {
 	}
 
 	public boolean addDefaultValueExceptions(String key) {
+		Configuration activeConfiguration = this.activeConfiguration.get();
 		if (activeConfiguration!=null) {
 			return activeConfiguration.getConfigurationWarnings().addDefaultValueExceptions(key);
 		} else {
@@ -58,6 +62,10 @@ public final class ConfigurationWarnings extends BaseConfigurationWarnings {
 	}
 	
 	public void setActiveConfiguration (Configuration configuration) {
-		activeConfiguration = configuration;
+		if (configuration == null) {
+			activeConfiguration.remove();
+		} else {
+			activeConfiguration.set(configuration);
+		}
 	}
 }
\ No newline at end of file
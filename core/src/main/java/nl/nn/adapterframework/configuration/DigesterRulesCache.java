@@ -0,0 +1,167 @@
+/*
+   Copyright 2016 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.configuration;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import nl.nn.adapterframework.util.LogUtil;
+import nl.nn.adapterframework.util.Misc;
+import nl.nn.adapterframework.util.XmlUtils;
+
+import org.apache.commons.digester.Digester;
+import org.apache.commons.digester.FactoryCreateRule;
+import org.apache.commons.digester.ObjectCreateRule;
+import org.apache.commons.digester.SetNextRule;
+import org.apache.commons.digester.SetTopRule;
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Cache of parsed digester rules files.
+ * <p>
+ * Parsing a rules file with <code>FromXmlRuleSet</code> for every configuration load is
+ * replaced by parsing it once into a list of rule templates, from which fresh rules are created
+ * for every digester. The elements <code>pattern</code>, <code>object-create-rule</code>,
+ * <code>factory-create-rule</code>, <code>set-properties-rule</code>, <code>set-next-rule</code>
+ * and <code>set-top-rule</code> are supported; a rules file containing other elements is not
+ * cached and must be read with <code>FromXmlRuleSet</code> instead. A <code>set-properties-rule</code>
+ * without aliases is implemented by a {@link CachedSetPropertiesRule}.
+ * </p>
+ * 
+ * @since   7.0
+ */
+public class DigesterRulesCache {
+	private static final Logger LOG = LogUtil.getLogger(DigesterRulesCache.class);
+
+	private static final Map<String, List<RuleTemplate>> CACHE = new ConcurrentHashMap<String, List<RuleTemplate>>();
+	private static final List<RuleTemplate> NOT_CACHEABLE = new ArrayList<RuleTemplate>();
+
+	/**
+	 * Adds the rules of the rules file at <code>url</code> to the digester. Returns <code>false</code>
+	 * when the rules file cannot be cached, in which case no rules have been added.
+	 */
+	public static boolean addRules(Digester digester, URL url) {
+		String key = url.toExternalForm();
+		List<RuleTemplate> templates = CACHE.get(key);
+		if (templates == null) {
+			templates = parse(url);
+			CACHE.put(key, templates);
+		}
+		if (templates == NOT_CACHEABLE) {
+			return false;
+		}
+		for (RuleTemplate template : templates) {
+			template.addTo(digester);
+		}
+		return true;
+	}
+
+	public static void clear() {
+		CACHE.clear();
+	}
+
+	private static List<RuleTemplate> parse(URL url) {
+		List<RuleTemplate> templates = new ArrayList<RuleTemplate>();
+		try {
+			Element root = XmlUtils.buildElement(Misc.resourceToString(url));
+			if (!parse(root, "", templates)) {
+				return NOT_CACHEABLE;
+			}
+		} catch (Exception e) {
+			LOG.warn("cannot parse digester rules [" + url + "] for caching", e);
+			return NOT_CACHEABLE;
+		}
+		return templates;
+	}
+
+	private static boolean parse(Element element, String basePattern, List<RuleTemplate> templates) {
+		for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling()) {
+			if (!(node instanceof Element)) {
+				continue;
+			}
+			Element child = (Element)node;
+			String pattern = basePattern;
+			String value = child.getAttribute("pattern");
+			if ("pattern".equals(child.getTagName())) {
+				value = child.getAttribute("value");
+			}
+			if (StringUtils.isNotEmpty(value)) {
+				pattern = pattern.length() == 0 ? value : pattern + "/" + value;
+			}
+			String tagName = child.getTagName();
+			if ("pattern".equals(tagName)) {
+				if (!parse(child, pattern, templates)) {
+					return false;
+				}
+			} else if ("object-create-rule".equals(tagName)
+					|| "factory-create-rule".equals(tagName)
+					|| "set-next-rule".equals(tagName)
+					|| "set-top-rule".equals(tagName)
+					|| "set-properties-rule".equals(tagName) && !child.hasChildNodes()) {
+				templates.add(new RuleTemplate(tagName, pattern, child));
+			} else {
+				LOG.info("digester rule [" + tagName + "] is not supported by the cache, rules will be parsed for each configuration");
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static class RuleTemplate {
+		private String type;
+		private String pattern;
+		private String className;
+		private String attributeName;
+		private String methodName;
+		private String paramType;
+		private boolean ignoreExceptions;
+
+		RuleTemplate(String type, String pattern, Element element) {
+			this.type = type;
+			this.pattern = pattern;
+			className = getAttribute(element, "classname");
+			attributeName = getAttribute(element, "attrname");
+			methodName = getAttribute(element, "methodname");
+			paramType = getAttribute(element, "paramtype");
+			ignoreExceptions = "true".equalsIgnoreCase(element.getAttribute("ignore-exceptions"));
+		}
+
+		private String getAttribute(Element element, String name) {
+			String value = element.getAttribute(name);
+			return StringUtils.isEmpty(value) ? null : value;
+		}
+
+		void addTo(Digester digester) {
+			if ("object-create-rule".equals(type)) {
+				digester.addRule(pattern, new ObjectCreateRule(className, attributeName));
+			} else if ("factory-create-rule".equals(type)) {
+				digester.addRule(pattern, new FactoryCreateRule(className, attributeName, ignoreExceptions));
+			} else if ("set-next-rule".equals(type)) {
+				digester.addRule(pattern, new SetNextRule(methodName, paramType));
+			} else if ("set-top-rule".equals(type)) {
+				digester.addRule(pattern, new SetTopRule(methodName, paramType));
+			} else {
+				digester.addRule(pattern, new CachedSetPropertiesRule());
+			}
+		}
+	}
+}
@@ -15,14 +15,21 @@
 */
 package nl.nn.adapterframework.configuration;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
@@ -53,6 +60,7 @@ import nl.nn.adapterframework.util.JdbcUtil;
 import nl.nn.adapterframework.util.LogUtil;
 import nl.nn.adapterframework.util.MessageKeeper;
 import nl.nn.adapterframework.util.MessageKeeperMessage;
+import nl.nn.adapterframework.validation.SchemaPool;
 
 /**
  * Main entry point for creating and starting Ibis instances from
@@ -75,6 +83,8 @@ public class IbisContext {
 	private static final String APPLICATION_SERVER_TYPE_PROPERTY = "application.server.type";
 	private static final String FLOW_CREATE_DIAGRAM_URL = APP_CONSTANTS.getResolvedProperty("flow.create.url");
 	private static final long UPTIME = System.currentTimeMillis();
+	private static final boolean PARALLEL_STARTUP = APP_CONSTANTS.getBoolean("configurations.startup.parallel", false);
+	private static final int STARTUP_THREADS = APP_CONSTANTS.getInt("configurations.startup.threads", 8);
 	static {
 		String applicationServerType = System.getProperty(
 				APPLICATION_SERVER_TYPE_PROPERTY);
@@ -101,8 +111,8 @@ public class IbisContext {
 	}
 	private ApplicationContext applicationContext;
 	private IbisManager ibisManager;
-	private Map<String, ClassLoader> classLoaders = new HashMap<String, ClassLoader>();
-	private Map<String, MessageKeeper> messageKeepers = new HashMap<String, MessageKeeper>();
+	private Map<String, ClassLoader> classLoaders = Collections.synchronizedMap(new HashMap<String, ClassLoader>());
+	private Map<String, MessageKeeper> messageKeepers = Collections.synchronizedMap(new HashMap<String, MessageKeeper>());
 	private int messageKeeperSize = 10;
 	private FlowDiagram flowDiagram;
 
@@ -179,6 +189,8 @@ public class IbisContext {
 					MessageKeeperMessage.WARN_LEVEL);
 		}
 		JdbcUtil.resetJdbcProperties();
+		// the classes of the configuration may be reloaded, do not keep them referenced
+		SchemaPool.getInstance().clear();
 		load(configurationName);
 	}
 
@@ -239,141 +251,277 @@ public class IbisContext {
 	}
 
 	private void load(String configurationName) {
-		boolean configFound = false;
-		boolean configLogAppend = false;
+		List<String> configurationNames = new ArrayList<String>();
 		StringTokenizer tokenizer = new StringTokenizer(CONFIGURATIONS, ",");
 		while (tokenizer.hasMoreTokens()) {
 			String currentConfigurationName = tokenizer.nextToken();
 			if (configurationName == null
 					|| configurationName.equals(currentConfigurationName)) {
-				long start = System.currentTimeMillis();
-				configFound = true;
-				String configurationFile = APP_CONSTANTS.getResolvedProperty(
-						"configurations." + currentConfigurationName + ".configurationFile");
-				if (configurationFile == null) {
-					configurationFile = "Configuration.xml";
-					if (!currentConfigurationName.equals(INSTANCE_NAME)) {
-						configurationFile = currentConfigurationName + "/" + configurationFile;
-					}
+				configurationNames.add(currentConfigurationName);
+			}
+		}
+		if (PARALLEL_STARTUP && configurationNames.size() > 1) {
+			loadParallel(configurationNames);
+		} else {
+			boolean configLogAppend = false;
+			for (String currentConfigurationName : configurationNames) {
+				if (loadConfiguration(currentConfigurationName, configLogAppend)) {
+					configLogAppend = true;
 				}
-				ConfigurationException customClassLoaderConfigurationException = null;
-				ClassLoader classLoader = classLoaders.get(currentConfigurationName);
-				if (classLoader != null) {
-					// Reuse class loader as it is difficult to have all
-					// references to the class loader removed (see also
-					// http://zeroturnaround.com/rebellabs/rjc201/).
-					// Create a heapdump after an unload and garbage collect and
-					// view the references to the instances of the root class
-					// loader class (BasePathClassLoader when a base path is
-					// used).
-					if (classLoader instanceof ReloadAware) {
-						try {
-							((ReloadAware)classLoader).reload();
-						} catch (ConfigurationException e) {
-							customClassLoaderConfigurationException = e;
-						}
-					}
-				} else {
-					String classLoaderType = APP_CONSTANTS.getResolvedProperty(
-							"configurations." + currentConfigurationName + ".classLoaderType");
-					try {
-						if ("DirectoryClassLoader".equals(classLoaderType)) {
-							String directory = APP_CONSTANTS.getResolvedProperty(
-									"configurations." + currentConfigurationName + ".directory");
-							classLoader = new DirectoryClassLoader(directory);
-						} else if ("JarFileClassLoader".equals(classLoaderType)) {
-							String jar = APP_CONSTANTS.getResolvedProperty(
-									"configurations." + currentConfigurationName + ".jar");
-							classLoader = new JarFileClassLoader(jar, currentConfigurationName);
-						} else if ("ServiceClassLoader".equals(classLoaderType)) {
-							String adapterName = APP_CONSTANTS.getResolvedProperty(
-									"configurations." + currentConfigurationName + ".adapterName");
-							classLoader = new ServiceClassLoader(ibisManager, adapterName, currentConfigurationName);
-						} else if ("DatabaseClassLoader".equals(classLoaderType)) {
-							classLoader = new DatabaseClassLoader(this, currentConfigurationName);
-						} else if (classLoaderType != null) {
-							throw new ConfigurationException("Invalid classLoaderType: " + classLoaderType);
-						}
-					} catch (ConfigurationException e) {
-						customClassLoaderConfigurationException = e;
-					}
-					String basePath = null;
-					int i = configurationFile.lastIndexOf('/');
-					if (i != -1) {
-						basePath = configurationFile.substring(0, i + 1);
-					}
-					if (basePath != null) {
-						if (classLoader != null) {
-							classLoader = new BasePathClassLoader(classLoader, basePath);
-						} else {
-							classLoader = new BasePathClassLoader(
-									Thread.currentThread().getContextClassLoader(),
-									basePath);
-						}
+			}
+		}
+		generateFlow();
+		if (configurationNames.isEmpty()) {
+			log(configurationName, configurationName + " not found in '"
+					+ CONFIGURATIONS + "'", MessageKeeperMessage.ERROR_LEVEL);
+		}
+	}
+
+	/**
+	 * Loads the configurations on a pool of <code>configurations.startup.threads</code>
+	 * threads. The first configuration is loaded before the others, as it starts a new
+	 * configuration log.
+	 */
+	private void loadParallel(List<String> configurationNames) {
+		long start = System.currentTimeMillis();
+		loadConfiguration(configurationNames.get(0), false);
+		Map<String, List<String>> dependencies = getConfigurationDependencies(configurationNames, APP_CONSTANTS);
+		loadConfigurations(orderConfigurations(dependencies), dependencies, STARTUP_THREADS);
+		log("loaded " + configurationNames.size() + " configurations using "
+				+ STARTUP_THREADS + " threads in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * Returns, for all but the first configuration, the configurations that must have been
+	 * loaded before it: those listed in its <code>configurations.&lt;name&gt;.dependsOn</code>
+	 * property and, for a configuration with a ServiceClassLoader, all configurations listed
+	 * before it, as the adapter it loads its resources from may be part of any of them.
+	 */
+	static Map<String, List<String>> getConfigurationDependencies(List<String> configurationNames, Properties properties) {
+		Map<String, List<String>> dependencies = new LinkedHashMap<String, List<String>>();
+		for (int i = 1; i < configurationNames.size(); i++) {
+			String currentConfigurationName = configurationNames.get(i);
+			List<String> currentDependencies = new ArrayList<String>();
+			if ("ServiceClassLoader".equals(properties.getProperty(
+					"configurations." + currentConfigurationName + ".classLoaderType"))) {
+				currentDependencies.addAll(configurationNames.subList(1, i));
+			}
+			String dependsOn = properties.getProperty(
+					"configurations." + currentConfigurationName + ".dependsOn");
+			if (StringUtils.isNotEmpty(dependsOn)) {
+				for (String dependency : dependsOn.split("\\s*,\\s*")) {
+					if (configurationNames.indexOf(dependency) > 0 && !dependency.equals(currentConfigurationName)
+							&& !currentDependencies.contains(dependency)) {
+						currentDependencies.add(dependency);
 					}
-					classLoaders.put(currentConfigurationName, classLoader);
 				}
-				String currentConfigurationVersion =
-						getConfigurationVersion(AppConstants.getInstance(classLoader));
-				Configuration configuration = null;
-				ClassLoader originalClassLoader = Thread.currentThread().getContextClassLoader();
-				if (classLoader != null) {
-					Thread.currentThread().setContextClassLoader(classLoader);
+			}
+			dependencies.put(currentConfigurationName, currentDependencies);
+		}
+		return dependencies;
+	}
+
+	/**
+	 * Orders the configurations such that each comes after the configurations it depends on,
+	 * so that a thread waiting for a dependency never waits for a task that is queued behind
+	 * it. Circular dependencies are reported and removed from the dependencies.
+	 */
+	List<String> orderConfigurations(Map<String, List<String>> dependencies) {
+		List<String> remaining = new ArrayList<String>(dependencies.keySet());
+		List<String> ordered = new ArrayList<String>();
+		while (!remaining.isEmpty()) {
+			String next = null;
+			for (String candidate : remaining) {
+				if (ordered.containsAll(dependencies.get(candidate))) {
+					next = candidate;
+					break;
 				}
-				try {
-					configuration = new Configuration(new BasicAdapterServiceImpl());
-					configuration.setName(currentConfigurationName);
-					configuration.setVersion(currentConfigurationVersion);
-					configuration.setIbisManager(ibisManager);
-					ibisManager.addConfiguration(configuration);
-					ConfigurationWarnings.getInstance().setActiveConfiguration(configuration);
-					if (customClassLoaderConfigurationException == null) {
-						ConfigurationDigester configurationDigester = new ConfigurationDigester();
-						configurationDigester.digestConfiguration(classLoader, configuration, configurationFile, configLogAppend);
-						configLogAppend = true;
-						if (currentConfigurationVersion == null) {
-							currentConfigurationVersion = configuration.getVersion();
-						} else if (!currentConfigurationVersion.equals(configuration.getVersion())) {
-							log(currentConfigurationName, currentConfigurationVersion,
-									"configuration version doesn't match Configuration version attribute: "
-									+ configuration.getVersion(),
-									MessageKeeperMessage.WARN_LEVEL);
-						}
-						if (!currentConfigurationName.equals(configuration.getName())) {
-							log(currentConfigurationName, currentConfigurationVersion,
-									"configuration name doesn't match Configuration name attribute: "
-									+ configuration.getName(),
-									MessageKeeperMessage.WARN_LEVEL);
-							messageKeepers.put(configuration.getName(),
-									messageKeepers.remove(currentConfigurationName));
-						}
-						if (configuration.isAutoStart()) {
-							ibisManager.startConfiguration(configuration);
-							log(currentConfigurationName, currentConfigurationVersion,
-									"startup in " + (System.currentTimeMillis() - start) + " ms");
-						} else {
-							log(currentConfigurationName, currentConfigurationVersion,
-									"configured in " + (System.currentTimeMillis() - start) + " ms");
+			}
+			if (next == null) {
+				next = remaining.get(0);
+				log(next, null, "has circular dependencies " + dependencies.get(next) + ", ignoring them",
+						MessageKeeperMessage.WARN_LEVEL);
+				dependencies.get(next).retainAll(ordered);
+			}
+			remaining.remove(next);
+			ordered.add(next);
+		}
+		return ordered;
+	}
+
+	/**
+	 * Loads the ordered configurations on a pool of threads, each after the configurations
+	 * it depends on have been loaded, or failed to load.
+	 */
+	void loadConfigurations(List<String> ordered, Map<String, List<String>> dependencies, int threads) {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		final Map<String, Future<?>> futures = new HashMap<String, Future<?>>();
+		try {
+			for (final String currentConfigurationName : ordered) {
+				final List<Future<?>> dependencyFutures = new ArrayList<Future<?>>();
+				for (String dependency : dependencies.get(currentConfigurationName)) {
+					dependencyFutures.add(futures.get(dependency));
+				}
+				futures.put(currentConfigurationName, pool.submit(new Runnable() {
+					@Override
+					public void run() {
+						Thread.currentThread().setName("loading Configuration " + currentConfigurationName);
+						for (Future<?> dependencyFuture : dependencyFutures) {
+							try {
+								dependencyFuture.get();
+							} catch (Exception e) {
+								// the error has been logged by the loading thread of the dependency
+							}
 						}
-						generateFlows(configuration, currentConfigurationName, currentConfigurationVersion);
-					} else {
-						throw customClassLoaderConfigurationException;
+						loadConfiguration(currentConfigurationName, true);
 					}
-				} catch (ConfigurationException e) {
-					configuration.setConfigurationException(e);
-					log(currentConfigurationName, currentConfigurationVersion, " exception",
+				}));
+			}
+			for (String currentConfigurationName : ordered) {
+				try {
+					futures.get(currentConfigurationName).get();
+				} catch (InterruptedException e) {
+					log(currentConfigurationName, null, "interrupted while loading",
+							MessageKeeperMessage.ERROR_LEVEL, e);
+					Thread.currentThread().interrupt();
+					break;
+				} catch (ExecutionException e) {
+					log(currentConfigurationName, null, " exception",
 							MessageKeeperMessage.ERROR_LEVEL, e);
-				} finally {
-					Thread.currentThread().setContextClassLoader(originalClassLoader);
-					ConfigurationWarnings.getInstance().setActiveConfiguration(null);
 				}
 			}
+		} finally {
+			pool.shutdown();
 		}
-		generateFlow();
-		if (!configFound) {
-			log(configurationName, configurationName + " not found in '"
-					+ CONFIGURATIONS + "'", MessageKeeperMessage.ERROR_LEVEL);
+	}
+
+	/**
+	 * Loads a single configuration and returns <code>true</code> when its configuration
+	 * file has been digested.
+	 */
+	boolean loadConfiguration(String configurationName, boolean configLogAppend) {
+		boolean digested = false;
+		long start = System.currentTimeMillis();
+		String configurationFile = APP_CONSTANTS.getResolvedProperty(
+				"configurations." + configurationName + ".configurationFile");
+		if (configurationFile == null) {
+			configurationFile = "Configuration.xml";
+			if (!configurationName.equals(INSTANCE_NAME)) {
+				configurationFile = configurationName + "/" + configurationFile;
+			}
+		}
+		ConfigurationException customClassLoaderConfigurationException = null;
+		ClassLoader classLoader = classLoaders.get(configurationName);
+		if (classLoader != null) {
+			// Reuse class loader as it is difficult to have all
+			// references to the class loader removed (see also
+			// http://zeroturnaround.com/rebellabs/rjc201/).
+			// Create a heapdump after an unload and garbage collect and
+			// view the references to the instances of the root class
+			// loader class (BasePathClassLoader when a base path is
+			// used).
+			if (classLoader instanceof ReloadAware) {
+				try {
+					((ReloadAware)classLoader).reload();
+				} catch (ConfigurationException e) {
+					customClassLoaderConfigurationException = e;
+				}
+			}
+		} else {
+			String classLoaderType = APP_CONSTANTS.getResolvedProperty(
+					"configurations." + configurationName + ".classLoaderType");
+			try {
+				if ("DirectoryClassLoader".equals(classLoaderType)) {
+					String directory = APP_CONSTANTS.getResolvedProperty(
+							"configurations." + configurationName + ".directory");
+					classLoader = new DirectoryClassLoader(directory);
+				} else if ("JarFileClassLoader".equals(classLoaderType)) {
+					String jar = APP_CONSTANTS.getResolvedProperty(
+							"configurations." + configurationName + ".jar");
+					classLoader = new JarFileClassLoader(jar, configurationName);
+				} else if ("ServiceClassLoader".equals(classLoaderType)) {
+					String adapterName = APP_CONSTANTS.getResolvedProperty(
+							"configurations." + configurationName + ".adapterName");
+					classLoader = new ServiceClassLoader(ibisManager, adapterName, configurationName);
+				} else if ("DatabaseClassLoader".equals(classLoaderType)) {
+					classLoader = new DatabaseClassLoader(this, configurationName);
+				} else if (classLoaderType != null) {
+					throw new ConfigurationException("Invalid classLoaderType: " + classLoaderType);
+				}
+			} catch (ConfigurationException e) {
+				customClassLoaderConfigurationException = e;
+			}
+			String basePath = null;
+			int i = configurationFile.lastIndexOf('/');
+			if (i != -1) {
+				basePath = configurationFile.substring(0, i + 1);
+			}
+			if (basePath != null) {
+				if (classLoader != null) {
+					classLoader = new BasePathClassLoader(classLoader, basePath);
+				} else {
+					classLoader = new BasePathClassLoader(
+							Thread.currentThread().getContextClassLoader(),
+							basePath);
+				}
+			}
+			classLoaders.put(configurationName, classLoader);
+		}
+		String configurationVersion =
+				getConfigurationVersion(AppConstants.getInstance(classLoader));
+		Configuration configuration = null;
+		ClassLoader originalClassLoader = Thread.currentThread().getContextClassLoader();
+		if (classLoader != null) {
+			Thread.currentThread().setContextClassLoader(classLoader);
+		}
+		try {
+			configuration = new Configuration(new BasicAdapterServiceImpl());
+			configuration.setName(configurationName);
+			configuration.setVersion(configurationVersion);
+			configuration.setIbisManager(ibisManager);
+			ibisManager.addConfiguration(configuration);
+			ConfigurationWarnings.getInstance().setActiveConfiguration(configuration);
+			if (customClassLoaderConfigurationException == null) {
+				ConfigurationDigester configurationDigester = new ConfigurationDigester();
+				configurationDigester.digestConfiguration(classLoader, configuration, configurationFile, configLogAppend);
+				digested = true;
+				if (configurationVersion == null) {
+					configurationVersion = configuration.getVersion();
+				} else if (!configurationVersion.equals(configuration.getVersion())) {
+					log(configurationName, configurationVersion,
+							"configuration version doesn't match Configuration version attribute: "
+							+ configuration.getVersion(),
+							MessageKeeperMessage.WARN_LEVEL);
+				}
+				if (!configurationName.equals(configuration.getName())) {
+					log(configurationName, configurationVersion,
+							"configuration name doesn't match Configuration name attribute: "
+							+ configuration.getName(),
+							MessageKeeperMessage.WARN_LEVEL);
+					messageKeepers.put(configuration.getName(),
+							messageKeepers.remove(configurationName));
+				}
+				if (configuration.isAutoStart()) {
+					ibisManager.startConfiguration(configuration);
+					log(configurationName, configurationVersion,
+							"startup in " + (System.currentTimeMillis() - start) + " ms");
+				} else {
+					log(configurationName, configurationVersion,
+							"configured in " + (System.currentTimeMillis() - start) + " ms");
+				}
+				generateFlows(configuration, configurationName, configurationVersion);
+			} else {
+				throw customClassLoaderConfigurationException;
+			}
+		} catch (ConfigurationException e) {
+			configuration.setConfigurationException(e);
+			log(configurationName, configurationVersion, " exception",
+					MessageKeeperMessage.ERROR_LEVEL, e);
+		} finally {
+			Thread.currentThread().setContextClassLoader(originalClassLoader);
+			ConfigurationWarnings.getInstance().setActiveConfiguration(null);
 		}
+		return digested;
 	}
 
 	private void generateFlows(Configuration configuration,
@@ -445,10 +593,13 @@ public class IbisContext {
 		} else {
 			key = configurationName;
 		}
-		MessageKeeper messageKeeper = messageKeepers.get(key);
-		if (messageKeeper == null) {
-			messageKeeper = new MessageKeeper(messageKeeperSize < 1 ? 1 : messageKeeperSize);
-			messageKeepers.put(key, messageKeeper);
+		MessageKeeper messageKeeper;
+		synchronized (messageKeepers) {
+			messageKeeper = messageKeepers.get(key);
+			if (messageKeeper == null) {
+				messageKeeper = new MessageKeeper(messageKeeperSize < 1 ? 1 : messageKeeperSize);
+				messageKeepers.put(key, messageKeeper);
+			}
 		}
 		String m;
 		String version;
@@ -0,0 +1,101 @@
+/*
+   Copyright 2016 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.configuration;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.beanutils.ConvertUtils;
+import org.apache.commons.beanutils.PropertyUtils;
+import org.apache.commons.digester.Digester;
+
+/**
+ * Read and write methods of the properties of a class, looked up once per class per configuration
+ * load. Used to set attributes from the configuration on the objects created by the digester, and
+ * to check them, without introspecting the class for every attribute of every element.
+ * The plans are kept with the digester, so the classes of a configuration are not referenced
+ * anymore once it has been digested and can be unloaded when the configuration is reloaded.
+ * 
+ * @since   7.0
+ */
+public class SetterPlan {
+
+	private static final Map<Digester, Map<Class<?>, SetterPlan>> PLANS = Collections.synchronizedMap(new WeakHashMap<Digester, Map<Class<?>, SetterPlan>>());
+
+	private final Map<String, Method> writeMethods = new HashMap<String, Method>();
+	private final Map<String, Method> readMethods = new HashMap<String, Method>();
+
+	private SetterPlan(Class<?> clazz) {
+		PropertyDescriptor[] descriptors = PropertyUtils.getPropertyDescriptors(clazz);
+		for (int i = 0; i < descriptors.length; i++) {
+			PropertyDescriptor pd = descriptors[i];
+			Method writeMethod = PropertyUtils.getWriteMethod(pd);
+			if (writeMethod != null) {
+				writeMethods.put(pd.getName(), writeMethod);
+			}
+			Method readMethod = PropertyUtils.getReadMethod(pd);
+			if (readMethod != null) {
+				readMethods.put(pd.getName(), readMethod);
+			}
+		}
+	}
+
+	public static SetterPlan getPlan(Digester digester, Class<?> clazz) {
+		Map<Class<?>, SetterPlan> plans;
+		synchronized (PLANS) {
+			plans = PLANS.get(digester);
+			if (plans == null) {
+				plans = new ConcurrentHashMap<Class<?>, SetterPlan>();
+				PLANS.put(digester, plans);
+			}
+		}
+		SetterPlan plan = plans.get(clazz);
+		if (plan == null) {
+			plan = new SetterPlan(clazz);
+			plans.put(clazz, plan);
+		}
+		return plan;
+	}
+
+	public Method getWriteMethod(String name) {
+		return writeMethods.get(name);
+	}
+
+	public Method getReadMethod(String name) {
+		return readMethods.get(name);
+	}
+
+	/**
+	 * Sets the property <code>name</code> of <code>bean</code> to <code>value</code>, converted
+	 * to the type of the setter like <code>BeanUtils.setProperty()</code> does. Properties
+	 * without a setter are ignored; returns <code>false</code> in that case.
+	 */
+	public boolean setProperty(Object bean, String name, String value) throws Exception {
+		Method writeMethod = getWriteMethod(name);
+		if (writeMethod == null) {
+			return false;
+		}
+		Class<?> type = writeMethod.getParameterTypes()[0];
+		Object convertedValue = String.class.equals(type) ? value : ConvertUtils.convert(value, type);
+		writeMethod.invoke(bean, new Object[] { convertedValue });
+		return true;
+	}
+}
@@ -15,40 +15,91 @@
 */
 package nl.nn.adapterframework.configuration.classloaders;
 
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLConnection;
 import java.net.URLStreamHandler;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collections;
+import java.util.Enumeration;
 
 import nl.nn.adapterframework.configuration.ConfigurationException;
+import nl.nn.adapterframework.util.AppConstants;
 import nl.nn.adapterframework.util.LogUtil;
 
 import org.apache.log4j.Logger;
 
 public abstract class BytesClassLoader extends ClassLoader implements ReloadAware {
+	private static final String CACHE_SIZE_KEY = "configurations.classloader.cacheSize";
+
 	protected Logger log = LogUtil.getLogger(this);
-	protected Map<String, byte[]> resources = new HashMap<String, byte[]>();
+	protected volatile JarResources resources;
 
 	BytesClassLoader(ClassLoader classLoader) {
 		super(classLoader);
 	}
 
+	/**
+	 * Indexes the entries of the jar, they are inflated when they are requested.
+	 */
+	protected void readResources(byte[] jar, boolean includeManifest) throws IOException {
+		resources = new JarResources(jar, includeManifest, AppConstants.getInstance().getLong(CACHE_SIZE_KEY, 10 * 1024 * 1024));
+	}
+
 	@Override
 	public URL getResource(String name) {
-		byte[] bytes = resources.get(name);
-		if (bytes != null) {
-			URLStreamHandler urlStreamHandler = new BytesURLStreamHandler(bytes);
+		URL url = findResource(name);
+		if (url != null) {
+			return url;
+		}
+		return super.getResource(name);
+	}
+
+	@Override
+	protected URL findResource(String name) {
+		JarResources resources = this.resources;
+		if (resources != null && resources.contains(name)) {
 			try {
-				return new URL(null, "bytesclassloader:" + name, urlStreamHandler);
+				return new URL(null, "bytesclassloader:" + name, new JarResourcesURLStreamHandler(resources, name));
 			} catch (MalformedURLException e) {
 				log.error("Could not create url", e);
 			}
 		}
-		return super.getResource(name);
+		return null;
+	}
+
+	@Override
+	protected Enumeration<URL> findResources(String name) throws IOException {
+		URL url = findResource(name);
+		if (url == null) {
+			return Collections.enumeration(Collections.<URL>emptyList());
+		}
+		return Collections.enumeration(Collections.singletonList(url));
 	}
 
 	public void reload() throws ConfigurationException {
-		resources.clear();
+		if (resources != null) {
+			resources.clear();
+			resources = null;
+		}
+	}
+
+	private static class JarResourcesURLStreamHandler extends URLStreamHandler {
+		private JarResources resources;
+		private String name;
+
+		JarResourcesURLStreamHandler(JarResources resources, String name) {
+			this.resources = resources;
+			this.name = name;
+		}
+
+		@Override
+		protected URLConnection openConnection(URL url) throws IOException {
+			byte[] bytes = resources.get(name);
+			if (bytes == null) {
+				throw new IOException("Resource [" + name + "] no longer available");
+			}
+			return new BytesURLConnection(url, bytes);
+		}
 	}
 }
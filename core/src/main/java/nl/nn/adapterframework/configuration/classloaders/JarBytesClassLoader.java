@@ -15,13 +15,9 @@
 */
 package nl.nn.adapterframework.configuration.classloaders;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.util.jar.JarEntry;
-import java.util.jar.JarInputStream;
 
 import nl.nn.adapterframework.configuration.ConfigurationException;
-import nl.nn.adapterframework.util.Misc;
 
 public abstract class JarBytesClassLoader extends BytesClassLoader {
 
@@ -31,26 +27,12 @@ public abstract class JarBytesClassLoader extends BytesClassLoader {
 
 	protected void readResources(byte[] jar, String configurationName)
 			throws ConfigurationException {
-		JarInputStream jarInputStream = null;
 		try {
-			jarInputStream = new JarInputStream(new ByteArrayInputStream(jar));
-			JarEntry jarEntry;
-			while ((jarEntry = jarInputStream.getNextJarEntry()) != null) {
-				resources.put(jarEntry.getName(), Misc.streamToBytes(jarInputStream));
-			}
+			readResources(jar, false);
 		} catch (IOException e) {
 			throw new ConfigurationException(
 					"Could not read resources from jar input stream for configuration '"
 					+ configurationName + "'", e);
-		} finally {
-			if (jarInputStream != null) {
-				try {
-					jarInputStream.close();
-				} catch (IOException e) {
-					log.warn("Could not close jar input stream for configuration '"
-							+ configurationName + "'", e);
-				}
-			}
 		}
 	}
 
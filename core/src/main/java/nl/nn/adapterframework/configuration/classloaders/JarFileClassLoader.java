@@ -15,10 +15,8 @@
 */
 package nl.nn.adapterframework.configuration.classloaders;
 
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.Enumeration;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
 
 import nl.nn.adapterframework.configuration.ConfigurationException;
 import nl.nn.adapterframework.util.Misc;
@@ -37,22 +35,18 @@ public class JarFileClassLoader extends BytesClassLoader {
 	@Override
 	public void reload() throws ConfigurationException {
 		super.reload();
-		JarFile jarFile = null;
+		FileInputStream fileInputStream = null;
 		try {
-			jarFile = new JarFile(jarFileName);
-			Enumeration<JarEntry> enumeration = jarFile.entries();
-			while (enumeration.hasMoreElements()) {
-				JarEntry jarEntry = enumeration.nextElement();
-				resources.put(jarEntry.getName(), Misc.streamToBytes(jarFile.getInputStream(jarEntry)));
-			}
+			fileInputStream = new FileInputStream(jarFileName);
+			readResources(Misc.streamToBytes(fileInputStream), true);
 		} catch (IOException e) {
 			throw new ConfigurationException(
 					"Could not read resources from jar '" + jarFileName
 					+ "' for configuration '" + configurationName + "'");
 		} finally {
-			if (jarFile != null) {
+			if (fileInputStream != null) {
 				try {
-					jarFile.close();
+					fileInputStream.close();
 				} catch (IOException e) {
 					log.warn("Could not close jar '" + jarFileName
 							+ "' for configuration '" + configurationName + "'", e);
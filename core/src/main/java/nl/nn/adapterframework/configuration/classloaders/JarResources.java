@@ -0,0 +1,243 @@
+/*
+   Copyright 2016 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.configuration.classloaders;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarInputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+
+import nl.nn.adapterframework.util.LogUtil;
+import nl.nn.adapterframework.util.Misc;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Resources of a jar that is kept in memory in its compressed form. The central directory of the jar
+ * is read once to record the offset of every entry, entries are inflated on demand. Inflated entries
+ * are kept in a least recently used cache that is bounded by the total number of bytes.
+ * Jars of which the central directory cannot be read (e.g. zip64 jars) are inflated up front.
+ * 
+ * @since   7.0
+ */
+class JarResources {
+	protected Logger log = LogUtil.getLogger(this);
+
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+	private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+	private static final String MANIFEST_DIRECTORY = "META-INF/";
+
+	private byte[] jar;
+	private Map<String, Entry> entries = new HashMap<String, Entry>();
+	private long cacheSize;
+	private long cachedBytes = 0;
+	private LinkedHashMap<String, byte[]> cache = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+
+	private static class Entry {
+		int offset;
+		int compressedSize;
+		int size;
+		int method;
+		byte[] bytes;
+	}
+
+	/**
+	 * @param jar the bytes of the jar
+	 * @param includeManifest when <code>false</code> the manifest is left out, like {@link JarInputStream} does
+	 * @param cacheSize the maximum number of bytes of inflated entries to keep in memory
+	 */
+	JarResources(byte[] jar, boolean includeManifest, long cacheSize) throws IOException {
+		this.jar = jar;
+		this.cacheSize = cacheSize;
+		if (!readCentralDirectory(includeManifest)) {
+			log.info("could not read central directory of jar, inflating all entries");
+			entries.clear();
+			this.jar = null;
+			readAllEntries(jar);
+		}
+	}
+
+	private boolean readCentralDirectory(boolean includeManifest) throws UnsupportedEncodingException {
+		int end = -1;
+		for (int i = jar.length - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0 && i >= jar.length - END_OF_CENTRAL_DIRECTORY_SIZE - 0xFFFF; i--) {
+			if (getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+				end = i;
+				break;
+			}
+		}
+		if (end < 0) {
+			return false;
+		}
+		int count = getShort(end + 10);
+		long position = getInt(end + 16) & 0xFFFFFFFFL;
+		if (count == 0xFFFF || position >= jar.length) {
+			return false;
+		}
+		for (int i = 0; i < count; i++) {
+			int p = (int)position;
+			if (p + 46 > jar.length || getInt(p) != CENTRAL_HEADER_SIGNATURE) {
+				return false;
+			}
+			int nameLength = getShort(p + 28);
+			int extraLength = getShort(p + 30);
+			int commentLength = getShort(p + 32);
+			int localHeader = getInt(p + 42);
+			if (p + 46 + nameLength > jar.length || localHeader < 0 || localHeader + 30 > jar.length
+					|| getInt(localHeader) != LOCAL_HEADER_SIGNATURE) {
+				return false;
+			}
+			String name = new String(jar, p + 46, nameLength, "UTF-8");
+			Entry entry = new Entry();
+			entry.method = getShort(p + 10);
+			entry.compressedSize = getInt(p + 20);
+			entry.size = getInt(p + 24);
+			entry.offset = localHeader + 30 + getShort(localHeader + 26) + getShort(localHeader + 28);
+			if (entry.compressedSize < 0 || entry.size < 0 || entry.offset + entry.compressedSize > jar.length
+					|| (entry.method != ZipEntry.STORED && entry.method != ZipEntry.DEFLATED)) {
+				return false;
+			}
+			if (includeManifest || !isManifest(name)) {
+				entries.put(name, entry);
+			}
+			position = p + 46 + nameLength + extraLength + commentLength;
+		}
+		return true;
+	}
+
+	private boolean isManifest(String name) {
+		return name.equals(MANIFEST_DIRECTORY) || name.equalsIgnoreCase(JarFile.MANIFEST_NAME);
+	}
+
+	private void readAllEntries(byte[] jar) throws IOException {
+		JarInputStream jarInputStream = new JarInputStream(new ByteArrayInputStream(jar));
+		try {
+			JarEntry jarEntry;
+			while ((jarEntry = jarInputStream.getNextJarEntry()) != null) {
+				Entry entry = new Entry();
+				entry.bytes = Misc.streamToBytes(jarInputStream);
+				entries.put(jarEntry.getName(), entry);
+			}
+		} finally {
+			jarInputStream.close();
+		}
+	}
+
+	private int getShort(int position) {
+		return (jar[position] & 0xFF) | ((jar[position + 1] & 0xFF) << 8);
+	}
+
+	private int getInt(int position) {
+		return getShort(position) | (getShort(position + 2) << 16);
+	}
+
+	public boolean contains(String name) {
+		return entries.containsKey(name);
+	}
+
+	public Set<String> getNames() {
+		return Collections.unmodifiableSet(entries.keySet());
+	}
+
+	/**
+	 * Returns the contents of the entry, or <code>null</code> when the jar does not contain it.
+	 */
+	public byte[] get(String name) throws IOException {
+		Entry entry = entries.get(name);
+		if (entry == null) {
+			return null;
+		}
+		if (entry.bytes != null) {
+			return entry.bytes;
+		}
+		synchronized (cache) {
+			byte[] bytes = cache.get(name);
+			if (bytes != null) {
+				return bytes;
+			}
+		}
+		byte[] bytes = inflate(entry);
+		synchronized (cache) {
+			if (bytes.length <= cacheSize && !cache.containsKey(name)) {
+				cache.put(name, bytes);
+				cachedBytes += bytes.length;
+				Iterator<byte[]> it = cache.values().iterator();
+				while (cachedBytes > cacheSize && it.hasNext()) {
+					cachedBytes -= it.next().length;
+					it.remove();
+				}
+			}
+		}
+		return bytes;
+	}
+
+	private byte[] inflate(Entry entry) throws IOException {
+		byte[] bytes = new byte[entry.size];
+		if (entry.method == ZipEntry.STORED) {
+			System.arraycopy(jar, entry.offset, bytes, 0, entry.size);
+			return bytes;
+		}
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(jar, entry.offset, entry.compressedSize);
+			int length = 0;
+			boolean dummyByteAdded = false;
+			while (length < bytes.length) {
+				int inflated = inflater.inflate(bytes, length, bytes.length - length);
+				if (inflated == 0) {
+					if (inflater.needsInput() && !dummyByteAdded) {
+						// with nowrap the inflater may need an extra dummy byte
+						inflater.setInput(new byte[1]);
+						dummyByteAdded = true;
+					} else if (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()) {
+						break;
+					}
+				}
+				length += inflated;
+			}
+			if (length != bytes.length) {
+				throw new IOException("inflated " + length + " bytes instead of " + bytes.length);
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("could not inflate entry: " + e.getMessage());
+		} finally {
+			inflater.end();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Releases the cached entries. The index is left intact for URLs that have already been handed out.
+	 */
+	public void clear() {
+		synchronized (cache) {
+			cache.clear();
+			cachedBytes = 0;
+		}
+	}
+}
@@ -20,6 +20,7 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.StringTokenizer;
+import java.util.concurrent.Executor;
 
 import nl.nn.adapterframework.cache.ICacheAdapter;
 import nl.nn.adapterframework.configuration.Configuration;
@@ -72,6 +73,7 @@ import org.springframework.core.task.TaskExecutor;
  * <tr><td>{@link #setName(String) name}</td><td>name of the Adapter</td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setDescription(String) description}</td><td>description of the Adapter</td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setAutoStart(boolean) autoStart}</td><td>controls whether Adapters starts when configuration loads</td><td>true</td></tr>
+ * <tr><td>{@link #setDependsOn(String) dependsOn}</td><td>comma separated list of adapters in the same configuration that must have been started before this adapter is started when the configuration starts. This adapter is not started when one of them fails to start</td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setActive(boolean) active}</td>  <td>controls whether Adapter is included in configuration. When set <code>false</code> or set to something else as "true", (even set to the empty string), the receiver is not included in the configuration</td><td>true</td></tr>
  * <tr><td>{@link #setErrorMessageFormatter(IErrorMessageFormatter) errorMessageFormatter}</td><td>&nbsp;</td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setErrorState(String) errorState}</td><td>If an error occurs during
@@ -121,6 +123,7 @@ public class Adapter implements IAdapter, NamedBean {
 	private StatisticsKeeper statsMessageProcessingDuration = null;
 
 	private long statsUpSince = System.currentTimeMillis();
+	private volatile long startupDuration = -1;
 	private IErrorMessageFormatter errorMessageFormatter;
 	
 	private RunStateManager runState = new RunStateManager();
@@ -133,6 +136,7 @@ public class Adapter implements IAdapter, NamedBean {
 	private boolean msgLogHidden = MsgLogUtil.getMsgLogHiddenByDefault();
 	private boolean recover = false;
 	private boolean replaceNullMessage = false;
+	private String dependsOn;
 
 	// state to put in PipeLineResult when a PipeRunException occurs;
 	private String errorState = "ERROR";
@@ -715,10 +719,20 @@ public class Adapter implements IAdapter, NamedBean {
 	 * @see Adapter#run
 	 */
 	public void startRunning() {
+		startRunning(taskExecutor);
+	}
+
+	/**
+	 * Start the adapter on the specified executor. The adapter has been started (or
+	 * failed to start) when the task handed to the executor returns, which makes it
+	 * possible to limit the number of adapters that start at the same time.
+	 */
+	public void startRunning(Executor executor) {
 		Runnable runnable = new Runnable() {
 			@Override
 			public void run() {
 				Thread.currentThread().setName("starting Adapter "+getName());
+				long startTime = System.currentTimeMillis();
 				try {
 					// See also ReceiverBase.startRunning()
 					if (!configurationSucceeded) {
@@ -770,6 +784,9 @@ public class Adapter implements IAdapter, NamedBean {
 						IReceiver receiver = it.next();
 						receiver.startRunning();
 					}
+					startupDuration = System.currentTimeMillis() - startTime;
+					getMessageKeeper().add("Adapter [" + getName() + "] startup in " + startupDuration + " ms");
+					log.info("Adapter [" + getName() + "] startup in " + startupDuration + " ms");
 				} catch (Throwable t) {
 					error(true, "got error starting Adapter", t);
 					runState.setRunState(RunStateEnum.ERROR);
@@ -783,7 +800,7 @@ public class Adapter implements IAdapter, NamedBean {
 			}
 		};
 		configuration.addStartAdapterThread(runnable);
-		taskExecutor.execute(runnable);
+		executor.execute(runnable);
 	}
 
 	/**
@@ -928,6 +945,25 @@ public class Adapter implements IAdapter, NamedBean {
 	public boolean isAutoStart() {
 		return autoStart;
 	}
+
+	/**
+	 * Comma separated list of adapters that must have been started before this adapter
+	 * is started when the configuration starts.
+	 */
+	public void setDependsOn(String dependsOn) {
+		this.dependsOn = dependsOn;
+	}
+	public String getDependsOn() {
+		return dependsOn;
+	}
+
+	/**
+	 * Returns the number of milliseconds the last start of the adapter, including its
+	 * receivers, took, or -1 when the adapter has not been started successfully yet.
+	 */
+	public long getStartupDuration() {
+		return startupDuration;
+	}
 	
 	public void setRequestReplyLogging(boolean requestReplyLogging) {
 		ConfigurationWarnings configWarnings = ConfigurationWarnings.getInstance();
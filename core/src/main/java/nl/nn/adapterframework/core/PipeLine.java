@@ -1,5 +1,5 @@
 /*
-   Copyright 2013, 2015 Nationale-Nederlanden
+   Copyright 2013, 2015, 2016 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -84,6 +84,8 @@ import org.springframework.transaction.TransactionDefinition;
  * <tr><td>{@link #setForceFixedForwarding(boolean) forceFixedForwarding}</td><td>forces that each pipe in the pipeline is not automatically added to the globalForwards table</td><td>application default</td></tr>
  * <tr><td>{@link #setTransformNullMessage(String) transformNullMessage}</td><td>when specified and <code>null</code> is received as a message the message is changed to the specified value</td><td></td></tr>
  * <tr><td>{@link #setAdapterToRunBeforeOnEmptyInput(String) adapterToRunBeforeOnEmptyInput}</td><td>when specified and an empty message is received the specified adapter is run before passing the message (response from specified adapter) to the pipeline</td><td></td></tr>
+ * <tr><td>{@link #setSessionValueSpillThreshold(String) sessionValueSpillThreshold}</td><td>when set, String session values (like the original message and results stored in the session) of at least this number of characters are kept in encrypted temporary files instead of in memory, while the pipeline is processing the message. The values are read back when they are retrieved from the session, and the files are deleted when the processing of the message has finished, i.e. after the receiver has copied the returnedSessionKeys. The suffixes "KB", "MB" or "GB" can be used</td><td>&nbsp;</td></tr>
+ * <tr><td>{@link #setSessionValueSpillQuota(String) sessionValueSpillQuota}</td><td>maximum total size of the temporary files of spilled session values of all messages being processed by the adapter. Values that would exceed it are kept in memory. The suffixes "KB", "MB" or "GB" can be used</td><td>no limit</td></tr>
  * </table>
  * </p>
  * <table border="1">
@@ -167,6 +169,9 @@ public class PipeLine implements ICacheEnabled, HasStatistics {
 	private boolean forceFixedForwarding = Misc.isForceFixedForwardingByDefault();
 	private String transformNullMessage = null;
 	private String adapterToRunBeforeOnEmptyInput = null;
+	private long sessionValueSpillThreshold = -1;
+	private long sessionValueSpillQuota = -1;
+	private SessionValueSpillStore sessionValueSpillStore = null;
 
 	private List<IPipeLineExitHandler> exitHandlers = new ArrayList<IPipeLineExitHandler>();
 	//private CongestionSensorList congestionSensors = new CongestionSensorList();
@@ -366,6 +371,12 @@ public class PipeLine implements ICacheEnabled, HasStatistics {
 			}
 		}
 		
+		if (getSessionValueSpillThreshold()>0) {
+			sessionValueSpillStore = new SessionValueSpillStore("spilled session values", getSessionValueSpillThreshold(), getSessionValueSpillQuota());
+		} else {
+			sessionValueSpillStore = null;
+		}
+
 		int txOption = this.getTransactionAttributeNum();
 		if (log.isDebugEnabled()) log.debug("creating TransactionDefinition for transactionAttribute ["+getTransactionAttribute()+"], timeout ["+getTransactionTimeout()+"]");
 		txDef = SpringTxManagerProxy.getTransactionDefinition(txOption,getTransactionTimeout());
@@ -498,6 +509,9 @@ public class PipeLine implements ICacheEnabled, HasStatistics {
 			}
 		}
 		hski.closeGroup(sizeStatsData);
+		if (sessionValueSpillStore != null) {
+			sessionValueSpillStore.iterateOverStatistics(hski, data, action);
+		}
 	}
 
 	private void handlePipeStat(INamedObject pipe, Map<String, StatisticsKeeper> pipelineStatistics, Object pipeStatsData, StatisticsKeeperIterationHandler handler, boolean deep, int action) throws SenderException {
@@ -548,7 +562,23 @@ public class PipeLine implements ICacheEnabled, HasStatistics {
 		if (transformNullMessage != null && message == null) {
 			message = transformNullMessage;
 		}
-		return pipeLineProcessor.processPipeLine(this, messageId, message, pipeLineSession, firstPipe);
+		// spilled values are owned by the outermost pipeline that processes the session
+		PipeLineSessionBase spillingSession = null;
+		if (sessionValueSpillStore != null && pipeLineSession instanceof PipeLineSessionBase
+				&& ((PipeLineSessionBase)pipeLineSession).getSpillStore() == null) {
+			spillingSession = (PipeLineSessionBase)pipeLineSession;
+			spillingSession.setSpillStore(sessionValueSpillStore);
+		}
+		try {
+			return pipeLineProcessor.processPipeLine(this, messageId, message, pipeLineSession, firstPipe);
+		} finally {
+			if (spillingSession != null) {
+				spillingSession.setSpillStore(null);
+				if (spillingSession.isReleaseSpilledValuesAtPipeLineEnd()) {
+					spillingSession.releaseSpilledValues();
+				}
+			}
+		}
 	}
 
 	/**
@@ -830,6 +860,28 @@ public class PipeLine implements ICacheEnabled, HasStatistics {
 		return requestSizeStats;
 	}
 
+	/**
+	 * Number of characters from which String session values are spilled to disk. The suffixes 
+	 * "KB", "MB" or "GB" can be used, like for {@link #setMessageSizeWarn(String) messageSizeWarn}.
+	 */
+	public void setSessionValueSpillThreshold(String s) {
+		sessionValueSpillThreshold = Misc.toFileSize(s, sessionValueSpillThreshold);
+	}
+	public long getSessionValueSpillThreshold() {
+		return sessionValueSpillThreshold;
+	}
+
+	public void setSessionValueSpillQuota(String s) {
+		sessionValueSpillQuota = Misc.toFileSize(s, sessionValueSpillQuota);
+	}
+	public long getSessionValueSpillQuota() {
+		return sessionValueSpillQuota;
+	}
+
+	public SessionValueSpillStore getSessionValueSpillStore() {
+		return sessionValueSpillStore;
+	}
+
 	public void setAdapterToRunBeforeOnEmptyInput(String s) {
 		adapterToRunBeforeOnEmptyInput = s;
 	}
@@ -1,5 +1,5 @@
 /*
-   Copyright 2013 Nationale-Nederlanden
+   Copyright 2013, 2016 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -15,10 +15,16 @@
 */
 package nl.nn.adapterframework.core;
 
+import java.io.IOException;
 import java.security.Principal;
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 
 import nl.nn.adapterframework.util.DateUtils;
 
@@ -28,12 +34,24 @@ import org.apache.commons.lang.NotImplementedException;
 /**
  * Basic implementation of <code>IPipeLineSession</code>.
  * 
+ * While a {@link SessionValueSpillStore} is set, large String values are kept in encrypted temporary files by
+ * {@link #put(Object, Object)}, and read back by {@link #get(Object)}, {@link #entrySet()} and {@link #values()}.
+ * Code that can process the value streaming can use {@link #getSpilledValue(Object)} instead. Spilled values are
+ * released by {@link #releaseSpilledValues()}; by the pipeline that set the spillStore, or, when 
+ * {@link #setReleaseSpilledValuesAtPipeLineEnd(boolean) releaseSpilledValuesAtPipeLineEnd} is <code>false</code>,
+ * by the owner of the session, e.g. the receiver after it has copied the returned session keys.
+ * Unlike the {@link Map} contract, {@link #put(Object, Object)} and {@link #remove(Object)} return the previous
+ * content of a spilled value only when it is still cached in memory, and <code>null</code> otherwise, to avoid
+ * reading back a value that is discarded.
+ * 
  * @author  Johan Verrips IOS
  * @since   version 3.2.2
  */
 public class PipeLineSessionBase extends HashMap implements IPipeLineSession {
 
 	private ISecurityHandler securityHandler = null;
+	private SessionValueSpillStore spillStore = null;
+	private boolean releaseSpilledValuesAtPipeLineEnd = true;
 
 	public PipeLineSessionBase() {
 		super();
@@ -47,8 +65,262 @@ public class PipeLineSessionBase extends HashMap implements IPipeLineSession {
 		super(initialCapacity, loadFactor);
 	}
 
+	/**
+	 * Creates a copy of the session. Spilled values are read back into the copy, so 
+	 * the copy can be used after the values of the original session have been released.
+	 */
 	public PipeLineSessionBase(Map t) {
 		super(t);
+		for (Iterator it=super.entrySet().iterator(); it.hasNext();) {
+			Map.Entry entry = (Map.Entry)it.next();
+			if (entry.getValue() instanceof SpilledSessionValue) {
+				entry.setValue(readSpilledValue((SpilledSessionValue)entry.getValue()));
+			}
+		}
+	}
+
+	/**
+	 * Stores the value. When a spillStore is set, a String value that is large enough is kept in an encrypted temporary file.
+	 * When the previous value was spilled, it is released, and its content is returned only when it is still cached in memory.
+	 */
+	public Object put(Object key, Object value) {
+		if (spillStore != null && value instanceof String) {
+			SpilledSessionValue spilled = spillStore.spill((String)value);
+			if (spilled != null) {
+				value = spilled;
+			}
+		}
+		return releaseIfSpilled(super.put(key, value));
+	}
+
+	/**
+	 * Returns the value. A spilled value is read back from its temporary file.
+	 */
+	public Object get(Object key) {
+		Object value = super.get(key);
+		if (value instanceof SpilledSessionValue) {
+			return readSpilledValue((SpilledSessionValue)value);
+		}
+		return value;
+	}
+
+	/**
+	 * @return the spilled value stored under the key, to be read streaming, or <code>null</code> when the value is not spilled
+	 */
+	public SpilledSessionValue getSpilledValue(Object key) {
+		Object value = super.get(key);
+		if (value instanceof SpilledSessionValue) {
+			return (SpilledSessionValue)value;
+		}
+		return null;
+	}
+
+	/**
+	 * Removes the value. When the value was spilled, it is released, and its content is returned only when it is still cached in memory.
+	 */
+	public Object remove(Object key) {
+		return releaseIfSpilled(super.remove(key));
+	}
+
+	public void clear() {
+		releaseSpilledValues();
+		super.clear();
+	}
+
+	/**
+	 * Removes all spilled values from the session and deletes their temporary files.
+	 * Called at the end of the pipeline that set the spillStore, unless releaseSpilledValuesAtPipeLineEnd is <code>false</code>.
+	 */
+	public void releaseSpilledValues() {
+		for (Iterator it=super.entrySet().iterator(); it.hasNext();) {
+			Map.Entry entry = (Map.Entry)it.next();
+			if (entry.getValue() instanceof SpilledSessionValue) {
+				((SpilledSessionValue)entry.getValue()).release();
+				it.remove();
+			}
+		}
+	}
+
+	public boolean containsValue(Object value) {
+		for (Iterator it=values().iterator(); it.hasNext();) {
+			Object v = it.next();
+			if (value==null ? v==null : value.equals(v)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns a view of the keys. Removing a key through the view releases its spilled value.
+	 */
+	public Set keySet() {
+		return new AbstractSet() {
+			public Iterator iterator() {
+				final Iterator it = entrySet().iterator();
+				return new Iterator() {
+					public boolean hasNext() {
+						return it.hasNext();
+					}
+					public Object next() {
+						return ((Map.Entry)it.next()).getKey();
+					}
+					public void remove() {
+						it.remove();
+					}
+				};
+			}
+			public int size() {
+				return PipeLineSessionBase.this.size();
+			}
+			public boolean contains(Object o) {
+				return containsKey(o);
+			}
+			public boolean remove(Object o) {
+				if (!containsKey(o)) {
+					return false;
+				}
+				PipeLineSessionBase.this.remove(o);
+				return true;
+			}
+			public void clear() {
+				PipeLineSessionBase.this.clear();
+			}
+		};
+	}
+
+	/**
+	 * Returns a view of the entries in which spilled values are read back from their temporary files.
+	 * Removing an entry through the view releases its spilled value.
+	 */
+	public Set entrySet() {
+		final Set entries = super.entrySet();
+		return new AbstractSet() {
+			public Iterator iterator() {
+				final Iterator it = entries.iterator();
+				return new Iterator() {
+					private Map.Entry current;
+
+					public boolean hasNext() {
+						return it.hasNext();
+					}
+					public Object next() {
+						final Map.Entry entry = (Map.Entry)it.next();
+						current = entry;
+						return new Map.Entry() {
+							public Object getKey() {
+								return entry.getKey();
+							}
+							public Object getValue() {
+								Object value = entry.getValue();
+								if (value instanceof SpilledSessionValue) {
+									return readSpilledValue((SpilledSessionValue)value);
+								}
+								return value;
+							}
+							public Object setValue(Object value) {
+								return put(getKey(), value);
+							}
+							public boolean equals(Object o) {
+								if (!(o instanceof Map.Entry)) {
+									return false;
+								}
+								Map.Entry e = (Map.Entry)o;
+								Object k = getKey();
+								Object v = getValue();
+								return (k==null ? e.getKey()==null : k.equals(e.getKey())) && (v==null ? e.getValue()==null : v.equals(e.getValue()));
+							}
+							public int hashCode() {
+								Object k = getKey();
+								Object v = getValue();
+								return (k==null ? 0 : k.hashCode()) ^ (v==null ? 0 : v.hashCode());
+							}
+							public String toString() {
+								return getKey()+"="+getValue();
+							}
+						};
+					}
+					public void remove() {
+						Object value = current == null ? null : current.getValue();
+						it.remove();
+						current = null;
+						releaseIfSpilled(value);
+					}
+				};
+			}
+			public int size() {
+				return PipeLineSessionBase.this.size();
+			}
+			public void clear() {
+				PipeLineSessionBase.this.clear();
+			}
+		};
+	}
+
+	/**
+	 * Returns a view of the values in which spilled values are read back from their temporary files.
+	 */
+	public Collection values() {
+		return new AbstractCollection() {
+			public Iterator iterator() {
+				final Iterator it = entrySet().iterator();
+				return new Iterator() {
+					public boolean hasNext() {
+						return it.hasNext();
+					}
+					public Object next() {
+						return ((Map.Entry)it.next()).getValue();
+					}
+					public void remove() {
+						it.remove();
+					}
+				};
+			}
+			public int size() {
+				return PipeLineSessionBase.this.size();
+			}
+			public void clear() {
+				PipeLineSessionBase.this.clear();
+			}
+		};
+	}
+
+	private Object releaseIfSpilled(Object value) {
+		if (value instanceof SpilledSessionValue) {
+			SpilledSessionValue spilled = (SpilledSessionValue)value;
+			// the previous value is usually discarded, so it is not read back from its file
+			String cached = spilled.getCachedValue();
+			spilled.release();
+			return cached;
+		}
+		return value;
+	}
+
+	private Object readSpilledValue(SpilledSessionValue spilled) {
+		try {
+			return spilled.getValue();
+		} catch (IOException e) {
+			throw new IllegalStateException("cannot read spilled session value: "+e.getMessage());
+		}
+	}
+
+	public void setSpillStore(SessionValueSpillStore spillStore) {
+		this.spillStore = spillStore;
+	}
+	public SessionValueSpillStore getSpillStore() {
+		return spillStore;
+	}
+
+	/**
+	 * When <code>true</code> (the default), spilled values are released at the end of the pipeline that set the spillStore.
+	 * Set to <code>false</code> by owners of the session that use its values after the pipeline has ended; they must call
+	 * {@link #releaseSpilledValues()} themselves.
+	 */
+	public void setReleaseSpilledValuesAtPipeLineEnd(boolean releaseSpilledValuesAtPipeLineEnd) {
+		this.releaseSpilledValuesAtPipeLineEnd = releaseSpilledValuesAtPipeLineEnd;
+	}
+	public boolean isReleaseSpilledValuesAtPipeLineEnd() {
+		return releaseSpilledValuesAtPipeLineEnd;
 	}
 
 	public String getMessageId() {
@@ -0,0 +1,134 @@
+/*
+   Copyright 2016 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.core;
+
+import java.io.IOException;
+
+import nl.nn.adapterframework.statistics.HasStatistics;
+import nl.nn.adapterframework.statistics.StatisticsKeeperIterationHandler;
+import nl.nn.adapterframework.util.Counter;
+import nl.nn.adapterframework.util.CounterStatistic;
+import nl.nn.adapterframework.util.LogUtil;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps String session values of which the length exceeds <code>threshold</code> characters in encrypted temporary
+ * files, instead of in memory, for the {@link PipeLineSessionBase sessions} of the pipeline of an adapter.
+ * <p>
+ * The total size of the temporary files of the adapter is limited to <code>quota</code> bytes. Values that
+ * would exceed the quota are kept in memory. The values are released, and their files deleted, at the end of the
+ * pipeline, by {@link PipeLineSessionBase#releaseSpilledValues()}.
+ * 
+ * @since   7.0
+ * @see     SpilledSessionValue
+ */
+public class SessionValueSpillStore implements HasStatistics {
+	protected Logger log = LogUtil.getLogger(this);
+
+	private String name;
+	private long threshold;
+	private long quota;
+
+	private Counter bytesInUse = new Counter(0);
+	private CounterStatistic spilledValues = new CounterStatistic(0);
+	private CounterStatistic spilledBytes = new CounterStatistic(0);
+	private CounterStatistic quotaExceeded = new CounterStatistic(0);
+	private CounterStatistic spillErrors = new CounterStatistic(0);
+
+	/**
+	 * @param threshold minimum number of characters of a value to be spilled
+	 * @param quota maximum number of bytes in use by spilled values at any time, or -1 for no limit
+	 */
+	public SessionValueSpillStore(String name, long threshold, long quota) {
+		this.name = name;
+		this.threshold = threshold;
+		this.quota = quota;
+	}
+
+	/**
+	 * Writes the value to an encrypted temporary file.
+	 * @return the spilled value, or <code>null</code> when the value is to be kept in memory
+	 */
+	public SpilledSessionValue spill(String value) {
+		if (value == null || value.length() < threshold) {
+			return null;
+		}
+		// the number of characters is a good estimate for the size of the file, as most characters are encoded in a single byte
+		long estimate = value.length();
+		synchronized (bytesInUse) {
+			if (quota >= 0 && bytesInUse.getValue() + estimate > quota) {
+				quotaExceeded.increase();
+				if (log.isDebugEnabled()) log.debug(name+" keeps value of ["+value.length()+"] characters in memory, spilling it would exceed quota of ["+quota+"] bytes");
+				return null;
+			}
+			bytesInUse.increase(estimate);
+		}
+		try {
+			SpilledSessionValue spilled = new SpilledSessionValue(this, value);
+			bytesInUse.increase(spilled.getSize() - estimate);
+			spilledValues.increase();
+			spilledBytes.increase(spilled.getSize());
+			if (log.isDebugEnabled()) log.debug(name+" spilled value of ["+value.length()+"] characters to ["+spilled.getSize()+"] bytes");
+			return spilled;
+		} catch (IOException e) {
+			bytesInUse.decrease(estimate);
+			spillErrors.increase();
+			log.warn(name+" could not spill value of ["+value.length()+"] characters, keeping it in memory", e);
+			return null;
+		}
+	}
+
+	void released(SpilledSessionValue spilled) {
+		bytesInUse.decrease(spilled.getSize());
+	}
+
+	public void iterateOverStatistics(StatisticsKeeperIterationHandler hski, Object data, int action) throws SenderException {
+		hski.handleScalar(data, name+" spilledValues", spilledValues.getValue());
+		hski.handleScalar(data, name+" spilledBytes", spilledBytes.getValue());
+		hski.handleScalar(data, name+" bytesInUse", bytesInUse.getValue());
+		hski.handleScalar(data, name+" quotaExceeded", quotaExceeded.getValue());
+		hski.handleScalar(data, name+" spillErrors", spillErrors.getValue());
+		spilledValues.performAction(action);
+		spilledBytes.performAction(action);
+		quotaExceeded.performAction(action);
+		spillErrors.performAction(action);
+	}
+
+	public long getThreshold() {
+		return threshold;
+	}
+
+	public long getQuota() {
+		return quota;
+	}
+
+	public long getBytesInUse() {
+		return bytesInUse.getValue();
+	}
+
+	public long getSpilledValues() {
+		return spilledValues.getValue();
+	}
+
+	public long getSpilledBytes() {
+		return spilledBytes.getValue();
+	}
+
+	public long getQuotaExceeded() {
+		return quotaExceeded.getValue();
+	}
+}
@@ -0,0 +1,234 @@
+/*
+   Copyright 2016 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.core;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.ref.SoftReference;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.CipherOutputStream;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+
+import nl.nn.adapterframework.util.AppConstants;
+import nl.nn.adapterframework.util.LogUtil;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Session value of which the content is kept in an encrypted temporary file instead of in memory.
+ * 
+ * The content is encrypted with a key that is generated for each value and is only kept in memory, so
+ * the temporary file cannot be read by others, and is of no use anymore once the value is released.
+ * The content is read back from the file each time it is accessed, either as a String by 
+ * {@link #getValue()} or streaming by {@link #openReader()}.
+ * 
+ * @since   7.0
+ * @see     SessionValueSpillStore
+ */
+public class SpilledSessionValue {
+	protected static Logger log = LogUtil.getLogger(SpilledSessionValue.class);
+
+	private static final String TRANSFORMATION = "AES/CTR/NoPadding";
+	private static final String ENCODING = "UTF-8";
+	private static final SecureRandom random = new SecureRandom();
+
+	private SessionValueSpillStore store;
+	private File file;
+	private SecretKey key;
+	private byte[] iv;
+	private long length;
+	private long size;
+	private boolean released = false;
+	private SoftReference<String> lastValue;
+
+	SpilledSessionValue(SessionValueSpillStore store, String value) throws IOException {
+		this.store = store;
+		length = value.length();
+		try {
+			KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+			keyGenerator.init(128, random);
+			key = keyGenerator.generateKey();
+			iv = new byte[16];
+			random.nextBytes(iv);
+			// no deleteOnExit(), the file is deleted by release() and would otherwise be remembered until the jvm exits
+			String directory = AppConstants.getInstance().getResolvedProperty("upload.dir");
+			file = File.createTempFile("session", ".spill", StringUtils.isEmpty(directory) ? null : new File(directory));
+			CountingOutputStream counter = new CountingOutputStream(new FileOutputStream(file));
+			Writer writer = new OutputStreamWriter(new BufferedOutputStream(new CipherOutputStream(counter, createCipher(Cipher.ENCRYPT_MODE))), ENCODING);
+			try {
+				writer.write(value);
+			} finally {
+				writer.close();
+			}
+			size = counter.getCount();
+		} catch (GeneralSecurityException e) {
+			deleteFile();
+			throw new IOException("cannot encrypt session value: "+e.getMessage());
+		} catch (IOException e) {
+			deleteFile();
+			throw e;
+		}
+	}
+
+	private Cipher createCipher(int mode) throws GeneralSecurityException {
+		Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+		cipher.init(mode, key, new IvParameterSpec(iv));
+		return cipher;
+	}
+
+	/**
+	 * Opens a reader on the content, that must be closed by the caller.
+	 */
+	public synchronized Reader openReader() throws IOException {
+		if (released) {
+			throw new IOException("spilled session value has already been released");
+		}
+		try {
+			return new BufferedReader(new InputStreamReader(new CipherInputStream(new FileInputStream(file), createCipher(Cipher.DECRYPT_MODE)), ENCODING));
+		} catch (GeneralSecurityException e) {
+			throw new IOException("cannot decrypt session value: "+e.getMessage());
+		}
+	}
+
+	/**
+	 * Reads the content back into memory. The content is kept softly reachable, so repeated
+	 * calls return the same String, until the garbage collector needs the memory.
+	 */
+	public String getValue() throws IOException {
+		synchronized (this) {
+			String value = lastValue == null ? null : lastValue.get();
+			if (value != null) {
+				return value;
+			}
+		}
+		Reader reader = openReader();
+		try {
+			StringBuilder sb = new StringBuilder((int)length);
+			char[] buffer = new char[8192];
+			int len;
+			while ((len = reader.read(buffer)) >= 0) {
+				sb.append(buffer, 0, len);
+			}
+			String value = sb.toString();
+			synchronized (this) {
+				lastValue = new SoftReference<String>(value);
+			}
+			return value;
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * @return the content when it is still softly cached by {@link #getValue()}, or <code>null</code> otherwise
+	 */
+	public synchronized String getCachedValue() {
+		return lastValue == null ? null : lastValue.get();
+	}
+
+	/**
+	 * Deletes the temporary file. The content is not accessible anymore after the value has been released.
+	 */
+	public void release() {
+		synchronized (this) {
+			if (released) {
+				return;
+			}
+			released = true;
+			deleteFile();
+			key = null;
+			lastValue = null;
+		}
+		if (store != null) {
+			store.released(this);
+		}
+	}
+
+	private void deleteFile() {
+		if (file != null && file.exists() && !file.delete()) {
+			log.warn("could not delete spilled session value file ["+file.getPath()+"]");
+		}
+	}
+
+	/**
+	 * @return the number of characters of the content
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * @return the number of bytes of the temporary file
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	public synchronized boolean isReleased() {
+		return released;
+	}
+
+	/**
+	 * Returns the content, to keep code that handles session values as Strings working.
+	 */
+	public String toString() {
+		try {
+			return getValue();
+		} catch (IOException e) {
+			log.warn("cannot read spilled session value ["+file.getPath()+"]", e);
+			return "";
+		}
+	}
+
+	private static class CountingOutputStream extends FilterOutputStream {
+		private long count = 0;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+		long getCount() {
+			return count;
+		}
+	}
+}
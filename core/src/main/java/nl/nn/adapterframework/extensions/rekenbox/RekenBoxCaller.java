@@ -1,5 +1,5 @@
 /*
-   Copyright 2013 Nationale-Nederlanden
+   Copyright 2013, 2016 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -16,15 +16,19 @@
 package nl.nn.adapterframework.extensions.rekenbox;
 
 import java.io.File;
+import java.io.StringReader;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import nl.nn.adapterframework.configuration.ConfigurationException;
 import nl.nn.adapterframework.core.IPipeLineSession;
 import nl.nn.adapterframework.core.PipeRunException;
 import nl.nn.adapterframework.core.PipeRunResult;
 import nl.nn.adapterframework.pipes.FixedForwardPipe;
-import nl.nn.adapterframework.util.Counter;
 import nl.nn.adapterframework.util.Misc;
 
 import org.apache.commons.lang.StringUtils;
@@ -34,6 +38,9 @@ import org.apache.commons.lang.StringUtils;
  * The inputmessage is written to a temporary file and passed as inputfile to the rekenbox. The contents of the outputfile of the
  * rekenbox is returned as output message. The name of the rekenbox, as determined from the inputfile, is optionally written to
  * the pipeLineSession.
+ * When <code>persistent=true</code>, each rekenbox is instead started once as a worker, like: rekenbox.exe /S /PtemplateDir, and kept
+ * in a {@link RekenBoxWorkerPool} that passes the inputmessages over stdin and reads the output messages from stdout. Rekenboxes that
+ * do not answer the health check of the pool are called with a process and files per message, as specified by the commandLineType.
  *
  * <p><b>Configuration:</b>
  * <table border="1">
@@ -54,6 +61,10 @@ import org.apache.commons.lang.StringUtils;
  * <tr><td>{@link #setRekenboxSessionKey(String) rekenboxSessionKey}</td><td>key in {@link nl.nn.adapterframework.core.IPipeLineSession pipeLineSession} to store rekenbox name in</td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setDataFilenamePrefix(String) dataFilenamePrefix}</td><td>first part of filenames that communicate requests and replies to rekenbox</td><td>rb</td></tr>
  * <tr><td>{@link #setMaxRequestNumber(long) maxRequestNumber}</td><td>maximal number that will be concatenated to dataFilenamePrefix</td><td>1000</td></tr>
+ * <tr><td>{@link #setPersistent(boolean) persistent}</td><td>if true, rekenboxes are kept running as worker processes that handle subsequent messages</td><td>false</td></tr>
+ * <tr><td>{@link #setMaxIdleWorkers(int) maxIdleWorkers}</td><td>when persistent=true, the maximum number of idle worker processes kept per rekenbox</td><td>5</td></tr>
+ * <tr><td>{@link #setMaxWorkerUses(int) maxWorkerUses}</td><td>when persistent=true, the number of messages after which a worker process is ended and replaced by a new one. When set to 0, workers are not recycled</td><td>1000</td></tr>
+ * <tr><td>{@link #setWorkerTimeout(long) workerTimeout}</td><td>when persistent=true, time (in milliseconds) after which a worker process that has not replied is killed</td><td>60000</td></tr>
  * </table>
  * </p>
  * <p><b>Exits:</b>
@@ -86,8 +97,14 @@ public class RekenBoxCaller extends FixedForwardPipe {
 	
 	private String dataFilenamePrefix ="rb";
 	private long maxRequestNumber=1000;
+	private boolean persistent=false;
+	private int maxIdleWorkers=5;
+	private int maxWorkerUses=1000;
+	private long workerTimeout=60000;
 	private NumberFormat formatter;
-	private static Counter requestCounter = new Counter(0);
+	private static AtomicLong requestCounter = new AtomicLong(0);
+
+	private ConcurrentHashMap<String,RekenBoxWorkerPool> workerPools = new ConcurrentHashMap<String,RekenBoxWorkerPool>();
 
 	private File inputOutputDir;
 
@@ -106,10 +123,35 @@ public class RekenBoxCaller extends FixedForwardPipe {
 		if (!inputOutputDir.isDirectory()) {
 			throw new ConfigurationException(getLogPrefix(null)+"inputOutputDirectory ["+getInputOutputDirectory()+"] is not a directory");
 		}
+		if (isPersistent() && getWorkerTimeout()<=0) {
+			throw new ConfigurationException(getLogPrefix(null)+"workerTimeout must be positive when persistent=true");
+		}
 		formatter = new DecimalFormat("000000000000".substring(0,Long.toString(getMaxRequestNumber()).length()));
-		String baseFileName=getBaseFileName();
-		log.debug(getLogPrefix(null)+"first filename will be ["+baseFileName+"]");
-		requestCounter.decrease();
+		log.debug(getLogPrefix(null)+"first filename will be ["+makeFileName(wrap(requestCounter.get()+1),"")+"]");
+	}
+
+	public void stop() {
+		for (RekenBoxWorkerPool pool:workerPools.values()) {
+			pool.close();
+		}
+		workerPools.clear();
+		super.stop();
+	}
+
+	protected RekenBoxWorkerPool getWorkerPool(String exeName) {
+		RekenBoxWorkerPool pool=workerPools.get(exeName);
+		if (pool==null) {
+			List<String> command = new ArrayList<String>();
+			command.add(exeName);
+			command.add("/S");
+			command.add("/P"+getTemplateDir());
+			pool=new RekenBoxWorkerPool(getLogPrefix(null)+"["+exeName+"]", command, getMaxIdleWorkers(), getMaxWorkerUses(), getWorkerTimeout());
+			RekenBoxWorkerPool current=workerPools.putIfAbsent(exeName, pool);
+			if (current!=null) {
+				pool=current;
+			}
+		}
+		return pool;
 	}
 	
 	protected boolean inputFileExists(long requestno,String extension) {
@@ -120,19 +162,16 @@ public class RekenBoxCaller extends FixedForwardPipe {
 		return getDataFilenamePrefix() + formatter.format(requestno)+extension;
 	}
 	
+	private long wrap(long requestno) {
+		return requestno%getMaxRequestNumber();
+	}
+
 	public String getBaseFileName() {
-		boolean didReset=false;
 		long requestno;
 		
-		for(requestno=requestCounter.increase(); inputFileExists(requestno,".INV"); requestno=requestCounter.increase()) {
-			if (!didReset && requestno>=getMaxRequestNumber()) {
-				synchronized (requestCounter){
-					if (requestCounter.getValue()>=getMaxRequestNumber())	{
-						requestCounter.decrease(getMaxRequestNumber());
-					}
-				}
-			}
-		}
+		do {
+			requestno=wrap(requestCounter.incrementAndGet());
+		} while (inputFileExists(requestno,".INV"));
 		return makeFileName(requestno,"");
 	}
 
@@ -176,6 +215,18 @@ public class RekenBoxCaller extends FixedForwardPipe {
 	        session.put(getRekenboxSessionKey(),rekenboxName);
 	    }
 
+		if (isPersistent()) {
+			try {
+				String result=getWorkerPool(exeName).call(rekenboxInput);
+				if (result!=null) {
+					// normalize like the outputfile is read
+					return new PipeRunResult(getForward(), Misc.readerToString(new StringReader(result), "\n", true));
+				}
+			} catch (Exception e) {
+			   	throw new PipeRunException(this, getLogPrefix(session)+"got Exception calling rekenbox worker", e);
+			}
+		}
+
 	    String baseFileName=getBaseFileName();
 	    String inputFileName=inputOutputDirectory+baseFileName+".INV";
 	    String outputFileName=inputOutputDirectory+baseFileName+".UIT";
@@ -309,5 +360,33 @@ public class RekenBoxCaller extends FixedForwardPipe {
 		return maxRequestNumber;
 	}
 
+	public void setPersistent(boolean b) {
+		persistent = b;
+	}
+	public boolean isPersistent() {
+		return persistent;
+	}
+
+	public void setMaxIdleWorkers(int i) {
+		maxIdleWorkers = i;
+	}
+	public int getMaxIdleWorkers() {
+		return maxIdleWorkers;
+	}
+
+	public void setMaxWorkerUses(int i) {
+		maxWorkerUses = i;
+	}
+	public int getMaxWorkerUses() {
+		return maxWorkerUses;
+	}
+
+	public void setWorkerTimeout(long l) {
+		workerTimeout = l;
+	}
+	public long getWorkerTimeout() {
+		return workerTimeout;
+	}
+
 
 }
@@ -0,0 +1,383 @@
+/*
+   Copyright 2016 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.extensions.rekenbox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import nl.nn.adapterframework.core.TimeOutException;
+import nl.nn.adapterframework.util.CounterStatistic;
+import nl.nn.adapterframework.util.LogUtil;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Pool of long-lived rekenbox worker processes, used by the {@link RekenBoxCaller} to avoid starting a
+ * process and creating input and output files for every calculation.
+ * <p>
+ * A worker is started with the command specified, and exchanges requests and replies over its stdin and
+ * stdout. Each request and each reply is framed as the number of bytes of its contents in decimal digits,
+ * followed by a newline and the contents itself. The worker ends when its stdin is closed.
+ * <p>
+ * When a worker is started, an empty request is sent as health check, that must be answered within
+ * <code>timeout</code> milliseconds. If the first worker fails this check, the executable is assumed not to
+ * be able to run persistently, and {@link #call(String)} returns <code>null</code> from then on, to let the
+ * caller fall back to a process per calculation. An idle worker that has ended is discarded when it is borrowed.
+ * A worker is killed when it does not answer a request within <code>timeout</code> milliseconds, it is ended
+ * when it has handled <code>maxUses</code> requests, and when more than <code>maxIdle</code> workers would be kept.
+ * 
+ * @since   7.0
+ */
+public class RekenBoxWorkerPool {
+	protected Logger log = LogUtil.getLogger(this);
+
+	private final static int PURGE_INTERVAL=1000;
+
+	private static Timer watchdog;
+	private static int cancelledTimeouts=0;
+
+	private String name;
+	private List<String> command;
+	private int maxIdle;
+	private int maxUses;
+	private long timeout;
+
+	private LinkedList<Worker> idleWorkers = new LinkedList<Worker>();
+	private boolean closed=false;
+	private boolean verified=false;
+	private boolean unsupported=false;
+
+	private CounterStatistic workersStarted = new CounterStatistic(0);
+	private CounterStatistic workersReused = new CounterStatistic(0);
+	private CounterStatistic workersKilled = new CounterStatistic(0);
+
+	public class Worker {
+		private Process process;
+		private OutputStream stdin;
+		private InputStream stdout;
+		private int uses=0;
+		private volatile boolean timedOut=false;
+
+		Worker(Process process) {
+			this.process=process;
+			stdin=process.getOutputStream();
+			stdout=process.getInputStream();
+			drain(process.getErrorStream());
+		}
+
+		/**
+		 * Sends a request to the worker and waits at most <code>timeout</code> milliseconds for the reply.
+		 */
+		public String call(String request) throws IOException, TimeOutException {
+			TimerTask killer = new TimerTask() {
+				public void run() {
+					timedOut=true;
+					process.destroy();
+				}
+			};
+			if (timeout>0) {
+				getWatchdog().schedule(killer, timeout);
+			}
+			try {
+				byte[] data=request.getBytes();
+				stdin.write((data.length+"\n").getBytes("US-ASCII"));
+				stdin.write(data);
+				stdin.flush();
+				byte[] reply=readFrame();
+				uses++;
+				return new String(reply);
+			} catch (IOException e) {
+				if (timedOut) {
+					throw new TimeOutException(name+" worker did not reply within ["+timeout+"] ms, killed it");
+				}
+				throw e;
+			} finally {
+				if (killer.cancel()) {
+					purgeWatchdog();
+				}
+			}
+		}
+
+		private byte[] readFrame() throws IOException {
+			int length=0;
+			int digits=0;
+			int c;
+			while ((c=stdout.read())!='\n') {
+				if (c<0) {
+					throw new IOException(name+" worker ended");
+				}
+				if (c>='0' && c<='9') {
+					length=length*10+(c-'0');
+					digits++;
+				} else if (c!='\r') {
+					throw new IOException(name+" unexpected character ["+(char)c+"] in frame header");
+				}
+			}
+			if (digits==0) {
+				throw new IOException(name+" empty frame header");
+			}
+			byte[] data=new byte[length];
+			int pos=0;
+			while (pos<length) {
+				int count=stdout.read(data, pos, length-pos);
+				if (count<0) {
+					throw new IOException(name+" worker ended after ["+pos+"] of ["+length+"] bytes");
+				}
+				pos+=count;
+			}
+			return data;
+		}
+
+		boolean isAlive() {
+			try {
+				process.exitValue();
+				return false;
+			} catch (IllegalThreadStateException e) {
+				return true;
+			}
+		}
+
+		boolean isExhausted() {
+			return maxUses>0 && uses>=maxUses;
+		}
+
+		public int getUses() {
+			return uses;
+		}
+	}
+
+	public RekenBoxWorkerPool(String name, List<String> command, int maxIdle, int maxUses, long timeout) {
+		this.name=name;
+		this.command=command;
+		this.maxIdle=maxIdle;
+		this.maxUses=maxUses;
+		this.timeout=timeout;
+	}
+
+	private static synchronized Timer getWatchdog() {
+		if (watchdog==null) {
+			watchdog=new Timer("RekenBoxWorkerWatchdog", true);
+		}
+		return watchdog;
+	}
+
+	private static synchronized void purgeWatchdog() {
+		if (++cancelledTimeouts>=PURGE_INTERVAL) {
+			cancelledTimeouts=0;
+			watchdog.purge();
+		}
+	}
+
+	private void drain(final InputStream stderr) {
+		Thread drainer = new Thread(name+" stderr") {
+			public void run() {
+				ByteArrayOutputStream line = new ByteArrayOutputStream();
+				try {
+					int c;
+					while ((c=stderr.read())>=0) {
+						if (c=='\n') {
+							log.debug(name+" worker reported ["+line.toString().trim()+"]");
+							line.reset();
+						} else {
+							line.write(c);
+						}
+					}
+				} catch (IOException e) {
+					log.debug(name+" stopped reading stderr of worker", e);
+				}
+			}
+		};
+		drainer.setDaemon(true);
+		drainer.start();
+	}
+
+	/**
+	 * Performs a calculation on a pooled worker.
+	 * @return the reply of the worker, or <code>null</code> when the executable cannot run persistently
+	 */
+	public String call(String request) throws IOException, TimeOutException {
+		Worker worker=borrow();
+		if (worker==null) {
+			return null;
+		}
+		boolean success=false;
+		try {
+			String result=worker.call(request);
+			success=true;
+			return result;
+		} finally {
+			if (success) {
+				release(worker);
+			} else {
+				invalidate(worker);
+			}
+		}
+	}
+
+	/**
+	 * Returns an idle worker from the pool or a newly started one, or <code>null</code> when the executable
+	 * cannot run persistently. Each worker obtained must be handed back by {@link #release(Worker)} or {@link #invalidate(Worker)}.
+	 */
+	public Worker borrow() throws IOException, TimeOutException {
+		while (true) {
+			Worker candidate;
+			synchronized (this) {
+				if (idleWorkers.isEmpty()) {
+					break;
+				}
+				candidate=idleWorkers.removeFirst();
+			}
+			if (candidate.isAlive()) {
+				workersReused.increase();
+				return candidate;
+			}
+			log.info(name+" discarding worker that has ended after ["+candidate.getUses()+"] requests");
+			kill(candidate);
+		}
+		synchronized (this) {
+			if (unsupported) {
+				return null;
+			}
+		}
+		return start();
+	}
+
+	private Worker start() throws IOException, TimeOutException {
+		if (log.isDebugEnabled()) log.debug(name+" starting worker "+command);
+		Worker worker=new Worker(new ProcessBuilder(command).start());
+		workersStarted.increase();
+		try {
+			worker.call("");
+			worker.uses=0;
+		} catch (IOException e) {
+			if (failedHealthCheck(worker, e)) {
+				return null;
+			}
+			throw e;
+		} catch (TimeOutException e) {
+			if (failedHealthCheck(worker, e)) {
+				return null;
+			}
+			throw e;
+		}
+		synchronized (this) {
+			verified=true;
+		}
+		return worker;
+	}
+
+	/**
+	 * Kills a worker that failed its health check. Returns true when no worker has passed the check before,
+	 * i.e. when the executable cannot run persistently.
+	 */
+	private boolean failedHealthCheck(Worker worker, Exception e) {
+		kill(worker);
+		synchronized (this) {
+			if (verified) {
+				return false;
+			}
+			unsupported=true;
+		}
+		log.warn(name+" executable does not answer health check, falling back to a process per request", e);
+		return true;
+	}
+
+	/**
+	 * Hands a worker back after successful use. Workers that are exhausted, or that do not fit in the pool, are ended.
+	 */
+	public void release(Worker worker) {
+		if (worker==null) {
+			return;
+		}
+		if (!worker.isExhausted()) {
+			synchronized (this) {
+				if (!closed && idleWorkers.size()<maxIdle) {
+					idleWorkers.addFirst(worker);
+					return;
+				}
+			}
+		}
+		if (log.isDebugEnabled()) log.debug(name+" ending worker after ["+worker.getUses()+"] requests");
+		end(worker);
+	}
+
+	/**
+	 * Kills a worker that has encountered an error or a timeout, so it will not be reused.
+	 */
+	public void invalidate(Worker worker) {
+		if (worker!=null) {
+			kill(worker);
+		}
+	}
+
+	public void close() {
+		LinkedList<Worker> toEnd;
+		synchronized (this) {
+			closed=true;
+			toEnd=idleWorkers;
+			idleWorkers=new LinkedList<Worker>();
+		}
+		for (Worker worker:toEnd) {
+			end(worker);
+		}
+	}
+
+	/**
+	 * Closes stdin of the worker, which lets it end after handling all requests.
+	 */
+	private void end(Worker worker) {
+		try {
+			worker.stdin.close();
+		} catch (IOException e) {
+			log.debug(name+" got exception closing stdin of worker, killing it", e);
+			kill(worker);
+		}
+	}
+
+	private void kill(Worker worker) {
+		workersKilled.increase();
+		try {
+			worker.stdin.close();
+		} catch (IOException e) {
+			log.debug(name+" got exception closing stdin of worker", e);
+		}
+		worker.process.destroy();
+	}
+
+	public synchronized int getIdleCount() {
+		return idleWorkers.size();
+	}
+
+	public synchronized boolean isUnsupported() {
+		return unsupported;
+	}
+
+	public long getWorkersStarted() {
+		return workersStarted.getValue();
+	}
+	public long getWorkersReused() {
+		return workersReused.getValue();
+	}
+	public long getWorkersKilled() {
+		return workersKilled.getValue();
+	}
+}
@@ -0,0 +1,242 @@
+/*
+   Copyright 2016 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.ftp;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import nl.nn.adapterframework.util.LogUtil;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Thread-safe pool of logged-in FTP and SFTP connections, shared by all {@link FtpSession}s in the JVM.
+ * <p>
+ * Connections are kept per host, user and remote directory (the <i>pool key</i>). Idle connections are checked
+ * for liveness before they are handed out, and are closed when they have been idle for longer than the idle timeout
+ * of the sessions that use the pool key. The number of connections per host (idle and in use together) is limited;
+ * when the limit is reached, the oldest idle connection to the host of another pool key is closed to make room, or
+ * when all connections are in use, callers wait for a connection to become available.
+ * 
+ * @since   7.0
+ */
+public class FtpClientPool {
+	protected Logger log = LogUtil.getLogger(this);
+
+	private static FtpClientPool self=null;
+
+	private Map<String,LinkedList<FtpConnection>> idleConnections = new HashMap<String,LinkedList<FtpConnection>>();
+	private Map<String,Integer> connectionsPerHost = new HashMap<String,Integer>();
+	private Map<String,Long> idleTimeouts = new HashMap<String,Long>();
+
+	public static synchronized FtpClientPool getInstance() {
+		if (self==null) {
+			self=new FtpClientPool();
+		}
+		return self;
+	}
+
+	/**
+	 * Returns a logged-in connection for the session, reusing an idle one if available.
+	 */
+	public FtpConnection borrow(FtpSession session, String remoteDirectory) throws FtpConnectException {
+		String poolKey=session.getPoolKey(remoteDirectory);
+		String hostKey=session.getHostKey();
+		synchronized (this) {
+			idleTimeouts.put(poolKey, session.getIdleTimeout());
+		}
+		evictIdle();
+		long waitUntil=System.currentTimeMillis()+session.getMaxWaitTime();
+		while (true) {
+			FtpConnection candidate=null;
+			FtpConnection toEvict=null;
+			synchronized (this) {
+				LinkedList<FtpConnection> idle=idleConnections.get(poolKey);
+				if (idle!=null && !idle.isEmpty()) {
+					candidate=idle.removeFirst();
+				} else {
+					int count=getConnectionCount(hostKey);
+					if (session.getMaxConnectionsPerHost()<=0 || count<session.getMaxConnectionsPerHost()) {
+						connectionsPerHost.put(hostKey, count+1);
+					} else if ((toEvict=removeOldestIdle(hostKey))==null) {
+						long timeLeft=waitUntil-System.currentTimeMillis();
+						if (timeLeft<=0) {
+							throw new FtpConnectException("timeout waiting for one of the ["+session.getMaxConnectionsPerHost()+"] connections to ["+hostKey+"]");
+						}
+						try {
+							wait(timeLeft);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new FtpConnectException("interrupted waiting for connection to ["+hostKey+"]", e);
+						}
+						continue;
+					}
+				}
+			}
+			if (toEvict!=null) {
+				// the host is at its limit with idle connections of other pool keys, make room for this one
+				if (log.isDebugEnabled()) log.debug("closing idle ftp connection for ["+toEvict.getPoolKey()+"] to make room for a connection for ["+poolKey+"]");
+				invalidate(toEvict);
+				continue;
+			}
+			if (candidate!=null) {
+				if (candidate.isAlive()) {
+					session.connectionReused();
+					return candidate;
+				}
+				log.debug("discarding ftp connection to ["+hostKey+"] that failed liveness check");
+				invalidate(candidate);
+				continue;
+			}
+			try {
+				return session.createConnection(remoteDirectory);
+			} catch (FtpConnectException e) {
+				connectionClosed(hostKey);
+				throw e;
+			} catch (RuntimeException e) {
+				connectionClosed(hostKey);
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Hands a connection back to the pool, after successful use.
+	 */
+	public void release(FtpConnection connection) {
+		connection.touch();
+		synchronized (this) {
+			LinkedList<FtpConnection> idle=idleConnections.get(connection.getPoolKey());
+			if (idle==null) {
+				idle=new LinkedList<FtpConnection>();
+				idleConnections.put(connection.getPoolKey(), idle);
+			}
+			idle.addFirst(connection);
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Closes a connection that encountered an error, so that it will not be reused.
+	 */
+	public void invalidate(FtpConnection connection) {
+		connection.close();
+		connectionClosed(connection.getHostKey());
+	}
+
+	/**
+	 * Closes all idle connections of a pool key, e.g. when the owning pipe or sender is stopped.
+	 */
+	public void closeIdle(String poolKey) {
+		List<FtpConnection> toClose;
+		synchronized (this) {
+			toClose=idleConnections.remove(poolKey);
+		}
+		if (toClose!=null) {
+			for (FtpConnection connection:toClose) {
+				invalidate(connection);
+			}
+		}
+	}
+
+	/**
+	 * Closes connections that have been idle for longer than the idle timeout of their pool key, i.e. the
+	 * idle timeout of the session that last borrowed a connection for that key.
+	 */
+	public void evictIdle() {
+		long now=System.currentTimeMillis();
+		List<FtpConnection> toClose=new LinkedList<FtpConnection>();
+		synchronized (this) {
+			for (Iterator<Map.Entry<String,LinkedList<FtpConnection>>> it=idleConnections.entrySet().iterator();it.hasNext();) {
+				Map.Entry<String,LinkedList<FtpConnection>> entry=it.next();
+				Long idleTimeout=idleTimeouts.get(entry.getKey());
+				if (idleTimeout==null || idleTimeout<=0) {
+					continue;
+				}
+				LinkedList<FtpConnection> idle=entry.getValue();
+				for (Iterator<FtpConnection> cit=idle.iterator();cit.hasNext();) {
+					FtpConnection connection=cit.next();
+					if (connection.isIdleLongerThan(idleTimeout, now)) {
+						cit.remove();
+						toClose.add(connection);
+					}
+				}
+				if (idle.isEmpty()) {
+					it.remove();
+				}
+			}
+		}
+		for (FtpConnection connection:toClose) {
+			if (log.isDebugEnabled()) log.debug("closing idle ftp connection to ["+connection.getHostKey()+"] after ["+connection.getUseCount()+"] uses");
+			invalidate(connection);
+		}
+	}
+
+	/**
+	 * Removes the idle connection to the host that has been unused the longest, of any pool key. Must be called while holding the lock.
+	 */
+	private FtpConnection removeOldestIdle(String hostKey) {
+		LinkedList<FtpConnection> oldestList=null;
+		FtpConnection oldest=null;
+		for (LinkedList<FtpConnection> idle:idleConnections.values()) {
+			// connections are released at the head of the list, so the last one has been idle the longest
+			for (Iterator<FtpConnection> it=idle.descendingIterator();it.hasNext();) {
+				FtpConnection connection=it.next();
+				if (hostKey.equals(connection.getHostKey())) {
+					if (oldest==null || connection.getLastUsed()<oldest.getLastUsed()) {
+						oldest=connection;
+						oldestList=idle;
+					}
+					break;
+				}
+			}
+		}
+		if (oldest!=null) {
+			oldestList.remove(oldest);
+			if (oldestList.isEmpty()) {
+				idleConnections.remove(oldest.getPoolKey());
+			}
+		}
+		return oldest;
+	}
+
+	private synchronized void connectionClosed(String hostKey) {
+		int count=getConnectionCount(hostKey);
+		if (count<=1) {
+			connectionsPerHost.remove(hostKey);
+		} else {
+			connectionsPerHost.put(hostKey, count-1);
+		}
+		notifyAll();
+	}
+
+	private int getConnectionCount(String hostKey) {
+		Integer count=connectionsPerHost.get(hostKey);
+		return count==null?0:count.intValue();
+	}
+
+	public synchronized int getConnectionCountForHost(String hostKey) {
+		return getConnectionCount(hostKey);
+	}
+
+	public synchronized int getIdleCount(String poolKey) {
+		LinkedList<FtpConnection> idle=idleConnections.get(poolKey);
+		return idle==null?0:idle.size();
+	}
+}
@@ -0,0 +1,132 @@
+/*
+   Copyright 2016 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.ftp;
+
+import nl.nn.adapterframework.util.LogUtil;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.log4j.Logger;
+
+import com.sshtools.j2ssh.SftpClient;
+import com.sshtools.j2ssh.SshClient;
+
+/**
+ * A single logged-in FTP or SFTP connection, as created by {@link FtpSession}.
+ * Connections can be kept in a {@link FtpClientPool} for reuse.
+ * 
+ * @since   7.0
+ */
+public class FtpConnection {
+	protected Logger log = LogUtil.getLogger(this);
+
+	private String poolKey;
+	private String hostKey;
+	private FTPClient ftpClient;
+	private SshClient sshClient;
+	private SftpClient sftpClient;
+
+	private long lastUsed;
+	private int useCount=0;
+
+	FtpConnection(String poolKey, String hostKey, FTPClient ftpClient) {
+		this.poolKey=poolKey;
+		this.hostKey=hostKey;
+		this.ftpClient=ftpClient;
+		lastUsed=System.currentTimeMillis();
+	}
+
+	FtpConnection(String poolKey, String hostKey, SshClient sshClient, SftpClient sftpClient) {
+		this.poolKey=poolKey;
+		this.hostKey=hostKey;
+		this.sshClient=sshClient;
+		this.sftpClient=sftpClient;
+		lastUsed=System.currentTimeMillis();
+	}
+
+	public boolean isConnected() {
+		if (sftpClient!=null) {
+			return !sftpClient.isClosed();
+		}
+		return ftpClient!=null && ftpClient.isConnected();
+	}
+
+	/**
+	 * Checks that the connection is still usable, by sending a NOOP for FTP, or checking the state of the SFTP channel.
+	 */
+	public boolean isAlive() {
+		try {
+			if (sftpClient!=null) {
+				return sshClient.isConnected() && !sftpClient.isClosed();
+			}
+			return ftpClient!=null && ftpClient.isConnected() && ftpClient.sendNoOp();
+		} catch (Exception e) {
+			log.debug("liveness check of ftp connection to ["+hostKey+"] failed: "+e.getMessage());
+			return false;
+		}
+	}
+
+	public void close() {
+		if (sshClient != null) {
+			if (sshClient.isConnected()) {
+				sshClient.disconnect();
+			}
+			sshClient = null;
+			sftpClient = null;
+		}
+		if (ftpClient != null) {
+			if (ftpClient.isConnected()) {
+				try {
+					ftpClient.quit();
+					log.debug(ftpClient.getReplyString());
+					ftpClient.disconnect();
+				}
+				catch(Exception e) {
+					log.error("Error while closeing FtpClient", e);
+				}
+			}
+			ftpClient = null;
+		}
+	}
+
+	void touch() {
+		useCount++;
+		lastUsed=System.currentTimeMillis();
+	}
+
+	boolean isIdleLongerThan(long idleTimeout, long now) {
+		return idleTimeout>0 && now-lastUsed>idleTimeout;
+	}
+
+	long getLastUsed() {
+		return lastUsed;
+	}
+
+	public FTPClient getFtpClient() {
+		return ftpClient;
+	}
+	public SftpClient getSftpClient() {
+		return sftpClient;
+	}
+	public String getPoolKey() {
+		return poolKey;
+	}
+	public String getHostKey() {
+		return hostKey;
+	}
+	public int getUseCount() {
+		return useCount;
+	}
+}
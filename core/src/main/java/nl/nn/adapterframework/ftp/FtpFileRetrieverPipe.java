@@ -20,7 +20,10 @@ import nl.nn.adapterframework.core.IPipeLineSession;
 import nl.nn.adapterframework.core.PipeForward;
 import nl.nn.adapterframework.core.PipeRunException;
 import nl.nn.adapterframework.core.PipeRunResult;
+import nl.nn.adapterframework.core.SenderException;
 import nl.nn.adapterframework.pipes.FixedForwardPipe;
+import nl.nn.adapterframework.statistics.HasStatistics;
+import nl.nn.adapterframework.statistics.StatisticsKeeperIterationHandler;
 
 /**
  * Pipe for retreiving files via (s)ftp. The path of the created local file is returned.
@@ -72,6 +75,10 @@ import nl.nn.adapterframework.pipes.FixedForwardPipe;
  * <tr><td>{@link #setAllowSelfSignedCertificates(boolean) allowSelfSignedCertificates}</td><td>(FTPS) if true, the server certificate can be self signed</td><td>false</td></tr>
  * <tr><td>{@link #setProtP(boolean) protP}</td><td>(FTPS) if true, the server returns data via another socket</td><td>false</td></tr>
  * <tr><td>{@link #setKeyboardInteractive(boolean) keyboardInteractive}</td><td>when true, KeyboardInteractive is used to login</td><td>false</td></tr>
+ * <tr><td>{@link #setPooled(boolean) pooled}</td><td>when true, logged-in connections are kept in a pool shared by all threads and reused, instead of being opened and closed for every operation</td><td>false</td></tr>
+ * <tr><td>{@link #setMaxConnectionsPerHost(int) maxConnectionsPerHost}</td><td>when pooled=true, the maximum number of connections to the same host. 0 means unlimited</td><td>5</td></tr>
+ * <tr><td>{@link #setIdleTimeout(long) idleTimeout}</td><td>when pooled=true, time (in milliseconds) after which an idle connection is closed</td><td>60000</td></tr>
+ * <tr><td>{@link #setMaxWaitTime(long) maxWaitTime}</td><td>when pooled=true, maximum time (in milliseconds) to wait for a connection when maxConnectionsPerHost is reached</td><td>30000</td></tr>
  * </table>
  * </p>
  * <p><b>Exits:</b>
@@ -86,7 +93,7 @@ import nl.nn.adapterframework.pipes.FixedForwardPipe;
  * @author John Dekker
  * @since   4.4
  */
-public class FtpFileRetrieverPipe extends FixedForwardPipe {
+public class FtpFileRetrieverPipe extends FixedForwardPipe implements HasStatistics {
 
 	private FtpSession ftpSession;
 
@@ -115,6 +122,7 @@ public class FtpFileRetrieverPipe extends FixedForwardPipe {
 		super.stop();
 		try {		
 			ftpSession.closeClient();
+			ftpSession.closePooledConnections(remoteDirectory);
 		} catch(Exception e) {
 			log.warn(getLogPrefix(null)+"exception closing ftpSession",e);
 		}
@@ -144,6 +152,10 @@ public class FtpFileRetrieverPipe extends FixedForwardPipe {
 		}
 	}
 
+	public void iterateOverStatistics(StatisticsKeeperIterationHandler hski, Object data, int action) throws SenderException {
+		ftpSession.iterateOverStatistics(hski, data, action);
+	}
+
 
 
 	public void setFtpSession(FtpSession session) {
@@ -308,5 +320,17 @@ public class FtpFileRetrieverPipe extends FixedForwardPipe {
 	public void setKeyboardInteractive(boolean keyboardInteractive) {
 		ftpSession.setKeyboardInteractive(keyboardInteractive);
 	}
+	public void setPooled(boolean pooled) {
+		ftpSession.setPooled(pooled);
+	}
+	public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+		ftpSession.setMaxConnectionsPerHost(maxConnectionsPerHost);
+	}
+	public void setIdleTimeout(long idleTimeout) {
+		ftpSession.setIdleTimeout(idleTimeout);
+	}
+	public void setMaxWaitTime(long maxWaitTime) {
+		ftpSession.setMaxWaitTime(maxWaitTime);
+	}
 
 }
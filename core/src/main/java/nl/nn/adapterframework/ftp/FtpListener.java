@@ -107,6 +107,7 @@ public class FtpListener extends FtpSession implements IPullingListener, INamedO
 	}
 
 	public void close() throws ListenerException {
+		closePooledConnections(remoteDirectory);
 	}
 
 	public Map openThread() throws ListenerException {
@@ -146,7 +147,6 @@ public class FtpListener extends FtpSession implements IPullingListener, INamedO
 		log.debug("FtpListener [" + getName() + "] in getRawMessage, retrieving contents of directory [" +remoteDirectory+ "]");
 		if (remoteFilenames.isEmpty()) {
 			try {
-				openClient(remoteDirectory);
 				List names = ls(remoteDirectory, true, true);
 				log.debug("FtpListener [" + getName() + "] received ls result of ["+names.size()+"] files");
 				if (names != null && names.size() > 0) {
@@ -21,6 +21,8 @@ import nl.nn.adapterframework.core.SenderException;
 import nl.nn.adapterframework.core.SenderWithParametersBase;
 import nl.nn.adapterframework.core.TimeOutException;
 import nl.nn.adapterframework.parameters.ParameterResolutionContext;
+import nl.nn.adapterframework.statistics.HasStatistics;
+import nl.nn.adapterframework.statistics.StatisticsKeeperIterationHandler;
 
 /**
  * FTP client voor het versturen van files via FTP.
@@ -70,12 +72,16 @@ import nl.nn.adapterframework.parameters.ParameterResolutionContext;
  * <tr><td>{@link #setAllowSelfSignedCertificates(boolean) allowSelfSignedCertificates}</td><td>(FTPS) if true, the server certificate can be self signed</td><td>false</td></tr>
  * <tr><td>{@link #setProtP(boolean) protP}</td><td>(FTPS) if true, the server returns data via another socket</td><td>false</td></tr>
  * <tr><td>{@link #setKeyboardInteractive(boolean) keyboardInteractive}</td><td>when true, KeyboardInteractive is used to login</td><td>false</td></tr>
+ * <tr><td>{@link #setPooled(boolean) pooled}</td><td>when true, logged-in connections are kept in a pool shared by all threads and reused, instead of being opened and closed for every operation</td><td>false</td></tr>
+ * <tr><td>{@link #setMaxConnectionsPerHost(int) maxConnectionsPerHost}</td><td>when pooled=true, the maximum number of connections to the same host. 0 means unlimited</td><td>5</td></tr>
+ * <tr><td>{@link #setIdleTimeout(long) idleTimeout}</td><td>when pooled=true, time (in milliseconds) after which an idle connection is closed</td><td>60000</td></tr>
+ * <tr><td>{@link #setMaxWaitTime(long) maxWaitTime}</td><td>when pooled=true, maximum time (in milliseconds) to wait for a connection when maxConnectionsPerHost is reached</td><td>30000</td></tr>
  * </table>
  * </p>
  *  
  * @author John Dekker
  */
-public class FtpSender extends SenderWithParametersBase {
+public class FtpSender extends SenderWithParametersBase implements HasStatistics {
 
 	private FtpSession ftpSession;
 	
@@ -91,6 +97,10 @@ public class FtpSender extends SenderWithParametersBase {
 		ftpSession.configure();
 	}
 
+	public void close() throws SenderException {
+		ftpSession.closePooledConnections(remoteDirectory);
+	}
+
 	public boolean isSynchronous() {
 		return true;
 	}
@@ -109,6 +119,10 @@ public class FtpSender extends SenderWithParametersBase {
 		}
 		return message;
 	}
+
+	public void iterateOverStatistics(StatisticsKeeperIterationHandler hski, Object data, int action) throws SenderException {
+		ftpSession.iterateOverStatistics(hski, data, action);
+	}
 	
 
 
@@ -264,4 +278,16 @@ public class FtpSender extends SenderWithParametersBase {
 	public void setKeyboardInteractive(boolean keyboardInteractive) {
 		ftpSession.setKeyboardInteractive(keyboardInteractive);
 	}
+	public void setPooled(boolean pooled) {
+		ftpSession.setPooled(pooled);
+	}
+	public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+		ftpSession.setMaxConnectionsPerHost(maxConnectionsPerHost);
+	}
+	public void setIdleTimeout(long idleTimeout) {
+		ftpSession.setIdleTimeout(idleTimeout);
+	}
+	public void setMaxWaitTime(long maxWaitTime) {
+		ftpSession.setMaxWaitTime(maxWaitTime);
+	}
 }
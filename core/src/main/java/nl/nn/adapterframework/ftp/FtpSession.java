@@ -1,5 +1,5 @@
 /*
-   Copyright 2013 Nationale-Nederlanden
+   Copyright 2013, 2016 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -23,8 +23,10 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.security.GeneralSecurityException;
 import java.security.KeyStoreException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -32,11 +34,17 @@ import java.util.List;
 
 import nl.nn.adapterframework.configuration.ConfigurationException;
 import nl.nn.adapterframework.core.IPipeLineSession;
+import nl.nn.adapterframework.core.SenderException;
 import nl.nn.adapterframework.parameters.ParameterList;
+import nl.nn.adapterframework.statistics.HasStatistics;
+import nl.nn.adapterframework.statistics.StatisticsKeeper;
+import nl.nn.adapterframework.statistics.StatisticsKeeperIterationHandler;
+import nl.nn.adapterframework.util.CounterStatistic;
 import nl.nn.adapterframework.util.CredentialFactory;
 import nl.nn.adapterframework.util.FileUtils;
 import nl.nn.adapterframework.util.LogUtil;
 
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.net.ftp.FTPClient;
 import org.apache.commons.net.ftp.FTPReply;
@@ -103,12 +111,16 @@ import com.sshtools.j2ssh.transport.publickey.SshPrivateKeyFile;
  * <tr><td>{@link #setAllowSelfSignedCertificates(boolean) allowSelfSignedCertificates}</td><td>(FTPS) if true, the server certificate can be self signed</td><td>false</td></tr>
  * <tr><td>{@link #setProtP(boolean) protP}</td><td>(FTPS) if true, the server returns data via another socket</td><td>false</td></tr>
  * <tr><td>{@link #setKeyboardInteractive(boolean) keyboardInteractive}</td><td>when true, KeyboardInteractive is used to login</td><td>false</td></tr>
+ * <tr><td>{@link #setPooled(boolean) pooled}</td><td>when true, logged-in connections are kept in a pool shared by all threads and reused, instead of being opened and closed for every operation</td><td>false</td></tr>
+ * <tr><td>{@link #setMaxConnectionsPerHost(int) maxConnectionsPerHost}</td><td>when pooled=true, the maximum number of connections to the same host. 0 means unlimited</td><td>5</td></tr>
+ * <tr><td>{@link #setIdleTimeout(long) idleTimeout}</td><td>when pooled=true, time (in milliseconds) after which an idle connection is closed</td><td>60000</td></tr>
+ * <tr><td>{@link #setMaxWaitTime(long) maxWaitTime}</td><td>when pooled=true, maximum time (in milliseconds) to wait for a connection when maxConnectionsPerHost is reached</td><td>30000</td></tr>
  * </table>
  * </p>
  * 
  * @author John Dekker
  */
-public class FtpSession {
+public class FtpSession implements HasStatistics {
 	protected Logger log = LogUtil.getLogger(this);
 
 	// types of ftp transports
@@ -163,13 +175,28 @@ public class FtpSession {
 	private boolean verifyHostname = true;
 	private boolean allowSelfSignedCertificates = false;
 	private boolean protP = false;
+
+	// configuration of connection pooling
+	private boolean pooled = false;
+	private int maxConnectionsPerHost = 5;
+	private long idleTimeout = 60000;
+	private long maxWaitTime = 30000;
+	private volatile String poolKeyPrefix; // the attributes do not change after configure, so the digest is computed once
 	
 	
 	
 	// private members
-	private SshClient sshClient;
-	private SftpClient sftpClient;
+	private FtpConnection connection;
+	/**
+	 * The FTP client of the connection opened by {@link #openClient(String)}.
+	 * @deprecated use {@link #obtainConnection(String)}; not set when pooled=true
+	 */
+	@Deprecated
 	public FTPClient ftpClient;
+
+	private StatisticsKeeper handshakeStatistics = new StatisticsKeeper("ftp handshake");
+	private CounterStatistic connectionsOpened = new CounterStatistic(0);
+	private CounterStatistic connectionsReused = new CounterStatistic(0);
 	
 
 	// configure
@@ -223,19 +250,130 @@ public class FtpSession {
 
 	public void openClient(String remoteDirectory) throws FtpConnectException {
 		log.debug("Open ftp client");
-		if (ftpType == SFTP) {
-			if (sftpClient == null || sftpClient.isClosed()) {
-				openSftpClient(remoteDirectory);
+		if (connection == null || ! connection.isConnected()) {
+			connection = createConnection(remoteDirectory);
+			ftpClient = connection.getFtpClient();
+		}
+	}
+
+	/**
+	 * Obtains a connection for a single operation: from the shared {@link FtpClientPool} when pooled, 
+	 * otherwise the connection that belongs to this session.
+	 */
+	protected FtpConnection obtainConnection(String remoteDirectory) throws FtpConnectException {
+		if (isPooled()) {
+			return FtpClientPool.getInstance().borrow(this, remoteDirectory);
+		}
+		openClient(remoteDirectory);
+		return connection;
+	}
+
+	/**
+	 * Hands back a connection obtained by {@link #obtainConnection(String)}. When pooled, the connection is returned to 
+	 * the pool, or discarded if the operation failed. Otherwise it is closed when <code>close</code> is set.
+	 */
+	protected void releaseConnection(FtpConnection conn, boolean close, boolean failed) {
+		if (isPooled()) {
+			if (failed) {
+				FtpClientPool.getInstance().invalidate(conn);
+			} else {
+				FtpClientPool.getInstance().release(conn);
 			}
+		} else {
+			if (close) {
+				closeClient();
+			}
+		}
+	}
+
+	/**
+	 * Connects and logs in, recording the time it takes in the handshake statistics.
+	 */
+	FtpConnection createConnection(String remoteDirectory) throws FtpConnectException {
+		long start = System.currentTimeMillis();
+		FtpConnection result;
+		if (ftpType == SFTP) {
+			result = openSftpClient(remoteDirectory);
 		}
 		else {
-			if (ftpClient == null || ! ftpClient.isConnected()) {
-				openFtpClient(remoteDirectory);
-			}
+			result = openFtpClient(remoteDirectory);
+		}
+		long duration = System.currentTimeMillis() - start;
+		synchronized (handshakeStatistics) {
+			handshakeStatistics.addValue(duration);
+		}
+		connectionsOpened.increase();
+		if (log.isDebugEnabled()) log.debug("opened "+ftpTypeDescription+" connection to ["+getHostKey()+"] in ["+duration+"] ms");
+		return result;
+	}
+
+	void connectionReused() {
+		connectionsReused.increase();
+	}
+
+	String getHostKey() {
+		return ftpTypeDescription+"://"+host+":"+port;
+	}
+
+	/**
+	 * Returns the key of the pooled connections. Besides the user, host, directory and file type it contains a digest of
+	 * the credentials and of the proxy, SFTP and FTPS settings, so connections that were opened or verified differently
+	 * are not shared.
+	 */
+	String getPoolKey(String remoteDirectory) {
+		String prefix=poolKeyPrefix;
+		if (prefix==null) {
+			prefix=createPoolKeyPrefix();
+			poolKeyPrefix=prefix;
+		}
+		return prefix+(remoteDirectory==null?"":remoteDirectory)+";"+fileType;
+	}
+
+	private String createPoolKeyPrefix() {
+		CredentialFactory usercf = new CredentialFactory(getAuthAlias(), getUsername(), getPassword());
+		CredentialFactory proxycf = new CredentialFactory(getProxyAuthAlias(), getProxyUsername(), getProxyPassword());
+		CredentialFactory pkcf = new CredentialFactory(getPrivateKeyAuthAlias(), null, getPrivateKeyPassword());
+		CredentialFactory certificatecf = new CredentialFactory(getCertificateAuthAlias(), null, getCertificatePassword());
+		CredentialFactory truststorecf = new CredentialFactory(getTruststoreAuthAlias(), null, getTruststorePassword());
+		String settings = usercf.getPassword()
+				+"|"+proxyHost+"|"+proxyPort+"|"+proxycf.getUsername()+"|"+proxycf.getPassword()+"|"+proxyTransportType
+				+"|"+keyboardInteractive+"|"+passive+"|"+prefCSEncryption+"|"+prefSCEncryption
+				+"|"+privateKeyFilePath+"|"+pkcf.getPassword()+"|"+knownHostsPath+"|"+consoleKnownHostsVerifier
+				+"|"+certificate+"|"+certificateType+"|"+certificatecf.getPassword()+"|"+keyManagerAlgorithm
+				+"|"+truststore+"|"+truststoreType+"|"+truststorecf.getPassword()+"|"+trustManagerAlgorithm
+				+"|"+jdk13Compatibility+"|"+verifyHostname+"|"+allowSelfSignedCertificates+"|"+protP;
+		String settingsDigest;
+		try {
+			MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+			settingsDigest = new String(Hex.encodeHex(messageDigest.digest(settings.getBytes("UTF-8"))));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e.getMessage());
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e.getMessage());
+		}
+		return ftpTypeDescription+"://"+usercf.getUsername()+"@"+host+":"+port+";"+settingsDigest+"/";
+	}
+
+	/**
+	 * Closes the idle pooled connections of this session. Connections in use by other threads are not affected.
+	 */
+	public void closePooledConnections(String remoteDirectory) {
+		if (isPooled()) {
+			FtpClientPool.getInstance().closeIdle(getPoolKey(remoteDirectory));
 		}
 	}
 
-	private void openSftpClient(String remoteDirectory) throws FtpConnectException {
+	public void iterateOverStatistics(StatisticsKeeperIterationHandler hski, Object data, int action) throws SenderException {
+		hski.handleScalar(data, "ftpConnectionsOpened", connectionsOpened.getValue());
+		hski.handleScalar(data, "ftpConnectionsReused", connectionsReused.getValue());
+		hski.handleStatisticsKeeper(data, handshakeStatistics);
+		connectionsOpened.performAction(action);
+		connectionsReused.performAction(action);
+		handshakeStatistics.performAction(action);
+	}
+
+	private FtpConnection openSftpClient(String remoteDirectory) throws FtpConnectException {
+		SshClient sshClient = null;
 		try {
 			// Set the connection properties and if necessary the proxy properties
 			SshConnectionProperties sshProp = new SshConnectionProperties();
@@ -304,19 +442,21 @@ public class FtpSession {
 			int result = sshClient.authenticate(sac);
 			
 			if (result != AuthenticationProtocolState.COMPLETE) {
-				closeSftpClient();
 				throw new IOException("Could not authenticate to sftp server " + result);
 			}
 			
 			// use the connection for sftp
-			sftpClient = sshClient.openSftpClient();
+			SftpClient sftpClient = sshClient.openSftpClient();
 			
 			if (! StringUtils.isEmpty(remoteDirectory)) {
 				sftpClient.cd(remoteDirectory);
 			}
+			return new FtpConnection(getPoolKey(remoteDirectory), getHostKey(), sshClient, sftpClient);
 		}
 		catch(Exception e) {
-			closeSftpClient();
+			if (sshClient != null && sshClient.isConnected()) {
+				sshClient.disconnect();
+			}
 			throw new FtpConnectException(e);
 		}
 	}
@@ -342,7 +482,15 @@ public class FtpSession {
 
 
 	
+	/**
+	 * @deprecated use {@link #checkReply(FTPClient, String)}
+	 */
+	@Deprecated
 	protected void checkReply(String cmd) throws IOException  {
+		checkReply(ftpClient, cmd);
+	}
+
+	protected void checkReply(FTPClient ftpClient, String cmd) throws IOException  {
 		if (!FTPReply.isPositiveCompletion(ftpClient.getReplyCode())) {
 			throw new IOException("Command [" + cmd + "] returned error [" + ftpClient.getReplyCode() + "]: " + ftpClient.getReplyString());
 		} 
@@ -350,7 +498,8 @@ public class FtpSession {
 	}
 	
 
-	private void openFtpClient(String remoteDirectory) throws FtpConnectException {
+	private FtpConnection openFtpClient(String remoteDirectory) throws FtpConnectException {
+		FTPClient ftpClient = null;
 		try {
 			// set proxy properties
 			if (! StringUtils.isEmpty(proxyHost)) {
@@ -370,16 +519,19 @@ public class FtpSession {
 	
 			if (! StringUtils.isEmpty(remoteDirectory)) {
 				ftpClient.changeWorkingDirectory(remoteDirectory);
-				checkReply("changeWorkingDirectory "+remoteDirectory);
+				checkReply(ftpClient, "changeWorkingDirectory "+remoteDirectory);
 			}
 			
 			if (StringUtils.isNotEmpty(fileType)) {
 				ftpClient.setFileType(getFileTypeIntValue());
-				checkReply("setFileType "+remoteDirectory);
+				checkReply(ftpClient, "setFileType "+remoteDirectory);
 			}
+			return new FtpConnection(getPoolKey(remoteDirectory), getHostKey(), ftpClient);
 		}
 		catch(Exception e) {
-			closeFtpClient();
+			if (ftpClient != null) {
+				new FtpConnection(getPoolKey(remoteDirectory), getHostKey(), ftpClient).close();
+			}
 			throw new FtpConnectException(e);
 		}
 	}
@@ -405,38 +557,11 @@ public class FtpSession {
 
 	public void closeClient() {
 		log.debug("Close ftp client");
-		if (ftpType == SFTP) {
-			closeSftpClient();
-		}
-		else {
-			closeFtpClient();
-		}
-	}
-	
-	private void closeSftpClient() {
-		if (sshClient != null) {
-			if (sshClient.isConnected()) {
-				sshClient.disconnect();
-			}
-			sshClient = null;
-			sftpClient = null;
-		}
-	}
-	
-	private void closeFtpClient() {
-		if (ftpClient != null) {
-			if (ftpClient.isConnected()) {
-				try {
-					ftpClient.quit();
-					log.debug(ftpClient.getReplyString());
-					ftpClient.disconnect();
-				}
-				catch(Exception e) {
-					log.error("Error while closeing FtpClient", e);
-				}
-			}
-			ftpClient = null;
+		if (connection != null) {
+			connection.close();
+			connection = null;
 		}
+		ftpClient = null;
 	}
 	
 	public String put(ParameterList params, IPipeLineSession session, String message, String remoteDirectory, String remoteFilenamePattern, boolean closeAfterSend) throws Exception {
@@ -458,28 +583,31 @@ public class FtpSession {
 	 * @throws Exception
 	 */
 	private String _put(ParameterList params, IPipeLineSession session, String contents, String remoteDirectory, String remoteFilenamePattern, boolean closeAfterSend) throws Exception {
-		openClient(remoteDirectory);
-		
 		// get remote name
 		String remoteFilename = FileUtils.getFilename(params, session, (File)null, remoteFilenamePattern);
+
+		FtpConnection conn = obtainConnection(remoteDirectory);
+		boolean failed = false;
 		
 		// open local file
 		InputStream is = new ByteArrayInputStream(contents.getBytes());
 		try {  
 			if (ftpType == SFTP) {
-				sftpClient.put(is, remoteFilename);
+				conn.getSftpClient().put(is, remoteFilename);
 			}
 			else {
-				ftpClient.storeFile(remoteFilename, is);
-				checkReply("storeFile "+remoteFilename);
+				conn.getFtpClient().storeFile(remoteFilename, is);
+				checkReply(conn.getFtpClient(), "storeFile "+remoteFilename);
 			}
 		}
+		catch(Exception e) {
+			failed = true;
+			throw e;
+		}
 		finally {
 			is.close();
 
-			if (closeAfterSend) {
-				closeClient();
-			}
+			releaseConnection(conn, closeAfterSend, failed);
 		}
 		return remoteFilename;
 	}
@@ -493,7 +621,8 @@ public class FtpSession {
 	 * @throws Exception
 	 */
 	private List _put(ParameterList params, IPipeLineSession session, List filenames, String remoteDirectory, String remoteFilenamePattern, boolean closeAfterSend) throws Exception {
-		openClient(remoteDirectory);
+		FtpConnection conn = obtainConnection(remoteDirectory);
+		boolean failed = false;
 		
 		try {
 			LinkedList remoteFilenames = new LinkedList();
@@ -514,11 +643,11 @@ public class FtpSession {
 				FileInputStream fis = new FileInputStream(localFile);
 				try {  
 					if (ftpType == SFTP) {
-						sftpClient.put(fis, remoteFilename);
+						conn.getSftpClient().put(fis, remoteFilename);
 					}
 					else {
-						ftpClient.storeFile(remoteFilename, fis);
-						checkReply("storeFile "+remoteFilename);
+						conn.getFtpClient().storeFile(remoteFilename, fis);
+						checkReply(conn.getFtpClient(), "storeFile "+remoteFilename);
 					}
 				}
 				finally {
@@ -528,20 +657,23 @@ public class FtpSession {
 			}
 			return remoteFilenames;
 		}
+		catch(Exception e) {
+			failed = true;
+			throw e;
+		}
 		finally {
-			if (closeAfterSend) {
-				closeClient();
-			}
+			releaseConnection(conn, closeAfterSend, failed);
 		}
 	}
 
 	public List ls(String remoteDirectory, boolean filesOnly, boolean closeAfterSend) throws Exception {
-		openClient(remoteDirectory);
+		FtpConnection conn = obtainConnection(remoteDirectory);
+		boolean failed = false;
 
 		try {
 			if (ftpType == SFTP) {
 				List result = new LinkedList();
-				List listOfSftpFiles = sftpClient.ls();
+				List listOfSftpFiles = conn.getSftpClient().ls();
 				for (Iterator sftpFileIt = listOfSftpFiles.iterator(); sftpFileIt.hasNext();) {
 					SftpFile file = (SftpFile)sftpFileIt.next();
 					String filename = file.getFilename();
@@ -553,12 +685,14 @@ public class FtpSession {
 				}
 				return result;
 			}
-			return FileUtils.getListFromNames(ftpClient.listNames());
+			return FileUtils.getListFromNames(conn.getFtpClient().listNames());
+		}
+		catch(Exception e) {
+			failed = true;
+			throw e;
 		}
 		finally {
-			if (closeAfterSend) {
-				closeClient();
-			}
+			releaseConnection(conn, closeAfterSend, failed);
 		}
 	}
 	
@@ -576,20 +710,23 @@ public class FtpSession {
 	}
 	
 	public void deleteRemote(String remoteDirectory, String filename, boolean closeAfterDelete) throws Exception {
-		openClient(remoteDirectory);
+		FtpConnection conn = obtainConnection(remoteDirectory);
+		boolean failed = false;
 
 		try {
 			if (ftpType == SFTP) {
-				sftpClient.rm(filename);
+				conn.getSftpClient().rm(filename);
 			}
 			else {
-				ftpClient.deleteFile(filename);
+				conn.getFtpClient().deleteFile(filename);
 			}
 		}
+		catch(Exception e) {
+			failed = true;
+			throw e;
+		}
 		finally {
-			if (closeAfterDelete) {
-				closeClient();
-			}
+			releaseConnection(conn, closeAfterDelete, failed);
 		}
 	}
 
@@ -601,7 +738,8 @@ public class FtpSession {
 	 * @throws Exception
 	 */
 	private String _get(String remoteDirectory, List filenames, boolean closeAfterGet) throws Exception {
-		openClient(remoteDirectory);
+		FtpConnection conn = obtainConnection(remoteDirectory);
+		boolean failed = false;
 		
 		try {
 			StringBuffer result = new StringBuffer();
@@ -613,11 +751,11 @@ public class FtpSession {
 
 				try {
 					if (ftpType == SFTP) {
-						sftpClient.get(remoteFilename, os);
+						conn.getSftpClient().get(remoteFilename, os);
 					}
 					else {
-						ftpClient.retrieveFile(remoteFilename, os);
-						checkReply("retrieve "+remoteFilename);
+						conn.getFtpClient().retrieveFile(remoteFilename, os);
+						checkReply(conn.getFtpClient(), "retrieve "+remoteFilename);
 					}
 				}
 				finally {
@@ -628,10 +766,12 @@ public class FtpSession {
 			}
 			return result.toString();
 		}
+		catch(Exception e) {
+			failed = true;
+			throw e;
+		}
 		finally {
-			if (closeAfterGet) {
-				closeClient();
-			}
+			releaseConnection(conn, closeAfterGet, failed);
 		}
 	}
 	
@@ -643,7 +783,8 @@ public class FtpSession {
 	 * @throws Exception
 	 */
 	private List _get(ParameterList params, IPipeLineSession session, String localDirectory, String remoteDirectory, List filenames, String localFilenamePattern, boolean closeAfterGet) throws Exception {
-		openClient(remoteDirectory);
+		FtpConnection conn = obtainConnection(remoteDirectory);
+		boolean failed = false;
 		
 		try {
 			LinkedList remoteFilenames = new LinkedList();
@@ -659,11 +800,11 @@ public class FtpSession {
 				OutputStream os = new FileOutputStream(localFile,false);
 				try {
 					if (ftpType == SFTP) {
-						sftpClient.get(remoteFilename, os);
+						conn.getSftpClient().get(remoteFilename, os);
 					}
 					else {
-						ftpClient.retrieveFile(remoteFilename, os);
-						checkReply("retrieve "+remoteFilename);
+						conn.getFtpClient().retrieveFile(remoteFilename, os);
+						checkReply(conn.getFtpClient(), "retrieve "+remoteFilename);
 					}
 				}
 				catch(IOException e) {
@@ -681,10 +822,12 @@ public class FtpSession {
 			}
 			return remoteFilenames;
 		}
+		catch(Exception e) {
+			failed = true;
+			throw e;
+		}
 		finally {
-			if (closeAfterGet) {
-				closeClient();
-			}
+			releaseConnection(conn, closeAfterGet, failed);
 		}
 	}
 
@@ -962,6 +1105,34 @@ public class FtpSession {
 		return protP;
 	}
 
+	public void setPooled(boolean b) {
+		pooled = b;
+	}
+	public boolean isPooled() {
+		return pooled;
+	}
+
+	public void setMaxConnectionsPerHost(int i) {
+		maxConnectionsPerHost = i;
+	}
+	public int getMaxConnectionsPerHost() {
+		return maxConnectionsPerHost;
+	}
+
+	public void setIdleTimeout(long l) {
+		idleTimeout = l;
+	}
+	public long getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	public void setMaxWaitTime(long l) {
+		maxWaitTime = l;
+	}
+	public long getMaxWaitTime() {
+		return maxWaitTime;
+	}
+
 	public boolean isKeyboardInteractive() {
 		return keyboardInteractive;
 	}
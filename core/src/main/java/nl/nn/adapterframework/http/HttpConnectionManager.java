@@ -1,5 +1,5 @@
 /*
-   Copyright 2013 Nationale-Nederlanden
+   Copyright 2013, 2016 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -15,20 +15,38 @@
 */
 package nl.nn.adapterframework.http;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import nl.nn.adapterframework.core.SenderException;
+import nl.nn.adapterframework.statistics.HasStatistics;
+import nl.nn.adapterframework.statistics.StatisticsKeeper;
+import nl.nn.adapterframework.statistics.StatisticsKeeperIterationHandler;
 import nl.nn.adapterframework.util.AppConstants;
+import nl.nn.adapterframework.util.CounterStatistic;
 import nl.nn.adapterframework.util.LogUtil;
 import nl.nn.adapterframework.util.StringResolver;
 
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.HostConfiguration;
 import org.apache.commons.httpclient.HttpConnection;
 import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
 import org.apache.log4j.Logger;
 
 /**
+ * MultiThreadedHttpConnectionManager that closes idle connections and keeps statistics per host.
+ * <p>
+ * For each host the number of pooled connections, the number of leases, the number of leases
+ * that reused an open connection, the number of idle connections that were evicted and the
+ * time spent waiting for a free connection are maintained. A long lease wait time indicates
+ * that the pool is saturated, and <code>maxConnections</code> of the sender should be raised.
+ * 
  * @author  Gerrit van Brakel
  * @since   4.9
  */
-public class HttpConnectionManager extends MultiThreadedHttpConnectionManager {
+public class HttpConnectionManager extends MultiThreadedHttpConnectionManager implements HasStatistics {
 	protected Logger log = LogUtil.getLogger(this);
 	
 	private static String CONNECTION_TIMEOUT_KEY="http.connection.timeout";
@@ -42,7 +60,21 @@ public class HttpConnectionManager extends MultiThreadedHttpConnectionManager {
 	private IdleConnectionTimeoutThread idleConnectionTimeoutThread=null;
 
 	private boolean reuseConnections=DEFAULT_REUSE_CONNECTIONS;
-	
+
+	private Map<String,HostStatistics> hostStatistics = new ConcurrentHashMap<String,HostStatistics>();
+
+	private class HostStatistics {
+		private HostConfiguration hostConfiguration;
+		private StatisticsKeeper leaseWaitStatistics;
+		private CounterStatistic leases = new CounterStatistic(0);
+		private CounterStatistic reused = new CounterStatistic(0);
+		private CounterStatistic idleEvictions = new CounterStatistic(0);
+
+		HostStatistics(HostConfiguration hostConfiguration, String hostUrl) {
+			this.hostConfiguration=hostConfiguration;
+			leaseWaitStatistics = new StatisticsKeeper(hostUrl+" lease wait");
+		}
+	}
 
 	private void initIdleConnectionsHandler(long connectionTimeout, long timeoutInterval, String ownerName) {
 		AppConstants ac = AppConstants.getInstance();
@@ -94,11 +126,52 @@ public class HttpConnectionManager extends MultiThreadedHttpConnectionManager {
 		super.shutdown();
 	}
 
+	public HttpConnection getConnectionWithTimeout(HostConfiguration hostConfiguration, long timeout) throws ConnectionPoolTimeoutException {
+		long start=System.currentTimeMillis();
+		HttpConnection connection=super.getConnectionWithTimeout(hostConfiguration, timeout);
+		long duration=System.currentTimeMillis()-start;
+		HostStatistics statistics=getHostStatistics(hostConfiguration);
+		synchronized (statistics.leaseWaitStatistics) {
+			statistics.leaseWaitStatistics.addValue(duration);
+		}
+		statistics.leases.increase();
+		// connections fresh from the pool are opened by the caller, open ones have been used before
+		if (connection.isOpen()) {
+			statistics.reused.increase();
+		}
+		return connection;
+	}
+
+	private HostStatistics getHostStatistics(HostConfiguration hostConfiguration) {
+		String hostUrl=hostConfiguration.getHostURL();
+		HostStatistics statistics=hostStatistics.get(hostUrl);
+		if (statistics==null) {
+			synchronized (hostStatistics) {
+				statistics=hostStatistics.get(hostUrl);
+				if (statistics==null) {
+					statistics=new HostStatistics((HostConfiguration)hostConfiguration.clone(), hostUrl);
+					hostStatistics.put(hostUrl, statistics);
+				}
+			}
+		}
+		return statistics;
+	}
+
 	public void closeIdleConnections(long timeout) {
 		int poolsizeBefore=this.getConnectionsInPool();
 		if (poolsizeBefore>0) {
+			Map<HostStatistics,Integer> hostPoolsizesBefore=new HashMap<HostStatistics,Integer>();
+			for (HostStatistics statistics:hostStatistics.values()) {
+				hostPoolsizesBefore.put(statistics, getConnectionsInPool(statistics.hostConfiguration));
+			}
 			super.closeIdleConnections(timeout);
 			deleteClosedConnections();
+			for (Map.Entry<HostStatistics,Integer> entry:hostPoolsizesBefore.entrySet()) {
+				int evicted=entry.getValue()-getConnectionsInPool(entry.getKey().hostConfiguration);
+				if (evicted>0) {
+					entry.getKey().idleEvictions.increase(evicted);
+				}
+			}
 			int poolsizeAfter=this.getConnectionsInPool();
 			if (poolsizeAfter!=poolsizeBefore) {
 				if (log.isInfoEnabled()) log.info("poolsize changed from ["+poolsizeBefore+"] to ["+poolsizeAfter+"] by deleting closed connections");
@@ -119,5 +192,22 @@ public class HttpConnectionManager extends MultiThreadedHttpConnectionManager {
 		super.releaseConnection(connection);
 	}
 
-
+	public void iterateOverStatistics(StatisticsKeeperIterationHandler hski, Object data, int action) throws SenderException {
+		for (Map.Entry<String,HostStatistics> entry:hostStatistics.entrySet()) {
+			String hostUrl=entry.getKey();
+			HostStatistics statistics=entry.getValue();
+			long leases=statistics.leases.getValue();
+			long reused=statistics.reused.getValue();
+			hski.handleScalar(data, hostUrl+" connectionsInPool", getConnectionsInPool(statistics.hostConfiguration));
+			hski.handleScalar(data, hostUrl+" leases", leases);
+			hski.handleScalar(data, hostUrl+" reusedConnections", reused);
+			hski.handleScalar(data, hostUrl+" reusePercentage", leases>0 ? reused*100/leases : 0);
+			hski.handleScalar(data, hostUrl+" idleEvictions", statistics.idleEvictions.getValue());
+			hski.handleStatisticsKeeper(data, statistics.leaseWaitStatistics);
+			statistics.leases.performAction(action);
+			statistics.reused.performAction(action);
+			statistics.idleEvictions.performAction(action);
+			statistics.leaseWaitStatistics.performAction(action);
+		}
+	}
 }
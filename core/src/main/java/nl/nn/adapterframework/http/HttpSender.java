@@ -55,7 +55,6 @@ import org.apache.commons.httpclient.HttpException;
 import org.apache.commons.httpclient.HttpMethod;
 import org.apache.commons.httpclient.HttpMethodBase;
 import org.apache.commons.httpclient.HttpState;
-import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.StatusLine;
 import org.apache.commons.httpclient.URI;
 import org.apache.commons.httpclient.URIException;
@@ -95,6 +94,8 @@ import nl.nn.adapterframework.parameters.Parameter;
 import nl.nn.adapterframework.parameters.ParameterResolutionContext;
 import nl.nn.adapterframework.parameters.ParameterValue;
 import nl.nn.adapterframework.parameters.ParameterValueList;
+import nl.nn.adapterframework.statistics.HasStatistics;
+import nl.nn.adapterframework.statistics.StatisticsKeeperIterationHandler;
 import nl.nn.adapterframework.util.ClassUtils;
 import nl.nn.adapterframework.util.CredentialFactory;
 import nl.nn.adapterframework.util.DomBuilderException;
@@ -116,7 +117,7 @@ import nl.nn.adapterframework.util.XmlUtils;
  * <tr><td>{@link #setMethodType(String) methodType}</td><td>type of method to be executed, either 'GET', 'POST', 'PUT', 'DELETE', 'HEAD' or 'REPORT'</td><td>GET</td></tr>
  * <tr><td>{@link #setContentType(String) contentType}</td><td>content-type of the request, only for POST and PUT methods</td><td>text/html; charset=UTF-8</td></tr>
  * <tr><td>{@link #setTimeout(int) timeout}</td><td>timeout in ms of obtaining a connection/result. 0 means no timeout</td><td>10000</td></tr>
- * <tr><td>{@link #setMaxConnections(int) maxConnections}</td><td>the maximum number of concurrent connections</td><td>10</td></tr>
+ * <tr><td>{@link #setMaxConnections(int) maxConnections}</td><td>the maximum number of concurrent connections. Connection pool statistics per host (pool size, lease wait time, reuse and idle evictions) are shown in the statistics of the sender</td><td>10</td></tr>
  * <tr><td>{@link #setMaxExecuteRetries(int) maxExecuteRetries}</td><td>the maximum number of times it the execution is retried</td><td>1</td></tr>
  * <tr><td>{@link #setAuthAlias(String) authAlias}</td><td>alias used to obtain credentials for authentication to host</td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setUserName(String) userName}</td><td>username used in authentication to host</td><td>&nbsp;</td></tr>
@@ -155,7 +156,7 @@ import nl.nn.adapterframework.util.XmlUtils;
  * <tr><td>{@link #setStreamResultToServlet(boolean) streamResultToServlet}</td><td>if set, the result is streamed to the HttpServletResponse object of the RestServiceDispatcher (instead of passed as a String)</td><td>false</td></tr>
  * <tr><td>{@link #setBase64(boolean) base64}</td><td>when true, the result is base64 encoded</td><td>false</td></tr>
  * <tr><td>{@link #setProtocol(String) protocol}</td><td>Secure socket protocol (such as "SSL" and "TLS") to use when a SSLContext object is generated. If empty the protocol "SSL" is used</td><td>&nbsp;</td></tr>
- * <tr><td>{@link #setStreamResultToFileNameSessionKey(String) streamResultToFileNameSessionKey}</td><td>if set, the result is streamed to a file (instead of passed as a String)</td><td>&nbsp;</td></tr>
+ * <tr><td>{@link #setStreamResultToFileNameSessionKey(String) streamResultToFileNameSessionKey}</td><td>if set, the result is streamed to the file with the name specified in this sessionKey (instead of passed as a String), without holding the result in memory. When streaming fails, the partially written file is deleted</td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setStoreResultAsStreamInSessionKey(String) storeResultAsStreamInSessionKey}</td><td>if set, a pointer to an input stream of the result is put in the specified sessionKey (as the sender interface only allows a sender to return a string a sessionKey is used instead to return the stream)</td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setResultStatusCodeSessionKey(String) resultStatusCodeSessionKey}</td><td>if set, the status code of the HTTP response is put in specified in the sessionKey and the (error or okay) response message is returned</td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setMultipartXmlSessionKey(String) multipartXmlSessionKey}</td><td>if set and <code>methodeType=POST</code> and <code>paramsInUrl=false</code>, a multipart/form-data entity is created instead of a request body. For each part element in the session key a part in the multipart entity is created</td><td>&nbsp;</td></tr>
@@ -228,7 +229,7 @@ import nl.nn.adapterframework.util.XmlUtils;
  * @author Gerrit van Brakel
  * @since 4.2c
  */
-public class HttpSender extends TimeoutGuardSenderWithParametersBase implements HasPhysicalDestination {
+public class HttpSender extends TimeoutGuardSenderWithParametersBase implements HasPhysicalDestination, HasStatistics {
 	private ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
 
 	private String url;
@@ -294,7 +295,7 @@ public class HttpSender extends TimeoutGuardSenderWithParametersBase implements
 	protected Parameter urlParameter;
 	
 	protected URI staticUri;
-	private MultiThreadedHttpConnectionManager connectionManager;
+	private HttpConnectionManager connectionManager;
 	protected HttpClient httpclient;
 	protected HostConfiguration hostconfigurationBase; // hostconfiguration shared by all requests
 	protected HttpState httpState;					   // global http state	
@@ -464,6 +465,10 @@ public class HttpSender extends TimeoutGuardSenderWithParametersBase implements
 //		connectionManager = new IbisMultiThreadedHttpConnectionManager();
 		connectionManager = new HttpConnectionManager(0,getName());
 		connectionManager.setMaxConnectionsPerHost(getMaxConnections());
+		if (connectionManager.getMaxTotalConnections()<getMaxConnections()) {
+			// otherwise the default maximum of total connections limits maxConnections
+			connectionManager.setMaxTotalConnections(getMaxConnections());
+		}
 		log.debug(getLogPrefix()+"set up connectionManager, stale checking ["+connectionManager.isConnectionStaleCheckingEnabled()+"]");
 		if (connectionManager.isConnectionStaleCheckingEnabled() != isStaleChecking()) {
 			log.info(getLogPrefix()+"set up connectionManager, setting stale checking ["+isStaleChecking()+"]");
@@ -479,6 +484,13 @@ public class HttpSender extends TimeoutGuardSenderWithParametersBase implements
 		}
 	}
 
+	public void iterateOverStatistics(StatisticsKeeperIterationHandler hski, Object data, int action) throws SenderException {
+		HttpConnectionManager manager=connectionManager;
+		if (manager!=null) {
+			manager.iterateOverStatistics(hski, data, action);
+		}
+	}
+
 	public void close() {
 		connectionManager.shutdown();
 		connectionManager=null;
@@ -920,7 +932,14 @@ public class HttpSender extends TimeoutGuardSenderWithParametersBase implements
 			} else {
 					InputStream is = httpmethod.getResponseBodyAsStream();
 					File file = new File(fileName);
-					Misc.streamToFile(is, file);
+					try {
+						Misc.streamToFile(is, file);
+					} catch (IOException e) {
+						if (file.exists() && !file.delete()) {
+							log.warn(getLogPrefix()+"could not delete partially written file ["+fileName+"]");
+						}
+						throw e;
+					}
 					return fileName;
 			}
 		} else {
@@ -1123,8 +1142,9 @@ public class HttpSender extends TimeoutGuardSenderWithParametersBase implements
 				throw new SenderException(e);
 			} finally {
 				// In case of storeResultAsStreamInSessionKey release connection
-				// is done by ReleaseConnectionAfterReadInputStream.
-				if (StringUtils.isEmpty(getStoreResultAsStreamInSessionKey())) {
+				// is done by ReleaseConnectionAfterReadInputStream, unless no
+				// stream was handed over because of an exception.
+				if (StringUtils.isEmpty(getStoreResultAsStreamInSessionKey()) || result==null) {
 					httpmethod.releaseConnection();
 				}
 			}
@@ -0,0 +1,295 @@
+/*
+   Copyright 2016 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import nl.nn.adapterframework.jdbc.dbms.IDbmsSupport;
+import nl.nn.adapterframework.util.JtaUtil;
+import nl.nn.adapterframework.util.LogUtil;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Deletes the records of a table of which the expiry date has passed, in chunks of a limited number of records.
+ * 
+ * Each chunk selects the keys of at most chunkSize expired records, and deletes these records in a separate
+ * statement, using bind parameters for the keys, the types and the expiry date. When the connection is not in
+ * auto commit mode, each chunk is committed before the next chunk is started, so locks are held and undo
+ * information is kept for a single chunk only. Within a transaction, e.g. when the job has transactionAttribute
+ * <code>Required</code>, the chunks are not committed by the cleaner, but by the transaction. Between chunks the cleaner can pause, to let other work on the
+ * table proceed, and it stops when the maximum duration has passed, leaving the remaining records for the next run.
+ * 
+ * <p><b>Configuration:</b>
+ * <table border="1">
+ * <tr><th>attributes</th><th>description</th><th>default</th></tr>
+ * <tr><td>{@link #setTableName(String) tableName}</td><td>name of the table to be cleaned up</td><td>&nbsp;</td></tr>
+ * <tr><td>{@link #setKeyField(String) keyField}</td><td>primary key field of the table, used to delete the selected records</td><td>&nbsp;</td></tr>
+ * <tr><td>{@link #setExpiryDateField(String) expiryDateField}</td><td>field containing the date after which the record may be deleted</td><td>&nbsp;</td></tr>
+ * <tr><td>{@link #setTypeField(String) typeField}</td><td>when set, only records of which this field has one of the types are deleted</td><td>&nbsp;</td></tr>
+ * <tr><td>{@link #setTypes(String[]) types}</td><td>the types of the records to be deleted, when typeField is set</td><td>&nbsp;</td></tr>
+ * <tr><td>{@link #setChunkSize(int) chunkSize}</td><td>maximum number of records deleted in a single statement. N.B. Oracle allows at most 1000</td><td>1000</td></tr>
+ * <tr><td>{@link #setChunkPause(long) chunkPause}</td><td>number of milliseconds to wait between two chunks</td><td>0</td></tr>
+ * <tr><td>{@link #setMaxDuration(long) maxDuration}</td><td>number of milliseconds after which no new chunk is started. 0 means no maximum</td><td>0</td></tr>
+ * <tr><td>{@link #setQueryTimeout(int) queryTimeout}</td><td>the number of seconds the driver will wait for the select or delete of a single chunk. 0 means no timeout</td><td>0</td></tr>
+ * </table>
+ * </p>
+ * 
+ * @since   7.0
+ */
+public class JdbcTableCleaner {
+	protected Logger log = LogUtil.getLogger(this);
+
+	private String tableName;
+	private String keyField;
+	private String expiryDateField;
+	private String typeField;
+	private String[] types;
+	private int chunkSize=1000;
+	private long chunkPause=0;
+	private long maxDuration=0;
+	private int queryTimeout=0;
+
+	private boolean completed;
+
+	/**
+	 * Deletes the records that expired before <code>expiryDate</code>.
+	 * 
+	 * @return the number of records deleted; {@link #isCompleted()} tells if all expired records were deleted
+	 */
+	public int cleanup(Connection connection, IDbmsSupport dbmsSupport, Date expiryDate) throws JdbcException {
+		if (StringUtils.isEmpty(getTableName()) || StringUtils.isEmpty(getKeyField()) || StringUtils.isEmpty(getExpiryDateField())) {
+			throw new JdbcException("tableName, keyField and expiryDateField must be specified");
+		}
+		if (getChunkSize()<1) {
+			throw new JdbcException("chunkSize ["+getChunkSize()+"] must be at least 1");
+		}
+		long deadline = getMaxDuration()>0 ? System.currentTimeMillis()+getMaxDuration() : Long.MAX_VALUE;
+		Timestamp expiryTimestamp = new Timestamp(expiryDate.getTime());
+		String selectQuery = "SELECT"+dbmsSupport.provideFirstRowsHintAfterFirstKeyword(getChunkSize())+" "+getKeyField()+" FROM "+getTableName()+" WHERE "+getCondition()+dbmsSupport.provideTrailingFirstRowsHint(getChunkSize());
+		int totalDeleted=0;
+		completed=false;
+		PreparedStatement selectStatement=null;
+		PreparedStatement deleteStatement=null;
+		int deleteStatementKeys=0;
+		try {
+			// a connection that takes part in a transaction is committed by the transaction manager
+			boolean commitChunks = !connection.getAutoCommit() && !JtaUtil.inTransaction();
+			selectStatement = connection.prepareStatement(selectQuery);
+			selectStatement.setMaxRows(getChunkSize());
+			selectStatement.setFetchSize(getChunkSize());
+			selectStatement.setQueryTimeout(getQueryTimeout());
+			while (true) {
+				List<Object> keys = selectKeys(selectStatement, expiryTimestamp);
+				if (keys.isEmpty()) {
+					completed=true;
+					break;
+				}
+				if (deleteStatement==null || deleteStatementKeys!=keys.size()) {
+					if (deleteStatement!=null) {
+						deleteStatement.close();
+					}
+					deleteStatement = connection.prepareStatement(getDeleteQuery(keys.size()));
+					deleteStatement.setQueryTimeout(getQueryTimeout());
+					deleteStatementKeys=keys.size();
+				}
+				int deleted = deleteKeys(deleteStatement, keys, expiryTimestamp);
+				if (commitChunks) {
+					connection.commit();
+				}
+				totalDeleted+=deleted;
+				if (log.isDebugEnabled()) log.debug("deleted ["+deleted+"] of ["+keys.size()+"] selected records from table ["+getTableName()+"]");
+				if (deleted==0) {
+					log.warn("none of the ["+keys.size()+"] selected records could be deleted from table ["+getTableName()+"], stopping cleanup");
+					break;
+				}
+				if (keys.size()<getChunkSize()) {
+					completed=true;
+					break;
+				}
+				if (getChunkPause()>0) {
+					try {
+						Thread.sleep(getChunkPause());
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						log.info("cleanup of table ["+getTableName()+"] interrupted after ["+totalDeleted+"] records");
+						break;
+					}
+				}
+				if (System.currentTimeMillis()>=deadline) {
+					log.info("maximum duration ["+getMaxDuration()+"] ms for cleanup of table ["+getTableName()+"] has passed, stopping after ["+totalDeleted+"] records");
+					break;
+				}
+			}
+			return totalDeleted;
+		} catch (SQLException e) {
+			throw new JdbcException("cannot cleanup table ["+getTableName()+"] after deleting ["+totalDeleted+"] records", e);
+		} finally {
+			close(selectStatement);
+			close(deleteStatement);
+		}
+	}
+
+	private void close(PreparedStatement statement) {
+		if (statement!=null) {
+			try {
+				statement.close();
+			} catch (SQLException e) {
+				log.warn("could not close statement", e);
+			}
+		}
+	}
+
+	private String getCondition() {
+		StringBuffer condition = new StringBuffer();
+		if (StringUtils.isNotEmpty(getTypeField()) && types!=null && types.length>0) {
+			condition.append(getTypeField()).append(" IN (");
+			appendParameters(condition, types.length);
+			condition.append(") AND ");
+		}
+		condition.append(getExpiryDateField()).append(" < ?");
+		return condition.toString();
+	}
+
+	private String getDeleteQuery(int keyCount) {
+		StringBuffer query = new StringBuffer("DELETE FROM "+getTableName()+" WHERE "+getKeyField()+" IN (");
+		appendParameters(query, keyCount);
+		query.append(") AND ").append(getCondition());
+		return query.toString();
+	}
+
+	private void appendParameters(StringBuffer sb, int count) {
+		for (int i=0; i<count; i++) {
+			if (i>0) {
+				sb.append(",");
+			}
+			sb.append("?");
+		}
+	}
+
+	private int applyConditionParameters(PreparedStatement statement, int index, Timestamp expiryTimestamp) throws SQLException {
+		if (StringUtils.isNotEmpty(getTypeField()) && types!=null) {
+			for (int i=0; i<types.length; i++) {
+				statement.setString(index++, types[i]);
+			}
+		}
+		statement.setTimestamp(index++, expiryTimestamp);
+		return index;
+	}
+
+	private List<Object> selectKeys(PreparedStatement selectStatement, Timestamp expiryTimestamp) throws SQLException {
+		List<Object> keys = new ArrayList<Object>();
+		applyConditionParameters(selectStatement, 1, expiryTimestamp);
+		ResultSet rs = selectStatement.executeQuery();
+		try {
+			while (keys.size()<getChunkSize() && rs.next()) {
+				keys.add(rs.getObject(1));
+			}
+		} finally {
+			rs.close();
+		}
+		return keys;
+	}
+
+	private int deleteKeys(PreparedStatement deleteStatement, List<Object> keys, Timestamp expiryTimestamp) throws SQLException {
+		int index=1;
+		for (Object key:keys) {
+			deleteStatement.setObject(index++, key);
+		}
+		applyConditionParameters(deleteStatement, index, expiryTimestamp);
+		return deleteStatement.executeUpdate();
+	}
+
+
+	/**
+	 * Returns <code>true</code> when the last cleanup deleted all expired records, <code>false</code> when it
+	 * stopped because the maximum duration had passed or it was interrupted.
+	 */
+	public boolean isCompleted() {
+		return completed;
+	}
+
+	public void setTableName(String tableName) {
+		this.tableName = tableName;
+	}
+	public String getTableName() {
+		return tableName;
+	}
+
+	public void setKeyField(String keyField) {
+		this.keyField = keyField;
+	}
+	public String getKeyField() {
+		return keyField;
+	}
+
+	public void setExpiryDateField(String expiryDateField) {
+		this.expiryDateField = expiryDateField;
+	}
+	public String getExpiryDateField() {
+		return expiryDateField;
+	}
+
+	public void setTypeField(String typeField) {
+		this.typeField = typeField;
+	}
+	public String getTypeField() {
+		return typeField;
+	}
+
+	public void setTypes(String[] types) {
+		this.types = types;
+	}
+	public String[] getTypes() {
+		return types;
+	}
+
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public void setChunkPause(long chunkPause) {
+		this.chunkPause = chunkPause;
+	}
+	public long getChunkPause() {
+		return chunkPause;
+	}
+
+	public void setMaxDuration(long maxDuration) {
+		this.maxDuration = maxDuration;
+	}
+	public long getMaxDuration() {
+		return maxDuration;
+	}
+
+	public void setQueryTimeout(int queryTimeout) {
+		this.queryTimeout = queryTimeout;
+	}
+	public int getQueryTimeout() {
+		return queryTimeout;
+	}
+}
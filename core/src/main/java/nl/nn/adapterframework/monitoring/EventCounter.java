@@ -0,0 +1,112 @@
+/*
+   Copyright 2016 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.monitoring;
+
+import java.util.Arrays;
+
+/**
+ * Counts events in a sliding time window, in constant time and memory.
+ * <p>
+ * The window is divided in a fixed number of buckets, kept in a ring. Each bucket counts the events that
+ * occurred in its part of the window; when time advances, expired buckets are subtracted from the running
+ * total and reused. The count therefore is accurate to the width of a single bucket: events are forgotten
+ * when the bucket they were counted in leaves the window, rather than at the exact millisecond. The ring holds
+ * one bucket more than covers the window, so that an event is never forgotten while it is at most
+ * <code>windowMillis</code> old; it may be counted up to one bucket width longer.
+ * </p>
+ * 
+ * @since   7.0
+ */
+public class EventCounter {
+
+	public static final int DEFAULT_BUCKET_COUNT=60;
+
+	private final long windowMillis;
+	private final long bucketWidth;
+	private final int[] buckets;
+	private long currentBucket=0;
+	private int total=0;
+
+	public EventCounter(long windowMillis) {
+		this(windowMillis, DEFAULT_BUCKET_COUNT);
+	}
+
+	public EventCounter(long windowMillis, int bucketCount) {
+		this.windowMillis=windowMillis;
+		if (windowMillis<0) {
+			windowMillis=0;
+		}
+		if (bucketCount<1) {
+			bucketCount=1;
+		}
+		if (bucketCount>windowMillis) {
+			bucketCount=(int)Math.max(windowMillis,1);
+		}
+		bucketWidth=Math.max((windowMillis+bucketCount-1)/bucketCount,1);
+		// an event is counted while its bucket lies at most ceil(windowMillis/bucketWidth) buckets behind the current one
+		buckets=new int[(int)((windowMillis+bucketWidth-1)/bucketWidth)+1];
+	}
+
+	/**
+	 * Registers an event at time <code>now</code> and returns the number of events in the window ending at <code>now</code>.
+	 */
+	public synchronized int increment(long now) {
+		advance(now);
+		buckets[(int)(currentBucket % buckets.length)]++;
+		return ++total;
+	}
+
+	/**
+	 * Returns the number of events in the window ending at <code>now</code>.
+	 */
+	public synchronized int getCount(long now) {
+		advance(now);
+		return total;
+	}
+
+	public synchronized void clear() {
+		Arrays.fill(buckets, 0);
+		total=0;
+	}
+
+	private void advance(long now) {
+		long bucket=now/bucketWidth;
+		if (bucket<=currentBucket) {
+			// same bucket, or the clock was set back: count in the current bucket
+			return;
+		}
+		if (bucket-currentBucket>=buckets.length) {
+			clear();
+		} else {
+			for (long b=currentBucket+1; b<=bucket; b++) {
+				int index=(int)(b % buckets.length);
+				total-=buckets[index];
+				buckets[index]=0;
+			}
+		}
+		currentBucket=bucket;
+	}
+
+	public long getWindowMillis() {
+		return windowMillis;
+	}
+	public long getBucketWidth() {
+		return bucketWidth;
+	}
+	public int getBucketCount() {
+		return buckets.length-1;
+	}
+}
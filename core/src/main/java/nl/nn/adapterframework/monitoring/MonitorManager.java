@@ -89,7 +89,7 @@ public class MonitorManager implements EventHandler {
 	private MonitorManager() {
 	}
 
-	public void configure(Configuration configuration) throws ConfigurationException {
+	public synchronized void configure(Configuration configuration) throws ConfigurationException {
 		Collections.sort(eventThrowers,new EventThrowerComparator());
 		this.configuration=configuration;
 		reconfigure();
@@ -528,7 +528,7 @@ public class MonitorManager implements EventHandler {
 	 * any object in the configuration has to call this function at configuration
 	 * time to notifiy the monitoring system of any event that he may wish to throw.
 	 */
-	public void registerEvent(EventThrowing thrower, String eventCode) {
+	public synchronized void registerEvent(EventThrowing thrower, String eventCode) {
 
 		if (log.isDebugEnabled()) {
             log.debug("registerEvent [" + eventCode + "] for adapter [" + (thrower.getAdapter() == null ? null : thrower.getAdapter().getName()) + "] object [" + thrower.getEventSourceName() + "]");
@@ -749,6 +749,9 @@ public class MonitorManager implements EventHandler {
 
 	public void fireEvent(EventThrowing source, String eventCode) {
 		if (isEnabled()) {
+			// collect the triggers to notify under the lock, but evaluate them after it has been released,
+			// so that a storm of events does not keep the structure locked while monitors change state
+			List<Trigger> triggers = null;
 			try {
 				structureLock.acquireShared();
 				try {
@@ -758,11 +761,10 @@ public class MonitorManager implements EventHandler {
 							Trigger trigger = (Trigger)it.next();
 							Set throwerFilter = (Set)notificationListenersOfEvent.get(trigger);
 							if (throwerFilter==null || throwerFilter.contains(source)) {
-								try {
-									trigger.evaluateEvent(source,eventCode);
-								} catch (MonitorException e) {
-									log.error("Could not evaluate event ["+eventCode+"]",e);
+								if (triggers==null) {
+									triggers = new ArrayList<Trigger>();
 								}
+								triggers.add(trigger);
 							}
 						}
 					}
@@ -772,6 +774,15 @@ public class MonitorManager implements EventHandler {
 			} catch (InterruptedException e) {
 				log.error("Could not obtain lock for fireEvent" , e);
 			}
+			if (triggers!=null) {
+				for (Trigger trigger:triggers) {
+					try {
+						trigger.evaluateEvent(source,eventCode);
+					} catch (MonitorException e) {
+						log.error("Could not evaluate event ["+eventCode+"]",e);
+					}
+				}
+			}
 		}
 	}
 
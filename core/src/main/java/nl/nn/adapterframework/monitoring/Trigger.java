@@ -25,7 +25,6 @@ import java.util.Map;
 
 import nl.nn.adapterframework.configuration.ConfigurationException;
 import nl.nn.adapterframework.core.IAdapter;
-import nl.nn.adapterframework.util.DateUtils;
 import nl.nn.adapterframework.util.LogUtil;
 import nl.nn.adapterframework.util.XmlBuilder;
 
@@ -56,7 +55,7 @@ public class Trigger {
 	private int threshold=0;
 	private int period=0;
 	
-	private LinkedList<Date> eventDts=null;
+	private volatile EventCounter eventCounter=null;
 		
 
 	public void configure() throws ConfigurationException {
@@ -70,11 +69,11 @@ public class Trigger {
 			throw new ConfigurationException(e);
 		}
 		if (threshold>0) {
-			if (eventDts==null) {
-				eventDts = new LinkedList<Date>();
+			if (eventCounter==null || eventCounter.getWindowMillis()!=getPeriod()*1000L) {
+				eventCounter = new EventCounter(getPeriod()*1000L);
 			}
 		} else {
-			eventDts=null;
+			eventCounter=null;
 		}
 	}
 	
@@ -84,10 +83,9 @@ public class Trigger {
 
 	public void evaluateEvent(EventThrowing source, String eventCode) throws MonitorException {
 		Date now = new Date();
-		if (getThreshold()>0) {
-			cleanUpEvents(now);
-			eventDts.add(now);
-			if (eventDts.size()>=getThreshold()) {
+		EventCounter eventCounter=this.eventCounter;
+		if (eventCounter!=null) {
+			if (eventCounter.increment(now.getTime())>=getThreshold()) {
 				getOwner().changeState(now, alarm, getSeverityEnum(), source, eventCode, null);
 			}
 		} else {
@@ -96,20 +94,9 @@ public class Trigger {
 	}	
 	
 	public void notificationOfReverseTrigger(EventThrowing source) {
-		if (eventDts!=null) {
-			eventDts.clear();
-		}
-	}
-
-	protected void cleanUpEvents(Date now) {
-		while(eventDts.size()>0) {
-			Date firstDate = (Date)eventDts.getFirst();
-			if ((now.getTime()-firstDate.getTime())>getPeriod()*1000) {
-				eventDts.removeFirst();
-				if (log.isDebugEnabled()) log.debug("removed element dated ["+DateUtils.format(firstDate)+"]");
-			} else {
-				break;
-			}
+		EventCounter eventCounter=this.eventCounter;
+		if (eventCounter!=null) {
+			eventCounter.clear();
 		}
 	}
 
@@ -16,6 +16,7 @@
 package nl.nn.adapterframework.parameters;
 
 import java.io.IOException;
+import java.io.Reader;
 import java.text.DateFormat;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
@@ -40,6 +41,8 @@ import nl.nn.adapterframework.core.INamedObject;
 import nl.nn.adapterframework.core.IWithParameters;
 import nl.nn.adapterframework.core.IbisException;
 import nl.nn.adapterframework.core.ParameterException;
+import nl.nn.adapterframework.core.PipeLineSessionBase;
+import nl.nn.adapterframework.core.SpilledSessionValue;
 import nl.nn.adapterframework.pipes.PutSystemDateInSession;
 import nl.nn.adapterframework.util.DateUtils;
 import nl.nn.adapterframework.util.DomBuilderException;
@@ -264,6 +267,23 @@ public class Parameter implements INamedObject, IWithParameters {
 		}
 	}
 
+	/**
+	 * @return <code>true</code> if the value is determined by applying a plain xpathExpression to the input message, 
+	 * resulting in a string, so it can be determined together with other parameters by a {@link ParameterXPathEvaluator}
+	 */
+	boolean isSimpleXPath() {
+		return configured && getTransformerPool() != null
+				&& StringUtils.isNotEmpty(getXpathExpression())
+				&& StringUtils.isEmpty(getValue())
+				&& StringUtils.isEmpty(getSessionKey())
+				&& StringUtils.isEmpty(getPattern())
+				&& (paramList == null || paramList.isEmpty())
+				&& !isXslt2()
+				&& !TYPE_XML.equalsIgnoreCase(getType())
+				&& !TYPE_NODE.equalsIgnoreCase(getType())
+				&& !TYPE_DOMDOC.equalsIgnoreCase(getType());
+	}
+
 	private Object transform(Source xmlSource, ParameterResolutionContext prc) throws ParameterException, TransformerException, IOException {
 		TransformerPool pool = getTransformerPool();
 		if (TYPE_NODE.equals(getType()) || TYPE_DOMDOC.equals(getType())) {
@@ -282,6 +302,17 @@ public class Parameter implements INamedObject, IWithParameters {
 		}
 	}
 
+	/**
+	 * Returns the spilled value of the sessionKey, when it can be used streaming as source for the transformation.
+	 */
+	private SpilledSessionValue getSpilledSessionValue(ParameterResolutionContext prc) {
+		if (TYPE_LIST.equals(getType()) || TYPE_MAP.equals(getType()) || transformerPoolRemoveNamespaces != null
+				|| !(prc.getSession() instanceof PipeLineSessionBase)) {
+			return null;
+		}
+		return ((PipeLineSessionBase)prc.getSession()).getSpilledValue(getSessionKey());
+	}
+
 	/**
 	 * determines the raw value 
 	 * @param alreadyResolvedParameters
@@ -302,6 +333,14 @@ public class Parameter implements INamedObject, IWithParameters {
 				Source source=null;
 				if (StringUtils.isNotEmpty(getValue())) {
 					source = XmlUtils.stringToSourceForSingleUse(getValue(), prc.isNamespaceAware());
+				} else if (StringUtils.isNotEmpty(getSessionKey()) && getSpilledSessionValue(prc) != null) {
+					log.debug("Parameter ["+getName()+"] streaming spilled sessionvariable ["+getSessionKey()+"] as source for transformation");
+					Reader reader = getSpilledSessionValue(prc).openReader();
+					try {
+						transformResult = transform(XmlUtils.readerToSourceForSingleUse(reader, prc.isNamespaceAware()),prc);
+					} finally {
+						reader.close();
+					}
 				} else if (StringUtils.isNotEmpty(getSessionKey())) {
 					String sourceString;
 					Object sourceObject = prc.getSession().get(getSessionKey());
@@ -345,6 +384,11 @@ public class Parameter implements INamedObject, IWithParameters {
 					} else {
 						log.debug("Parameter ["+getName()+"] pattern ["+getPattern()+"] empty, no transformation will be performed");
 					}
+				} else if (prc.hasXPathValue(this)) {
+					log.debug("Parameter ["+getName()+"] using value evaluated together with other parameters");
+					transformResult = prc.getXPathValue(this);
+				} else if (transformerPoolRemoveNamespaces != null) {
+					transformResult = transform(prc.getInputSourceWithoutNamespaces(transformerPoolRemoveNamespaces),prc);
 				} else {
 					source = prc.getInputSource();
 				}
@@ -610,6 +654,10 @@ public class Parameter implements INamedObject, IWithParameters {
 		return transformerPool;
 	}
 
+	TransformerPool getTransformerPoolRemoveNamespaces() {
+		return transformerPoolRemoveNamespaces;
+	}
+
 	public void setSessionKey(String string) {
 		sessionKey = string;
 	}
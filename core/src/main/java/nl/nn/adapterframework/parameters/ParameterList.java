@@ -1,5 +1,5 @@
 /*
-   Copyright 2013 Nationale-Nederlanden
+   Copyright 2013, 2016 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -16,7 +16,10 @@
 package nl.nn.adapterframework.parameters;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 import nl.nn.adapterframework.configuration.ConfigurationException;
 
@@ -24,9 +27,14 @@ import nl.nn.adapterframework.configuration.ConfigurationException;
 /**
  * List of parameters.
  * 
+ * When configured, parameters that evaluate a plain xpathExpression on the input message are grouped, so their
+ * values can be determined in a single transformation of the input message by a {@link ParameterResolutionContext}.
+ * 
  * @author Gerrit van Brakel
  */
 public class ParameterList<E> extends ArrayList<E> {
+
+	private Map<Parameter,ParameterXPathEvaluator> xpathEvaluators;
 	
 	public ParameterList() {
 		super();
@@ -40,6 +48,49 @@ public class ParameterList<E> extends ArrayList<E> {
 		for (int i=0; i<size(); i++) {
 			getParameter(i).configure();
 		}
+		configureXPathEvaluators();
+	}
+
+	private void configureXPathEvaluators() throws ConfigurationException {
+		xpathEvaluators = null;
+		List<Parameter> withNamespaces = new ArrayList<Parameter>();
+		List<Parameter> withoutNamespaces = new ArrayList<Parameter>();
+		for (int i=0; i<size(); i++) {
+			Parameter p = getParameter(i);
+			if (p!=null && p.isSimpleXPath()) {
+				if (p.isRemoveNamespaces()) {
+					withoutNamespaces.add(p);
+				} else {
+					withNamespaces.add(p);
+				}
+			}
+		}
+		addXPathEvaluator(withNamespaces, false);
+		addXPathEvaluator(withoutNamespaces, true);
+	}
+
+	private void addXPathEvaluator(List<Parameter> parameters, boolean removeNamespaces) throws ConfigurationException {
+		// a single parameter is evaluated just as well by its own transformerPool
+		if (parameters.size()<2) {
+			return;
+		}
+		ParameterXPathEvaluator evaluator = new ParameterXPathEvaluator(parameters, removeNamespaces);
+		if (xpathEvaluators==null) {
+			xpathEvaluators = new IdentityHashMap<Parameter,ParameterXPathEvaluator>();
+		}
+		for (Parameter p:parameters) {
+			xpathEvaluators.put(p, evaluator);
+		}
+	}
+
+	/**
+	 * @return the evaluator that determines the value of the parameter together with other parameters, or <code>null</code>
+	 */
+	ParameterXPathEvaluator getXPathEvaluator(Parameter p) {
+		if (xpathEvaluators==null) {
+			return null;
+		}
+		return xpathEvaluators.get(p);
 	}
 	
 	public Parameter getParameter(int i) {
@@ -18,11 +18,13 @@ package nl.nn.adapterframework.parameters;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.Map;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
 
 import nl.nn.adapterframework.configuration.ConfigurationException;
 import nl.nn.adapterframework.core.IPipeLineSession;
@@ -30,6 +32,7 @@ import nl.nn.adapterframework.core.IbisException;
 import nl.nn.adapterframework.core.ParameterException;
 import nl.nn.adapterframework.util.DomBuilderException;
 import nl.nn.adapterframework.util.LogUtil;
+import nl.nn.adapterframework.util.TransformerPool;
 import nl.nn.adapterframework.util.XmlUtils;
 
 import org.apache.commons.lang.StringUtils;
@@ -39,6 +42,10 @@ import org.xml.sax.SAXException;
 /**
  * Determines the parameter values of the specified parameter during runtime
  * 
+ * The DOM document of the input message is built at most once, when the first parameter needs it, and shared by
+ * all parameters. The same holds for the input message with namespaces removed. Parameters that apply a plain
+ * xpathExpression to the input message are evaluated together, in a single transformation of the shared document.
+ * 
  * @author Gerrit van Brakel
  */
 public class ParameterResolutionContext {
@@ -49,6 +56,9 @@ public class ParameterResolutionContext {
 	private Source xmlSource;
 	private boolean namespaceAware;
 	private boolean xslt2;
+	private Source xmlSourceWithoutNamespaces;
+	private Map<ParameterXPathEvaluator,Object> evaluatedXPathEvaluators;
+	private Map<Parameter,String> xpathValues;
 
 	/**
 	 * constructor
@@ -90,6 +100,44 @@ public class ParameterResolutionContext {
 	private ParameterValue getValue(ParameterValueList alreadyResolvedParameters, Parameter p) throws ParameterException {
 		return new ParameterValue(p, p.getValue(alreadyResolvedParameters, this));
 	}
+
+	/**
+	 * Evaluates the xpathExpressions of all parameters of the evaluator, when not already done for the current input.
+	 * When the combined evaluation fails, the parameters are evaluated one by one, in order to
+	 * report the error for the parameter that causes it.
+	 */
+	private void evaluateXPathParameters(ParameterXPathEvaluator evaluator) {
+		if (evaluatedXPathEvaluators == null) {
+			evaluatedXPathEvaluators = new IdentityHashMap<ParameterXPathEvaluator,Object>();
+			xpathValues = new IdentityHashMap<Parameter,String>();
+		}
+		if (evaluatedXPathEvaluators.containsKey(evaluator)) {
+			return;
+		}
+		evaluatedXPathEvaluators.put(evaluator, evaluator);
+		try {
+			Source source;
+			if (evaluator.isRemoveNamespaces()) {
+				source = getInputSourceWithoutNamespaces(evaluator.getParameters().get(0).getTransformerPoolRemoveNamespaces());
+			} else {
+				source = getInputSource();
+			}
+			xpathValues.putAll(evaluator.evaluate(source));
+		} catch (Exception e) {
+			log.debug("could not evaluate parameters "+evaluator.getParameterNames()+" together, will evaluate them one by one: "+e.getMessage());
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the xpathExpression of the parameter has been evaluated together with other parameters
+	 */
+	boolean hasXPathValue(Parameter p) {
+		return xpathValues != null && xpathValues.containsKey(p);
+	}
+
+	String getXPathValue(Parameter p) {
+		return xpathValues.get(p);
+	}
 	
 	/**
 	 * @param parameters
@@ -121,6 +169,10 @@ public class ParameterResolutionContext {
 					}
 				}
 			} else {
+				ParameterXPathEvaluator evaluator = parameters.getXPathEvaluator(parm);
+				if (evaluator != null) {
+					evaluateXPathParameters(evaluator);
+				}
 				result.add(getValue(result, parm));
 			}
 		}
@@ -170,6 +222,18 @@ public class ParameterResolutionContext {
 		return xmlSource;
 	}
 
+	/**
+	 * @return the DOM document parsed from the input, after the namespaces have been removed by the transformerPool
+	 */
+	public Source getInputSourceWithoutNamespaces(TransformerPool transformerPoolRemoveNamespaces) throws DomBuilderException, TransformerException, IOException {
+		if (xmlSourceWithoutNamespaces == null) {
+			log.debug("Constructing InputSource without namespaces for ParameterResolutionContext");
+			String rnResult = transformerPoolRemoveNamespaces.transform(getInputSource(), null);
+			xmlSourceWithoutNamespaces = XmlUtils.stringToSource(rnResult);
+		}
+		return xmlSourceWithoutNamespaces;
+	}
+
 	/**
 	 * @return the (possibly xml formatted) input message
 	 */
@@ -190,6 +254,9 @@ public class ParameterResolutionContext {
 	public void setInput(String input) {
 		this.input = input;
 		this.xmlSource = null;
+		this.xmlSourceWithoutNamespaces = null;
+		this.evaluatedXPathEvaluators = null;
+		this.xpathValues = null;
 	}
 
 	/**
@@ -0,0 +1,124 @@
+/*
+   Copyright 2016 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.parameters;
+
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMResult;
+
+import nl.nn.adapterframework.configuration.ConfigurationException;
+import nl.nn.adapterframework.util.TransformerPool;
+import nl.nn.adapterframework.util.XmlUtils;
+
+import org.w3c.dom.Node;
+
+/**
+ * Evaluates the xpathExpressions of a number of simple parameters in a single transformation of the input message.
+ * 
+ * Each parameter gets its own element in the result of the transformation, filled using the same
+ * <code>xsl:value-of</code> and namespace declarations as the stylesheet generated for the parameter itself, so
+ * the values are identical to the values obtained by transforming the input for each parameter separately.
+ * Only parameters for which {@link Parameter#isSimpleXPath()} returns <code>true</code> can be evaluated this way.
+ * 
+ * @since   7.0
+ */
+class ParameterXPathEvaluator {
+
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+	private List<Parameter> parameters;
+	private boolean removeNamespaces;
+	private TransformerPool transformerPool;
+
+	ParameterXPathEvaluator(List<Parameter> parameters, boolean removeNamespaces) throws ConfigurationException {
+		this.parameters = parameters;
+		this.removeNamespaces = removeNamespaces;
+		StringBuffer xsl = new StringBuffer();
+		xsl.append("<xsl:stylesheet xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\" version=\"1.0\" xmlns:xalan=\"http://xml.apache.org/xslt\">");
+		xsl.append("<xsl:output method=\"xml\" omit-xml-declaration=\"yes\"/>");
+		xsl.append("<xsl:strip-space elements=\"*\"/>");
+		xsl.append("<xsl:template match=\"/\">");
+		xsl.append("<values>");
+		for (Parameter parameter : parameters) {
+			try {
+				xsl.append("<value><xsl:value-of "+XmlUtils.getNamespaceClause(parameter.getNamespaceDefs())+" select=\""+parameter.getXpathExpression()+"\"/></value>");
+			} catch (TransformerConfigurationException e) {
+				throw new ConfigurationException("Parameter ["+parameter.getName()+"] got error creating transformer from namespaceDefs ["+parameter.getNamespaceDefs()+"]", e);
+			}
+		}
+		xsl.append("</values>");
+		xsl.append("</xsl:template>");
+		xsl.append("</xsl:stylesheet>");
+		try {
+			transformerPool = new TransformerPool(xsl.toString());
+		} catch (TransformerConfigurationException e) {
+			throw new ConfigurationException("got error creating transformer to evaluate xpathExpressions of parameters "+getParameterNames(), e);
+		}
+	}
+
+	/**
+	 * Evaluates the xpathExpressions of all parameters on the source.
+	 * @return map of the textual value of each parameter, as it would have been returned by the transformerPool of the parameter itself
+	 */
+	Map<Parameter,String> evaluate(Source source) throws TransformerException, IOException {
+		DOMResult result = new DOMResult();
+		transformerPool.transform(source, result, null);
+		Map<Parameter,String> values = new IdentityHashMap<Parameter,String>();
+		Node valueNode = result.getNode().getFirstChild().getFirstChild();
+		for (Parameter parameter : parameters) {
+			StringBuffer value = new StringBuffer();
+			for (Node text = valueNode.getFirstChild(); text != null; text = text.getNextSibling()) {
+				value.append(text.getNodeValue());
+			}
+			values.put(parameter, toTextOutput(value.toString()));
+			valueNode = valueNode.getNextSibling();
+		}
+		return values;
+	}
+
+	/**
+	 * The text output method of the XSLT 1.0 processor writes newlines as
+	 * system line separators; a DOM result contains the newlines as is.
+	 */
+	private String toTextOutput(String value) {
+		if ("\n".equals(LINE_SEPARATOR) || value.indexOf('\n') < 0) {
+			return value;
+		}
+		return value.replace("\n", LINE_SEPARATOR);
+	}
+
+	List<Parameter> getParameters() {
+		return parameters;
+	}
+
+	String getParameterNames() {
+		StringBuffer names = new StringBuffer();
+		for (Parameter parameter : parameters) {
+			names.append(names.length() == 0 ? "[" : ",").append(parameter.getName());
+		}
+		return names.append("]").toString();
+	}
+
+	boolean isRemoveNamespaces() {
+		return removeNamespaces;
+	}
+}
@@ -116,4 +116,16 @@ public class FilePipe extends FixedForwardPipe {
 	public void setStreamResultToServlet(boolean b) {
 		fileHandler.setStreamResultToServlet(b);
 	}
+
+	public void setStreaming(boolean b) {
+		fileHandler.setStreaming(b);
+	}
+
+	public void setMemoryMapped(boolean b) {
+		fileHandler.setMemoryMapped(b);
+	}
+
+	public void setDestinationDirectory(String destinationDirectory) {
+		fileHandler.setDestinationDirectory(destinationDirectory);
+	}
 }
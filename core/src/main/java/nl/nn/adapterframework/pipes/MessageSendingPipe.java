@@ -17,9 +17,19 @@ package nl.nn.adapterframework.pipes;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import nl.nn.adapterframework.configuration.ConfigurationException;
 import nl.nn.adapterframework.configuration.ConfigurationUtils;
@@ -35,6 +45,7 @@ import nl.nn.adapterframework.core.ITransactionalStorage;
 import nl.nn.adapterframework.core.ListenerException;
 import nl.nn.adapterframework.core.ParameterException;
 import nl.nn.adapterframework.core.PipeForward;
+import nl.nn.adapterframework.core.PipeLineSessionBase;
 import nl.nn.adapterframework.core.PipeRunException;
 import nl.nn.adapterframework.core.PipeRunResult;
 import nl.nn.adapterframework.core.PipeStartException;
@@ -50,6 +61,7 @@ import nl.nn.adapterframework.parameters.ParameterList;
 import nl.nn.adapterframework.parameters.ParameterResolutionContext;
 import nl.nn.adapterframework.processors.ListenerProcessor;
 import nl.nn.adapterframework.processors.PipeProcessor;
+import nl.nn.adapterframework.senders.CircuitBreaker;
 import nl.nn.adapterframework.senders.MailSender;
 import nl.nn.adapterframework.statistics.HasStatistics;
 import nl.nn.adapterframework.statistics.StatisticsKeeper;
@@ -123,6 +135,13 @@ import org.apache.log4j.Logger;
  * <tr><td>{@link #setRetryMaxInterval(int) retryMaxInterval}</td><td>The maximum number of seconds waited after an unsuccessful processing attempt before another processing attempt is made</td><td>600</td></tr>
  * <tr><td>{@link #setRetryXPath(String) retryXPath}</td><td>xpath expression evaluated on each technical successful reply. Retry is done if condition returns true</td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setRetryNamespaceDefs(String) retryNamespaceDefs}</td><td>namespace defintions for retryXPath. Must be in the form of a comma or space separated list of <code>prefix=namespaceuri</code>-definitions</td><td>&nbsp;</td></tr>
+ * <tr><td>{@link #setRetryInBackground(boolean) retryInBackground}</td><td>only for asynchronous senders without listener: when set <code>true</code>, retries are scheduled after the retry interval, instead of letting the calling thread wait. The pipe returns an empty result after the first unsuccessful attempt. The message is stored in the messageLog when it has been sent, and in the errorStorage, which is required, when it could not be sent after maxRetries retries or the pipe is stopped before it has been sent. N.B. retries are done outside the transaction of the pipeline</td><td>false</td></tr>
+ * <tr><td>{@link #setCircuitBreakerFailureRateThreshold(int) circuitBreakerFailureRateThreshold}</td><td>when set, the percentage of failed calls to the sender within the last <code>circuitBreakerWindowSize</code> calls at which the circuit breaker opens. While the circuit breaker is open, messages are not sent, but fail immediately</td><td>0 (disabled)</td></tr>
+ * <tr><td>{@link #setCircuitBreakerSlowCallDuration(long) circuitBreakerSlowCallDuration}</td><td>when set, calls to the sender that take longer than this number of milliseconds are considered slow calls</td><td>0 (disabled)</td></tr>
+ * <tr><td>{@link #setCircuitBreakerSlowCallRateThreshold(int) circuitBreakerSlowCallRateThreshold}</td><td>the percentage of slow calls within the last <code>circuitBreakerWindowSize</code> calls at which the circuit breaker opens</td><td>100</td></tr>
+ * <tr><td>{@link #setCircuitBreakerWindowSize(int) circuitBreakerWindowSize}</td><td>number of most recent calls on which the failure and slow call rates are determined</td><td>10</td></tr>
+ * <tr><td>{@link #setCircuitBreakerOpenDuration(long) circuitBreakerOpenDuration}</td><td>number of milliseconds the circuit breaker stays open, before it lets <code>circuitBreakerHalfOpenCalls</code> trial calls through. When these succeed the circuit breaker closes, otherwise it opens again</td><td>60000</td></tr>
+ * <tr><td>{@link #setCircuitBreakerHalfOpenCalls(int) circuitBreakerHalfOpenCalls}</td><td>number of trial calls that must succeed to close the circuit breaker again</td><td>1</td></tr>
  * <tr><td>{@link #setUseInputForExtract(boolean) useInputForExtract}</td><td>when set <code>true</code>, the input of a pipe is used to extract audit trail, correlationID and label (instead of the wrapped input)</td><td>true</td></tr>
  * <tr><td>{@link #setStreamResultToServlet(boolean) streamResultToServlet}</td><td>if set, the result is first base64 decoded and then streamed to the HttpServletResponse object which is stored in session key "restListenerServletResponse"</td><td>false</td></tr>
  * <tr><td><code>sender.*</td><td>any attribute of the sender instantiated by descendant classes</td><td>&nbsp;</td></tr>
@@ -142,6 +161,7 @@ import org.apache.log4j.Logger;
  * <tr><td><code>inputWrapper</code></td><td>specification of Pipe to wrap input messages (before validating)</td></tr>
  * <tr><td><code>outputWrapper</code></td><td>specification of Pipe to wrap output messages (after validating)</td></tr>
  * <tr><td>{@link nl.nn.adapterframework.core.ITransactionalStorage messageLog}</td><td>log of all messages sent</td></tr>
+ * <tr><td>{@link nl.nn.adapterframework.core.ITransactionalStorage errorStorage}</td><td>storage of messages that could not be sent by background retries (see retryInBackground)</td></tr>
  * </table>
  * </p>
  * <p><b>Exits:</b>
@@ -195,10 +215,22 @@ public class MessageSendingPipe extends FixedForwardPipe implements HasSender, H
 	private int retryMaxInterval=1;
 	private String retryXPath;
 	private String retryNamespaceDefs;
+	private boolean retryInBackground=false;
+	private int circuitBreakerFailureRateThreshold=0;
+	private long circuitBreakerSlowCallDuration=0;
+	private int circuitBreakerSlowCallRateThreshold=100;
+	private int circuitBreakerWindowSize=10;
+	private long circuitBreakerOpenDuration=60000;
+	private int circuitBreakerHalfOpenCalls=1;
+
+	private CircuitBreaker circuitBreaker=null;
+	private ScheduledThreadPoolExecutor retryScheduler=null;
+	private Set<BackgroundRetry> pendingRetries = Collections.synchronizedSet(new LinkedHashSet<BackgroundRetry>());
 
 	private ISender sender = null;
 	private ICorrelatedPullingListener listener = null;
 	private ITransactionalStorage messageLog=null;
+	private ITransactionalStorage errorStorage=null;
 
 	private String returnString;
 	private TransformerPool auditTrailTp=null;
@@ -357,7 +389,23 @@ public class MessageSendingPipe extends FixedForwardPipe implements HasSender, H
 					configWarnings.add(log, msg);
 					setRetryMaxInterval(getRetryMinInterval());
 				}
+				if (isRetryInBackground() && (getSender().isSynchronous() || getListener()!=null)) {
+					throw new ConfigurationException(getLogPrefix(null)+"retryInBackground is only allowed for asynchronous senders without listener");
+				}
+				if (isRetryInBackground() && getErrorStorage()==null) {
+					throw new ConfigurationException(getLogPrefix(null)+"retryInBackground requires an errorStorage, to store messages that could not be sent");
+				}
 			}
+			if (getCircuitBreakerFailureRateThreshold()>0 || getCircuitBreakerSlowCallDuration()>0) {
+				if (getCircuitBreakerWindowSize()<1 || getCircuitBreakerHalfOpenCalls()<1) {
+					throw new ConfigurationException(getLogPrefix(null)+"circuitBreakerWindowSize and circuitBreakerHalfOpenCalls must be at least 1");
+				}
+				circuitBreaker = new CircuitBreaker("Pipe ["+getName()+"] circuit breaker", getCircuitBreakerWindowSize(), getCircuitBreakerFailureRateThreshold(), 
+						getCircuitBreakerSlowCallDuration(), getCircuitBreakerSlowCallRateThreshold(), getCircuitBreakerOpenDuration(), getCircuitBreakerHalfOpenCalls());
+			}
+		}
+		if (getErrorStorage()!=null) {
+			getErrorStorage().configure();
 		}
 		ITransactionalStorage messageLog = getMessageLog();
 		if (checkMessageLog) {
@@ -482,6 +530,7 @@ public class MessageSendingPipe extends FixedForwardPipe implements HasSender, H
 				int retryInterval = getRetryMinInterval();
 				String sendResult = null;
 				boolean replyIsValid = false;
+				boolean retryScheduled = false;
 				int retriesLeft = 0;
 				if (getMaxRetries()>0) {
 					retriesLeft = getMaxRetries() + 1;
@@ -504,13 +553,19 @@ public class MessageSendingPipe extends FixedForwardPipe implements HasSender, H
 							replyIsValid = true;
 						}
 					} catch (TimeOutException toe) {
-						if (retriesLeft>=1) {
+						if (retriesLeft>=1 && scheduleRetry(originalMessage, input, session, correlationID, retriesLeft, retryInterval, "timeout occured")) {
+							retryScheduled = true;
+							replyIsValid = true;
+						} else if (retriesLeft>=1 && !isCircuitBreakerOpen()) {
 							retryInterval = increaseRetryIntervalAndWait(session, retryInterval, "timeout occured, retries left [" + retriesLeft + "]");
 						} else {
 							throw toe;
 						}
 					} catch (SenderException se) {
-						if (retriesLeft>=1) {
+						if (retriesLeft>=1 && scheduleRetry(originalMessage, input, session, correlationID, retriesLeft, retryInterval, "exception ["+(se!=null?se.getMessage():"")+"] occured")) {
+							retryScheduled = true;
+							replyIsValid = true;
+						} else if (retriesLeft>=1 && !isCircuitBreakerOpen()) {
 							retryInterval = increaseRetryIntervalAndWait(session, retryInterval, "exception ["+(se!=null?se.getMessage():"")+"] occured, retries left [" + retriesLeft + "]");
 						} else {
 							throw se;
@@ -522,7 +577,11 @@ public class MessageSendingPipe extends FixedForwardPipe implements HasSender, H
 					throw new PipeRunException(this, getLogPrefix(session)+"invalid reply message is received");
 				}
 	
-				if (getSender().isSynchronous()) {
+				if (retryScheduled) {
+					if (log.isInfoEnabled()) {
+						log.info(getLogPrefix(session)+ "message to ["+ getSender().getName()+ "] will be sent by background retry");
+					}
+				} else if (getSender().isSynchronous()) {
 					if (log.isInfoEnabled()) {
 						log.info(getLogPrefix(session)+ "sent message to ["+ getSender().getName()+ "] synchronously");
 					}
@@ -540,73 +599,9 @@ public class MessageSendingPipe extends FixedForwardPipe implements HasSender, H
 					}
 				}
 
-				ITransactionalStorage messageLog = getMessageLog();
-				if (messageLog!=null) {
-					long messageLogStartTime= System.currentTimeMillis();
-					String messageTrail="no audit trail";
-					if (auditTrailTp!=null) {
-						if (isUseInputForExtract()){
-							messageTrail=auditTrailTp.transform(originalMessage,null);
-						} else {
-							messageTrail=auditTrailTp.transform((String)input,null);
-						}
-					} else {
-						if (StringUtils.isNotEmpty(getAuditTrailSessionKey())) {
-							messageTrail = (String)(session.get(getAuditTrailSessionKey()));
-						}
-					}
-					String storedMessageID=messageID;
-					if (storedMessageID==null) {
-						storedMessageID="-";
-					}
-					if (correlationIDTp!=null) {
-						if (StringUtils.isNotEmpty(getCorrelationIDSessionKey())) {
-							String sourceString = (String)(session.get(getCorrelationIDSessionKey()));
-							correlationID=correlationIDTp.transform(sourceString,null);
-						} else {
-							if (isUseInputForExtract()) {
-								correlationID=correlationIDTp.transform(originalMessage,null);
-							} else {
-								correlationID=correlationIDTp.transform((String)input,null);
-							}
-						}
-						if (StringUtils.isEmpty(correlationID)) {
-							correlationID="-";
-						}
-					}
-					String label=null;
-					if (labelTp!=null) {
-						if (isUseInputForExtract()) {
-							label=labelTp.transform(originalMessage,null);
-						} else {
-							label=labelTp.transform((String)input,null);
-						}
-					}
-					if (sender instanceof MailSender) {
-						String messageInMailSafeForm = (String)session.get("messageInMailSafeForm");
-						if (hideRegex != null){
-							if (getHideMethod().equalsIgnoreCase("FIRSTHALF")) {
-								messageInMailSafeForm = Misc.hideFirstHalf(messageInMailSafeForm, hideRegex);
-							} else {
-								messageInMailSafeForm = Misc.hideAll(messageInMailSafeForm, hideRegex);
-							}
-						}
-						messageLog.storeMessage(storedMessageID,correlationID,new Date(),messageTrail,label,messageInMailSafeForm);
-					} else {
-						String message = (String)input;
-						if (hideRegex != null){
-							if (getHideMethod().equalsIgnoreCase("FIRSTHALF")) {
-								message = Misc.hideFirstHalf(message, hideRegex);
-							} else {
-								message = Misc.hideAll(message, hideRegex);
-							}
-						}
-						messageLog.storeMessage(storedMessageID,correlationID,new Date(),messageTrail,label,message);
-					}
-					long messageLogEndTime = System.currentTimeMillis();
-					long messageLogDuration = messageLogEndTime - messageLogStartTime;
-					StatisticsKeeper sk = getPipeLine().getPipeStatistics(messageLog);
-					sk.addValue(messageLogDuration);
+				// a message that is retried in background is stored in the messageLog when it has been sent
+				if (getMessageLog()!=null && !retryScheduled) {
+					correlationID = storeInMessageLog(originalMessage, input, session, messageID, correlationID);
 				}
 
 				if (sender instanceof MailSender) {
@@ -730,7 +725,17 @@ public class MessageSendingPipe extends FixedForwardPipe implements HasSender, H
 		long startTime = System.currentTimeMillis();
 		String sendResult = null;
 		String error = null;
+		CircuitBreaker breaker = circuitBreaker;
+		long permit = CircuitBreaker.REJECTED;
+		boolean failed = true;
 		try {
+			if (breaker!=null) {
+				permit = breaker.tryAcquire();
+				if (permit==CircuitBreaker.REJECTED) {
+					error = "CircuitBreakerOpen";
+					throw new SenderException(getLogPrefix(session)+"circuit breaker of sender ["+sender.getName()+"] is "+breaker.getStateName()+", message is not sent");
+				}
+			}
 			sendResult = sendTextMessage(input, session, correlationID, getSender(), threadContext);
 			if (Thread.currentThread().isInterrupted()) {
 				error = "InterruptedException";
@@ -744,7 +749,11 @@ public class MessageSendingPipe extends FixedForwardPipe implements HasSender, H
 				error = "SenderException";
 				throw new SenderException(getLogPrefix(session)+"exceptionOnResult ["+getExceptionOnResult()+"]");
 			}
+			failed = false;
 		} finally {
+			if (permit!=CircuitBreaker.REJECTED) {
+				breaker.onResult(permit, failed, System.currentTimeMillis()-startTime);
+			}
 			if (MsgLogUtil.getMsgLogLevelNum(getPipeLine().getAdapter().getMsgLogLevel())>=MsgLogUtil.MSGLOG_LEVEL_TERSE) {
 				String durationString = Misc.getAge(startTime);
 				msgLog.info("Sender [" + sender.getName() + "] class [" + sender.getClass().getSimpleName() + "] correlationID [" + correlationID + "] duration [" + durationString + "] got exit-state [" + (error==null?"success":error) + "]");
@@ -766,6 +775,173 @@ public class MessageSendingPipe extends FixedForwardPipe implements HasSender, H
 		return sender.sendMessage(correlationID, (String) input);
 	}
 
+	/**
+	 * Stores the message that has been sent in the messageLog.
+	 * @return the correlationID, as extracted for the messageLog
+	 */
+	private String storeInMessageLog(String originalMessage, Object input, IPipeLineSession session, String messageID, String correlationID) throws Exception {
+		ITransactionalStorage messageLog = getMessageLog();
+		long messageLogStartTime= System.currentTimeMillis();
+		String messageTrail="no audit trail";
+		if (auditTrailTp!=null) {
+			if (isUseInputForExtract()){
+				messageTrail=auditTrailTp.transform(originalMessage,null);
+			} else {
+				messageTrail=auditTrailTp.transform((String)input,null);
+			}
+		} else {
+			if (StringUtils.isNotEmpty(getAuditTrailSessionKey())) {
+				messageTrail = (String)(session.get(getAuditTrailSessionKey()));
+			}
+		}
+		String storedMessageID=messageID;
+		if (storedMessageID==null) {
+			storedMessageID="-";
+		}
+		if (correlationIDTp!=null) {
+			if (StringUtils.isNotEmpty(getCorrelationIDSessionKey())) {
+				String sourceString = (String)(session.get(getCorrelationIDSessionKey()));
+				correlationID=correlationIDTp.transform(sourceString,null);
+			} else {
+				if (isUseInputForExtract()) {
+					correlationID=correlationIDTp.transform(originalMessage,null);
+				} else {
+					correlationID=correlationIDTp.transform((String)input,null);
+				}
+			}
+			if (StringUtils.isEmpty(correlationID)) {
+				correlationID="-";
+			}
+		}
+		String label=null;
+		if (labelTp!=null) {
+			if (isUseInputForExtract()) {
+				label=labelTp.transform(originalMessage,null);
+			} else {
+				label=labelTp.transform((String)input,null);
+			}
+		}
+		if (sender instanceof MailSender) {
+			String messageInMailSafeForm = (String)session.get("messageInMailSafeForm");
+			if (hideRegex != null){
+				if (getHideMethod().equalsIgnoreCase("FIRSTHALF")) {
+					messageInMailSafeForm = Misc.hideFirstHalf(messageInMailSafeForm, hideRegex);
+				} else {
+					messageInMailSafeForm = Misc.hideAll(messageInMailSafeForm, hideRegex);
+				}
+			}
+			messageLog.storeMessage(storedMessageID,correlationID,new Date(),messageTrail,label,messageInMailSafeForm);
+		} else {
+			String message = (String)input;
+			if (hideRegex != null){
+				if (getHideMethod().equalsIgnoreCase("FIRSTHALF")) {
+					message = Misc.hideFirstHalf(message, hideRegex);
+				} else {
+					message = Misc.hideAll(message, hideRegex);
+				}
+			}
+			messageLog.storeMessage(storedMessageID,correlationID,new Date(),messageTrail,label,message);
+		}
+		long messageLogEndTime = System.currentTimeMillis();
+		long messageLogDuration = messageLogEndTime - messageLogStartTime;
+		StatisticsKeeper sk = getPipeLine().getPipeStatistics(messageLog);
+		sk.addValue(messageLogDuration);
+		return correlationID;
+	}
+
+	protected boolean isCircuitBreakerOpen() {
+		return circuitBreaker!=null && circuitBreaker.isOpen();
+	}
+
+	/**
+	 * Resends a message in the background, after the retry interval, until it is sent or no retries are left.
+	 */
+	private class BackgroundRetry implements Runnable {
+		private String originalMessage;
+		private Object input;
+		private IPipeLineSession session;
+		private String correlationID;
+		private int retriesLeft;
+		private int retryInterval;
+
+		BackgroundRetry(String originalMessage, Object input, IPipeLineSession session, String correlationID, int retriesLeft, int retryInterval) {
+			this.originalMessage=originalMessage;
+			this.input=input;
+			// the session of the pipeline is not available anymore when the retry is done
+			this.session=new PipeLineSessionBase(session);
+			this.correlationID=correlationID;
+			this.retriesLeft=retriesLeft;
+			this.retryInterval=retryInterval;
+		}
+
+		public void run() {
+			if (!pendingRetries.remove(this)) {
+				// already moved to the errorStorage by stop()
+				return;
+			}
+			retriesLeft--;
+			String messageID;
+			try {
+				messageID = sendMessage(input, session, correlationID, getSender(), new HashMap());
+			} catch (InterruptedException e) {
+				moveToErrorStorage(this, "background retry interrupted");
+				return;
+			} catch (Exception e) {
+				if (retriesLeft<1 || !schedule(this, "exception ["+e.getMessage()+"] occured in background retry")) {
+					moveToErrorStorage(this, "could not send message after ["+(getMaxRetries()-retriesLeft)+"] retries, last exception ["+e.getMessage()+"]");
+				}
+				return;
+			}
+			log.info(getLogPrefix(session)+"sent message to ["+getSender().getName()+"] messageID ["+messageID+"] in background retry");
+			if (getMessageLog()!=null) {
+				try {
+					storeInMessageLog(originalMessage, input, session, messageID, correlationID);
+				} catch (Exception e) {
+					log.error(getLogPrefix(session)+"could not store message sent in background retry in messageLog", e);
+				}
+			}
+		}
+	}
+
+	private boolean scheduleRetry(String originalMessage, Object input, IPipeLineSession session, String correlationID, int retriesLeft, int retryInterval, String description) {
+		if (retryScheduler==null) {
+			return false;
+		}
+		return schedule(new BackgroundRetry(originalMessage, input, session, correlationID, retriesLeft, retryInterval), description);
+	}
+
+	private boolean schedule(BackgroundRetry retry, String description) {
+		ScheduledThreadPoolExecutor scheduler=retryScheduler;
+		if (scheduler==null) {
+			return false;
+		}
+		int currentInterval;
+		synchronized (this) {
+			currentInterval = Math.min(Math.max(retry.retryInterval, getRetryMinInterval()), getRetryMaxInterval());
+		}
+		retry.retryInterval = currentInterval * 2;
+		pendingRetries.add(retry);
+		try {
+			scheduler.schedule(retry, currentInterval, TimeUnit.SECONDS);
+		} catch (RejectedExecutionException e) {
+			pendingRetries.remove(retry);
+			return false;
+		}
+		log.warn(getLogPrefix(retry.session)+description+", retries left [" + retry.retriesLeft + "], retrying in background in [" + currentInterval + "] seconds");
+		return true;
+	}
+
+	private void moveToErrorStorage(BackgroundRetry retry, String reason) {
+		ITransactionalStorage errorStorage = getErrorStorage();
+		log.error(getLogPrefix(retry.session)+reason+", moving message to errorStorage");
+		try {
+			errorStorage.storeMessage(retry.session.getMessageId(), retry.correlationID, new Date(), reason, null, (String)retry.input);
+		} catch (Exception e) {
+			log.error(getLogPrefix(retry.session)+"could not store message in errorStorage, message is lost", e);
+		}
+		throwEvent(PIPE_EXCEPTION_MONITOR_EVENT);
+	}
+
 	public int increaseRetryIntervalAndWait(IPipeLineSession session, int retryInterval, String description) throws InterruptedException {
 		long currentInterval;
 		synchronized (this) {
@@ -809,8 +985,51 @@ public class MessageSendingPipe extends FixedForwardPipe implements HasSender, H
 				throw pse;
 			}
 		}
+		if (getErrorStorage()!=null) {
+			try {
+				getErrorStorage().open();
+			} catch (Exception e) {
+				PipeStartException pse = new PipeStartException(getLogPrefix(null)+"could not open errorStorage", e);
+				pse.setPipeNameInError(getName());
+				throw pse;
+			}
+		}
+		if (isRetryInBackground() && getMaxRetries()>0 && StringUtils.isEmpty(getStubFileName())) {
+			final String threadNamePrefix=getName()+"-retry-";
+			retryScheduler=new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				private AtomicInteger count = new AtomicInteger();
+
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, threadNamePrefix+count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
 	}
 	public void stop() {
+		ScheduledThreadPoolExecutor scheduler=retryScheduler;
+		if (scheduler!=null) {
+			retryScheduler=null;
+			scheduler.shutdownNow();
+			try {
+				// let a retry that is being sent finish, before the errorStorage is closed
+				scheduler.awaitTermination(getRetryMaxInterval(), TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				log.warn(getLogPrefix(null) + "interrupted while waiting for background retries to finish");
+			}
+			List<BackgroundRetry> pending;
+			synchronized (pendingRetries) {
+				pending=new ArrayList<BackgroundRetry>(pendingRetries);
+				pendingRetries.clear();
+			}
+			if (!pending.isEmpty()) {
+				log.warn(getLogPrefix(null) + "is closing, ["+pending.size()+"] messages that are to be retried in background are moved to the errorStorage");
+				for (BackgroundRetry retry:pending) {
+					moveToErrorStorage(retry, "pipe stopped before message could be retried");
+				}
+			}
+		}
 		if (StringUtils.isEmpty(getStubFileName())) {
 			log.info(getLogPrefix(null) + "is closing");
 			try {
@@ -835,12 +1054,22 @@ public class MessageSendingPipe extends FixedForwardPipe implements HasSender, H
 				log.warn(getLogPrefix(null) + "Exception closing messageLog", e);
 			}
 		}
+		if (getErrorStorage()!=null) {
+			try {
+				getErrorStorage().close();
+			} catch (Exception e) {
+				log.warn(getLogPrefix(null) + "Exception closing errorStorage", e);
+			}
+		}
 	}
 
 	public void iterateOverStatistics(StatisticsKeeperIterationHandler hski, Object data, int action) throws SenderException {
 		if (sender instanceof HasStatistics) {
 			((HasStatistics)sender).iterateOverStatistics(hski,data,action);
 		}
+		if (circuitBreaker!=null) {
+			circuitBreaker.iterateOverStatistics(hski,data,action);
+		}
 	}
 
 	/**
@@ -878,6 +1107,25 @@ public class MessageSendingPipe extends FixedForwardPipe implements HasSender, H
 		return messageLog;
 	}
 
+	/**
+	 * Sets the errorStorage, that stores messages that could not be sent by background retries.
+	 */
+	public void setErrorStorage(ITransactionalStorage errorStorage) {
+		if (errorStorage.isActive()) {
+			this.errorStorage = errorStorage;
+			errorStorage.setName("errorStorage of pipe ["+getName()+"]");
+			if (StringUtils.isEmpty(errorStorage.getSlotId())) {
+				errorStorage.setSlotId(getName());
+			}
+			if (StringUtils.isEmpty(errorStorage.getType())) {
+				errorStorage.setType(JdbcTransactionalStorage.TYPE_ERRORSTORAGE);
+			}
+		}
+	}
+	public ITransactionalStorage getErrorStorage() {
+		return errorStorage;
+	}
+
  
 
 	/**
@@ -1155,6 +1403,55 @@ public class MessageSendingPipe extends FixedForwardPipe implements HasSender, H
 		return hideMethod;
 	}
 
+	public void setRetryInBackground(boolean b) {
+		retryInBackground = b;
+	}
+	public boolean isRetryInBackground() {
+		return retryInBackground;
+	}
+
+	public void setCircuitBreakerFailureRateThreshold(int i) {
+		circuitBreakerFailureRateThreshold = i;
+	}
+	public int getCircuitBreakerFailureRateThreshold() {
+		return circuitBreakerFailureRateThreshold;
+	}
+
+	public void setCircuitBreakerSlowCallDuration(long l) {
+		circuitBreakerSlowCallDuration = l;
+	}
+	public long getCircuitBreakerSlowCallDuration() {
+		return circuitBreakerSlowCallDuration;
+	}
+
+	public void setCircuitBreakerSlowCallRateThreshold(int i) {
+		circuitBreakerSlowCallRateThreshold = i;
+	}
+	public int getCircuitBreakerSlowCallRateThreshold() {
+		return circuitBreakerSlowCallRateThreshold;
+	}
+
+	public void setCircuitBreakerWindowSize(int i) {
+		circuitBreakerWindowSize = i;
+	}
+	public int getCircuitBreakerWindowSize() {
+		return circuitBreakerWindowSize;
+	}
+
+	public void setCircuitBreakerOpenDuration(long l) {
+		circuitBreakerOpenDuration = l;
+	}
+	public long getCircuitBreakerOpenDuration() {
+		return circuitBreakerOpenDuration;
+	}
+
+	public void setCircuitBreakerHalfOpenCalls(int i) {
+		circuitBreakerHalfOpenCalls = i;
+	}
+	public int getCircuitBreakerHalfOpenCalls() {
+		return circuitBreakerHalfOpenCalls;
+	}
+
 	public void setStreamResultToServlet(boolean b) {
 		streamResultToServlet = b;
 	}
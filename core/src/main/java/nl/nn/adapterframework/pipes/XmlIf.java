@@ -1,5 +1,5 @@
 /*
-   Copyright 2013 Nationale-Nederlanden
+   Copyright 2013, 2016 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -15,14 +15,19 @@
 */
 package nl.nn.adapterframework.pipes;
 
+import java.io.Reader;
+
 import javax.xml.transform.TransformerConfigurationException;
 
 import nl.nn.adapterframework.configuration.ConfigurationException;
 import nl.nn.adapterframework.core.IPipeLineSession;
 import nl.nn.adapterframework.core.PipeForward;
+import nl.nn.adapterframework.core.PipeLineSessionBase;
 import nl.nn.adapterframework.core.PipeRunException;
 import nl.nn.adapterframework.core.PipeRunResult;
+import nl.nn.adapterframework.core.SpilledSessionValue;
 import nl.nn.adapterframework.util.TransformerPool;
+import nl.nn.adapterframework.util.XmlUtils;
 
 import org.apache.commons.lang.StringUtils;
 
@@ -95,7 +100,24 @@ public class XmlIf extends AbstractPipe {
 
 	public PipeRunResult doPipe(Object input, IPipeLineSession session) throws PipeRunException {
 		String forward = "";
-		PipeForward pipeForward = null;
+
+		if (tp!=null && StringUtils.isNotEmpty(getSessionKey()) && session instanceof PipeLineSessionBase) {
+			SpilledSessionValue spilled = ((PipeLineSessionBase)session).getSpilledValue(getSessionKey());
+			if (spilled!=null) {
+				log.debug(getLogPrefix(session)+"streaming spilled input from sessionKey ["+getSessionKey()+"]");
+				try {
+					Reader reader = spilled.openReader();
+					try {
+						forward = tp.transform(XmlUtils.readerToSourceForSingleUse(reader, isNamespaceAware()),null);
+					} finally {
+						reader.close();
+					}
+				} catch (Exception e) {
+					throw new PipeRunException(this,getLogPrefix(session)+"cannot evaluate expression",e);
+				}
+				return getPipeRunResult(input, session, forward);
+			}
+		}
 
 		String sInput;
 		if (StringUtils.isEmpty(getSessionKey())) {
@@ -135,9 +157,13 @@ public class XmlIf extends AbstractPipe {
 			}
 		}
 
+		return getPipeRunResult(input, session, forward);
+	}
+
+	private PipeRunResult getPipeRunResult(Object input, IPipeLineSession session, String forward) throws PipeRunException {
 		log.debug(getLogPrefix(session)+ "determined forward [" + forward + "]");
 
-		pipeForward=findForward(forward);
+		PipeForward pipeForward=findForward(forward);
 		
 		if (pipeForward == null) {
 			  throw new PipeRunException (this, getLogPrefix(null)+"cannot find forward or pipe named [" + forward + "]");
@@ -26,6 +26,7 @@ import java.util.Set;
 import java.util.StringTokenizer;
 
 import javax.xml.namespace.QName;
+import javax.xml.transform.Source;
 import javax.xml.transform.TransformerConfigurationException;
 
 import nl.nn.adapterframework.configuration.ConfigurationException;
@@ -35,6 +36,7 @@ import nl.nn.adapterframework.core.IPipeLineSession;
 import nl.nn.adapterframework.core.PipeForward;
 import nl.nn.adapterframework.core.PipeRunException;
 import nl.nn.adapterframework.core.PipeRunResult;
+import nl.nn.adapterframework.parameters.ParameterResolutionContext;
 import nl.nn.adapterframework.util.ClassUtils;
 import nl.nn.adapterframework.util.LogUtil;
 import nl.nn.adapterframework.util.TransformerPool;
@@ -43,6 +45,7 @@ import nl.nn.adapterframework.validation.AbstractXmlValidator;
 import nl.nn.adapterframework.validation.Schema;
 import nl.nn.adapterframework.validation.SchemaUtils;
 import nl.nn.adapterframework.validation.SchemasProvider;
+import nl.nn.adapterframework.validation.SourceConsumer;
 import nl.nn.adapterframework.validation.XSD;
 import nl.nn.adapterframework.validation.XercesXmlValidator;
 import nl.nn.adapterframework.validation.XmlValidatorException;
@@ -82,6 +85,11 @@ import org.apache.log4j.Logger;
 * <tr><td>{@link #setImportedSchemaLocationsToIgnore(String) importedSchemaLocationsToIgnore}</td><td>comma separated list of schemaLocations which are excluded from an import or include in the schema document</td><td>&nbsp;</td></tr>
 * <tr><td>{@link #setUseBaseImportedSchemaLocationsToIgnore(boolean) useBaseImportedSchemaLocationsToIgnore}</td><td>when set <code>true</code>, the comparison for importedSchemaLocationsToIgnore is done on base filename without any path</td><td><code>false</code></td></tr>
 * <tr><td>{@link #setImportedNamespacesToIgnore(String) importedNamespacesToIgnore}</td><td>comma separated list of namespaces which are excluded from an import or include in the schema document</td><td>&nbsp;</td></tr>
+* <tr><td>{@link #setStyleSheetName(String) styleSheetName}</td><td>when set, a valid message is transformed with this stylesheet in the same parse as the validation, and the result of the transformation is the result of the pipe. This replaces an XsltPipe after the XmlValidator, saving a parse of the message. The message is transformed namespace aware</td><td>&nbsp;</td></tr>
+* <tr><td>{@link #setXpathExpression(String) xpathExpression}</td><td>like <code>styleSheetName</code>, with an xpath expression to evaluate on a valid message</td><td>&nbsp;</td></tr>
+* <tr><td>{@link #setNamespaceDefs(String) namespaceDefs}</td><td>namespace defintions for xpathExpression. Must be in the form of a comma or space separated list of <code>prefix=namespaceuri</code>-definitions</td><td>&nbsp;</td></tr>
+* <tr><td>{@link #setOutputType(String) outputType}</td><td>either 'text' or 'xml'. Only valid for xpathExpression</td><td>text</td></tr>
+* <tr><td>{@link #setOmitXmlDeclaration(boolean) omitXmlDeclaration}</td><td>force the transformer generated from the XPath-expression to omit the xml declaration</td><td>true</td></tr>
 * </table>
 * <p><b>Exits:</b>
 * <table border="1">
@@ -108,6 +116,13 @@ public class XmlValidator extends FixedForwardPipe implements SchemasProvider, H
 	private TransformerPool transformerPoolExtractSoapBody;
 	private TransformerPool transformerPoolGetRootNamespace;
 	private TransformerPool transformerPoolRemoveNamespaces;
+	private TransformerPool transformerPool;
+
+	private String styleSheetName;
+	private String xpathExpression;
+	private String namespaceDefs;
+	private String outputType = "text";
+	private boolean omitXmlDeclaration = true;
 
 	protected String schemaLocation;
 	protected String noNamespaceSchemaLocation;
@@ -178,6 +193,9 @@ public class XmlValidator extends FixedForwardPipe implements SchemasProvider, H
 					validator.setIgnoreUnknownNamespaces(false);
 				}
 			}
+			if (StringUtils.isNotEmpty(getStyleSheetName()) || StringUtils.isNotEmpty(getXpathExpression())) {
+				transformerPool = TransformerPool.configureTransformer(getLogPrefix(null), classLoader, getNamespaceDefs(), getXpathExpression(), getStyleSheetName(), getOutputType(), !isOmitXmlDeclaration(), getParameterList());
+			}
 			validator.setSchemasProvider(this);
 			if (isRecoverAdapter()) {
 				validator.reset();
@@ -226,6 +244,9 @@ public class XmlValidator extends FixedForwardPipe implements SchemasProvider, H
              messageToValidate = input.toString();
          }
          try {
+            if (transformerPool != null) {
+                return validateAndTransform(input, messageToValidate, session);
+            }
             PipeForward forward = validate(messageToValidate, session);
 			return new PipeRunResult(forward, input);
 		} catch (Exception e) {
@@ -233,8 +254,56 @@ public class XmlValidator extends FixedForwardPipe implements SchemasProvider, H
 		}
 
      }
+
+	/**
+	 * Validates the message and, when it is valid, returns the result of the transformation. The message
+	 * is transformed in the same parse as the validation, unless only the SOAP body has been validated.
+	 */
+	protected PipeRunResult validateAndTransform(Object input, String messageToValidate, IPipeLineSession session) throws Exception {
+		Map parameterValues = null;
+		if (getParameterList() != null && getParameterList().size() > 0) {
+			parameterValues = new ParameterResolutionContext(input.toString(), session, isNamespaceAware()).getValueMap(getParameterList());
+		}
+		TransformingConsumer consumer = new TransformingConsumer(parameterValues);
+		boolean transformWhileValidating = messageToValidate.equals(input.toString());
+		String resultEvent;
+		if (transformWhileValidating) {
+			resultEvent = validator.validate(messageToValidate, session, getLogPrefix(session), consumer);
+		} else {
+			resultEvent = validator.validate(messageToValidate, session, getLogPrefix(session));
+		}
+		PipeForward forward = determineForward(resultEvent);
+		if (forward != getForward()) {
+			return new PipeRunResult(forward, input);
+		}
+		if (!transformWhileValidating || !AbstractXmlValidator.XML_VALIDATOR_VALID_MONITOR_EVENT.equals(resultEvent)) {
+			consumer.consume(XmlUtils.stringToSourceForSingleUse(input.toString(), true));
+		}
+		return new PipeRunResult(forward, consumer.getResult());
+	}
+
+	private class TransformingConsumer implements SourceConsumer {
+		private Map parameterValues;
+		private String result;
+
+		TransformingConsumer(Map parameterValues) {
+			this.parameterValues = parameterValues;
+		}
+
+		public void consume(Source source) throws Exception {
+			result = transformerPool.transform(source, parameterValues);
+		}
+
+		public String getResult() {
+			return result;
+		}
+	}
+
     protected PipeForward validate(String messageToValidate, IPipeLineSession session) throws XmlValidatorException, PipeRunException, ConfigurationException {
-        String resultEvent = validator.validate(messageToValidate, session, getLogPrefix(session));
+        return determineForward(validator.validate(messageToValidate, session, getLogPrefix(session)));
+    }
+
+    protected PipeForward determineForward(String resultEvent) throws PipeRunException {
         throwEvent(resultEvent);
         if (AbstractXmlValidator.XML_VALIDATOR_VALID_MONITOR_EVENT.equals(resultEvent)) {
             return getForward();
@@ -645,6 +714,41 @@ public class XmlValidator extends FixedForwardPipe implements SchemasProvider, H
 		return null;
 	}
 
+	public void setStyleSheetName(String styleSheetName) {
+		this.styleSheetName = styleSheetName;
+	}
+	public String getStyleSheetName() {
+		return styleSheetName;
+	}
+
+	public void setXpathExpression(String xpathExpression) {
+		this.xpathExpression = xpathExpression;
+	}
+	public String getXpathExpression() {
+		return xpathExpression;
+	}
+
+	public void setNamespaceDefs(String namespaceDefs) {
+		this.namespaceDefs = namespaceDefs;
+	}
+	public String getNamespaceDefs() {
+		return namespaceDefs;
+	}
+
+	public void setOutputType(String outputType) {
+		this.outputType = outputType;
+	}
+	public String getOutputType() {
+		return outputType;
+	}
+
+	public void setOmitXmlDeclaration(boolean omitXmlDeclaration) {
+		this.omitXmlDeclaration = omitXmlDeclaration;
+	}
+	public boolean isOmitXmlDeclaration() {
+		return omitXmlDeclaration;
+	}
+
 	public void setForwardFailureToSuccess(boolean b) {
 		this.forwardFailureToSuccess = b;
 	}
@@ -18,7 +18,11 @@ package nl.nn.adapterframework.receivers;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
 
 import nl.nn.adapterframework.configuration.ConfigurationException;
 import nl.nn.adapterframework.configuration.ConfigurationWarnings;
@@ -27,11 +31,13 @@ import nl.nn.adapterframework.core.INamedObject;
 import nl.nn.adapterframework.core.IPipeLineSession;
 import nl.nn.adapterframework.core.IPullingListener;
 import nl.nn.adapterframework.core.ListenerException;
+import nl.nn.adapterframework.core.ParameterException;
 import nl.nn.adapterframework.core.PipeLineResult;
 import nl.nn.adapterframework.core.PipeLineSessionBase;
 import nl.nn.adapterframework.util.DateUtils;
 import nl.nn.adapterframework.util.FileUtils;
 import nl.nn.adapterframework.util.LogUtil;
+import nl.nn.adapterframework.util.WildCardFilter;
 import nl.nn.adapterframework.util.XmlBuilder;
 import nl.nn.adapterframework.util.XmlUtils;
 
@@ -73,8 +79,22 @@ import org.xml.sax.helpers.DefaultHandler;
  * <tr><td>{@link #setNumberOfAttempts(int) numberOfAttempts}</td><td>maximum number of move attempts before throwing an exception. N.B. not used anymore. Please use maxRetries on the Receiver instead</td><td>1</td></tr>
  * <tr><td>{@link #setWaitBeforeRetry(long) waitBeforeRetry}</td><td>time waited after unsuccesful try. N.B. not used anymore.</td><td>1000 [ms]</td></tr>
  * <tr><td>{@link #setRandom(boolean) random}</td><td>when set to <code>true</code>, every file in the directory is passed in a random order</td><td>false</td></tr>
+ * <tr><td>{@link #setEventDriven(boolean) eventDriven}</td><td>when set to <code>true</code>, a background thread watches the inputDirectory and queues stable files, from which the receiver threads claim files concurrently (not allowed in combination with random or fileList)</td><td>false</td></tr>
+ * <tr><td>{@link #setScanInterval(long) scanInterval}</td><td>(only used when eventDriven=true) interval in milliseconds at which the inputDirectory is checked for changes</td><td>1000 [ms]</td></tr>
+ * <tr><td>{@link #setReconcileInterval(long) reconcileInterval}</td><td>(only used when eventDriven=true) interval in milliseconds at which the inputDirectory is fully scanned, even when no change has been detected</td><td>60000 [ms]</td></tr>
+ * <tr><td>{@link #setDirectoryTimestampResolution(long) directoryTimestampResolution}</td><td>(only used when eventDriven=true) time in milliseconds after a change of the inputDirectory during which it is listed at every scanInterval, as file systems can store modification times coarsely</td><td>2000 [ms]</td></tr>
+ * <tr><td>{@link #setMaxQueueSize(int) maxQueueSize}</td><td>(only used when eventDriven=true) maximum number of files queued for processing; further files are picked up when the queue has room again</td><td>1000</td></tr>
  * </table>
  * </p>
+ * 
+ * <p>
+ * When eventDriven is set, the inputDirectory is no longer listed and sorted on every poll. A watcher thread
+ * only lists it when its modification time changes, when files were found that were not yet stable, or when
+ * the reconcileInterval has passed. Stable files are kept in a queue ordered by modification time. Receiver
+ * threads take files from this queue without holding a lock; when an outputDirectory is specified the file is
+ * claimed by renaming it there, so that a file that has been claimed by another instance is simply skipped. As only
+ * a rename is atomic, the outputDirectory must then be on the same file system as the inputDirectory.
+ * </p>
  *
  * @author  John Dekker
  */
@@ -104,6 +124,17 @@ public class DirectoryListener implements IPullingListener, INamedObject, HasPhy
 	private long waitBeforeRetry = 1000;
 
 	private long minStableTime = 1000;
+
+	private boolean eventDriven = false;
+	private long scanInterval = 1000;
+	private long reconcileInterval = 60000;
+	private long directoryTimestampResolution = 2000;
+	private int maxQueueSize = 1000;
+
+	private PriorityBlockingQueue<QueuedFile> queue;
+	private Set<String> queuedFiles;
+	private Set<String> filesInProcess;
+	private DirectoryWatcher watcher;
 	
 	/**
 	 * Configure does some basic checks (outputDirectory is a directory, inputDirectory is a directory, wildcard is filled etc.);
@@ -148,6 +179,14 @@ public class DirectoryListener implements IPullingListener, INamedObject, HasPhy
 			String msg="The use of the attribute responseTime [" + getResponseTime() + "] is no longer used; Please set the attribute pollInterval on the receiver instead, which is specified in seconds instead of milliseconds";
 			ConfigurationWarnings.getInstance().add(log,msg);
 		}
+		if (isEventDriven()) {
+			if (isRandom() || getFileList() != null) {
+				throw new ConfigurationException("random and fileList are not allowed for eventDriven=true");
+			}
+			if (getMaxQueueSize() < 1) {
+				throw new ConfigurationException("maxQueueSize must be at least 1");
+			}
+		}
 		if (getNumberOfAttempts()>1) {
 			String msg="The use of the attribute numberOfAttempts [" + getNumberOfAttempts() + "] is no longer used; Please set the attribute maxRetries on the receiver instead";
 			ConfigurationWarnings.getInstance().add(log,msg);
@@ -155,6 +194,15 @@ public class DirectoryListener implements IPullingListener, INamedObject, HasPhy
 	}
 
 	public void open() throws ListenerException {
+		if (isEventDriven()) {
+			queue = new PriorityBlockingQueue<QueuedFile>(getMaxQueueSize());
+			queuedFiles = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+			filesInProcess = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+			watcher = new DirectoryWatcher();
+			Thread thread = new Thread(watcher, "DirectoryWatcher-" + getName());
+			thread.setDaemon(true);
+			thread.start();
+		}
 	}
 
 	public Map openThread() throws ListenerException {
@@ -163,6 +211,10 @@ public class DirectoryListener implements IPullingListener, INamedObject, HasPhy
 
 
 	public void close() throws ListenerException {
+		if (watcher != null) {
+			watcher.stop();
+			watcher = null;
+		}
 	}
 
 	public void closeThread(Map threadContext) throws ListenerException {
@@ -182,6 +234,9 @@ public class DirectoryListener implements IPullingListener, INamedObject, HasPhy
 				moveFileAfterProcessing(filename);
 			}
 		}
+		if (filesInProcess != null) {
+			filesInProcess.remove(getStringFromRawMessage(rawMessage, context));
+		}
 	}
 
 	private void moveFileAfterProcessing(String filename) throws ListenerException {
@@ -256,7 +311,77 @@ public class DirectoryListener implements IPullingListener, INamedObject, HasPhy
 	 * Retrieves a single record from a file. If the file is empty or fully processed, it looks wether there
 	 * is a new file to process and returns the first record.
 	 */
-	public synchronized Object getRawMessage(Map threadContext) throws ListenerException {
+	public Object getRawMessage(Map threadContext) throws ListenerException {
+		if (isEventDriven()) {
+			return getQueuedRawMessage(threadContext);
+		}
+		return getPolledRawMessage(threadContext);
+	}
+
+	/**
+	 * Takes the next file from the queue filled by the {@link DirectoryWatcher}. Files that have disappeared
+	 * in the meantime, e.g. because another instance claimed them, are skipped.
+	 */
+	private Object getQueuedRawMessage(Map threadContext) throws ListenerException {
+		QueuedFile queuedFile;
+		while ((queuedFile = queue.poll()) != null) {
+			File file = queuedFile.file;
+			try {
+				if (!file.exists()) {
+					log.debug(getName() + " skipping file [" + file.getPath() + "] that no longer exists");
+					continue;
+				}
+				if (StringUtils.isNotEmpty(getOutputDirectory())) {
+					String claimedFileName = claimFile(file, threadContext);
+					if (claimedFileName == null) {
+						log.debug(getName() + " file [" + file.getPath() + "] was claimed by another instance");
+						continue;
+					}
+					return claimedFileName;
+				}
+				String inputFileName = getInputFileName(file, threadContext);
+				// the file stays in the inputDirectory, prevent it from being queued again while it is processed
+				filesInProcess.add(inputFileName);
+				return inputFileName;
+			} finally {
+				queuedFiles.remove(queuedFile.path);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Claims a queued file by renaming it into the outputDirectory. Unlike {@link #archiveFile(IPipeLineSession, File)},
+	 * the file is not copied when it cannot be renamed, as only a rename is atomic, and a file that is copied could
+	 * be claimed by another instance at the same time.
+	 * 
+	 * @return the name of the claimed file, or <code>null</code> when another instance claimed it first
+	 */
+	private String claimFile(File file, Map threadContext) throws ListenerException {
+		File claimedFile;
+		try {
+			claimedFile = new File(getOutputDirectory(), FileUtils.getFilename(null, getSession(threadContext), file, getOutputFilenamePattern()));
+		} catch (ParameterException e) {
+			throw new ListenerException(getName() + " cannot determine the name to claim file [" + file.getAbsolutePath() + "] with", e);
+		}
+		if (getNumberOfBackups() > 0) {
+			FileUtils.makeBackups(claimedFile, getNumberOfBackups());
+		} else if (isOverwrite() && claimedFile.exists()) {
+			claimedFile.delete();
+		}
+		if (!file.renameTo(claimedFile)) {
+			if (!file.exists()) {
+				return null;
+			}
+			throw new ListenerException(getName() + " was unable to rename file [" + file.getAbsolutePath() + "] to [" + claimedFile.getAbsolutePath() + "], the outputDirectory must be on the same file system as the inputDirectory");
+		}
+		if (passWithoutDirectory) {
+			return claimedFile.getName();
+		}
+		return claimedFile.getAbsolutePath();
+	}
+
+	private synchronized Object getPolledRawMessage(Map threadContext) throws ListenerException {
 		if (isRandom()) {
 			File file = FileUtils.getFirstFile(getInputDirectory(), getMinStableTime());
 			if (file==null) {
@@ -326,6 +451,117 @@ public class DirectoryListener implements IPullingListener, INamedObject, HasPhy
 	}
 
 
+	/**
+	 * File in the queue, ordered by the modification time it had when it was found.
+	 */
+	private class QueuedFile implements Comparable<QueuedFile> {
+		File file;
+		String path;
+		long lastModified;
+
+		QueuedFile(File file, String path, long lastModified) {
+			this.file = file;
+			this.path = path;
+			this.lastModified = lastModified;
+		}
+
+		public int compareTo(QueuedFile other) {
+			if (lastModified != other.lastModified) {
+				return lastModified < other.lastModified ? -1 : 1;
+			}
+			return path.compareTo(other.path);
+		}
+	}
+
+	/**
+	 * Watches the inputDirectory and queues files that have become stable. The directory is only listed
+	 * when something may have changed, so idle polls of the receiver threads cost nothing.
+	 */
+	private class DirectoryWatcher implements Runnable {
+		private volatile boolean running = true;
+		private long lastDirectoryModified = -1;
+		private long lastFullScan = 0;
+		private boolean rescanRequired = true;
+
+		public void stop() {
+			running = false;
+		}
+
+		public void run() {
+			log.info(getName() + " started watching directory [" + getInputDirectory() + "]");
+			while (running) {
+				try {
+					scan();
+				} catch (Throwable t) {
+					log.warn(getName() + " error scanning directory [" + getInputDirectory() + "]", t);
+				}
+				try {
+					Thread.sleep(getScanInterval());
+				} catch (InterruptedException e) {
+					running = false;
+				}
+			}
+			log.info(getName() + " stopped watching directory [" + getInputDirectory() + "]");
+		}
+
+		private void scan() throws IOException {
+			File dir = new File(getInputDirectory());
+			long now = System.currentTimeMillis();
+			long directoryModified = dir.lastModified();
+			boolean fullScan = now - lastFullScan >= getReconcileInterval();
+			// directory timestamps can be coarse, so keep scanning while the last change is recent
+			boolean changed = directoryModified != lastDirectoryModified || now - directoryModified < getDirectoryTimestampResolution();
+			if (!fullScan && !changed && !rescanRequired) {
+				return;
+			}
+			lastDirectoryModified = directoryModified;
+			if (fullScan) {
+				lastFullScan = now;
+			}
+			rescanRequired = false;
+			if (queue.size() >= getMaxQueueSize()) {
+				rescanRequired = true;
+				return;
+			}
+			File[] files = dir.listFiles(new WildCardFilter(getWildcard()));
+			if (files == null) {
+				return;
+			}
+			WildCardFilter excludeFilter = StringUtils.isNotEmpty(getExcludeWildcard()) ? new WildCardFilter(getExcludeWildcard()) : null;
+			long lastChangedAllowed = getMinStableTime() > 0 ? now - getMinStableTime() : Long.MAX_VALUE;
+			int added = 0;
+			for (int i = 0; i < files.length; i++) {
+				File file = files[i];
+				if (excludeFilter != null && excludeFilter.accept(dir, file.getName())) {
+					continue;
+				}
+				String path = file.getCanonicalPath();
+				if (queuedFiles.contains(path) || filesInProcess.contains(path) || filesInProcess.contains(file.getName())) {
+					continue;
+				}
+				if (!file.isFile()) {
+					continue;
+				}
+				long lastModified = file.lastModified();
+				if (lastModified > lastChangedAllowed) {
+					// not stable yet, look again at the next interval
+					rescanRequired = true;
+					continue;
+				}
+				if (queue.size() >= getMaxQueueSize()) {
+					rescanRequired = true;
+					break;
+				}
+				queuedFiles.add(path);
+				queue.add(new QueuedFile(file, path, lastModified));
+				added++;
+			}
+			if (added > 0 && log.isDebugEnabled()) {
+				log.debug(getName() + " queued [" + added + "] files from directory [" + getInputDirectory() + "], queue size [" + queue.size() + "]");
+			}
+		}
+	}
+
 	public String getPhysicalDestinationName() {
 		return "wildcard pattern ["+getWildcard()+"] "+(getExcludeWildcard()==null?"":"excluding ["+getExcludeWildcard()+"] ")+"inputDirectory ["+ getInputDirectory()+"] outputDirectory ["+ getOutputDirectory()+"]";
 	}
@@ -526,6 +762,41 @@ public class DirectoryListener implements IPullingListener, INamedObject, HasPhy
 		return random;
 	}
 
+	public void setEventDriven(boolean b) {
+		eventDriven = b;
+	}
+	public boolean isEventDriven() {
+		return eventDriven;
+	}
+
+	public void setScanInterval(long scanInterval) {
+		this.scanInterval = scanInterval;
+	}
+	public long getScanInterval() {
+		return scanInterval;
+	}
+
+	public void setReconcileInterval(long reconcileInterval) {
+		this.reconcileInterval = reconcileInterval;
+	}
+	public long getReconcileInterval() {
+		return reconcileInterval;
+	}
+
+	public void setDirectoryTimestampResolution(long directoryTimestampResolution) {
+		this.directoryTimestampResolution = directoryTimestampResolution;
+	}
+	public long getDirectoryTimestampResolution() {
+		return directoryTimestampResolution;
+	}
+
+	public void setMaxQueueSize(int maxQueueSize) {
+		this.maxQueueSize = maxQueueSize;
+	}
+	public int getMaxQueueSize() {
+		return maxQueueSize;
+	}
+
 	class AfterMessageProcessedHandler extends DefaultHandler {
 		boolean fileStartElementFound = false;
 		StringBuffer fileName;
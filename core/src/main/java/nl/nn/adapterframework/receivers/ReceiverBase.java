@@ -354,7 +354,9 @@ public class ReceiverBase implements IReceiver, IReceiverStatistics, IMessageHan
 	}
 
 	private IPipeLineSession createProcessingContext(String correlationId, Map threadContext, String messageId) {
-		IPipeLineSession pipelineSession = new PipeLineSessionBase();
+		PipeLineSessionBase pipelineSession = new PipeLineSessionBase();
+		// spilled session values must remain available until the returned session keys have been copied
+		pipelineSession.setReleaseSpilledValuesAtPipeLineEnd(false);
 		if (threadContext != null) {
 			pipelineSession.putAll(threadContext);
 			if (log.isDebugEnabled()) {
@@ -1236,6 +1238,9 @@ public class ReceiverBase implements IReceiver, IReceiverStatistics, IMessageHan
 				}
 				origin.afterMessageProcessed(pipeLineResult,rawMessage, afterMessageProcessedMap);
 			} finally {
+				if (pipelineSession instanceof PipeLineSessionBase) {
+					((PipeLineSessionBase)pipelineSession).releaseSpilledValues();
+				}
 				long finishProcessingTimestamp = System.currentTimeMillis();
 				finishProcessingMessage(finishProcessingTimestamp-startProcessingTimestamp);
 				if (!txStatus.isCompleted()) {
@@ -15,8 +15,8 @@
 */
 package nl.nn.adapterframework.scheduler;
 
+import java.sql.Connection;
 import java.sql.SQLException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
@@ -34,8 +34,8 @@ import nl.nn.adapterframework.core.ITransactionalStorage;
 import nl.nn.adapterframework.core.IbisTransaction;
 import nl.nn.adapterframework.core.PipeLine;
 import nl.nn.adapterframework.jdbc.DirectQuerySender;
+import nl.nn.adapterframework.jdbc.JdbcTableCleaner;
 import nl.nn.adapterframework.jdbc.JdbcTransactionalStorage;
-import nl.nn.adapterframework.jdbc.dbms.DbmsSupportFactory;
 import nl.nn.adapterframework.pipes.MessageSendingPipe;
 import nl.nn.adapterframework.receivers.ReceiverBase;
 import nl.nn.adapterframework.senders.IbisLocalSender;
@@ -77,6 +77,9 @@ import org.springframework.transaction.TransactionStatus;
  * <tr><td>{@link #setReceiverName(String) receiverName}</td><td>Receiver on which job operates. If function is 'sendMessage' is used this name is also used as name of JavaListener</td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setQuery(String) query}</td><td>the SQL query text to be executed</td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setQueryTimeout(int) queryTimeout}</td><td>the number of seconds the driver will wait for a Statement object to execute. If the limit is exceeded, a TimeOutException is thrown. 0 means no timeout</td><td>0</td></tr>
+ * <tr><td>{@link #setCleanupChunkSize(int) cleanupChunkSize}</td><td>when function is 'cleanupDatabase': the maximum number of expired records deleted and committed at once. N.B. Oracle allows at most 1000</td><td>1000</td></tr>
+ * <tr><td>{@link #setCleanupChunkPause(long) cleanupChunkPause}</td><td>when function is 'cleanupDatabase': the number of milliseconds to wait between two chunks of deleted records, to let other work on the tables proceed</td><td>0</td></tr>
+ * <tr><td>{@link #setCleanupMaxDuration(long) cleanupMaxDuration}</td><td>when function is 'cleanupDatabase': the number of milliseconds after which the cleanup of a table stops, leaving the remaining expired records for the next run. 0 means no maximum</td><td>0</td></tr>
  * <tr><td>{@link #setJmsRealm(String) jmsRealm}</td><td>&nbsp;</td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setTransactionAttribute(String) transactionAttribute}</td><td>Defines transaction and isolation behaviour. Equal to <A href="http://java.sun.com/j2ee/sdk_1.2.1/techdocs/guides/ejb/html/Transaction2.html#10494">EJB transaction attribute</a>. Possible values are: 
  *   <table border="1">
@@ -387,6 +390,9 @@ public class JobDef {
     private String receiverName;
 	private String query;
 	private int queryTimeout = 0;
+	private int cleanupChunkSize = 1000;
+	private long cleanupChunkPause = 0;
+	private long cleanupMaxDuration = 0;
 	private String jmsRealm;
 	private Locker locker=null;
 	private int numThreads = 1;
@@ -662,8 +668,6 @@ public class JobDef {
 
 	private void cleanupDatabase(IbisManager ibisManager) {
 		Date date = new Date();
-		SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-		String formattedDate = formatter.format(date);
 
 		List<String> jmsRealmNames = new ArrayList<String>();
 
@@ -700,19 +704,8 @@ public class JobDef {
 
 		for (Iterator iter = jmsRealmNames.iterator(); iter.hasNext();) {
 			String jmsRealmName = (String) iter.next();
-			setJmsRealm(jmsRealmName);
-			DirectQuerySender qs;
-			qs = (DirectQuerySender)ibisManager.getIbisContext().createBeanAutowireByName(DirectQuerySender.class);
-			qs.setJmsRealm(jmsRealmName);
-			String deleteQuery;
-			if (qs.getDatabaseType() == DbmsSupportFactory.DBMS_MSSQLSERVER) {
-				deleteQuery = "DELETE FROM IBISLOCK WHERE EXPIRYDATE < CONVERT(datetime, '" + formattedDate + "', 120)";
-			} else {
-				deleteQuery = "DELETE FROM IBISLOCK WHERE EXPIRYDATE < TO_TIMESTAMP('" + formattedDate + "', 'YYYY-MM-DD HH24:MI:SS')";
-			}
-			setQuery(deleteQuery);
-			qs = null;
-			executeQueryJob(ibisManager);
+			JdbcTableCleaner cleaner = createTableCleaner("IBISLOCK", "OBJECTID", "EXPIRYDATE");
+			cleanupTable(ibisManager, jmsRealmName, cleaner, date);
 		}
 
 		List messageLogs = new ArrayList();
@@ -744,34 +737,51 @@ public class JobDef {
 
 		for (Iterator iter = messageLogs.iterator(); iter.hasNext();) {
 			MessageLogObject mlo = (MessageLogObject) iter.next();
-			setJmsRealm(mlo.getJmsRealmName());
-			DirectQuerySender qs;
-			qs = (DirectQuerySender)ibisManager.getIbisContext().createBeanAutowireByName(DirectQuerySender.class);
-			qs.setJmsRealm(mlo.getJmsRealmName());
-			String deleteQuery;
-			if (qs.getDatabaseType() == DbmsSupportFactory.DBMS_MSSQLSERVER) {
-				deleteQuery = "DELETE FROM " + mlo.getTableName() + " WHERE "
-					+ mlo.getKeyField() + " IN (SELECT "
-						+ mlo.getKeyField() + " FROM " + mlo.getTableName()
-						+ " WITH (rowlock,updlock,readpast) WHERE "
-						+ mlo.getTypeField() + " IN ('"
-						+ JdbcTransactionalStorage.TYPE_MESSAGELOG_PIPE + "','"
-						+ JdbcTransactionalStorage.TYPE_MESSAGELOG_RECEIVER
-						+ "') AND " + mlo.getExpiryDateField()
-						+ " < CONVERT(datetime, '" + formattedDate + "', 120))";
-			} else {
-				deleteQuery = "DELETE FROM " + mlo.getTableName() + " WHERE "
-						+ mlo.getTypeField() + " IN ('"
-						+ JdbcTransactionalStorage.TYPE_MESSAGELOG_PIPE + "','"
-						+ JdbcTransactionalStorage.TYPE_MESSAGELOG_RECEIVER
-						+ "') AND " + mlo.getExpiryDateField()
-						+ " < TO_TIMESTAMP('" + formattedDate
-						+ "', 'YYYY-MM-DD HH24:MI:SS')";
+			JdbcTableCleaner cleaner = createTableCleaner(mlo.getTableName(), mlo.getKeyField(), mlo.getExpiryDateField());
+			cleaner.setTypeField(mlo.getTypeField());
+			cleaner.setTypes(new String[] {JdbcTransactionalStorage.TYPE_MESSAGELOG_PIPE, JdbcTransactionalStorage.TYPE_MESSAGELOG_RECEIVER});
+			cleanupTable(ibisManager, mlo.getJmsRealmName(), cleaner, date);
+		}
+	}
+
+	private JdbcTableCleaner createTableCleaner(String tableName, String keyField, String expiryDateField) {
+		JdbcTableCleaner cleaner = new JdbcTableCleaner();
+		cleaner.setTableName(tableName);
+		cleaner.setKeyField(keyField);
+		cleaner.setExpiryDateField(expiryDateField);
+		cleaner.setChunkSize(getCleanupChunkSize());
+		cleaner.setChunkPause(getCleanupChunkPause());
+		cleaner.setMaxDuration(getCleanupMaxDuration());
+		cleaner.setQueryTimeout(getQueryTimeout());
+		return cleaner;
+	}
+
+	private void cleanupTable(IbisManager ibisManager, String jmsRealmName, JdbcTableCleaner cleaner, Date expiryDate) {
+		DirectQuerySender qs;
+		qs = (DirectQuerySender)ibisManager.getIbisContext().createBeanAutowireByName(DirectQuerySender.class);
+		try {
+			qs.setName("QuerySender");
+			qs.setJmsRealm(jmsRealmName);
+			qs.configure(true);
+			qs.open();
+			Connection connection = qs.getConnection();
+			try {
+				int deleted = cleaner.cleanup(connection, qs.getDbmsSupport(), expiryDate);
+				String msg = "deleted [" + deleted + "] expired records from table [" + cleaner.getTableName() + "] of jmsRealm [" + jmsRealmName + "]";
+				if (!cleaner.isCompleted()) {
+					msg += ", remaining expired records will be deleted in the next run";
+				}
+				getMessageKeeper().add(msg, MessageKeeperMessage.INFO_LEVEL);
+				log.info(getLogPrefix()+msg);
+			} finally {
+				connection.close();
 			}
-			qs = null;
-			setQuery(deleteQuery);
-			setQueryTimeout(900);
-			executeQueryJob(ibisManager);
+		} catch (Exception e) {
+			String msg = "error while cleaning up table [" + cleaner.getTableName() + "] of jmsRealm [" + jmsRealmName + "] (as part of scheduled job execution): " + e.getMessage();
+			getMessageKeeper().add(msg, MessageKeeperMessage.ERROR_LEVEL);
+			log.error(getLogPrefix()+msg);
+		} finally {
+			qs.close();
 		}
 	}
 
@@ -1048,6 +1058,27 @@ public class JobDef {
 		queryTimeout = i;
 	}
 
+	public void setCleanupChunkSize(int cleanupChunkSize) {
+		this.cleanupChunkSize = cleanupChunkSize;
+	}
+	public int getCleanupChunkSize() {
+		return cleanupChunkSize;
+	}
+
+	public void setCleanupChunkPause(long cleanupChunkPause) {
+		this.cleanupChunkPause = cleanupChunkPause;
+	}
+	public long getCleanupChunkPause() {
+		return cleanupChunkPause;
+	}
+
+	public void setCleanupMaxDuration(long cleanupMaxDuration) {
+		this.cleanupMaxDuration = cleanupMaxDuration;
+	}
+	public long getCleanupMaxDuration() {
+		return cleanupMaxDuration;
+	}
+
 	public void setJmsRealm(String jmsRealm) {
 		this.jmsRealm = jmsRealm;
 	}
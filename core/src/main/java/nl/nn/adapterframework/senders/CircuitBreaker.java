@@ -0,0 +1,212 @@
+/*
+   Copyright 2016 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.senders;
+
+import java.util.Date;
+
+import nl.nn.adapterframework.core.SenderException;
+import nl.nn.adapterframework.statistics.HasStatistics;
+import nl.nn.adapterframework.statistics.StatisticsKeeperIterationHandler;
+import nl.nn.adapterframework.util.CounterStatistic;
+import nl.nn.adapterframework.util.LogUtil;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Circuit breaker that lets calls to a sender fail fast while its backend is unhealthy, instead of having
+ * every caller wait for a timeout or an exception.
+ * <p>
+ * In state <i>closed</i> all calls are permitted, and the outcomes of the last <code>windowSize</code> calls are kept.
+ * When the window is full and the percentage of failed calls reaches <code>failureRateThreshold</code>, or the
+ * percentage of calls that took longer than <code>slowCallDuration</code> milliseconds reaches
+ * <code>slowCallRateThreshold</code>, the breaker <i>opens</i>. In state <i>open</i> all calls are rejected, until
+ * <code>openDuration</code> milliseconds have passed. Then the breaker becomes <i>half open</i>, and permits
+ * <code>halfOpenCalls</code> trial calls. If one of these fails or is slow, the breaker opens again,
+ * otherwise it closes.
+ * <p>
+ * Each call that is permitted by {@link #tryAcquire()} must be followed by a call to {@link #onResult(long, boolean, long)},
+ * with the permit returned by tryAcquire(). Outcomes of calls that were permitted before the last change of state
+ * are ignored, so only the trial calls decide whether a half open breaker closes.
+ * 
+ * @since   7.0
+ */
+public class CircuitBreaker implements HasStatistics {
+	protected Logger log = LogUtil.getLogger(this);
+
+	public static final int CLOSED=0;
+	public static final int OPEN=1;
+	public static final int HALF_OPEN=2;
+
+	public static final long REJECTED=-1;
+
+	private static final String[] STATE_NAMES={"closed","open","halfOpen"};
+
+	private String name;
+	private int windowSize;
+	private int failureRateThreshold;
+	private long slowCallDuration;
+	private int slowCallRateThreshold;
+	private long openDuration;
+	private int halfOpenCalls;
+
+	private int state=CLOSED;
+	private long stateSince=System.currentTimeMillis();
+	private long generation=0;
+
+	private boolean[] failedCalls;
+	private boolean[] slowCalls;
+	private int position=0;
+	private int callCount=0;
+	private int failedCount=0;
+	private int slowCount=0;
+	private int halfOpenPermits=0;
+	private int halfOpenSuccesses=0;
+
+	private CounterStatistic opened = new CounterStatistic(0);
+	private CounterStatistic halfOpened = new CounterStatistic(0);
+	private CounterStatistic closed = new CounterStatistic(0);
+	private CounterStatistic rejectedCalls = new CounterStatistic(0);
+
+	public CircuitBreaker(String name, int windowSize, int failureRateThreshold, long slowCallDuration, int slowCallRateThreshold, long openDuration, int halfOpenCalls) {
+		this.name=name;
+		this.windowSize=windowSize;
+		this.failureRateThreshold=failureRateThreshold;
+		this.slowCallDuration=slowCallDuration;
+		this.slowCallRateThreshold=slowCallRateThreshold;
+		this.openDuration=openDuration;
+		this.halfOpenCalls=halfOpenCalls;
+		failedCalls=new boolean[windowSize];
+		slowCalls=new boolean[windowSize];
+	}
+
+	/**
+	 * Returns the permit for a call, to be passed to {@link #onResult(long, boolean, long)}, 
+	 * or {@link #REJECTED} when the call must be rejected.
+	 */
+	public synchronized long tryAcquire() {
+		if (state==OPEN) {
+			if (System.currentTimeMillis()-stateSince<openDuration) {
+				rejectedCalls.increase();
+				return REJECTED;
+			}
+			transition(HALF_OPEN);
+		}
+		if (state==HALF_OPEN) {
+			if (halfOpenPermits<=0) {
+				rejectedCalls.increase();
+				return REJECTED;
+			}
+			halfOpenPermits--;
+		}
+		return generation;
+	}
+
+	/**
+	 * Records the outcome of a permitted call.
+	 */
+	public synchronized void onResult(long permit, boolean failed, long duration) {
+		if (permit!=generation) {
+			// outcomes of calls that were permitted before the last change of state are ignored
+			return;
+		}
+		boolean slow=slowCallDuration>0 && duration>slowCallDuration;
+		if (state==HALF_OPEN) {
+			if (failed || slow) {
+				transition(OPEN);
+			} else if (++halfOpenSuccesses>=halfOpenCalls) {
+				transition(CLOSED);
+			}
+		} else if (state==CLOSED) {
+			if (callCount==windowSize) {
+				if (failedCalls[position]) failedCount--;
+				if (slowCalls[position]) slowCount--;
+			} else {
+				callCount++;
+			}
+			failedCalls[position]=failed;
+			slowCalls[position]=slow;
+			if (failed) failedCount++;
+			if (slow) slowCount++;
+			position=(position+1)%windowSize;
+			if (callCount==windowSize &&
+				(failureRateThreshold>0 && failedCount*100>=failureRateThreshold*windowSize ||
+				 slowCallDuration>0 && slowCount*100>=slowCallRateThreshold*windowSize)) {
+				transition(OPEN);
+			}
+		}
+	}
+
+	private void transition(int newState) {
+		log.warn(name+" changes state from ["+STATE_NAMES[state]+"] to ["+STATE_NAMES[newState]+"]"+(state==CLOSED?" after ["+failedCount+"] failed and ["+slowCount+"] slow calls out of ["+callCount+"]":""));
+		state=newState;
+		stateSince=System.currentTimeMillis();
+		generation++;
+		position=0;
+		callCount=0;
+		failedCount=0;
+		slowCount=0;
+		switch (newState) {
+			case OPEN:
+				opened.increase();
+				break;
+			case HALF_OPEN:
+				halfOpenPermits=halfOpenCalls;
+				halfOpenSuccesses=0;
+				halfOpened.increase();
+				break;
+			default:
+				closed.increase();
+		}
+	}
+
+	public synchronized int getState() {
+		return state;
+	}
+
+	public synchronized String getStateName() {
+		return STATE_NAMES[state];
+	}
+
+	public synchronized boolean isOpen() {
+		return state==OPEN;
+	}
+
+	public void iterateOverStatistics(StatisticsKeeperIterationHandler hski, Object data, int action) throws SenderException {
+		int currentState;
+		long currentStateSince;
+		synchronized (this) {
+			currentState=state;
+			currentStateSince=stateSince;
+		}
+		hski.handleScalar(data, name+" state (0=closed, 1=open, 2=halfOpen)", currentState);
+		hski.handleScalar(data, name+" stateSince", new Date(currentStateSince));
+		hski.handleScalar(data, name+" opened", opened.getValue());
+		hski.handleScalar(data, name+" halfOpened", halfOpened.getValue());
+		hski.handleScalar(data, name+" closed", closed.getValue());
+		hski.handleScalar(data, name+" rejectedCalls", rejectedCalls.getValue());
+		opened.performAction(action);
+		halfOpened.performAction(action);
+		closed.performAction(action);
+		rejectedCalls.performAction(action);
+	}
+
+	public long getRejectedCalls() {
+		return rejectedCalls.getValue();
+	}
+	public long getOpened() {
+		return opened.getValue();
+	}
+}
@@ -16,6 +16,7 @@
 package nl.nn.adapterframework.senders;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.net.URL;
 import java.util.Collection;
 import java.util.Date;
@@ -29,14 +30,15 @@ import javax.mail.BodyPart;
 import javax.mail.Message;
 import javax.mail.MessagingException;
 import javax.mail.Multipart;
+import javax.mail.SendFailedException;
 import javax.mail.Session;
-import javax.mail.Transport;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimeMultipart;
 
 import nl.nn.adapterframework.configuration.ConfigurationException;
+import nl.nn.adapterframework.core.IPipeLineSession;
 import nl.nn.adapterframework.core.ParameterException;
 import nl.nn.adapterframework.core.SenderException;
 import nl.nn.adapterframework.core.SenderWithParametersBase;
@@ -44,6 +46,8 @@ import nl.nn.adapterframework.core.TimeOutException;
 import nl.nn.adapterframework.parameters.ParameterResolutionContext;
 import nl.nn.adapterframework.parameters.ParameterValue;
 import nl.nn.adapterframework.parameters.ParameterValueList;
+import nl.nn.adapterframework.statistics.HasStatistics;
+import nl.nn.adapterframework.statistics.StatisticsKeeperIterationHandler;
 import nl.nn.adapterframework.util.CredentialFactory;
 import nl.nn.adapterframework.util.DomBuilderException;
 import nl.nn.adapterframework.util.Misc;
@@ -81,6 +85,12 @@ import org.w3c.dom.Element;
  * example:<br/><code><pre>
  * &lt;message&gt;&lt;![CDATA[&lt;h1&gt;This is a HtmlMessage&lt;/h1&gt;]]&gt;&lt;/message&gt;
  * </pre></code><br/>
+ * Batch of mails:<br/>
+ * When the root element of the input is not <code>email</code>, each of its <code>email</code> child elements is sent
+ * as a separate mail, all over the same connection. This can be used with an {@link nl.nn.adapterframework.pipes.IteratingPipe}
+ * with a <code>blockSize</code> set, e.g. <code>&lt;block&gt;&lt;email&gt;...&lt;/email&gt;&lt;email&gt;...&lt;/email&gt;&lt;/block&gt;</code>.
+ * The mails that are sent are recorded in the session, so when sending the batch fails partway, a retry of the same
+ * batch in the same session (e.g. by the <code>maxRetries</code> of a MessageSendingPipe) only sends the mails that were not sent yet.<br/>
  *
  * <p><b>Configuration:</b>
  * <table border="1">
@@ -94,6 +104,11 @@ import org.w3c.dom.Element;
  * <tr><td>{@link #setDefaultAttachmentType(String) defaultAttachmentType}</td><td>&nbsp;</td><td>text</td></tr>
  * <tr><td>{@link #setDefaultAttachmentName(String) defaultAttachmentName}</td><td>&nbsp;</td><td>attachment</td></tr>
  * <tr><td>{@link #setTimeout(int) timeout}</td><td>timeout (in milliseconds). Used for socket connection timeout and socket I/O timeout</td><td>20000</td></tr>
+ * <tr><td>{@link #setSmtpPort(int) smtpPort}</td><td>port of the smtpHost. When not set, the default port of the smtp protocol is used</td><td>&nbsp;</td></tr>
+ * <tr><td>{@link #setKeepAlive(boolean) keepAlive}</td><td>when <code>true</code>, connections to the smtpHost are kept open and reused for subsequent messages</td><td>false</td></tr>
+ * <tr><td>{@link #setMaxIdleConnections(int) maxIdleConnections}</td><td>when keepAlive=true, the maximum number of idle connections kept open</td><td>5</td></tr>
+ * <tr><td>{@link #setMaxMessagesPerConnection(int) maxMessagesPerConnection}</td><td>maximum number of messages sent over a single connection, before it is closed. 0 means unlimited</td><td>100</td></tr>
+ * <tr><td>{@link #setConnectionIdleTimeout(long) connectionIdleTimeout}</td><td>when keepAlive=true, time (in milliseconds) after which an idle connection is closed</td><td>30000</td></tr>
  * </table>
  * <table border="1">
  * <p><b>Parameters:</b>
@@ -122,7 +137,7 @@ import org.w3c.dom.Element;
  * @author Johan Verrips/Gerrit van Brakel
  */
 
-public class MailSender extends SenderWithParametersBase {
+public class MailSender extends SenderWithParametersBase implements HasStatistics {
 
 	private String smtpHost;
 	private String smtpAuthAlias;
@@ -134,6 +149,11 @@ public class MailSender extends SenderWithParametersBase {
 	private String defaultMessageBase64 = "false";
 	
 	private int timeout=20000;
+	private int smtpPort=-1;
+	private boolean keepAlive=false;
+	private int maxIdleConnections=5;
+	private int maxMessagesPerConnection=100;
+	private long connectionIdleTimeout=30000;
 
 	// defaults
 	private String defaultSubject;
@@ -141,6 +161,7 @@ public class MailSender extends SenderWithParametersBase {
 
 	private Session session;
 	private Properties properties;
+	private MailTransportPool transportPool;
 
 	public void configure() throws ConfigurationException {
 		if (StringUtils.isEmpty(getSmtpHost())) {
@@ -154,6 +175,9 @@ public class MailSender extends SenderWithParametersBase {
 		}
 		properties.put("mail.smtp.connectiontimeout", getTimeout()+"");
 		properties.put("mail.smtp.timeout", getTimeout()+"");
+		if (getMaxMessagesPerConnection()<0) {
+			throw new ConfigurationException("MailSender ["+getName()+"] maxMessagesPerConnection ["+getMaxMessagesPerConnection()+"] must not be negative");
+		}
 		if (paramList!=null) {
 			paramList.configure();
 		}
@@ -167,25 +191,24 @@ public class MailSender extends SenderWithParametersBase {
 	public void open() throws SenderException {
 		try {
 			getSession();
-
+			getTransportPool();
 		} catch (Exception e) {
 			throw new SenderException("Error opening MailSender", e);
 		}
 	}
 
 	/**
-	 * Close the <code>transport</code> layer.
+	 * Close the <code>transport</code> layer, i.e. all connections kept open when keepAlive=true.
 	 */
 	public void close() throws SenderException {
-		/*
-		try {
-			if (transport!=null) {
-				transport.close();
-			}
-		} catch (Exception e) {
-			throw new SenderException("error closing transport", e);
+		MailTransportPool pool;
+		synchronized (this) {
+			pool=transportPool;
+			transportPool=null;
+		}
+		if (pool!=null) {
+			pool.close();
 		}
-		*/
 	}
 
 	public boolean isSynchronous() {
@@ -202,6 +225,21 @@ public class MailSender extends SenderWithParametersBase {
 		return session;
 	}
 
+	protected synchronized MailTransportPool getTransportPool() {
+		if (transportPool == null) {
+			CredentialFactory cf = new CredentialFactory(getSmtpAuthAlias(), getSmtpUserid(), getSmtpPassword());
+			transportPool = new MailTransportPool("MailSender ["+getName()+"]", getSession(), getSmtpHost(), getSmtpPort(), cf.getUsername(), cf.getPassword(), 
+					isKeepAlive()?getMaxIdleConnections():0, getMaxMessagesPerConnection(), getConnectionIdleTimeout());
+		}
+		return transportPool;
+	}
+
+	public void iterateOverStatistics(StatisticsKeeperIterationHandler hski, Object data, int action) throws SenderException {
+		MailTransportPool pool=transportPool;
+		if (pool!=null) {
+			pool.iterateOverStatistics(hski, data, action);
+		}
+	}
 
 
 	public String sendMessage(String correlationID,	String message,	ParameterResolutionContext prc) throws SenderException, TimeOutException {
@@ -218,7 +256,7 @@ public class MailSender extends SenderWithParametersBase {
 		
 		String messageInMailSafeForm;
 		if (paramList==null) {
-			messageInMailSafeForm = sendEmail(message);
+			messageInMailSafeForm = sendEmail(message, prc==null ? null : prc.getSession());
 		} else {
 			try {
 				pvl = prc.getValues(paramList);
@@ -281,10 +319,120 @@ public class MailSender extends SenderWithParametersBase {
 	
 
 	/**
-	 * Send a mail conforming to the XML input
+	 * Send a mail conforming to the XML input, or a batch of mails when the root element contains <code>email</code> elements.
 	 */
 	protected String sendEmail(String input) throws SenderException {
-		// initialize this request
+		return sendEmail(input, null);
+	}
+
+	protected String sendEmail(String input, IPipeLineSession session) throws SenderException {
+		Element rootElement;
+		try {
+			rootElement = XmlUtils.buildElement(input);
+		} catch (DomBuilderException e) {
+			throw new SenderException("exception parsing [" + input + "]", e);
+		}
+		if (!"email".equals(rootElement.getTagName())) {
+			Collection emailElements = XmlUtils.getChildTags(rootElement, "email");
+			if (emailElements!=null && emailElements.size()>0) {
+				return sendEmails(input, emailElements, session);
+			}
+		}
+		return sendMimeMessage(createMessage(rootElement));
+	}
+
+	/**
+	 * Send a batch of mails over a single connection, switching to a new connection when maxMessagesPerConnection is reached.
+	 * Each mail is sent and recorded separately. When a session is present, the mails sent are recorded in it, so a retry
+	 * of the same batch skips them. The connection is only closed on errors of the connection itself, not when a
+	 * mail cannot be created or is refused by the smtpHost.
+	 */
+	protected String sendEmails(String input, Collection emailElements, IPipeLineSession session) throws SenderException {
+		log.debug("MailSender ["+getName()+"] sending batch of ["+emailElements.size()+"] mails");
+		String progressKey = "MailSender ["+getName()+"] batch progress";
+		BatchProgress progress = null;
+		if (session!=null && session.get(progressKey) instanceof BatchProgress) {
+			progress = (BatchProgress)session.get(progressKey);
+			if (!progress.input.equals(input)) {
+				progress = null;
+			} else if (log.isDebugEnabled()) {
+				log.debug("MailSender ["+getName()+"] skipping ["+progress.sent+"] mails of batch that have already been sent");
+			}
+		}
+		if (progress==null) {
+			progress = new BatchProgress(input);
+			if (session!=null) {
+				session.put(progressKey, progress);
+			}
+		}
+		MailTransportPool pool = getTransportPool();
+		MailTransportPool.PooledTransport transport=null;
+		try {
+			int i=0;
+			for (Iterator it=emailElements.iterator();it.hasNext();i++) {
+				Element emailElement = (Element)it.next();
+				if (i<progress.sent) {
+					continue;
+				}
+				MimeMessage msg = createMessage(emailElement);
+				String mailSafeForm;
+				try {
+					mailSafeForm = toMailSafeForm(msg);
+				} catch (Exception e) {
+					throw new SenderException("MailSender [" + getName() + "] cannot write mail ["+(i+1)+"] of batch", e);
+				}
+				if (transport==null) {
+					transport=pool.borrow();
+				}
+				try {
+					transport.sendMessage(msg);
+				} catch (SendFailedException e) {
+					// the mail is refused, e.g. for its addresses, the connection itself can still be used
+					pool.release(transport);
+					transport=null;
+					throw new SenderException("MailSender [" + getName() + "] cannot send mail ["+(i+1)+"] of batch to smtpHost ["+getSmtpHost()+"]",e);
+				}
+				progress.sent++;
+				progress.result.append(mailSafeForm);
+				if (transport.isExhausted()) {
+					pool.release(transport);
+					transport=null;
+				}
+			}
+			pool.release(transport);
+			transport=null;
+			if (session!=null) {
+				session.remove(progressKey);
+			}
+			return progress.result.toString();
+		} catch (SenderException e) {
+			// the mail could not be created, the connection itself can still be used
+			pool.release(transport);
+			transport=null;
+			throw e;
+		} catch (MessagingException e) {
+			throw new SenderException("MailSender [" + getName() + "] cannot send batch of messages to smtpHost ["+getSmtpHost()+"]",e);
+		} finally {
+			if (transport!=null) {
+				pool.invalidate(transport);
+			}
+		}
+	}
+
+	/**
+	 * The mails of a batch that have been sent, and their mail-safe forms.
+	 */
+	private static class BatchProgress {
+		private String input;
+		private int sent=0;
+		private StringBuffer result = new StringBuffer();
+
+		BatchProgress(String input) {
+			this.input=input;
+		}
+	}
+
+	protected MimeMessage createMessage(Element emailElement) throws SenderException {
 		String from;
 		String subject;
 		String threadTopic;
@@ -295,10 +443,7 @@ public class MailSender extends SenderWithParametersBase {
 		Collection recipients;
 		Collection attachments;
 		
-		Element emailElement;
 		try {
-			emailElement = XmlUtils.buildElement(input);
-
 			from = XmlUtils.getChildTagAsString(emailElement, "from");
 			subject = XmlUtils.getChildTagAsString(emailElement, "subject");
 			threadTopic = XmlUtils.getChildTagAsString(emailElement, "threadTopic");
@@ -314,16 +459,36 @@ public class MailSender extends SenderWithParametersBase {
 			attachments = attachmentsElement==null ? null :XmlUtils.getChildTags(attachmentsElement, "attachment");
 
 		} catch (DomBuilderException e) {
-			throw new SenderException("exception parsing [" + input + "]", e);
+			throw new SenderException("exception parsing email element", e);
 		}
 
-		return sendEmail(from, subject, threadTopic, message, messageType, messageBase64, charset, recipients, attachments);
+		return createMessage(from, subject, threadTopic, message, messageType, messageBase64, charset, recipients, attachments);
 	}
 
 	protected String sendEmail(String from, String subject, String threadTopic, String message,
 			String messageType, String messageBase64, String charset,
 			Collection recipients, Collection attachments) throws SenderException {
 
+		return sendMimeMessage(createMessage(from, subject, threadTopic, message, messageType, messageBase64, charset, recipients, attachments));
+	}
+
+	protected String sendMimeMessage(MimeMessage msg) throws SenderException {
+		try {
+			// send the message
+			putOnTransport(msg);
+			// return the mail in mail-safe from
+			return toMailSafeForm(msg);
+		} catch (SenderException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new SenderException("MailSender got error", e);
+		}
+	}
+
+	protected MimeMessage createMessage(String from, String subject, String threadTopic, String message,
+			String messageType, String messageBase64, String charset,
+			Collection recipients, Collection attachments) throws SenderException {
+
 		StringBuffer sb = new StringBuffer();
 
 		if (recipients==null || recipients.size()==0) {
@@ -461,18 +626,21 @@ public class MailSender extends SenderWithParametersBase {
 			log.debug(sb.toString());
 			msg.setSentDate(new Date());
 			msg.saveChanges();
-			// send the message
-			putOnTransport(msg);
-			// return the mail in mail-safe from
-			ByteArrayOutputStream out = new ByteArrayOutputStream();
-			msg.writeTo(out);
-			byte[] byteArray = out.toByteArray();
-			return Misc.byteArrayToString(byteArray,"\n",false); 
+			return msg;
+		} catch (SenderException e) {
+			throw e;
 		} catch (Exception e) {
 			throw new SenderException("MailSender got error", e);
 		}
 	}
 
+	protected String toMailSafeForm(MimeMessage msg) throws IOException, MessagingException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		msg.writeTo(out);
+		byte[] byteArray = out.toByteArray();
+		return Misc.byteArrayToString(byteArray,"\n",false); 
+	}
+
 	private DataHandler decodeBase64 (String str) {
 			byte[] bytesDecoded = Base64.decode(str);
 			String encodingType = "application/octet-stream";
@@ -486,26 +654,19 @@ public class MailSender extends SenderWithParametersBase {
 	}
 
 	protected void putOnTransport(Message msg) throws SenderException {
-		// connect to the transport 
-		Transport transport=null;
+		// obtain a connected transport, from the pool when keepAlive=true
+		MailTransportPool pool = getTransportPool();
+		MailTransportPool.PooledTransport transport=null;
 		try {
-			CredentialFactory cf = new CredentialFactory(getSmtpAuthAlias(), getSmtpUserid(), getSmtpPassword());
-			transport = session.getTransport("smtp");
-			transport.connect(getSmtpHost(), cf.getUsername(), cf.getPassword());
-			if (log.isDebugEnabled()) {
-				log.debug("MailSender [" + getName() + "] connected transport to URL ["+transport.getURLName()+"]");
-			}
-			transport.sendMessage(msg, msg.getAllRecipients());
-			transport.close();
+			transport = pool.borrow();
+			transport.sendMessage(msg);
+			pool.release(transport);
+			transport=null;
 		} catch (Exception e) {
 			throw new SenderException("MailSender [" + getName() + "] cannot connect send message to smtpHost ["+getSmtpHost()+"]",e);
 		} finally {
 			if (transport!=null) {
-				try {
-					transport.close();
-				} catch (MessagingException e1) {
-					log.warn("MailSender [" + getName() + "] got exception closing connection", e1);
-				}
+				pool.invalidate(transport);
 			}
 		}
 	}
@@ -577,4 +738,39 @@ public class MailSender extends SenderWithParametersBase {
 		this.timeout = timeout;
 	}
 
+	public void setSmtpPort(int i) {
+		smtpPort = i;
+	}
+	public int getSmtpPort() {
+		return smtpPort;
+	}
+
+	public void setKeepAlive(boolean b) {
+		keepAlive = b;
+	}
+	public boolean isKeepAlive() {
+		return keepAlive;
+	}
+
+	public void setMaxIdleConnections(int i) {
+		maxIdleConnections = i;
+	}
+	public int getMaxIdleConnections() {
+		return maxIdleConnections;
+	}
+
+	public void setMaxMessagesPerConnection(int i) {
+		maxMessagesPerConnection = i;
+	}
+	public int getMaxMessagesPerConnection() {
+		return maxMessagesPerConnection;
+	}
+
+	public void setConnectionIdleTimeout(long l) {
+		connectionIdleTimeout = l;
+	}
+	public long getConnectionIdleTimeout() {
+		return connectionIdleTimeout;
+	}
+
 }
@@ -0,0 +1,256 @@
+/*
+   Copyright 2016 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.senders;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+
+import nl.nn.adapterframework.core.SenderException;
+import nl.nn.adapterframework.statistics.CountStatisticsKeeper;
+import nl.nn.adapterframework.statistics.HasStatistics;
+import nl.nn.adapterframework.statistics.StatisticsKeeper;
+import nl.nn.adapterframework.statistics.StatisticsKeeperIterationHandler;
+import nl.nn.adapterframework.util.CounterStatistic;
+import nl.nn.adapterframework.util.LogUtil;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Pool of connected SMTP {@link Transport}s, used by the {@link MailSender} to avoid a
+ * connect (and possibly TLS handshake and authentication) for every message sent.
+ * <p>
+ * A transport is closed when it has sent <code>maxMessagesPerConnection</code> messages, when it has
+ * been idle for longer than <code>idleTimeout</code> milliseconds, or when more than <code>maxIdle</code>
+ * transports would be kept open. With <code>maxIdle=0</code> every transport is closed after use, 
+ * which is the classic behaviour of the MailSender.
+ * 
+ * @since   7.0
+ */
+public class MailTransportPool implements HasStatistics {
+	protected Logger log = LogUtil.getLogger(this);
+
+	private String name;
+	private Session session;
+	private String host;
+	private int port;
+	private String username;
+	private String password;
+
+	private int maxIdle;
+	private int maxMessagesPerConnection;
+	private long idleTimeout;
+
+	private LinkedList<PooledTransport> idleTransports = new LinkedList<PooledTransport>();
+	private boolean closed=false;
+
+	private StatisticsKeeper connectStatistics;
+	private StatisticsKeeper messagesPerConnectionStatistics;
+	private CounterStatistic connectionsOpened = new CounterStatistic(0);
+	private CounterStatistic connectionsReused = new CounterStatistic(0);
+	private CounterStatistic messagesSent = new CounterStatistic(0);
+
+	public class PooledTransport {
+		private Transport transport;
+		private int messageCount=0;
+		private long lastUsed;
+
+		PooledTransport(Transport transport) {
+			this.transport=transport;
+			lastUsed=System.currentTimeMillis();
+		}
+
+		public void sendMessage(Message msg) throws MessagingException {
+			transport.sendMessage(msg, msg.getAllRecipients());
+			messageCount++;
+			lastUsed=System.currentTimeMillis();
+			messagesSent.increase();
+		}
+
+		public Transport getTransport() {
+			return transport;
+		}
+		public int getMessageCount() {
+			return messageCount;
+		}
+		public boolean isExhausted() {
+			return maxMessagesPerConnection>0 && messageCount>=maxMessagesPerConnection;
+		}
+		boolean isExpired(long now) {
+			return idleTimeout>0 && now-lastUsed>idleTimeout;
+		}
+	}
+
+	public MailTransportPool(String name, Session session, String host, int port, String username, String password, int maxIdle, int maxMessagesPerConnection, long idleTimeout) {
+		this.name=name;
+		this.session=session;
+		this.host=host;
+		this.port=port;
+		this.username=username;
+		this.password=password;
+		this.maxIdle=maxIdle;
+		this.maxMessagesPerConnection=maxMessagesPerConnection;
+		this.idleTimeout=idleTimeout;
+		connectStatistics = new StatisticsKeeper(name+" connect");
+		messagesPerConnectionStatistics = new CountStatisticsKeeper(name+" messages per connection");
+	}
+
+	/**
+	 * Returns a connected transport, either an idle one from the pool or a freshly connected one.
+	 * Each transport obtained must be handed back by {@link #release(PooledTransport)} or {@link #invalidate(PooledTransport)}.
+	 */
+	public PooledTransport borrow() throws MessagingException {
+		evictIdle();
+		long now=System.currentTimeMillis();
+		while (true) {
+			PooledTransport candidate;
+			synchronized (this) {
+				if (idleTransports.isEmpty()) {
+					break;
+				}
+				candidate=idleTransports.removeFirst();
+			}
+			if (candidate.isExpired(now) || !candidate.getTransport().isConnected()) {
+				if (log.isDebugEnabled()) log.debug(name+" discarding expired or disconnected transport after ["+candidate.getMessageCount()+"] messages");
+				closeTransport(candidate);
+			} else {
+				connectionsReused.increase();
+				return candidate;
+			}
+		}
+		return connect();
+	}
+
+	private PooledTransport connect() throws MessagingException {
+		long start=System.currentTimeMillis();
+		Transport transport = session.getTransport("smtp");
+		transport.connect(host, port, username, password);
+		long duration=System.currentTimeMillis()-start;
+		synchronized (connectStatistics) {
+			connectStatistics.addValue(duration);
+		}
+		connectionsOpened.increase();
+		if (log.isDebugEnabled()) {
+			log.debug(name+" connected transport to URL ["+transport.getURLName()+"] in ["+duration+"] ms");
+		}
+		return new PooledTransport(transport);
+	}
+
+	/**
+	 * Hands a transport back after successful use. Transports that are exhausted, or that do not fit in the pool, are closed.
+	 */
+	public void release(PooledTransport pooledTransport) {
+		if (pooledTransport==null) {
+			return;
+		}
+		if (!pooledTransport.isExhausted()) {
+			synchronized (this) {
+				if (!closed && idleTransports.size()<maxIdle) {
+					idleTransports.addFirst(pooledTransport);
+					return;
+				}
+			}
+		}
+		closeTransport(pooledTransport);
+	}
+
+	/**
+	 * Closes a transport that has encountered an error, so it will not be reused.
+	 */
+	public void invalidate(PooledTransport pooledTransport) {
+		if (pooledTransport!=null) {
+			closeTransport(pooledTransport);
+		}
+	}
+
+	/**
+	 * Closes idle transports that have been idle for longer than <code>idleTimeout</code>.
+	 */
+	public void evictIdle() {
+		long now=System.currentTimeMillis();
+		LinkedList<PooledTransport> expired = new LinkedList<PooledTransport>();
+		synchronized (this) {
+			for (Iterator<PooledTransport> it=idleTransports.iterator();it.hasNext();) {
+				PooledTransport candidate=it.next();
+				if (candidate.isExpired(now)) {
+					it.remove();
+					expired.add(candidate);
+				}
+			}
+		}
+		for (PooledTransport candidate:expired) {
+			closeTransport(candidate);
+		}
+	}
+
+	public void close() {
+		LinkedList<PooledTransport> toClose;
+		synchronized (this) {
+			closed=true;
+			toClose=idleTransports;
+			idleTransports=new LinkedList<PooledTransport>();
+		}
+		for (PooledTransport candidate:toClose) {
+			closeTransport(candidate);
+		}
+	}
+
+	private void closeTransport(PooledTransport pooledTransport) {
+		synchronized (messagesPerConnectionStatistics) {
+			messagesPerConnectionStatistics.addValue(pooledTransport.getMessageCount());
+		}
+		try {
+			pooledTransport.getTransport().close();
+		} catch (MessagingException e) {
+			log.warn(name+" got exception closing connection", e);
+		}
+	}
+
+	public synchronized int getIdleCount() {
+		return idleTransports.size();
+	}
+
+	public void iterateOverStatistics(StatisticsKeeperIterationHandler hski, Object data, int action) throws SenderException {
+		hski.handleScalar(data, name+" connectionsOpened", connectionsOpened.getValue());
+		hski.handleScalar(data, name+" connectionsReused", connectionsReused.getValue());
+		hski.handleScalar(data, name+" messagesSent", messagesSent.getValue());
+		hski.handleScalar(data, name+" idleConnections", getIdleCount());
+		hski.handleStatisticsKeeper(data, connectStatistics);
+		hski.handleStatisticsKeeper(data, messagesPerConnectionStatistics);
+		connectionsOpened.performAction(action);
+		connectionsReused.performAction(action);
+		messagesSent.performAction(action);
+		connectStatistics.performAction(action);
+		messagesPerConnectionStatistics.performAction(action);
+	}
+
+	public long getConnectionsOpened() {
+		return connectionsOpened.getValue();
+	}
+	public long getMessagesSent() {
+		return messagesSent.getValue();
+	}
+	public StatisticsKeeper getConnectStatistics() {
+		return connectStatistics;
+	}
+	public StatisticsKeeper getMessagesPerConnectionStatistics() {
+		return messagesPerConnectionStatistics;
+	}
+}
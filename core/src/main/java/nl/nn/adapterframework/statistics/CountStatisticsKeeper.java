@@ -13,22 +13,24 @@
    See the License for the specific language governing permissions and
    limitations under the License.
 */
-package nl.nn.adapterframework.configuration.classloaders;
+package nl.nn.adapterframework.statistics;
 
-import java.io.IOException;
-import java.net.URL;
-import java.net.URLConnection;
-import java.net.URLStreamHandler;
+/**
+ * StatisticsKeeper for values that are counts (e.g. number of messages per connection) rather than durations.
+ * 
+ * @since   7.0
+ */
+public class CountStatisticsKeeper extends StatisticsKeeper {
 
-public class BytesURLStreamHandler extends URLStreamHandler {
-	byte[] bytes;
+	private static final String statConfigKey="Statistics.count.boundaries";
+	public static final String DEFAULT_BOUNDARY_LIST="1,10,100,1000";
 
-	public BytesURLStreamHandler(byte[] bytes) {
-		this.bytes = bytes;
+	public CountStatisticsKeeper(String name) {
+		super(name,Basics.class, statConfigKey, DEFAULT_BOUNDARY_LIST);
 	}
 
-	@Override
-	protected URLConnection openConnection(URL url) throws IOException {
-		return new BytesURLConnection(url, bytes);
+	public String getUnits() {
+		return "#";
 	}
+
 }
@@ -19,12 +19,15 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import nl.nn.adapterframework.cache.IbisCacheManager;
 import nl.nn.adapterframework.configuration.AdapterService;
+import nl.nn.adapterframework.configuration.AdapterStarter;
 import nl.nn.adapterframework.configuration.Configuration;
 import nl.nn.adapterframework.configuration.IbisContext;
 import nl.nn.adapterframework.configuration.IbisManager;
+import nl.nn.adapterframework.core.Adapter;
 import nl.nn.adapterframework.core.IAdapter;
 import nl.nn.adapterframework.core.IListener;
 import nl.nn.adapterframework.core.IReceiver;
@@ -40,9 +43,11 @@ import nl.nn.adapterframework.scheduler.JobDef;
 import nl.nn.adapterframework.scheduler.SchedulerHelper;
 import nl.nn.adapterframework.senders.IbisLocalSender;
 import nl.nn.adapterframework.statistics.HasStatistics;
+import nl.nn.adapterframework.util.AppConstants;
 import nl.nn.adapterframework.util.LogUtil;
 import nl.nn.adapterframework.util.RunStateEnum;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.quartz.SchedulerException;
 import org.springframework.transaction.PlatformTransactionManager;
@@ -58,7 +63,7 @@ public class DefaultIbisManager implements IbisManager {
     protected Logger log = LogUtil.getLogger(this);
 
     private IbisContext ibisContext;
-    private List<Configuration> configurations = new ArrayList<Configuration>();
+    private List<Configuration> configurations = new CopyOnWriteArrayList<Configuration>();
     private SchedulerHelper schedulerHelper;
     private PlatformTransactionManager transactionManager;
     private ListenerPortPoller listenerPortPoller;
@@ -361,8 +366,24 @@ public class DefaultIbisManager implements IbisManager {
 
     private void startAdapters(Configuration configuration) {
         log.info("Starting all autostart-configured adapters for configuation " + configuration.getConfigurationName());
+        List<IAdapter> adapters = new ArrayList<IAdapter>();
+        boolean dependencies = false;
         for (IAdapter adapter : configuration.getAdapterService().getAdapters().values()) {
             if (adapter.isAutoStart()) {
+                adapters.add(adapter);
+                if (adapter instanceof Adapter && StringUtils.isNotEmpty(((Adapter)adapter).getDependsOn())) {
+                    dependencies = true;
+                }
+            }
+        }
+        AppConstants appConstants = AppConstants.getInstance();
+        if (appConstants.getBoolean("configurations.startup.parallel", false)) {
+            new AdapterStarter(configuration.getConfigurationName(), appConstants.getInt("configurations.startup.threads", 8)).startAdapters(adapters);
+        } else if (dependencies) {
+            // unbounded, like the taskExecutor used by Adapter.startRunning(), but respecting the dependencies
+            new AdapterStarter(configuration.getConfigurationName(), adapters.size()).startAdapters(adapters);
+        } else {
+            for (IAdapter adapter : adapters) {
                 log.info("Starting adapter [" + adapter.getName()+"]");
                 adapter.startRunning();
             }
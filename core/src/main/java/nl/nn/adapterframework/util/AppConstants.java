@@ -22,8 +22,10 @@ import java.io.InputStream;
 import java.io.Serializable;
 import java.net.URL;
 import java.util.Enumeration;
+import java.util.Map;
 import java.util.Properties;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.digester.substitution.VariableExpander;
 import org.apache.commons.io.FilenameUtils;
@@ -46,8 +48,10 @@ public final class AppConstants extends Properties implements Serializable{
 
 	private final static String APP_CONSTANTS_PROPERTIES_FILE = "AppConstants.properties";
 	private final static String ADDITIONAL_PROPERTIES_FILE_KEY = "ADDITIONAL.PROPERTIES.FILE";
-	private static AppConstants self = null;
+	private static volatile AppConstants self = null;
 	private VariableExpander variableExpander;
+	// compiled templates of the values, by key. Reset when properties are (re)loaded or changed
+	private Map<String, StringResolver.Template> templates = new ConcurrentHashMap<String, StringResolver.Template>();
 	private static Properties propertyPlaceholderConfigurerProperties = new Properties();
 	
 	private AppConstants() {
@@ -80,11 +84,18 @@ public final class AppConstants extends Properties implements Serializable{
 	 * Retrieve an instance of this singleton
 	 * @return AppConstants instance
 	 */
-	public static synchronized AppConstants getInstance() {
-		if (self==null) {
-			self=new AppConstants();
+	public static AppConstants getInstance() {
+		AppConstants result = self;
+		if (result==null) {
+			synchronized (AppConstants.class) {
+				result = self;
+				if (result==null) {
+					result = new AppConstants();
+					self = result;
+				}
+			}
 		}
-		return self;
+		return result;
 	}
 
 	/**
@@ -97,7 +108,7 @@ public final class AppConstants extends Properties implements Serializable{
 	 * @see IbisContext#init()
 	 * @return AppConstants instance
 	 */
-	public static synchronized AppConstants getInstance(ClassLoader classLoader) {
+	public static AppConstants getInstance(ClassLoader classLoader) {
 		return new AppConstants(classLoader);
 	}
 
@@ -105,7 +116,7 @@ public final class AppConstants extends Properties implements Serializable{
 	 * Retrieve an instance based on a directory (not a singleton)
 	 * @return AppConstants instance
 	 */
-	public static synchronized AppConstants getInstance(String directory) {
+	public static AppConstants getInstance(String directory) {
 		return new AppConstants(directory);
 	}
 
@@ -150,7 +161,12 @@ public final class AppConstants extends Properties implements Serializable{
         }
 		if (value != null) {
 			try {
-				String result=StringResolver.substVars(value, this);
+				StringResolver.Template template = templates.get(key);
+				if (template == null || !template.getSource().equals(value)) {
+					template = StringResolver.getTemplate(value);
+					templates.put(key, template);
+				}
+				String result=template.resolve(this, null, null);
 				if (log.isDebugEnabled()) {
 					if (!value.equals(result)){
 						log.debug("resolved key ["+key+"], value ["+value+"] to ["+result+"]");
@@ -167,6 +183,24 @@ public final class AppConstants extends Properties implements Serializable{
             return null;
         }
 	}
+	@Override
+	public synchronized Object put(Object key, Object value) {
+		templates.remove(key);
+		return super.put(key, value);
+	}
+
+	@Override
+	public synchronized Object remove(Object key) {
+		templates.remove(key);
+		return super.remove(key);
+	}
+
+	@Override
+	public synchronized void clear() {
+		templates.clear();
+		super.clear();
+	}
+
 	/**
 	 * Creates a tokenizer from the values of this key.  As a sepearator the "," is used.
 	 * Uses the {@link #getResolvedProperty(String)} method.
@@ -24,6 +24,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -42,6 +45,7 @@ import nl.nn.adapterframework.parameters.ParameterValue;
 import nl.nn.adapterframework.parameters.ParameterValueList;
 
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Base64InputStream;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 
@@ -70,6 +74,14 @@ import org.apache.log4j.Logger;
  * The pipe also support base64 en- and decoding.
  * </p>
  * 
+ * <p>
+ * When streaming is set, actions that can handle streams (read, read_delete, encode, decode, write
+ * and write_append) pass an InputStream on to the next action instead of a byte array, so that
+ * large files pass through in constant memory. A read followed by a write is then performed by
+ * the file system channels directly. Use the actions copy and move to copy or move large files
+ * to the destinationDirectory without reading them into memory at all.
+ * </p>
+ * 
  * <p><b>Configuration:</b>
  * <table border="1">
  * <tr><th>attributes</th><th>description</th><th>default</th></tr>
@@ -89,6 +101,8 @@ import org.apache.log4j.Logger;
  * <li>decode: decode base64</li>
  * <li>list: returns the files and directories in the directory that satisfy the specified filter (see {@link nl.nn.adapterframework.util.Dir2Xml dir2xml}). If a directory is not specified, the fileName is expected to include the directory</li>
  * <li>info: returns information about the file</li>
+ * <li>copy: copy the file to the destinationDirectory, using file channels; returns the name of the new file</li>
+ * <li>move: move the file to the destinationDirectory, by renaming it when possible and otherwise by copying and deleting it; returns the name of the new file</li>
  * </ul></td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setWriteSuffix(String) writeSuffix}</td><td>suffix of the file to be created (only used if fileName and fileNameSession are not set)</td><td>&nbsp;</td></tr>
  * <tr><td>{@link #setCreateDirectory(boolean) createDirectory}</td><td>when set to <code>true</code>, the directory to read from or write to is created if it does not exist</td><td>false</td></tr>
@@ -99,6 +113,9 @@ import org.apache.log4j.Logger;
  * <tr><td>{@link #setOutputType(String) outputType}</td><td>either <code>string</code>, <code>bytes</code>, <code>stream</code> or <code>base64</code></td><td>"string"</td></tr>
  * <tr><td>{@link #setFileSource(String) fileSource}</td><td>either <code>filesystem</code> or <code>classpath</code> (only for actions "read" and "info" and currently only for resources available as a file on the classpath (i.e. doesn't work for resources in jar files and war files which are deployed without being extracted)</td><td>"filesystem"</td></tr>
  * <tr><td>{@link #setStreamResultToServlet(boolean) streamResultToServlet}</td><td>(only used when outputType=stream) if set, the result is streamed to the HttpServletResponse object which is stored in session key "restListenerServletResponse"</td><td>false</td></tr>
+ * <tr><td>{@link #setStreaming(boolean) streaming}</td><td>when set to <code>true</code>, actions that support it pass streams to each other instead of byte arrays, keeping memory usage constant for large files</td><td>false</td></tr>
+ * <tr><td>{@link #setMemoryMapped(boolean) memoryMapped}</td><td>when set to <code>true</code>, the actions read and read_delete map the file into memory instead of reading it via a stream (only for fileSource filesystem)</td><td>false</td></tr>
+ * <tr><td>{@link #setDestinationDirectory(String) destinationDirectory}</td><td>(only used when actions=copy or move) directory the file is copied or moved to</td><td>&nbsp;</td></tr>
  * </table>
  * </p>
  * <table border="1">
@@ -117,6 +134,7 @@ public class FileHandler {
 	private ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
 
 	protected static final byte[] BOM_UTF_8 = new byte[]{(byte)0xEF, (byte)0xBB, (byte)0xBF};
+	protected static final long MAP_WINDOW_SIZE = 64*1024*1024;
 	
 	protected String charset = System.getProperty("file.encoding");
 	protected String outputType = "string";
@@ -132,6 +150,9 @@ public class FileHandler {
 	protected boolean skipBOM = false;
 	protected boolean deleteEmptyDirectory = false;
 	protected boolean streamResultToServlet=false;
+	protected boolean streaming=false;
+	protected boolean memoryMapped=false;
+	protected String destinationDirectory;
 
 	protected List transformers;
 	protected byte[] eolArray=null;
@@ -169,6 +190,10 @@ public class FileHandler {
 				transformers.add(new FileLister());
 			else if ("info".equalsIgnoreCase(token))
 				transformers.add(new FileInfoProvider());
+			else if ("copy".equalsIgnoreCase(token))
+				transformers.add(new FileCopier(false));
+			else if ("move".equalsIgnoreCase(token))
+				transformers.add(new FileCopier(true));
 			else
 				throw new ConfigurationException(getLogPrefix(null)+"Action [" + token + "] is not supported");
 		}
@@ -206,7 +231,9 @@ public class FileHandler {
 		} else {
 			output = (input == null) ? null : input.toString().getBytes(charset);
 		}
-		for (Iterator it = transformers.iterator(); it.hasNext(); ) {
+		if (isStreaming()) {
+			output = handleStreaming(output, session, paramList);
+		} else for (Iterator it = transformers.iterator(); it.hasNext(); ) {
 			TransformerAction transformerAction = (TransformerAction)it.next();
 			if (!it.hasNext() && "stream".equals(outputType)) {
 				if (transformerAction instanceof TransformerActionWithOutputTypeStream) {
@@ -250,6 +277,56 @@ public class FileHandler {
 			return new String((byte[])output, charset);
 		}
 	}
+
+	/**
+	 * Chains the actions, handing a stream to the next action whenever the producing action can
+	 * deliver one and the consuming action can read one. Streams created by the actions are closed
+	 * as soon as the next action has consumed them.
+	 */
+	private Object handleStreaming(Object input, IPipeLineSession session, ParameterList paramList) throws Exception {
+		Object output = input;
+		for (int i=0; i<transformers.size(); i++) {
+			TransformerAction transformerAction = (TransformerAction)transformers.get(i);
+			boolean last = i == transformers.size()-1;
+			boolean streamWanted = last ? "stream".equals(outputType) : transformers.get(i+1) instanceof TransformerActionWithInputTypeStream;
+			if (output instanceof InputStream) {
+				InputStream in = (InputStream)output;
+				try {
+					if (!(transformerAction instanceof TransformerActionWithInputTypeStream)) {
+						output = transformerAction.go(Misc.streamToBytes(in), session, paramList);
+					} else if (streamWanted && transformerAction instanceof TransformerActionWithInputAndOutputTypeStream) {
+						output = ((TransformerActionWithInputAndOutputTypeStream)transformerAction).go(in, session, paramList, "stream");
+						in = null;
+					} else {
+						output = ((TransformerActionWithInputTypeStream)transformerAction).go(in, session, paramList);
+					}
+				} finally {
+					if (in != null && in != input) {
+						in.close();
+					}
+				}
+			} else {
+				if (streamWanted && transformerAction instanceof TransformerActionWithOutputTypeStream) {
+					output = ((TransformerActionWithOutputTypeStream)transformerAction).go((byte[])output, session, paramList, "stream");
+				} else {
+					output = transformerAction.go((byte[])output, session, paramList);
+				}
+			}
+		}
+		if ("stream".equals(outputType)) {
+			if (output instanceof byte[]) {
+				output = new ByteArrayInputStream((byte[])output);
+			}
+		} else if (output instanceof InputStream) {
+			InputStream in = (InputStream)output;
+			try {
+				output = Misc.streamToBytes(in);
+			} finally {
+				in.close();
+			}
+		}
+		return output;
+	}
 	
 	/**
 	 * The pipe supports several actions. All actions are implementations in
@@ -275,24 +352,79 @@ public class FileHandler {
 		InputStream go(byte[] in, IPipeLineSession session, ParameterList paramList, String outputType) throws Exception;
 	}
 	
+	protected interface TransformerActionWithInputAndOutputTypeStream extends TransformerActionWithInputTypeStream, TransformerActionWithOutputTypeStream {
+		InputStream go(InputStream in, IPipeLineSession session, ParameterList paramList, String outputType) throws Exception;
+	}
+	
 	/**
 	 * Encodes the input 
 	 */
-	private class Encoder implements TransformerAction {
+	private class Encoder implements TransformerActionWithInputAndOutputTypeStream {
 		public void configure() {}
 		public byte[] go(byte[] in, IPipeLineSession session, ParameterList paramList) throws Exception {
 			return Base64.encodeBase64(in);
 		}
+		public byte[] go(InputStream in, IPipeLineSession session, ParameterList paramList) throws Exception {
+			return Misc.streamToBytes(go(in, session, paramList, "stream"));
+		}
+		public InputStream go(byte[] in, IPipeLineSession session, ParameterList paramList, String outputType) throws Exception {
+			return go(new ByteArrayInputStream(in), session, paramList, outputType);
+		}
+		public InputStream go(InputStream in, IPipeLineSession session, ParameterList paramList, String outputType) throws Exception {
+			// line length 0: no line breaks, like Base64.encodeBase64()
+			return new Base64InputStream(in, true, 0, null);
+		}
 	}
 	
 	/**
 	 * Decodes the input
 	 */
-	private class Decoder implements TransformerAction {
+	private class Decoder implements TransformerActionWithInputAndOutputTypeStream {
 		public void configure() {}
 		public byte[] go(byte[] in, IPipeLineSession session, ParameterList paramList) throws Exception {
 			return Base64.decodeBase64(in == null ? null : new String(in));
 		}
+		public byte[] go(InputStream in, IPipeLineSession session, ParameterList paramList) throws Exception {
+			return Misc.streamToBytes(go(in, session, paramList, "stream"));
+		}
+		public InputStream go(byte[] in, IPipeLineSession session, ParameterList paramList, String outputType) throws Exception {
+			return go(new ByteArrayInputStream(in), session, paramList, outputType);
+		}
+		public InputStream go(InputStream in, IPipeLineSession session, ParameterList paramList, String outputType) throws Exception {
+			return new Base64InputStream(in, false);
+		}
+	}
+
+	/**
+	 * Copies all bytes from one channel to the other, without passing them through the heap.
+	 */
+	private long transfer(FileChannel source, FileChannel target) throws IOException {
+		long position = source.position();
+		long size = source.size();
+		long count = 0;
+		while (position + count < size) {
+			long transferred = source.transferTo(position + count, size - position - count, target);
+			if (transferred <= 0) {
+				break;
+			}
+			count += transferred;
+		}
+		source.position(position + count);
+		return count;
+	}
+
+	private void prepareParentDirectory(File file, IPipeLineSession session) {
+		if (!file.getParentFile().exists()) {
+			if (isCreateDirectory()) {
+				if (file.getParentFile().mkdirs()) {
+					log.debug( getLogPrefix(session) + "created directory [" + file.getParent() +"]");
+				} else {
+					log.warn( getLogPrefix(session) + "directory [" + file.getParent() +"] could not be created");
+				}
+			} else {
+				log.warn( getLogPrefix(session) + "directory [" + file.getParent() +"] does not exists");
+			}
+		}
 	}
 
 	private String getEffectiveFileName(byte[] in, IPipeLineSession session) {
@@ -382,21 +514,15 @@ public class FileHandler {
 		}
 		public byte[] go(InputStream in, IPipeLineSession session, ParameterList paramList) throws Exception {
 			File tmpFile=createFile(null, session, paramList);
-			if (!tmpFile.getParentFile().exists()) {
-				if (isCreateDirectory()) {
-					if (tmpFile.getParentFile().mkdirs()) {
-						log.debug( getLogPrefix(session) + "created directory [" + tmpFile.getParent() +"]");
-					} else {
-						log.warn( getLogPrefix(session) + "directory [" + tmpFile.getParent() +"] could not be created");
-					}
-				} else {
-					log.warn( getLogPrefix(session) + "directory [" + tmpFile.getParent() +"] does not exists");
-				}
-			}
+			prepareParentDirectory(tmpFile, session);
 			// Use tmpFile.getPath() instead of tmpFile to be WAS 5.0 / Java 1.3 compatible
 			FileOutputStream fos = new FileOutputStream(tmpFile.getPath(), append);
 			try {
-				Misc.streamToStream(in, fos);
+				if (in instanceof FileInputStream) {
+					transfer(((FileInputStream)in).getChannel(), fos.getChannel());
+				} else {
+					Misc.streamToStream(in, fos);
+				}
 				if (isWriteLineSeparator()) {
 					fos.write(eolArray);
 				}
@@ -423,17 +549,7 @@ public class FileHandler {
 		}
 		public byte[] go(byte[] in, IPipeLineSession session, ParameterList paramList) throws Exception {
 			File tmpFile=createFile(in, session, paramList);
-			if (!tmpFile.getParentFile().exists()) {
-				if (isCreateDirectory()) {
-					if (tmpFile.getParentFile().mkdirs()) {
-						log.debug( getLogPrefix(session) + "created directory [" + tmpFile.getParent() +"]");
-					} else {
-						log.warn( getLogPrefix(session) + "directory [" + tmpFile.getParent() +"] could not be created");
-					}
-				} else {
-					log.warn( getLogPrefix(session) + "directory [" + tmpFile.getParent() +"] does not exists");
-				}
-			}
+			prepareParentDirectory(tmpFile, session);
 			FileOutputStream fos = new FileOutputStream(tmpFile.getPath(), false);
 			fos.close();
 			return tmpFile.getPath().getBytes();
@@ -473,9 +589,22 @@ public class FileHandler {
 			File file = getFile(in, session);
 			FileInputStream fis = new FileInputStream(file);
 			try {
-				byte[] result = new byte[fis.available()];
-				fis.read(result);
-				if (isSkipBOM()) {
+				FileChannel channel = fis.getChannel();
+				long size = channel.size();
+				if (size > Integer.MAX_VALUE) {
+					throw new IOException("file [" + file.getPath() + "] of size [" + size + "] is too large to read into memory, use outputType stream");
+				}
+				byte[] result = new byte[(int)size];
+				if (isMemoryMapped()) {
+					channel.map(FileChannel.MapMode.READ_ONLY, 0, size).get(result);
+				} else {
+					int offset = 0;
+					int bytesRead;
+					while (offset < result.length && (bytesRead = fis.read(result, offset, result.length - offset)) > -1) {
+						offset += bytesRead;
+					}
+				}
+				if (isSkipBOM() && result.length >= 3) {
 					if ((result[0] == BOM_UTF_8[0]) && (result[1] == BOM_UTF_8[1]) && (result[2] == BOM_UTF_8[2])) {
 					    byte[] resultWithoutBOM = new byte[result.length-3];
 					    for(int i = 3; i < result.length; ++i)
@@ -496,7 +625,21 @@ public class FileHandler {
 		}
 		public InputStream go(byte[] in, IPipeLineSession session, ParameterList paramList,
 				String outputType) throws Exception {
-			return new FileDeleteAfterReadInputStream(getFile(in, session), deleteAfterRead);
+			File file = getFile(in, session);
+			if (isMemoryMapped()) {
+				return new MappedFileInputStream(file, deleteAfterRead, isSkipBOM());
+			}
+			FileDeleteAfterReadInputStream fis = new FileDeleteAfterReadInputStream(file, deleteAfterRead);
+			if (isSkipBOM()) {
+				byte[] start = new byte[3];
+				int bytesRead = fis.getChannel().read(ByteBuffer.wrap(start));
+				if (bytesRead == 3 && (start[0] == BOM_UTF_8[0]) && (start[1] == BOM_UTF_8[1]) && (start[2] == BOM_UTF_8[2])) {
+					log.debug(getLogPrefix(session) + "skipped UTF-8 BOM");
+				} else {
+					fis.getChannel().position(0);
+				}
+			}
+			return fis;
 		}
 		private File getFile(byte[] in, IPipeLineSession session) {
 			return getEffectiveFile(in, session, !deleteAfterRead);
@@ -554,6 +697,50 @@ public class FileHandler {
 		}
 	}
 
+	/**
+	 * Copies or moves the file to the destinationDirectory, using file channels.
+	 */
+	private class FileCopier implements TransformerAction {
+		private boolean move;
+
+		FileCopier(boolean move) {
+			this.move = move;
+		}
+		public void configure() throws ConfigurationException {
+			if (StringUtils.isEmpty(getDestinationDirectory())) {
+				throw new ConfigurationException(getLogPrefix(null)+"destinationDirectory must be specified for action " + (move ? "move" : "copy"));
+			}
+			if (!isCreateDirectory() && isTestCanWrite() && !FileUtils.canWrite(getDestinationDirectory())) {
+				throw new ConfigurationException(getLogPrefix(null)+"directory ["+ getDestinationDirectory() + "] is not a directory, or no write permission");
+			}
+		}
+		public byte[] go(byte[] in, IPipeLineSession session, ParameterList paramList) throws Exception {
+			File source = getEffectiveFile(in, session, !move);
+			File target = new File(getDestinationDirectory(), source.getName());
+			prepareParentDirectory(target, session);
+			if (move && source.renameTo(target)) {
+				log.debug(getLogPrefix(session) + "renamed file [" + source.getPath() + "] to [" + target.getPath() + "]");
+				return target.getPath().getBytes();
+			}
+			FileInputStream fis = new FileInputStream(source);
+			try {
+				FileOutputStream fos = new FileOutputStream(target);
+				try {
+					long count = transfer(fis.getChannel(), fos.getChannel());
+					log.debug(getLogPrefix(session) + "copied [" + count + "] bytes from file [" + source.getPath() + "] to [" + target.getPath() + "]");
+				} finally {
+					fos.close();
+				}
+			} finally {
+				fis.close();
+			}
+			if (move && !source.delete()) {
+				log.warn(getLogPrefix(session) + "could not delete file [" + source.getPath() + "] after copying it to [" + target.getPath() + "]");
+			}
+			return target.getPath().getBytes();
+		}
+	}
+
 	private class FileLister implements TransformerAction {
 		public void configure() throws ConfigurationException {
 			if (StringUtils.isNotEmpty(getDirectory())) {
@@ -758,6 +945,27 @@ public class FileHandler {
 		return streamResultToServlet;
 	}
 
+	public void setStreaming(boolean b) {
+		streaming = b;
+	}
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	public void setMemoryMapped(boolean b) {
+		memoryMapped = b;
+	}
+	public boolean isMemoryMapped() {
+		return memoryMapped;
+	}
+
+	public void setDestinationDirectory(String destinationDirectory) {
+		this.destinationDirectory = destinationDirectory;
+	}
+	public String getDestinationDirectory() {
+		return destinationDirectory;
+	}
+
 	private class FileDeleteAfterReadInputStream extends FileInputStream {
 		File file;
 		boolean deleteAfterRead;
@@ -806,4 +1014,88 @@ public class FileHandler {
 			}
 		}
 	}
+
+	/**
+	 * Reads a file through a sliding window of memory mapped regions, so that files larger than
+	 * the heap (or than 2GB) can be read without copying them via intermediate buffers.
+	 */
+	private class MappedFileInputStream extends InputStream {
+		File file;
+		boolean deleteAfterRead;
+		FileInputStream fis;
+		FileChannel channel;
+		long size;
+		long windowStart;
+		MappedByteBuffer window;
+
+		public MappedFileInputStream(File file, boolean deleteAfterRead, boolean skipBOM) throws IOException {
+			this.file = file;
+			this.deleteAfterRead = deleteAfterRead;
+			if (deleteAfterRead) {
+				file.deleteOnExit();
+			}
+			fis = new FileInputStream(file);
+			channel = fis.getChannel();
+			size = channel.size();
+			mapWindow(0);
+			if (skipBOM && size >= 3 && window.get(0) == BOM_UTF_8[0] && window.get(1) == BOM_UTF_8[1] && window.get(2) == BOM_UTF_8[2]) {
+				window.position(3);
+			}
+		}
+
+		private void mapWindow(long start) throws IOException {
+			windowStart = start;
+			window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(MAP_WINDOW_SIZE, size - start));
+		}
+
+		private boolean ensureAvailable() throws IOException {
+			if (window.hasRemaining()) {
+				return true;
+			}
+			long next = windowStart + window.limit();
+			if (next >= size) {
+				if (deleteAfterRead) {
+					close();
+				}
+				return false;
+			}
+			mapWindow(next);
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!ensureAvailable()) {
+				return -1;
+			}
+			return window.get() & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (!ensureAvailable()) {
+				return -1;
+			}
+			int count = Math.min(len, window.remaining());
+			window.get(b, off, count);
+			return count;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return window.remaining();
+		}
+
+		@Override
+		public void close() throws IOException {
+			fis.close();
+			if (deleteAfterRead && file.exists() && !file.delete()) {
+				// on some platforms a file cannot be deleted while a mapping of it is still referenced
+				log.warn("could not delete file [" + file.getPath() + "] after reading it via memory mapping");
+			}
+		}
+	}
 }
@@ -1,5 +1,5 @@
 /*
-   Copyright 2013 Nationale-Nederlanden
+   Copyright 2013, 2016 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -15,9 +15,11 @@
 */
 package nl.nn.adapterframework.util;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 /**
@@ -33,6 +35,11 @@ public class StringResolver {
     static int DELIM_START_LEN = 2;
     static int DELIM_STOP_LEN = 1;
 
+	// strings longer than this, like complete configurations, are not worth keeping a template for
+	private static final int MAX_TEMPLATE_LENGTH = 1024;
+	private static final int MAX_TEMPLATES = 4096;
+	private static final Map<String, Template> TEMPLATES = new ConcurrentHashMap<String, Template>();
+
 	public StringResolver() {
 		super();
 	}
@@ -72,72 +79,124 @@ public class StringResolver {
 	  */ 
 	public static String substVars(String val, Map props1, Map props2, List<String> propsToHide)
         throws IllegalArgumentException {
+		return getTemplate(val).resolve(props1, props2, propsToHide);
+	}
 
-        StringBuffer sbuf = new StringBuffer();
-
-        int i = 0;
-        int j, k;
-
-        while (true) {
-            j = val.indexOf(DELIM_START, i);
-            if (j == -1) {
-                // no more variables
-                if (i == 0) { // this is a simple string
-                    return val;
-                } else { // add the tail string which contails no variables and return the result.
-                    sbuf.append(val.substring(i, val.length()));
-                    return sbuf.toString();
-                }
-            } else {
-                sbuf.append(val.substring(i, j));
-                k = val.indexOf(DELIM_STOP, j);
-                if (k == -1) {
-                    throw new IllegalArgumentException(
-                        '[' + val + "] has no closing brace. Opening brace at position ["  + j + "]");
-                } else {
-                    j += DELIM_START_LEN;
-                    String key = val.substring(j, k);
-                    // first try in System properties
-                    String replacement = getSystemProperty(key, null);
-                    // then try props parameter
-                    if (replacement == null && props1 != null) {
-                    	if (props1 instanceof Properties){
-                    		replacement=((Properties)props1).getProperty(key);
-                    	} else {
-                    		Object replacementSource = props1.get(key); 
-                    		if (replacementSource!=null) {
-								replacement = replacementSource.toString();
-                    		}
-						}
-                    }
-					if (replacement == null && props2 != null) {
-						if (props2 instanceof Properties){
-							replacement=((Properties)props2).getProperty(key);
-						} else {
-							Object replacementSource = props2.get(key); 
-							if (replacementSource!=null) {
-								replacement = replacementSource.toString();
-							}
-						}
-					}
+	/**
+	 * Returns the compiled template for a string. Templates of short strings are cached.
+	 */
+	public static Template getTemplate(String val) {
+		if (val.length() > MAX_TEMPLATE_LENGTH) {
+			return new Template(val);
+		}
+		Template template = TEMPLATES.get(val);
+		if (template == null) {
+			template = new Template(val);
+			if (TEMPLATES.size() >= MAX_TEMPLATES) {
+				TEMPLATES.clear();
+			}
+			TEMPLATES.put(val, template);
+		}
+		return template;
+	}
 
-                    if (replacement != null) {
-                   		if (propsToHide != null && propsToHide.contains(key)) {
-                   		replacement = Misc.hide(replacement);
-                    	}
-                    	// Do variable substitution on the replacement string
-                        // such that we can solve "Hello ${x1}" as "Hello p2" 
-                        // the where the properties are
-						// x1=${x2}
-                        // x2=p2
-                        String recursiveReplacement = substVars(replacement, props1, props2);
-                        sbuf.append(recursiveReplacement);
-                    }
-                    i = k + DELIM_STOP_LEN;
-                }
-            }
-        }
-    }
+	private static String lookup(String key, Map props) {
+		if (props instanceof Properties) {
+			return ((Properties)props).getProperty(key);
+		}
+		Object replacementSource = props.get(key);
+		if (replacementSource != null) {
+			return replacementSource.toString();
+		}
+		return null;
+	}
+
+	/**
+	 * A string of which the <code>${key}</code> references have been located once, so it can be
+	 * resolved repeatedly without scanning it again. Templates are immutable, the values of the
+	 * references are looked up each time the template is resolved.
+	 */
+	public static final class Template {
+		private final String source;
+		private final String[] literals;
+		private final String[] keys;
+		private final String tail;
+		private final int unclosedPosition;
+
+		private Template(String val) {
+			source = val;
+			List<String> literalList = new ArrayList<String>();
+			List<String> keyList = new ArrayList<String>();
+			int i = 0;
+			int j, k;
+			int unclosed = -1;
+			while (true) {
+				j = val.indexOf(DELIM_START, i);
+				if (j == -1) {
+					break;
+				}
+				k = val.indexOf(DELIM_STOP, j);
+				if (k == -1) {
+					// the text up to the opening brace is still added, the error is raised after resolving the preceding keys
+					literalList.add(val.substring(i, j));
+					unclosed = j;
+					break;
+				}
+				literalList.add(val.substring(i, j));
+				keyList.add(val.substring(j + DELIM_START_LEN, k));
+				i = k + DELIM_STOP_LEN;
+			}
+			keys = keyList.toArray(new String[keyList.size()]);
+			literals = literalList.toArray(new String[literalList.size()]);
+			tail = unclosed < 0 ? val.substring(i) : null;
+			unclosedPosition = unclosed;
+		}
+
+		public String getSource() {
+			return source;
+		}
+
+		public boolean needsResolution() {
+			return keys.length > 0 || unclosedPosition >= 0;
+		}
+
+		public String resolve(Map props1, Map props2, List<String> propsToHide) throws IllegalArgumentException {
+			if (!needsResolution()) {
+				return source;
+			}
+			StringBuffer sbuf = new StringBuffer();
+			for (int n = 0; n < keys.length; n++) {
+				sbuf.append(literals[n]);
+				String key = keys[n];
+				// first try in System properties
+				String replacement = getSystemProperty(key, null);
+				// then try props parameters
+				if (replacement == null && props1 != null) {
+					replacement = lookup(key, props1);
+				}
+				if (replacement == null && props2 != null) {
+					replacement = lookup(key, props2);
+				}
+				if (replacement != null) {
+					if (propsToHide != null && propsToHide.contains(key)) {
+						replacement = Misc.hide(replacement);
+					}
+					// Do variable substitution on the replacement string
+					// such that we can solve "Hello ${x1}" as "Hello p2"
+					// the where the properties are
+					// x1=${x2}
+					// x2=p2
+					sbuf.append(substVars(replacement, props1, props2));
+				}
+			}
+			if (unclosedPosition >= 0) {
+				throw new IllegalArgumentException(
+					'[' + source + "] has no closing brace. Opening brace at position ["  + unclosedPosition + "]");
+			}
+			sbuf.append(tail);
+			return sbuf.toString();
+		}
+	}
 
 	public static String substVars(String val, Map props1, Map props2)
 	        throws IllegalArgumentException {
@@ -655,20 +655,7 @@ public class XmlUtils {
 		if (StringUtils.isEmpty(XPathExpression))
 			throw new TransformerConfigurationException("XPathExpression must be filled");
 
-		String namespaceClause = "";
-		if (namespaceDefs != null) {
-			StringTokenizer st1 = new StringTokenizer(namespaceDefs,", \t\r\n\f");
-			while (st1.hasMoreTokens()) {
-				String namespaceDef = st1.nextToken();
-				int separatorPos = namespaceDef.indexOf('=');
-				if (separatorPos < 1) {
-					throw new TransformerConfigurationException("cannot parse namespace definition from string [" + namespaceDef + "]");
-				} else {
-					namespaceClause += " xmlns:" + namespaceDef.substring(0, separatorPos) + "=\"" + namespaceDef.substring(separatorPos + 1) + "\"";
-				}
-			}
-		}
-
+		String namespaceClause = getNamespaceClause(namespaceDefs);
 
         final String copyMethod;
 		if ("xml".equals(outputMethod)) {
@@ -701,6 +688,27 @@ public class XmlUtils {
 		return xsl;
 	}
 
+	/**
+	 * Converts a comma or space separated list of <code>prefix=namespaceuri</code>-definitions
+	 * to a string of namespace declarations, that can be added to an element of a stylesheet.
+	 */
+	public static String getNamespaceClause(String namespaceDefs) throws TransformerConfigurationException {
+		String namespaceClause = "";
+		if (namespaceDefs != null) {
+			StringTokenizer st1 = new StringTokenizer(namespaceDefs,", \t\r\n\f");
+			while (st1.hasMoreTokens()) {
+				String namespaceDef = st1.nextToken();
+				int separatorPos = namespaceDef.indexOf('=');
+				if (separatorPos < 1) {
+					throw new TransformerConfigurationException("cannot parse namespace definition from string [" + namespaceDef + "]");
+				} else {
+					namespaceClause += " xmlns:" + namespaceDef.substring(0, separatorPos) + "=\"" + namespaceDef.substring(separatorPos + 1) + "\"";
+				}
+			}
+		}
+		return namespaceClause;
+	}
+
 	public static String createXPathEvaluatorSource(String namespaceDefs, String XPathExpression, String outputMethod) throws TransformerConfigurationException {
 		return createXPathEvaluatorSource(namespaceDefs, XPathExpression, outputMethod, false);
 	}
@@ -758,6 +766,26 @@ public class XmlUtils {
 		}
 	}
 
+	/**
+	 * Creates a Source that reads the XML from the reader, without reading it into a String first.
+	 * The reader is not closed; the caller must close it after the Source has been used.
+	 */
+	public static Source readerToSourceForSingleUse(Reader reader,
+			boolean namespaceAware) throws DomBuilderException {
+		if (namespaceAware) {
+			SAXParserFactory factory = getSAXParserFactory(namespaceAware);
+			try {
+				XMLReader xmlReader = factory.newSAXParser().getXMLReader();
+				xmlReader.setEntityResolver(new XmlExternalEntityResolver());
+				return new SAXSource(xmlReader, new InputSource(reader));
+			} catch (Exception e) {
+				throw new DomBuilderException(e);
+			}
+		} else {
+			return new DOMSource(buildDomDocument(reader, false));
+		}
+	}
+
 	public static SAXSource stringToSAXSource(String xmlString,
 			boolean namespaceAware, boolean resolveExternalEntities)
 			throws DomBuilderException {
@@ -30,6 +30,8 @@ import org.apache.xerces.xni.parser.XMLParseException;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXParseException;
 
+import javax.xml.transform.sax.SAXSource;
+
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStreamReader;
@@ -178,6 +180,26 @@ public abstract class AbstractXmlValidator {
      */
     public abstract String validate(Object input, IPipeLineSession session, String logPrefix) throws XmlValidatorException, PipeRunException, ConfigurationException;
 
+	/**
+	 * Validates the input and passes it to the consumer. Implementations that support it validate the
+	 * input while the consumer parses it, so the input is parsed only once. This implementation validates
+	 * first and passes the input to the consumer when it is valid.
+	 * @return MonitorEvent declared in{@link AbstractXmlValidator}
+	 */
+	public String validate(Object input, IPipeLineSession session, String logPrefix, SourceConsumer consumer) throws XmlValidatorException, PipeRunException, ConfigurationException {
+		String resultEvent = validate(input, session, logPrefix);
+		if (XML_VALIDATOR_VALID_MONITOR_EVENT.equals(resultEvent)) {
+			try {
+				consumer.consume(new SAXSource(getInputSource(input)));
+			} catch (XmlValidatorException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new XmlValidatorException(logPrefix + "cannot process validated message", e);
+			}
+		}
+		return resultEvent;
+	}
+
     /**
      * Enable full schema grammar constraint checking, including
      * checking which may be time-consuming or memory intensive.
@@ -313,11 +335,14 @@ public abstract class AbstractXmlValidator {
 	protected static class MyErrorHandler implements XMLErrorHandler {
 		protected Logger log = LogUtil.getLogger(this);
 		protected boolean warn = true;
+		/**
+		 * When set, warnings are collected in this list instead of added to the configuration warnings,
+		 * to be reported by each validator that uses the result.
+		 */
+		protected List<String> warnings;
 
 		public void warning(String domain, String key, XMLParseException e) throws XNIException {
-			if (warn) {
-				ConfigurationWarnings.getInstance().add(log, e.getMessage());
-			}
+			addWarning(e);
 		}
 
 		public void error(String domain, String key, XMLParseException e) throws XNIException {
@@ -327,16 +352,20 @@ public abstract class AbstractXmlValidator {
 					&& e.getMessage().startsWith("schema_reference.4: Failed to read schema document '")) {
 				throw e;
 			}
-			if (warn) {
-				ConfigurationWarnings.getInstance().add(log, e.getMessage());
-			}
+			addWarning(e);
 		}
 
 		public void fatalError(String domain, String key, XMLParseException e) throws XNIException {
-			if (warn) {
+			addWarning(e);
+			throw new XNIException(e);
+		}
+
+		private void addWarning(XMLParseException e) {
+			if (warnings != null) {
+				warnings.add(e.getMessage());
+			} else if (warn) {
 				ConfigurationWarnings.getInstance().add(log, e.getMessage());
 			}
-			throw new XNIException(e);
 		}
 	}
 }
@@ -18,10 +18,10 @@ package nl.nn.adapterframework.validation;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.XMLConstants;
 import javax.xml.stream.XMLStreamException;
@@ -64,7 +64,7 @@ public class JavaxXmlValidator extends AbstractXmlValidator {
 //		//globalRegistry.put("http://ing.nn.afd/AFDTypes",                ClassUtils.getResourceURL("/Tibco/wsdl/BankingCustomer_01_GetPartyBasicDataBanking_01_concrete1/AFDTypes.xsd"));
 //	}
 
-	private Map<String, Schema> javaxSchemas = new HashMap<String, Schema>();
+	private Map<String, Schema> javaxSchemas = new ConcurrentHashMap<String, Schema>();
 
 	@Override
 	protected void init() throws ConfigurationException {
@@ -127,30 +127,42 @@ public class JavaxXmlValidator extends AbstractXmlValidator {
 
 	/**
 	 * Returns the {@link Schema} associated with this validator. This ia an XSD schema containing knowledge about the
-	 * schema source as returned by {@link #getSchemaSources(List)}
+	 * schema source as returned by {@link #getSchemaSources(List)}. Schemas are compiled by the {@link SchemaPool},
+	 * so validators of the same class with identical schemas share the compiled schema.
 	 * @throws ConfigurationException
 	 */
-	protected synchronized Schema getSchemaObject(String schemasId, List<nl.nn.adapterframework.validation.Schema> schemas) throws  ConfigurationException {
+	protected Schema getSchemaObject(final String schemasId, final List<nl.nn.adapterframework.validation.Schema> schemas) throws  ConfigurationException {
 		Schema schema = javaxSchemas.get(schemasId);
 		if (schema == null) {
-			SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-			factory.setResourceResolver(new LSResourceResolver() {
-				public LSInput resolveResource(String s, String s1, String s2, String s3, String s4) {
-					return null;
+			SchemaPool schemaPool = SchemaPool.getInstance();
+			// subclasses can provide other sources, so the class is part of the key
+			SchemaPool.SchemaContents contents = schemaPool.read(schemasId, schemas, "javax:" + getClass().getName());
+			schema = schemaPool.await(schemasId, contents.getKey(), schemaPool.get(contents.getKey(), new Callable<Schema>() {
+				public Schema call() throws Exception {
+					return compile(schemasId, schemas);
 				}
-			});
-			try {
-				Collection<Source> sources = getSchemaSources(schemas);
-				schema = factory.newSchema(sources.toArray(new Source[sources.size()]));
-				javaxSchemas.put(schemasId, schema);
-			} catch (Exception e) {
-				throw new ConfigurationException("cannot read schema's ["
-						+ schemasId + "]", e);
-			}
+			}, false));
+			javaxSchemas.put(schemasId, schema);
 		}
 		return schema;
 	}
 
+	private Schema compile(String schemasId, List<nl.nn.adapterframework.validation.Schema> schemas) throws ConfigurationException {
+		SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+		factory.setResourceResolver(new LSResourceResolver() {
+			public LSInput resolveResource(String s, String s1, String s2, String s3, String s4) {
+				return null;
+			}
+		});
+		try {
+			List<Source> sources = getSchemaSources(schemas);
+			return factory.newSchema(sources.toArray(new Source[sources.size()]));
+		} catch (Exception e) {
+			throw new ConfigurationException("cannot read schema's ["
+					+ schemasId + "]", e);
+		}
+	}
+
 	protected List<Source> getSchemaSources(List<nl.nn.adapterframework.validation.Schema> schemas) throws IOException, XMLStreamException, ConfigurationException {
 		List<Source> result = new ArrayList<Source>();
 		for (nl.nn.adapterframework.validation.Schema schema : schemas) {
@@ -0,0 +1,378 @@
+/*
+   Copyright 2016 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.validation;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import nl.nn.adapterframework.configuration.ConfigurationException;
+import nl.nn.adapterframework.util.AppConstants;
+import nl.nn.adapterframework.util.LogUtil;
+import nl.nn.adapterframework.util.Misc;
+import nl.nn.adapterframework.util.XmlUtils;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.log4j.Logger;
+
+/**
+ * Pool of compiled schemas, shared by all validators. Compiled schemas are stored by a hash of
+ * the contents and system ids of the schemas they are compiled from and of the schemas they import
+ * or include, so identical sets of schemas are compiled only once, regardless of the number of
+ * validators that use them. As system ids of schemas of different configurations can be equal
+ * (e.g. <code>bytesclassloader:</code> urls), the classloader the schemas are read from is part
+ * of the hash too.
+ * A set of schemas that is requested while it is being compiled is waited for. At most
+ * <code>xmlValidator.preparse.poolSize</code> sets of compiled schemas are kept, the least recently
+ * used are removed first; validators keep the compiled schemas they already use.
+ * <p>
+ * When <code>xmlValidator.preparse.parallel</code> is <code>true</code> validators hand the compilation
+ * over to a pool of <code>xmlValidator.preparse.threads</code> threads when they are configured,
+ * so configurations with many validators are not slowed down by compiling their schemas one after
+ * another. Errors in the schemas are then reported when the validator is used for the first time.
+ * 
+ * @since   7.0
+ */
+public class SchemaPool {
+	protected Logger log = LogUtil.getLogger(this);
+
+	private static final SchemaPool self = new SchemaPool();
+
+	private boolean parallel = AppConstants.getInstance().getBoolean("xmlValidator.preparse.parallel", false);
+	private int threads = AppConstants.getInstance().getInt("xmlValidator.preparse.threads", Runtime.getRuntime().availableProcessors());
+	private int maxSize = AppConstants.getInstance().getInt("xmlValidator.preparse.poolSize", 100);
+	private Map<String, Future<?>> compiled = new LinkedHashMap<String, Future<?>>(16, 0.75f, true) {
+
+		protected boolean removeEldestEntry(Map.Entry<String, Future<?>> eldest) {
+			return maxSize >= 0 && size() > maxSize;
+		}
+
+	};
+	private ExecutorService executor;
+	private Map<ClassLoader, Long> classLoaderIds = new WeakHashMap<ClassLoader, Long>();
+	private AtomicLong classLoaderCounter = new AtomicLong();
+
+	public static SchemaPool getInstance() {
+		return self;
+	}
+
+	/**
+	 * The contents of a set of schemas, read once to calculate the key and to compile the schemas from.
+	 */
+	public static class SchemaContents {
+		private String key;
+		private List<String> systemIds = new ArrayList<String>();
+		private List<byte[]> contents = new ArrayList<byte[]>();
+
+		public String getKey() {
+			return key;
+		}
+
+		public int size() {
+			return contents.size();
+		}
+
+		public String getSystemId(int i) {
+			return systemIds.get(i);
+		}
+
+		public InputStream getInputStream(int i) {
+			return new ByteArrayInputStream(contents.get(i));
+		}
+	}
+
+	/**
+	 * Reads the schemas without calculating a key, for schemas that are compiled without sharing them.
+	 */
+	public SchemaContents read(String schemasId, List<Schema> schemas) throws ConfigurationException {
+		SchemaContents result = new SchemaContents();
+		try {
+			for (Schema schema : schemas) {
+				result.systemIds.add(schema.getSystemId());
+				result.contents.add(readSchema(schema));
+			}
+		} catch (IOException e) {
+			throw new ConfigurationException("cannot read schema's [" + schemasId + "]", e);
+		}
+		return result;
+	}
+
+	/**
+	 * Reads the schemas. The kind of compilation and options that influence the result are part of the key.
+	 */
+	public SchemaContents read(String schemasId, List<Schema> schemas, String kind) throws ConfigurationException {
+		SchemaContents result = new SchemaContents();
+		try {
+			MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+			messageDigest.update(kind.getBytes("UTF-8"));
+			for (Schema schema : schemas) {
+				byte[] bytes = readSchema(schema);
+				String systemId = schema.getSystemId();
+				ClassLoader classLoader = getClassLoader(schema);
+				messageDigest.update((byte)0);
+				messageDigest.update(Long.toString(getClassLoaderId(classLoader)).getBytes("UTF-8"));
+				messageDigest.update((byte)0);
+				if (systemId != null) {
+					messageDigest.update(systemId.getBytes("UTF-8"));
+				}
+				messageDigest.update((byte)0);
+				messageDigest.update(bytes);
+				URL base = toUrl(systemId);
+				if (base != null) {
+					Set<String> visited = new HashSet<String>();
+					visited.add(systemId);
+					digestImports(messageDigest, base, classLoader, bytes, visited);
+				}
+				result.systemIds.add(systemId);
+				result.contents.add(bytes);
+			}
+			result.key = new String(Hex.encodeHex(messageDigest.digest()));
+		} catch (IOException e) {
+			throw new ConfigurationException("cannot read schema's [" + schemasId + "]", e);
+		} catch (XMLStreamException e) {
+			throw new ConfigurationException("cannot read schema's [" + schemasId + "]", e);
+		} catch (NoSuchAlgorithmException e) {
+			throw new ConfigurationException("cannot calculate key of schema's [" + schemasId + "]", e);
+		}
+		return result;
+	}
+
+	private static byte[] readSchema(Schema schema) throws IOException {
+		InputStream inputStream = schema.getInputStream();
+		try {
+			return Misc.streamToBytes(inputStream);
+		} finally {
+			inputStream.close();
+		}
+	}
+
+	/**
+	 * Adds the location and contents of the schemas that are imported, included or redefined by the
+	 * schema to the digest, the way the compiler resolves them: relative to the system id of the schema.
+	 * Schemas that cannot be read are added by their location only, the compiler reports them.
+	 */
+	private void digestImports(MessageDigest messageDigest, URL base, ClassLoader classLoader, byte[] bytes, Set<String> visited) throws IOException, XMLStreamException {
+		List<String> locations = new ArrayList<String>();
+		XMLEventReader er = XmlUtils.INPUT_FACTORY.createXMLEventReader(new ByteArrayInputStream(bytes), XmlUtils.STREAM_FACTORY_ENCODING);
+		while (er.hasNext()) {
+			XMLEvent e = er.nextEvent();
+			if (e.isStartElement()) {
+				StartElement el = e.asStartElement();
+				if (el.getName().equals(SchemaUtils.IMPORT)
+						|| el.getName().equals(SchemaUtils.INCLUDE)
+						|| el.getName().equals(SchemaUtils.REDEFINE)) {
+					Attribute schemaLocation = el.getAttributeByName(SchemaUtils.SCHEMALOCATION);
+					if (schemaLocation != null) {
+						locations.add(schemaLocation.getValue());
+					}
+				}
+			}
+		}
+		er.close();
+		for (String location : locations) {
+			URL url;
+			try {
+				url = new URL(base, location);
+			} catch (MalformedURLException e) {
+				messageDigest.update((byte)1);
+				messageDigest.update(location.getBytes("UTF-8"));
+				continue;
+			}
+			String systemId = url.toExternalForm();
+			messageDigest.update((byte)1);
+			messageDigest.update(systemId.getBytes("UTF-8"));
+			if (visited.add(systemId)) {
+				byte[] imported = readImport(url, classLoader);
+				if (imported != null) {
+					messageDigest.update((byte)0);
+					messageDigest.update(imported);
+					digestImports(messageDigest, url, classLoader, imported, visited);
+				}
+			}
+		}
+	}
+
+	private static URL toUrl(String systemId) {
+		if (systemId == null) {
+			return null;
+		}
+		try {
+			return new URL(systemId);
+		} catch (MalformedURLException e) {
+			return null;
+		}
+	}
+
+	private byte[] readImport(URL url, ClassLoader classLoader) {
+		try {
+			if ("bytesclassloader".equals(url.getProtocol())) {
+				// the handler of the base url is bound to the resource of the base url
+				url = classLoader == null ? null : classLoader.getResource(url.getPath());
+				if (url == null) {
+					return null;
+				}
+			}
+			InputStream inputStream = url.openStream();
+			try {
+				return Misc.streamToBytes(inputStream);
+			} finally {
+				inputStream.close();
+			}
+		} catch (IOException e) {
+			log.debug("cannot read imported schema [" + url + "]: " + e.getMessage());
+			return null;
+		}
+	}
+
+	private static ClassLoader getClassLoader(Schema schema) {
+		if (schema instanceof XSD && ((XSD)schema).getClassLoader() != null) {
+			return ((XSD)schema).getClassLoader();
+		}
+		return Thread.currentThread().getContextClassLoader();
+	}
+
+	/**
+	 * Returns a number that identifies the classloader for as long as it exists, unlike its hash code.
+	 */
+	long getClassLoaderId(ClassLoader classLoader) {
+		if (classLoader == null) {
+			return 0;
+		}
+		synchronized (classLoaderIds) {
+			Long id = classLoaderIds.get(classLoader);
+			if (id == null) {
+				id = classLoaderCounter.incrementAndGet();
+				classLoaderIds.put(classLoader, id);
+			}
+			return id;
+		}
+	}
+
+	/**
+	 * Returns the compiled schemas for the key. When not yet present the compiler is run, in the calling
+	 * thread or, when <code>async</code> is <code>true</code> and parallel preparsing is enabled, by the
+	 * thread pool.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> Future<T> get(String key, Callable<T> compiler, boolean async) {
+		FutureTask<T> task;
+		synchronized (compiled) {
+			Future<T> result = (Future<T>)compiled.get(key);
+			if (result != null) {
+				if (log.isDebugEnabled()) {
+					log.debug("reusing compiled schemas with key [" + key + "]");
+				}
+				return result;
+			}
+			task = new FutureTask<T>(compiler);
+			compiled.put(key, task);
+		}
+		// compile outside the lock, so other schemas can be looked up meanwhile
+		if (async && parallel) {
+			getExecutor().execute(task);
+		} else {
+			task.run();
+		}
+		return task;
+	}
+
+	/**
+	 * Waits for the compilation of the schemas to finish. Failed compilations are removed from the pool,
+	 * so they are retried the next time.
+	 */
+	public <T> T await(String schemasId, String key, Future<T> future) throws ConfigurationException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ConfigurationException("interrupted while compiling schema's [" + schemasId + "]", e);
+		} catch (ExecutionException e) {
+			synchronized (compiled) {
+				if (compiled.get(key) == future) {
+					compiled.remove(key);
+				}
+			}
+			if (e.getCause() instanceof ConfigurationException) {
+				throw (ConfigurationException)e.getCause();
+			}
+			throw new ConfigurationException("cannot compile schema's [" + schemasId + "]", e.getCause());
+		}
+	}
+
+	private synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+				private AtomicInteger count = new AtomicInteger();
+
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "SchemaPool-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+
+	/**
+	 * Removes all compiled schemas from the pool. Validators keep the schemas they already use.
+	 */
+	public void clear() {
+		synchronized (compiled) {
+			compiled.clear();
+		}
+	}
+
+	int size() {
+		synchronized (compiled) {
+			return compiled.size();
+		}
+	}
+
+	void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public boolean isParallel() {
+		return parallel;
+	}
+}
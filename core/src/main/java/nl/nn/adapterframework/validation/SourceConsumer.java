@@ -0,0 +1,34 @@
+/*
+   Copyright 2016 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.validation;
+
+import javax.xml.transform.Source;
+
+/**
+ * Processes the message that is being validated, e.g. by transforming it, in the same parse as
+ * the validation. See {@link AbstractXmlValidator#validate(Object, nl.nn.adapterframework.core.IPipeLineSession, String, SourceConsumer)}.
+ * 
+ * @since   7.0
+ */
+public interface SourceConsumer {
+
+	/**
+	 * Processes the source. Validation errors are collected while the source is read; the result of
+	 * the consumer is only to be used when the validation result is valid.
+	 */
+	void consume(Source source) throws Exception;
+
+}
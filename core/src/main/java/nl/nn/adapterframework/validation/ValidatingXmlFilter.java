@@ -0,0 +1,244 @@
+/*
+   Copyright 2016 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.validation;
+
+import java.io.IOException;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.Attributes2;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * Passes the events of a validating parser both to the {@link XmlValidatorContentHandler} and to the
+ * consumer of the filter, e.g. a transformer. Once a validation error has occurred events are no longer
+ * passed to the consumer, and at the end of the parse the consumer is aborted.
+ * Attribute values that were not in the message but are defaulted by the schema are not passed to the
+ * consumer, and ignorable whitespace is passed as characters, so the consumer receives the message as
+ * it would have been parsed without validation.
+ * 
+ * @since   7.0
+ */
+class ValidatingXmlFilter extends XMLFilterImpl {
+
+	private ContentHandler validatorContentHandler;
+	private XmlValidatorErrorHandler validatorErrorHandler;
+	private SAXException consumerException;
+	private Exception parseException;
+
+	ValidatingXmlFilter(XMLReader parent, ContentHandler validatorContentHandler, XmlValidatorErrorHandler validatorErrorHandler) {
+		super(parent);
+		this.validatorContentHandler = validatorContentHandler;
+		this.validatorErrorHandler = validatorErrorHandler;
+	}
+
+	@Override
+	public void parse(InputSource input) throws SAXException, IOException {
+		try {
+			super.parse(input);
+		} catch (SAXException e) {
+			if (consumerException == null) {
+				parseException = e;
+			}
+			throw e;
+		} catch (IOException e) {
+			parseException = e;
+			throw e;
+		}
+		if (validatorErrorHandler.hasErrorOccured()) {
+			throw new SAXException("message is not valid, processing aborted");
+		}
+	}
+
+	private boolean isForwarding() {
+		return !validatorErrorHandler.hasErrorOccured();
+	}
+
+	private SAXException consumerException(SAXException e) {
+		consumerException = e;
+		return e;
+	}
+
+	/**
+	 * Returns the exception that caused the parse to fail, or <code>null</code> if it did not fail or
+	 * failed because of the consumer.
+	 */
+	public Exception getParseException() {
+		return parseException;
+	}
+
+	@Override
+	public void setDocumentLocator(Locator locator) {
+		validatorContentHandler.setDocumentLocator(locator);
+		super.setDocumentLocator(locator);
+	}
+
+	@Override
+	public void startDocument() throws SAXException {
+		validatorContentHandler.startDocument();
+		try {
+			super.startDocument();
+		} catch (SAXException e) {
+			throw consumerException(e);
+		}
+	}
+
+	@Override
+	public void endDocument() throws SAXException {
+		validatorContentHandler.endDocument();
+		if (isForwarding()) {
+			try {
+				super.endDocument();
+			} catch (SAXException e) {
+				throw consumerException(e);
+			}
+		}
+	}
+
+	@Override
+	public void startPrefixMapping(String prefix, String uri) throws SAXException {
+		validatorContentHandler.startPrefixMapping(prefix, uri);
+		if (isForwarding()) {
+			try {
+				super.startPrefixMapping(prefix, uri);
+			} catch (SAXException e) {
+				throw consumerException(e);
+			}
+		}
+	}
+
+	@Override
+	public void endPrefixMapping(String prefix) throws SAXException {
+		validatorContentHandler.endPrefixMapping(prefix);
+		if (isForwarding()) {
+			try {
+				super.endPrefixMapping(prefix);
+			} catch (SAXException e) {
+				throw consumerException(e);
+			}
+		}
+	}
+
+	@Override
+	public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+		validatorContentHandler.startElement(uri, localName, qName, atts);
+		if (isForwarding()) {
+			try {
+				super.startElement(uri, localName, qName, specifiedAttributes(atts));
+			} catch (SAXException e) {
+				throw consumerException(e);
+			}
+		}
+	}
+
+	private Attributes specifiedAttributes(Attributes atts) {
+		if (!(atts instanceof Attributes2)) {
+			return atts;
+		}
+		Attributes2 attributes2 = (Attributes2)atts;
+		AttributesImpl result = null;
+		for (int i = atts.getLength() - 1; i >= 0; i--) {
+			if (!attributes2.isSpecified(i)) {
+				if (result == null) {
+					result = new AttributesImpl(atts);
+				}
+				result.removeAttribute(i);
+			}
+		}
+		return result == null ? atts : result;
+	}
+
+	@Override
+	public void endElement(String uri, String localName, String qName) throws SAXException {
+		validatorContentHandler.endElement(uri, localName, qName);
+		if (isForwarding()) {
+			try {
+				super.endElement(uri, localName, qName);
+			} catch (SAXException e) {
+				throw consumerException(e);
+			}
+		}
+	}
+
+	@Override
+	public void characters(char[] ch, int start, int length) throws SAXException {
+		validatorContentHandler.characters(ch, start, length);
+		if (isForwarding()) {
+			try {
+				super.characters(ch, start, length);
+			} catch (SAXException e) {
+				throw consumerException(e);
+			}
+		}
+	}
+
+	@Override
+	public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+		validatorContentHandler.ignorableWhitespace(ch, start, length);
+		if (isForwarding()) {
+			try {
+				super.characters(ch, start, length);
+			} catch (SAXException e) {
+				throw consumerException(e);
+			}
+		}
+	}
+
+	@Override
+	public void processingInstruction(String target, String data) throws SAXException {
+		validatorContentHandler.processingInstruction(target, data);
+		if (isForwarding()) {
+			try {
+				super.processingInstruction(target, data);
+			} catch (SAXException e) {
+				throw consumerException(e);
+			}
+		}
+	}
+
+	@Override
+	public void skippedEntity(String name) throws SAXException {
+		validatorContentHandler.skippedEntity(name);
+		if (isForwarding()) {
+			try {
+				super.skippedEntity(name);
+			} catch (SAXException e) {
+				throw consumerException(e);
+			}
+		}
+	}
+
+	@Override
+	public void warning(SAXParseException exception) {
+		validatorErrorHandler.warning(exception);
+	}
+
+	@Override
+	public void error(SAXParseException exception) {
+		validatorErrorHandler.error(exception);
+	}
+
+	@Override
+	public void fatalError(SAXParseException exception) {
+		validatorErrorHandler.fatalError(exception);
+	}
+}
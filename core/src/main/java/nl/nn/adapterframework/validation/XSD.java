@@ -85,6 +85,10 @@ public class XSD implements Schema, Comparable<XSD> {
 		this.classLoader = classLoader;
 	}
 
+	public ClassLoader getClassLoader() {
+		return classLoader;
+	}
+
 	public void setWsdlSchema(
 			nl.nn.javax.wsdl.Definition wsdlDefinition,
 			nl.nn.javax.wsdl.extensions.schema.Schema wsdlSchema) {
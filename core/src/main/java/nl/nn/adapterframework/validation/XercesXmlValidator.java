@@ -19,11 +19,16 @@ package nl.nn.adapterframework.validation;
 import static org.apache.xerces.parsers.XMLGrammarCachingConfiguration.BIG_PRIME;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
 
+import javax.xml.transform.sax.SAXSource;
+
 import nl.nn.adapterframework.cache.EhCache;
 import nl.nn.adapterframework.configuration.ConfigurationException;
 import nl.nn.adapterframework.configuration.ConfigurationWarnings;
@@ -44,6 +49,7 @@ import org.apache.xerces.xni.grammars.XMLGrammarDescription;
 import org.apache.xerces.xni.grammars.XMLGrammarPool;
 import org.apache.xerces.xni.parser.XMLInputSource;
 import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
 import org.xml.sax.SAXNotRecognizedException;
 import org.xml.sax.SAXNotSupportedException;
 import org.xml.sax.XMLReader;
@@ -96,6 +102,12 @@ public class XercesXmlValidator extends AbstractXmlValidator {
 	/** Schema full checking feature id (http://apache.org/xml/features/validation/schema-full-checking). */
 	protected static final String SCHEMA_FULL_CHECKING_FEATURE_ID = Constants.XERCES_FEATURE_PREFIX + Constants.SCHEMA_FULL_CHECKING;
 
+	/** Schema normalized value feature id (http://apache.org/xml/features/validation/schema/normalized-value). */
+	protected static final String NORMALIZED_VALUE_FEATURE_ID = Constants.XERCES_FEATURE_PREFIX + Constants.SCHEMA_NORMALIZED_VALUE;
+
+	/** Schema element default feature id (http://apache.org/xml/features/validation/schema/element-default). */
+	protected static final String ELEMENT_DEFAULT_FEATURE_ID = Constants.XERCES_FEATURE_PREFIX + Constants.SCHEMA_ELEMENT_DEFAULT;
+
 	private static final int maxInitialised = AppConstants.getInstance().getInt("xmlValidator.maxInitialised", -1);
 
 	private static EhCache cache;
@@ -118,7 +130,9 @@ public class XercesXmlValidator extends AbstractXmlValidator {
 	}
 	private static AtomicLong counter = new AtomicLong();
 	private String preparseResultId;
-	private PreparseResult preparseResult;
+	private volatile String preparseResultKey;
+	private volatile Future<PreparseResult> preparseResult;
+	private volatile boolean preparseWarningsReported;
 
 	public XercesXmlValidator() {
 		preparseResultId = "" + counter.getAndIncrement();
@@ -131,17 +145,67 @@ public class XercesXmlValidator extends AbstractXmlValidator {
 			if (schemasProvider == null) throw new IllegalStateException("No schema provider");
 			String schemasId = schemasProvider.getSchemasId();
 			if (schemasId != null) {
-				PreparseResult preparseResult = preparse(schemasId, schemasProvider.getSchemas());
 				if (cache == null) {
-					this.preparseResult = preparseResult;
+					getPooledPreparseResult(schemasId, schemasProvider.getSchemas(), true);
 				} else {
-					cache.putObject(preparseResultId, preparseResult);
+					cache.putObject(preparseResultId, reportWarnings(preparse(schemasId, schemasProvider.getSchemas())));
 				}
 			}
 		}
 	}
 
-	private synchronized PreparseResult preparse(String schemasId, List<Schema> schemas) throws ConfigurationException {
+	/**
+	 * Gets the preparsed schemas from the {@link SchemaPool}, which preparses them when no validator
+	 * has done so before. When <code>async</code> is <code>true</code> the preparse may be done in
+	 * parallel and is waited for when the validator is used.
+	 */
+	private PreparseResult getPooledPreparseResult(final String schemasId, List<Schema> schemas, boolean async) throws ConfigurationException {
+		SchemaPool schemaPool = SchemaPool.getInstance();
+		final SchemaPool.SchemaContents contents = schemaPool.read(schemasId, schemas, "xerces" + (isFullSchemaChecking() ? "-full" : ""));
+		Future<PreparseResult> future = schemaPool.get(contents.getKey(), new Callable<PreparseResult>() {
+			public PreparseResult call() throws Exception {
+				return preparse(schemasId, contents);
+			}
+		}, async);
+		preparseResultKey = contents.getKey();
+		preparseWarningsReported = false;
+		preparseResult = future;
+		if (async && schemaPool.isParallel()) {
+			return null;
+		}
+		return reportPooledWarnings(schemaPool.await(schemasId, contents.getKey(), future));
+	}
+
+	/**
+	 * The warnings of a pooled preparse are reported by every validator that uses it, once, in the
+	 * thread of the validator, instead of only by the validator that happened to preparse the schemas.
+	 */
+	private PreparseResult reportPooledWarnings(PreparseResult preparseResult) {
+		if (!preparseWarningsReported) {
+			preparseWarningsReported = true;
+			reportWarnings(preparseResult);
+		}
+		return preparseResult;
+	}
+
+	private PreparseResult reportWarnings(PreparseResult preparseResult) {
+		if (warn) {
+			for (String warning : preparseResult.getWarnings()) {
+				ConfigurationWarnings.getInstance().add(log, warning);
+			}
+		}
+		return preparseResult;
+	}
+
+	/**
+	 * Preparses schemas that are not shared, like those of a session key or of validators that use a
+	 * cache, so no key is calculated for them.
+	 */
+	private PreparseResult preparse(String schemasId, List<Schema> schemas) throws ConfigurationException {
+		return preparse(schemasId, SchemaPool.getInstance().read(schemasId, schemas));
+	}
+
+	private PreparseResult preparse(String schemasId, SchemaPool.SchemaContents schemas) throws ConfigurationException {
 		SymbolTable symbolTable = new SymbolTable(BIG_PRIME);
 		XMLGrammarPool grammarPool = new XMLGrammarPoolImpl();
 		Set<String> namespaceSet = new HashSet<String>();
@@ -153,10 +217,10 @@ public class XercesXmlValidator extends AbstractXmlValidator {
 		preparser.setFeature(SCHEMA_VALIDATION_FEATURE_ID, true);
 		preparser.setFeature(SCHEMA_FULL_CHECKING_FEATURE_ID, isFullSchemaChecking());
 		MyErrorHandler errorHandler = new MyErrorHandler();
-		errorHandler.warn = warn;
+		errorHandler.warnings = new ArrayList<String>();
 		preparser.setErrorHandler(errorHandler);
-		for (Schema schema : schemas) {
-			Grammar grammar = preparse(preparser, schemasId, schema);
+		for (int i = 0; i < schemas.size(); i++) {
+			Grammar grammar = preparse(preparser, schemasId, schemas, i);
 			registerNamespaces(grammar, namespaceSet);
 		}
 		grammarPool.lockPool();
@@ -164,14 +228,15 @@ public class XercesXmlValidator extends AbstractXmlValidator {
 		preparseResult.setSymbolTable(symbolTable);
 		preparseResult.setGrammarPool(grammarPool);
 		preparseResult.setNamespaceSet(namespaceSet);
+		preparseResult.setWarnings(errorHandler.warnings);
 		return preparseResult;
 	}
 
 	private static Grammar preparse(XMLGrammarPreparser preparser,
-			String schemasId, Schema schema) throws ConfigurationException {
+			String schemasId, SchemaPool.SchemaContents schemas, int i) throws ConfigurationException {
 		try {
 			return preparser.preparseGrammar(XMLGrammarDescription.XML_SCHEMA,
-					stringToXMLInputSource(schema));
+					stringToXMLInputSource(schemas, i));
 		} catch (IOException e) {
 			throw new ConfigurationException("cannot compile schema's ["
 					+ schemasId + "]", e);
@@ -202,6 +267,15 @@ public class XercesXmlValidator extends AbstractXmlValidator {
 	 */
 	@Override
 	public String validate(Object input, IPipeLineSession session, String logPrefix) throws XmlValidatorException, PipeRunException, ConfigurationException {
+		return validate(input, session, logPrefix, null);
+	}
+
+	/**
+	 * Validates the XML while it is parsed for the consumer, so the input is parsed only once. The consumer
+	 * receives the input namespace aware and without values that are added by the schema.
+	 */
+	@Override
+	public String validate(Object input, IPipeLineSession session, String logPrefix, SourceConsumer consumer) throws XmlValidatorException, PipeRunException, ConfigurationException {
 		if (StringUtils.isNotEmpty(getReasonSessionKey())) {
 			log.debug(logPrefix+ "removing contents of sessionKey ["+getReasonSessionKey()+ "]");
 			session.remove(getReasonSessionKey());
@@ -216,18 +290,26 @@ public class XercesXmlValidator extends AbstractXmlValidator {
 		String schemasId = schemasProvider.getSchemasId();
 		if (schemasId == null) {
 			schemasId = schemasProvider.getSchemasId(session);
-			preparseResult = preparse(schemasId, schemasProvider.getSchemas(session));
+			preparseResult = reportWarnings(preparse(schemasId, schemasProvider.getSchemas(session)));
 		} else {
 			if (cache == null) {
-				preparseResult = this.preparseResult;
-				if (preparseResult == null) {
+				Future<PreparseResult> future = this.preparseResult;
+				if (future == null) {
 					init();
-					preparseResult = this.preparseResult;
+					future = this.preparseResult;
+				}
+				try {
+					preparseResult = reportPooledWarnings(SchemaPool.getInstance().await(schemasId, preparseResultKey, future));
+				} catch (ConfigurationException e) {
+					// preparse again on the next call
+					this.preparseResult = null;
+					reset();
+					throw e;
 				}
 			} else {
 				preparseResult = (PreparseResult)cache.getObject(preparseResultId);
 				if (preparseResult == null) {
-					preparseResult = preparse(schemasId, schemasProvider.getSchemas());
+					preparseResult = reportWarnings(preparse(schemasId, schemasProvider.getSchemas()));
 					cache.putObject(preparseResultId, preparseResult);
 				}
 			}
@@ -264,11 +346,33 @@ public class XercesXmlValidator extends AbstractXmlValidator {
 
 		InputSource is = getInputSource(input);
 
-		try {
-			parser.parse(is);
-		} catch (Exception e) {
-			return handleFailures(xmlValidatorErrorHandler,
-					session, XML_VALIDATOR_PARSER_ERROR_MONITOR_EVENT, e);
+		if (consumer == null) {
+			try {
+				parser.parse(is);
+			} catch (Exception e) {
+				return handleFailures(xmlValidatorErrorHandler,
+						session, XML_VALIDATOR_PARSER_ERROR_MONITOR_EVENT, e);
+			}
+		} else {
+			ValidatingXmlFilter filter = new ValidatingXmlFilter(parser, xmlValidatorContentHandler, xmlValidatorErrorHandler);
+			try {
+				// pass the values as they are in the message
+				parser.setFeature(NORMALIZED_VALUE_FEATURE_ID, false);
+				parser.setFeature(ELEMENT_DEFAULT_FEATURE_ID, false);
+			} catch (SAXException e) {
+				throw new XmlValidatorException(logPrefix + "parser does not support necessary feature", e);
+			}
+			try {
+				consumer.consume(new SAXSource(filter, is));
+			} catch (Exception e) {
+				if (filter.getParseException() != null) {
+					return handleFailures(xmlValidatorErrorHandler,
+							session, XML_VALIDATOR_PARSER_ERROR_MONITOR_EVENT, filter.getParseException());
+				}
+				if (!xmlValidatorErrorHandler.hasErrorOccured()) {
+					throw new XmlValidatorException(logPrefix + "cannot process validated message", e);
+				}
+			}
 		}
 
 		if (xmlValidatorErrorHandler.hasErrorOccured()) {
@@ -278,14 +382,14 @@ public class XercesXmlValidator extends AbstractXmlValidator {
 		return XML_VALIDATOR_VALID_MONITOR_EVENT;
 	}
 
-	private static XMLInputSource stringToXMLInputSource(Schema schema) throws IOException, ConfigurationException {
+	private static XMLInputSource stringToXMLInputSource(SchemaPool.SchemaContents schemas, int i) throws IOException, ConfigurationException {
 		// SystemId is needed in case the schema has an import. Maybe we should
 		// already resolve this at the SchemaProvider side (except when
 		// noNamespaceSchemaLocation is being used this is already done in
 		// (Wsdl)XmlValidator (using
 		// mergeXsdsGroupedByNamespaceToSchemasWithoutIncludes)).
 		// See comment in method XmlValidator.getSchemas() too.
-		return new XMLInputSource(null, schema.getSystemId(), null, schema.getInputStream(), null);
+		return new XMLInputSource(null, schemas.getSystemId(i), null, schemas.getInputStream(i), null);
 	}
 
 }
@@ -295,6 +399,7 @@ class PreparseResult {
 	private SymbolTable symbolTable;
 	private XMLGrammarPool grammarPool;
 	private Set<String> namespaceSet;
+	private List<String> warnings;
 
 	public SymbolTable getSymbolTable() {
 		return symbolTable;
@@ -319,4 +424,12 @@ class PreparseResult {
 	public void setNamespaceSet(Set<String> namespaceSet) {
 		this.namespaceSet = namespaceSet;
 	}
+
+	public List<String> getWarnings() {
+		return warnings;
+	}
+
+	public void setWarnings(List<String> warnings) {
+		this.warnings = warnings;
+	}
 }
\ No newline at end of file
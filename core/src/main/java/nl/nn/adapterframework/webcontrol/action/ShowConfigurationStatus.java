@@ -289,6 +289,9 @@ public final class ShowConfigurationStatus extends ActionBase {
 				else
 					adapterXML.addAttribute("upSince", "-");
 			}
+			if (adapter.getStartupDuration()>=0) {
+				adapterXML.addAttribute("startupDuration", ""+adapter.getStartupDuration());
+			}
 			adapterXML.addAttribute("lastMessageDate", adapter.getLastMessageDate(DateUtils.FORMAT_GENERICDATETIME));
 			Date lastMessageDate = adapter.getLastMessageDateDate();
 			if (lastMessageDate!=null) {
@@ -682,6 +682,7 @@ public final class ShowConfigurationStatus extends Base {
 		boolean configured =  adapter.configurationSucceeded();
 		adapterInfo.put("configured", configured);
 		adapterInfo.put("upSince", adapter.getStatsUpSinceDate().getTime());
+		adapterInfo.put("startupDuration", adapter.getStartupDuration());
 		Date lastMessage = adapter.getLastMessageDateDate();
 		adapterInfo.put("lastMessage", (lastMessage == null) ? 0 : lastMessage.getTime());
 		int messagesInProcess = adapter.getNumOfMessagesInProcess();
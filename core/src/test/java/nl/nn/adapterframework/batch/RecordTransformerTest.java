@@ -0,0 +1,58 @@
+package nl.nn.adapterframework.batch;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests the output of the {@link RecordTransformer} for alignment, substrings, dates, lookups, conditions
+ * and separators, transforming multiple records with the same transformer.
+ */
+public class RecordTransformerTest {
+
+	private List record1 = Arrays.asList(new String[] {"A", "name", "  12345", "20161231", "D"});
+	private List record2 = Arrays.asList(new String[] {"C", "a very long name", "1", "20160101", "X"});
+
+	private RecordTransformer createTransformer(String outputFields, String outputSeparator) throws Exception {
+		RecordTransformer transformer = new RecordTransformer();
+		transformer.setName("transformer");
+		transformer.setOutputFields(outputFields);
+		transformer.setOutputSeparator(outputSeparator);
+		transformer.configure();
+		return transformer;
+	}
+
+	private void assertOutput(RecordTransformer transformer, String expected1, String expected2) throws Exception {
+		for (int i = 0; i < 3; i++) {
+			assertEquals(expected1, transformer.handleRecord(null, record1, null));
+			assertEquals(expected2, transformer.handleRecord(null, record2, null));
+		}
+	}
+
+	@Test
+	public void testFields() throws Exception {
+		RecordTransformer transformer = createTransformer("incopy(1);string(|);inalign(2,8,right,_);substr(3,1,6);indate(4,yyyyMMdd,dd-MM-yyyy);lookup(5,D=-,C=+,*=0);align(end,6,left,.)", null);
+		assertOutput(transformer, "A|____name234531-12-2016-end...", "C|a very l     01-01-20160end...");
+	}
+
+	@Test
+	public void testConditions() throws Exception {
+		RecordTransformer transformer = createTransformer("if(1,eq,{A|B});string(ab);if(5,sw,D);string(debit);endif();elseif(1,ne,A);string(other);endif();fill(3,0)", null);
+		assertOutput(transformer, "abdebit000", "other000");
+	}
+
+	@Test
+	public void testSeparatorWithConditions() throws Exception {
+		RecordTransformer transformer = createTransformer("incopy(1);if(5,eq,X);incopy(2);incopy(3);endif();substr(2,2,20);incopy(5)", ";");
+		assertOutput(transformer, "A;;;;;me;D", "C;;a very long name;1;;very long name;X");
+	}
+
+	@Test(expected=Exception.class)
+	public void testEndifWithoutIf() throws Exception {
+		RecordTransformer transformer = createTransformer("incopy(1);endif()", null);
+		transformer.handleRecord(null, record1, null);
+	}
+}
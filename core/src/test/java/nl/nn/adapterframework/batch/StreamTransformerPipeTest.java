@@ -0,0 +1,88 @@
+package nl.nn.adapterframework.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+
+import nl.nn.adapterframework.core.PipeForward;
+import nl.nn.adapterframework.core.PipeLineSessionBase;
+
+import org.junit.Test;
+
+/**
+ * Tests that the {@link StreamTransformerPipe} produces the same records and blocks when the records are
+ * transformed by parallel recordHandlerThreads, as when they are transformed on a single thread.
+ */
+public class StreamTransformerPipeTest {
+
+	private String createInput(int records) {
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < records; i++) {
+			// records are grouped in types of a varying number of records
+			sb.append(i % 7 == 0 || i % 11 == 0 ? "A" : "B");
+			sb.append(i % 3);
+			String id = "     " + i;
+			sb.append(id.substring(id.length() - 5));
+			sb.append("2016" + (10 + i % 3) + (10 + i % 19));
+			sb.append('\n');
+			if (i % 50 == 0) {
+				sb.append('\n');
+			}
+		}
+		return sb.toString();
+	}
+
+	private String transform(String input, int recordHandlerThreads, int maxCharactersInProgress) throws Exception {
+		return transform(input, recordHandlerThreads, maxCharactersInProgress, false);
+	}
+
+	private String transform(String input, int recordHandlerThreads, int maxCharactersInProgress, boolean storeOriginalBlock) throws Exception {
+		RecordTransformer transformer = new RecordTransformer();
+		transformer.setName("transformer");
+		transformer.setInputFields("1,1,5,8");
+		transformer.setRecordIdentifyingFields("1");
+		transformer.setOutputFields("incopy(1);string(-);incopy(3);if(2,eq,1);string( one);endif();string( );indate(4,yyyyMMdd,dd-MM-yyyy)");
+
+		Result2StringWriter resultHandler = new Result2StringWriter();
+		resultHandler.setName("result");
+		resultHandler.setBlockByRecordType(true);
+		resultHandler.setOnOpenBlock("<#name#>");
+		resultHandler.setOnCloseBlock("</#name#>");
+
+		StreamTransformerPipe pipe = new StreamTransformerPipe();
+		pipe.setName("pipe");
+		pipe.setRecordHandlerThreads(recordHandlerThreads);
+		pipe.setMaxCharactersInProgress(maxCharactersInProgress);
+		pipe.setStoreOriginalBlock(storeOriginalBlock);
+		pipe.registerRecordHandler(transformer);
+		pipe.registerResultHandler(resultHandler);
+		pipe.registerForward(new PipeForward("success", "EXIT"));
+		pipe.configure();
+		pipe.start();
+		try {
+			PipeLineSessionBase session = new PipeLineSessionBase();
+			session.put(PipeLineSessionBase.messageIdKey, "test");
+			return (String)pipe.doPipe(new ByteArrayInputStream(input.getBytes("UTF-8")), session).getResult();
+		} finally {
+			pipe.stop();
+		}
+	}
+
+	@Test
+	public void testParallelTransformationPreservesOrderAndBlocks() throws Exception {
+		String input = createInput(2000);
+		String expected = transform(input, 1, 1000000);
+		assertTrue(expected.indexOf("<A>") >= 0);
+		assertTrue(expected.indexOf("</B>") >= 0);
+		assertEquals(expected, transform(input, 4, 1000000));
+		assertEquals(expected, transform(input, 4, 50));
+		assertEquals(expected, transform(input, 3, 1));
+	}
+
+	@Test
+	public void testParallelTransformationWithOriginalBlock() throws Exception {
+		String input = createInput(500);
+		assertEquals(transform(input, 1, 1000000, true), transform(input, 4, 50, true));
+	}
+}
@@ -0,0 +1,174 @@
+package nl.nn.adapterframework.compression;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import nl.nn.adapterframework.core.IDataIterator;
+import nl.nn.adapterframework.core.IPipeLineSession;
+import nl.nn.adapterframework.core.PipeLineSessionBase;
+import nl.nn.adapterframework.core.SenderException;
+import nl.nn.adapterframework.util.Misc;
+
+import org.junit.Test;
+
+/**
+ * Tests the iteration over the entries of an archive by the {@link ZipIteratorPipe}.
+ */
+public class ZipIteratorPipeTest {
+
+	private static final String[] NAMES = { "first.txt", "second.txt", "third.txt" };
+
+	private class CloseRecordingInputStream extends ByteArrayInputStream {
+		private boolean closed = false;
+
+		CloseRecordingInputStream(byte[] contents) {
+			super(contents);
+		}
+
+		public void close() throws IOException {
+			closed = true;
+			super.close();
+		}
+	}
+
+	private static String contents(String name) {
+		StringBuilder contents = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			contents.append("contents of ").append(name).append(' ').append(i).append('\n');
+		}
+		return contents.toString();
+	}
+
+	private static byte[] archive() throws IOException {
+		ByteArrayOutputStream archive = new ByteArrayOutputStream();
+		ZipOutputStream zipOutputStream = new ZipOutputStream(archive);
+		for (String name : NAMES) {
+			zipOutputStream.putNextEntry(new ZipEntry(name));
+			zipOutputStream.write(contents(name).getBytes("UTF-8"));
+			zipOutputStream.closeEntry();
+		}
+		zipOutputStream.close();
+		return archive.toByteArray();
+	}
+
+	private ZipIteratorPipe createPipe(boolean streamingContents) {
+		ZipIteratorPipe pipe = new ZipIteratorPipe();
+		pipe.setName("ZipIteratorPipeTest");
+		pipe.setStreamingContents(streamingContents);
+		return pipe;
+	}
+
+	@Test
+	public void testEntryStreamsAreBoundedToTheirEntry() throws Exception {
+		ZipIteratorPipe pipe = createPipe(true);
+		IPipeLineSession session = new PipeLineSessionBase();
+		IDataIterator iterator = pipe.getIterator(new ByteArrayInputStream(archive()), session, null, null);
+		for (String name : NAMES) {
+			assertTrue(iterator.hasNext());
+			assertEquals(name, iterator.next());
+			InputStream entryStream = (InputStream)session.get("zipdata");
+			assertEquals(contents(name), new String(Misc.streamToBytes(entryStream), "UTF-8"));
+			// a sender closing its input does not end the iteration
+			entryStream.close();
+		}
+		assertFalse(iterator.hasNext());
+		iterator.close();
+	}
+
+	@Test
+	public void testUnreadEntriesAreSkipped() throws Exception {
+		ZipIteratorPipe pipe = createPipe(true);
+		IPipeLineSession session = new PipeLineSessionBase();
+		IDataIterator iterator = pipe.getIterator(new ByteArrayInputStream(archive()), session, null, null);
+		assertEquals(NAMES[0], iterator.next());
+		InputStream entryStream = (InputStream)session.get("zipdata");
+		entryStream.read(new byte[10]);
+		assertEquals(NAMES[1], iterator.next());
+		assertEquals(NAMES[2], iterator.next());
+		entryStream = (InputStream)session.get("zipdata");
+		assertEquals(contents(NAMES[2]), new String(Misc.streamToBytes(entryStream), "UTF-8"));
+		assertFalse(iterator.hasNext());
+	}
+
+	@Test
+	public void testContentsAsString() throws Exception {
+		ZipIteratorPipe pipe = createPipe(false);
+		IPipeLineSession session = new PipeLineSessionBase();
+		IDataIterator iterator = pipe.getIterator(new ByteArrayInputStream(archive()), session, null, null);
+		for (String name : NAMES) {
+			assertEquals(name, iterator.next());
+			assertEquals(contents(name), session.get("zipdata"));
+		}
+		assertFalse(iterator.hasNext());
+	}
+
+	@Test
+	public void testCloseReleasesInputstream() throws Exception {
+		ZipIteratorPipe pipe = createPipe(true);
+		IPipeLineSession session = new PipeLineSessionBase();
+		CloseRecordingInputStream input = new CloseRecordingInputStream(archive());
+		IDataIterator iterator = pipe.getIterator(input, session, null, null);
+		iterator.next();
+		((InputStream)session.get("zipdata")).close();
+		assertFalse(input.closed);
+		iterator.close();
+		assertTrue(input.closed);
+		assertNull(session.get("zipdata"));
+	}
+
+	@Test
+	public void testInputstreamIsKeptOpenWhenRequested() throws Exception {
+		ZipIteratorPipe pipe = createPipe(true);
+		pipe.setCloseInputstreamOnExit(false);
+		CloseRecordingInputStream input = new CloseRecordingInputStream(archive());
+		IDataIterator iterator = pipe.getIterator(input, new PipeLineSessionBase(), null, null);
+		while (iterator.hasNext()) {
+			iterator.next();
+		}
+		iterator.close();
+		assertFalse(input.closed);
+	}
+
+	@Test
+	public void testTruncatedArchiveIsReported() throws Exception {
+		byte[] archive = archive();
+		byte[] truncated = new byte[archive.length / 4];
+		System.arraycopy(archive, 0, truncated, 0, truncated.length);
+		ZipIteratorPipe pipe = createPipe(true);
+		IDataIterator iterator = pipe.getIterator(new ByteArrayInputStream(truncated), new PipeLineSessionBase(), null, null);
+		try {
+			while (iterator.hasNext()) {
+				iterator.next();
+			}
+			fail("expected SenderException");
+		} catch (SenderException e) {
+			// expected
+		}
+		iterator.close();
+	}
+
+	@Test
+	public void testInvalidInputIsReported() throws Exception {
+		ZipIteratorPipe pipe = createPipe(true);
+		Object[] inputs = { null, Integer.valueOf(1), new File(System.getProperty("java.io.tmpdir"), "zipIteratorPipeTestMissing.zip"), "zipIteratorPipeTestMissing.zip" };
+		for (Object input : inputs) {
+			try {
+				pipe.getIterator(input, new PipeLineSessionBase(), null, null);
+				fail("expected SenderException for input [" + input + "]");
+			} catch (SenderException e) {
+				// expected
+			}
+		}
+	}
+}
@@ -0,0 +1,266 @@
+package nl.nn.adapterframework.compression;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import nl.nn.adapterframework.core.PipeLineSessionBase;
+import nl.nn.adapterframework.util.StreamUtil;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the entries written by the {@link ZipWriter}, with and without completed headers.
+ */
+public class ZipWriterTest {
+
+	private ByteArrayOutputStream archive;
+	private ZipWriter zipWriter;
+	private File file;
+
+	@Before
+	public void setUp() {
+		archive = new ByteArrayOutputStream();
+		zipWriter = ZipWriter.createZipWriter(new PipeLineSessionBase(), "zipwriterhandle", archive, true);
+	}
+
+	@After
+	public void tearDown() {
+		if (file != null) {
+			file.delete();
+		}
+	}
+
+	private static byte[] contents(int size) {
+		byte[] contents = new byte[size];
+		for (int i = 0; i < size; i++) {
+			contents[i] = (byte)(i % 251);
+		}
+		return contents;
+	}
+
+	private File createFile(byte[] contents) throws IOException {
+		file = File.createTempFile("zipWriterTest", ".dat");
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(contents);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private static long crc(byte[] contents) {
+		CRC32 crc = new CRC32();
+		crc.update(contents);
+		return crc.getValue();
+	}
+
+	private static String[] spoolFiles() {
+		String[] spoolFiles = new File(System.getProperty("java.io.tmpdir")).list(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.startsWith("zipentry") && name.endsWith(".tmp");
+			}
+		});
+		return spoolFiles == null ? new String[0] : spoolFiles;
+	}
+
+	/**
+	 * Reads the archive back, verifying each stored entry against the crc-32 and size in its local file header.
+	 */
+	private List<Object[]> readArchive() throws Exception {
+		List<Object[]> entries = new ArrayList<Object[]>();
+		ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(archive.toByteArray()));
+		ZipEntry entry;
+		while ((entry = zipInputStream.getNextEntry()) != null) {
+			int method = entry.getMethod();
+			long size = entry.getSize();
+			long crc = entry.getCrc();
+			byte[] contents = StreamUtil.streamToByteArray(zipInputStream, false);
+			if (method == ZipEntry.STORED) {
+				assertEquals(entry.getName(), contents.length, size);
+				assertEquals(entry.getName(), crc(contents), crc);
+			}
+			entries.add(new Object[] { entry.getName(), Integer.valueOf(method), contents });
+		}
+		zipInputStream.close();
+		return entries;
+	}
+
+	@Test
+	public void testDeflatedEntriesKeepTheirOrder() throws Exception {
+		byte[] bytes = contents(100000);
+		zipWriter.writeEntry("string.txt", "tekst", true, "UTF-8");
+		zipWriter.writeEntry("bytes.dat", bytes, true, null);
+		zipWriter.writeEntry("stream.dat", new ByteArrayInputStream(bytes), true, null);
+		zipWriter.writeEntry("file.dat", createFile(bytes), true, null);
+		zipWriter.writeEntry("empty.txt", null, true, null);
+		zipWriter.close();
+		List<Object[]> entries = readArchive();
+		assertEquals(5, entries.size());
+		String[] names = { "string.txt", "bytes.dat", "stream.dat", "file.dat", "empty.txt" };
+		for (int i = 0; i < names.length; i++) {
+			assertEquals(names[i], entries.get(i)[0]);
+			assertEquals(Integer.valueOf(ZipEntry.DEFLATED), entries.get(i)[1]);
+		}
+		assertArrayEquals("tekst".getBytes("UTF-8"), (byte[])entries.get(0)[2]);
+		assertArrayEquals(bytes, (byte[])entries.get(1)[2]);
+		assertArrayEquals(bytes, (byte[])entries.get(2)[2]);
+		assertArrayEquals(bytes, (byte[])entries.get(3)[2]);
+		assertEquals(0, ((byte[])entries.get(4)[2]).length);
+	}
+
+	@Test
+	public void testCompletedHeadersKeepTheirOrder() throws Exception {
+		byte[] bytes = contents(100000);
+		byte[] large = contents(ZipWriter.SPOOL_THRESHOLD + ZipWriter.BUFFER_SIZE + 1);
+		zipWriter.writeEntryWithCompletedHeader("string.txt", "tekst", true, "UTF-8");
+		zipWriter.writeEntryWithCompletedHeader("bytes.dat", bytes, true, null);
+		zipWriter.writeEntryWithCompletedHeader("stream.dat", new ByteArrayInputStream(bytes), true, null);
+		zipWriter.writeEntryWithCompletedHeader("spooled.dat", new ByteArrayInputStream(large), true, null);
+		zipWriter.writeEntryWithCompletedHeader("file.dat", createFile(large), true, null);
+		zipWriter.writeEntryWithCompletedHeader("empty.txt", null, true, null);
+		zipWriter.close();
+		List<Object[]> entries = readArchive();
+		assertEquals(6, entries.size());
+		String[] names = { "string.txt", "bytes.dat", "stream.dat", "spooled.dat", "file.dat", "empty.txt" };
+		for (int i = 0; i < names.length; i++) {
+			assertEquals(names[i], entries.get(i)[0]);
+			assertEquals(Integer.valueOf(ZipEntry.STORED), entries.get(i)[1]);
+		}
+		assertArrayEquals("tekst".getBytes("UTF-8"), (byte[])entries.get(0)[2]);
+		assertArrayEquals(bytes, (byte[])entries.get(1)[2]);
+		assertArrayEquals(bytes, (byte[])entries.get(2)[2]);
+		assertArrayEquals(large, (byte[])entries.get(3)[2]);
+		assertArrayEquals(large, (byte[])entries.get(4)[2]);
+		assertEquals(0, ((byte[])entries.get(5)[2]).length);
+	}
+
+	@Test
+	public void testDeflatedAndCompletedHeadersMixed() throws Exception {
+		zipWriter.writeEntry("first.txt", "first", true, "UTF-8");
+		zipWriter.openEntry("second.txt");
+		zipWriter.getZipoutput().write("second".getBytes("UTF-8"));
+		// an open entry is closed before the next one is written
+		zipWriter.writeEntryWithCompletedHeader("third.txt", "third", true, "UTF-8");
+		zipWriter.writeEntry("fourth.txt", "fourth", true, "UTF-8");
+		zipWriter.close();
+		List<Object[]> entries = readArchive();
+		assertEquals(4, entries.size());
+		String[] names = { "first", "second", "third", "fourth" };
+		for (int i = 0; i < names.length; i++) {
+			assertEquals(names[i] + ".txt", entries.get(i)[0]);
+			assertEquals(names[i], new String((byte[])entries.get(i)[2], "UTF-8"));
+		}
+	}
+
+	@Test
+	public void testStreamIsClosedOnlyWhenRequested() throws Exception {
+		final boolean[] closed = new boolean[1];
+		InputStream stream = new ByteArrayInputStream(contents(10)) {
+			public void close() throws IOException {
+				closed[0] = true;
+				super.close();
+			}
+		};
+		zipWriter.writeEntryWithCompletedHeader("open.dat", stream, false, null);
+		assertFalse(closed[0]);
+		zipWriter.writeEntryWithCompletedHeader("closed.dat", stream, true, null);
+		assertTrue(closed[0]);
+	}
+
+	@Test
+	public void testEmptyFilenameIsRejected() throws Exception {
+		try {
+			zipWriter.writeEntry("", "contents", true, "UTF-8");
+			fail("expected CompressionException");
+		} catch (CompressionException e) {
+			// expected
+		}
+		try {
+			zipWriter.writeEntryWithCompletedHeader(null, "contents", true, "UTF-8");
+			fail("expected CompressionException");
+		} catch (CompressionException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testSpoolFileIsDeletedWhenStreamFails() throws Exception {
+		final byte[] large = contents(ZipWriter.SPOOL_THRESHOLD + ZipWriter.BUFFER_SIZE);
+		final boolean[] closed = new boolean[1];
+		InputStream failing = new InputStream() {
+			private int position = 0;
+
+			public int read() throws IOException {
+				if (position >= large.length) {
+					throw new IOException("connection reset");
+				}
+				return large[position++] & 0xff;
+			}
+
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (position >= large.length) {
+					throw new IOException("connection reset");
+				}
+				int count = Math.min(len, large.length - position);
+				System.arraycopy(large, position, b, off, count);
+				position += count;
+				return count;
+			}
+
+			public void close() {
+				closed[0] = true;
+			}
+		};
+		List<String> spoolFilesBefore = Arrays.asList(spoolFiles());
+		try {
+			zipWriter.writeEntryWithCompletedHeader("failing.dat", failing, true, null);
+			fail("expected IOException");
+		} catch (IOException e) {
+			assertEquals("connection reset", e.getMessage());
+		}
+		assertTrue(closed[0]);
+		for (String spoolFile : spoolFiles()) {
+			assertTrue("spool file [" + spoolFile + "] not deleted", spoolFilesBefore.contains(spoolFile));
+		}
+		// nothing of the failed entry has been written to the archive
+		zipWriter.writeEntryWithCompletedHeader("next.txt", "next", true, "UTF-8");
+		zipWriter.close();
+		List<Object[]> entries = readArchive();
+		assertEquals(1, entries.size());
+		assertEquals("next.txt", entries.get(0)[0]);
+	}
+
+	@Test
+	public void testMissingFileIsReported() throws Exception {
+		File missing = new File(System.getProperty("java.io.tmpdir"), "zipWriterTestMissing.dat");
+		try {
+			zipWriter.writeEntryWithCompletedHeader("missing.dat", missing, true, null);
+			fail("expected IOException");
+		} catch (IOException e) {
+			// expected
+		}
+		zipWriter.close();
+		assertNull(new ZipInputStream(new ByteArrayInputStream(archive.toByteArray())).getNextEntry());
+	}
+}
@@ -0,0 +1,127 @@
+package nl.nn.adapterframework.configuration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import nl.nn.adapterframework.core.Adapter;
+import nl.nn.adapterframework.core.IAdapter;
+import nl.nn.adapterframework.util.MessageKeeper;
+import nl.nn.adapterframework.util.RunStateEnum;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Tests the order, concurrency and error handling of the {@link AdapterStarter}.
+ */
+public class AdapterStarterTest {
+
+	private List<String> started = Collections.synchronizedList(new ArrayList<String>());
+	private AtomicInteger running = new AtomicInteger();
+	private AtomicInteger maxRunning = new AtomicInteger();
+
+	private Adapter adapter(final String name, String dependsOn, final boolean succeeds) {
+		final Adapter adapter = mock(Adapter.class);
+		final AtomicReference<RunStateEnum> runState = new AtomicReference<RunStateEnum>(RunStateEnum.STOPPED);
+		final MessageKeeper messageKeeper = new MessageKeeper();
+		when(adapter.getName()).thenReturn(name);
+		when(adapter.getDependsOn()).thenReturn(dependsOn);
+		when(adapter.getMessageKeeper()).thenReturn(messageKeeper);
+		when(adapter.getRunState()).thenAnswer(new Answer<RunStateEnum>() {
+			public RunStateEnum answer(InvocationOnMock invocation) {
+				return runState.get();
+			}
+		});
+		doAnswer(new Answer<Object>() {
+			public Object answer(InvocationOnMock invocation) {
+				Executor executor = (Executor)invocation.getArguments()[0];
+				executor.execute(new Runnable() {
+					public void run() {
+						int current = running.incrementAndGet();
+						synchronized (maxRunning) {
+							maxRunning.set(Math.max(maxRunning.get(), current));
+						}
+						try {
+							Thread.sleep(20);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+						started.add(name);
+						runState.set(succeeds ? RunStateEnum.STARTED : RunStateEnum.ERROR);
+						running.decrementAndGet();
+					}
+				});
+				return null;
+			}
+		}).when(adapter).startRunning(any(Executor.class));
+		return adapter;
+	}
+
+	private void start(int threads, IAdapter... adapters) throws Exception {
+		AdapterStarter adapterStarter = new AdapterStarter("test", threads);
+		adapterStarter.startAdapters(Arrays.asList(adapters));
+		assertTrue(adapterStarter.awaitTermination(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testDependenciesStartFirst() throws Exception {
+		start(4, adapter("C", "B", true), adapter("B", "A", true), adapter("A", null, true), adapter("D", "A, C", true));
+		assertEquals(Arrays.asList("A", "B", "C", "D"), started);
+	}
+
+	@Test
+	public void testConcurrencyIsBounded() throws Exception {
+		start(2, adapter("A", null, true), adapter("B", null, true), adapter("C", null, true), adapter("D", null, true), adapter("E", null, true));
+		assertEquals(5, started.size());
+		assertTrue(maxRunning.get() <= 2);
+	}
+
+	@Test
+	public void testAdapterIsSkippedWhenDependencyFails() throws Exception {
+		Adapter dependent = adapter("B", "A", true);
+		start(2, adapter("A", null, false), dependent, adapter("C", null, true));
+		assertEquals(new HashSet<String>(Arrays.asList("A", "C")), new HashSet<String>(started));
+		assertEquals(1, dependent.getMessageKeeper().size());
+	}
+
+	@Test
+	public void testCircularDependencyIsBrokenAtFirstAdapter() throws Exception {
+		start(2, adapter("A", "B", true), adapter("B", "A", true), adapter("C", "B", true));
+		assertEquals(Arrays.asList("A", "B", "C"), started);
+	}
+
+	@Test
+	public void testUnknownDependencyIsIgnored() throws Exception {
+		start(1, adapter("A", "Unknown", true), adapter("B", "A", true));
+		assertEquals(Arrays.asList("A", "B"), started);
+	}
+
+	@Test
+	public void testAdapterThatFailsToScheduleReleasesDependents() throws Exception {
+		Adapter broken = adapter("A", null, true);
+		doAnswer(new Answer<Object>() {
+			public Object answer(InvocationOnMock invocation) {
+				throw new IllegalStateException("cannot start");
+			}
+		}).when(broken).startRunning(any(Executor.class));
+		Adapter dependent = adapter("B", "A", true);
+		start(1, broken, dependent);
+		assertEquals(0, started.size());
+		assertEquals(1, dependent.getMessageKeeper().size());
+	}
+}
@@ -0,0 +1,60 @@
+package nl.nn.adapterframework.configuration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import nl.nn.adapterframework.util.AppConstants;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests the key under which the {@link ConfigurationDigester} caches resolved configurations.
+ */
+public class ConfigurationDigesterTest {
+
+	private static final String CONFIGURATION = "<configuration name=\"test\"><adapter name=\"${configurationDigesterTest.name}\"/></configuration>";
+
+	@After
+	public void tearDown() {
+		System.clearProperty("configurationDigesterTest.name");
+		System.clearProperty("configurationDigesterTest.a");
+		AppConstants.getInstance().remove("stub4testtool.configuration");
+	}
+
+	@Test
+	public void testKeyIsStable() throws Exception {
+		ConfigurationDigester digester = new ConfigurationDigester();
+		assertEquals(digester.getCacheKey(CONFIGURATION), digester.getCacheKey(CONFIGURATION));
+		assertFalse(digester.getCacheKey(CONFIGURATION).equals(digester.getCacheKey(CONFIGURATION + " ")));
+	}
+
+	@Test
+	public void testKeyChangesWithProperties() throws Exception {
+		ConfigurationDigester digester = new ConfigurationDigester();
+		System.setProperty("configurationDigesterTest.name", "first");
+		String key1 = digester.getCacheKey(CONFIGURATION);
+		System.setProperty("configurationDigesterTest.name", "second");
+		String key2 = digester.getCacheKey(CONFIGURATION);
+		assertFalse(key1.equals(key2));
+	}
+
+	@Test
+	public void testKeyChangesWhenHashCodesOfPropertiesDoNot() throws Exception {
+		ConfigurationDigester digester = new ConfigurationDigester();
+		String key1 = digester.getCacheKey(CONFIGURATION);
+		// an entry with equal key and value does not change the hash code of the properties
+		System.setProperty("configurationDigesterTest.a", "configurationDigesterTest.a");
+		String key2 = digester.getCacheKey(CONFIGURATION);
+		assertFalse(key1.equals(key2));
+	}
+
+	@Test
+	public void testKeyChangesWithStubMode() throws Exception {
+		ConfigurationDigester digester = new ConfigurationDigester();
+		String key1 = digester.getCacheKey(CONFIGURATION);
+		AppConstants.getInstance().put("stub4testtool.configuration", "true");
+		String key2 = digester.getCacheKey(CONFIGURATION);
+		assertFalse(key1.equals(key2));
+	}
+}
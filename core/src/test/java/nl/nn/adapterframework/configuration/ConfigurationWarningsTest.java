@@ -0,0 +1,100 @@
+package nl.nn.adapterframework.configuration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import nl.nn.adapterframework.util.LogUtil;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests that {@link ConfigurationWarnings} are added to the configuration that is active on the current thread.
+ */
+public class ConfigurationWarningsTest {
+	private Logger log = LogUtil.getLogger(this);
+
+	@After
+	public void tearDown() {
+		ConfigurationWarnings.getInstance().setActiveConfiguration(null);
+	}
+
+	@Test
+	public void testWarningsAreAddedPerThread() throws Exception {
+		final Configuration first = new Configuration(null);
+		final Configuration second = new Configuration(null);
+		final CyclicBarrier barrier = new CyclicBarrier(2);
+		final Exception[] exceptions = new Exception[2];
+		Thread firstThread = new Thread() {
+			public void run() {
+				exceptions[0] = addWarnings(first, "first", barrier);
+			}
+		};
+		Thread secondThread = new Thread() {
+			public void run() {
+				exceptions[1] = addWarnings(second, "second", barrier);
+			}
+		};
+		firstThread.start();
+		secondThread.start();
+		firstThread.join();
+		secondThread.join();
+		assertEquals(null, exceptions[0]);
+		assertEquals(null, exceptions[1]);
+		assertEquals(2, first.getConfigurationWarnings().size());
+		assertTrue(first.getConfigurationWarnings().contains("first warning 0"));
+		assertTrue(first.getConfigurationWarnings().contains("first warning 1"));
+		assertEquals(2, second.getConfigurationWarnings().size());
+		assertTrue(second.getConfigurationWarnings().contains("second warning 0"));
+		assertFalse(ConfigurationWarnings.getInstance().contains("first warning 0"));
+		assertFalse(ConfigurationWarnings.getInstance().contains("second warning 0"));
+	}
+
+	private Exception addWarnings(Configuration configuration, String name, CyclicBarrier barrier) {
+		ConfigurationWarnings configWarnings = ConfigurationWarnings.getInstance();
+		try {
+			configWarnings.setActiveConfiguration(configuration);
+			// both threads have an active configuration while adding warnings
+			barrier.await(5, TimeUnit.SECONDS);
+			for (int i = 0; i < 2; i++) {
+				configWarnings.add(log, name + " warning " + i, false);
+				barrier.await(5, TimeUnit.SECONDS);
+			}
+			configWarnings.setActiveConfiguration(null);
+			return null;
+		} catch (Exception e) {
+			return e;
+		}
+	}
+
+	@Test
+	public void testWarningsWithoutActiveConfigurationAreGlobal() {
+		ConfigurationWarnings configWarnings = ConfigurationWarnings.getInstance();
+		Configuration configuration = new Configuration(null);
+		configWarnings.setActiveConfiguration(configuration);
+		configWarnings.add(log, "configuration warning", true);
+		configWarnings.add(log, "configuration warning", true);
+		configWarnings.setActiveConfiguration(null);
+		configWarnings.add(log, "global warning", false);
+		assertEquals(1, configuration.getConfigurationWarnings().size());
+		assertTrue(configWarnings.contains("global warning"));
+		assertFalse(configWarnings.contains("configuration warning"));
+		configWarnings.remove("global warning");
+	}
+
+	@Test
+	public void testDefaultValueExceptionsArePerConfiguration() {
+		ConfigurationWarnings configWarnings = ConfigurationWarnings.getInstance();
+		Configuration configuration = new Configuration(null);
+		configWarnings.setActiveConfiguration(configuration);
+		configWarnings.addDefaultValueExceptions("key");
+		assertTrue(configWarnings.containsDefaultValueExceptions("key"));
+		configWarnings.setActiveConfiguration(null);
+		assertFalse(configWarnings.containsDefaultValueExceptions("key"));
+	}
+}
@@ -0,0 +1,122 @@
+package nl.nn.adapterframework.configuration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Test;
+
+/**
+ * Tests the order in which the {@link IbisContext} loads configurations in parallel.
+ */
+public class IbisContextTest {
+
+	private List<String> loaded = Collections.synchronizedList(new ArrayList<String>());
+
+	private class LoadRecordingIbisContext extends IbisContext {
+		private String failingConfigurationName;
+
+		LoadRecordingIbisContext(String failingConfigurationName) {
+			this.failingConfigurationName = failingConfigurationName;
+		}
+
+		boolean loadConfiguration(String configurationName, boolean configLogAppend) {
+			try {
+				Thread.sleep(20);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			loaded.add(configurationName);
+			if (configurationName.equals(failingConfigurationName)) {
+				throw new IllegalStateException("cannot load " + configurationName);
+			}
+			return true;
+		}
+	}
+
+	private Map<String, List<String>> dependencies(String... namesAndDependsOn) {
+		Map<String, List<String>> dependencies = new LinkedHashMap<String, List<String>>();
+		for (int i = 0; i < namesAndDependsOn.length; i += 2) {
+			List<String> list = new ArrayList<String>();
+			if (namesAndDependsOn[i + 1] != null) {
+				list.addAll(Arrays.asList(namesAndDependsOn[i + 1].split(",")));
+			}
+			dependencies.put(namesAndDependsOn[i], list);
+		}
+		return dependencies;
+	}
+
+	@Test
+	public void testDependsOnProperty() {
+		Properties properties = new Properties();
+		properties.setProperty("configurations.C.dependsOn", "B, Unknown,A");
+		Map<String, List<String>> dependencies = IbisContext.getConfigurationDependencies(Arrays.asList("Main", "A", "B", "C"), properties);
+		assertEquals(Arrays.asList("A", "B", "C"), new ArrayList<String>(dependencies.keySet()));
+		assertEquals(Collections.emptyList(), dependencies.get("A"));
+		assertEquals(Arrays.asList("B", "A"), dependencies.get("C"));
+	}
+
+	@Test
+	public void testFirstConfigurationIsNoDependency() {
+		Properties properties = new Properties();
+		properties.setProperty("configurations.A.dependsOn", "Main");
+		properties.setProperty("configurations.B.classLoaderType", "ServiceClassLoader");
+		Map<String, List<String>> dependencies = IbisContext.getConfigurationDependencies(Arrays.asList("Main", "A", "B"), properties);
+		// the first configuration is always loaded before the others
+		assertEquals(Collections.emptyList(), dependencies.get("A"));
+		assertEquals(Arrays.asList("A"), dependencies.get("B"));
+	}
+
+	@Test
+	public void testServiceClassLoaderDependsOnPreviousConfigurations() {
+		Properties properties = new Properties();
+		properties.setProperty("configurations.C.classLoaderType", "ServiceClassLoader");
+		Map<String, List<String>> dependencies = IbisContext.getConfigurationDependencies(Arrays.asList("Main", "A", "B", "C", "D"), properties);
+		assertEquals(Arrays.asList("A", "B"), dependencies.get("C"));
+		assertEquals(Collections.emptyList(), dependencies.get("D"));
+	}
+
+	@Test
+	public void testConfigurationsAreOrderedAfterDependencies() {
+		Map<String, List<String>> dependencies = dependencies("C", "B", "B", "A", "A", null, "D", "A,C");
+		assertEquals(Arrays.asList("A", "B", "C", "D"), new IbisContext().orderConfigurations(dependencies));
+	}
+
+	@Test
+	public void testCircularDependencyIsRemoved() {
+		Map<String, List<String>> dependencies = dependencies("A", "B", "B", "A", "C", "B");
+		IbisContext ibisContext = new IbisContext();
+		assertEquals(Arrays.asList("A", "B", "C"), ibisContext.orderConfigurations(dependencies));
+		assertEquals(Collections.emptyList(), dependencies.get("A"));
+		assertEquals(Arrays.asList("A"), dependencies.get("B"));
+		assertEquals(1, ibisContext.getMessageKeeper("A").size());
+	}
+
+	@Test
+	public void testConfigurationsAreLoadedAfterDependencies() {
+		Map<String, List<String>> dependencies = dependencies("A", null, "B", "A", "C", "B", "D", "A");
+		IbisContext ibisContext = new LoadRecordingIbisContext(null);
+		ibisContext.loadConfigurations(ibisContext.orderConfigurations(dependencies), dependencies, 4);
+		assertEquals(4, loaded.size());
+		assertEquals("A", loaded.get(0));
+		assertTrue(loaded.indexOf("B") < loaded.indexOf("C"));
+	}
+
+	@Test
+	public void testDependentIsLoadedWhenDependencyFails() {
+		Map<String, List<String>> dependencies = dependencies("A", null, "B", "A", "C", null);
+		IbisContext ibisContext = new LoadRecordingIbisContext("A");
+		ibisContext.loadConfigurations(ibisContext.orderConfigurations(dependencies), dependencies, 2);
+		assertEquals(new HashSet<String>(Arrays.asList("A", "B", "C")), new HashSet<String>(loaded));
+		assertTrue(loaded.indexOf("A") < loaded.indexOf("B"));
+		assertEquals(1, ibisContext.getMessageKeeper("A").size());
+	}
+}
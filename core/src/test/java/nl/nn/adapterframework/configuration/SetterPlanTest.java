@@ -0,0 +1,74 @@
+package nl.nn.adapterframework.configuration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.commons.digester.Digester;
+import org.junit.Test;
+
+/**
+ * Tests the {@link SetterPlan} used to set attributes of configuration elements.
+ */
+public class SetterPlanTest {
+
+	public static class Bean {
+		private String name;
+		private int size;
+		private boolean active;
+
+		public void setName(String name) {
+			this.name = name;
+		}
+		public String getName() {
+			return name;
+		}
+
+		public void setSize(int size) {
+			this.size = size;
+		}
+		public int getSize() {
+			return size;
+		}
+
+		public void setActive(boolean active) {
+			this.active = active;
+		}
+		public boolean isActive() {
+			return active;
+		}
+	}
+
+	@Test
+	public void testPlansAreKeptPerDigester() {
+		Digester digester = new Digester();
+		SetterPlan plan = SetterPlan.getPlan(digester, Bean.class);
+		assertSame(plan, SetterPlan.getPlan(digester, Bean.class));
+		assertNotSame(plan, SetterPlan.getPlan(new Digester(), Bean.class));
+	}
+
+	@Test
+	public void testSetProperty() throws Exception {
+		SetterPlan plan = SetterPlan.getPlan(new Digester(), Bean.class);
+		Bean bean = new Bean();
+		assertTrue(plan.setProperty(bean, "name", "test"));
+		assertTrue(plan.setProperty(bean, "size", "10"));
+		assertTrue(plan.setProperty(bean, "active", "true"));
+		assertFalse(plan.setProperty(bean, "unknown", "value"));
+		assertEquals("test", bean.getName());
+		assertEquals(10, bean.getSize());
+		assertTrue(bean.isActive());
+	}
+
+	@Test
+	public void testReadAndWriteMethods() {
+		SetterPlan plan = SetterPlan.getPlan(new Digester(), Bean.class);
+		assertNotNull(plan.getWriteMethod("size"));
+		assertNotNull(plan.getReadMethod("active"));
+		assertNull(plan.getWriteMethod("class"));
+	}
+}
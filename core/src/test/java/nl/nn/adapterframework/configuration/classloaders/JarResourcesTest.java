@@ -0,0 +1,88 @@
+package nl.nn.adapterframework.configuration.classloaders;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests reading deflated and stored entries from a {@link JarResources}.
+ */
+public class JarResourcesTest {
+
+	private Map<String, byte[]> contents;
+	private byte[] jar;
+
+	@Before
+	public void setUp() throws Exception {
+		contents = new LinkedHashMap<String, byte[]>();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		JarOutputStream jarOutputStream = new JarOutputStream(out, manifest);
+		for (int i=0; i<20; i++) {
+			byte[] data = new byte[1000 * i];
+			for (int j=0; j<data.length; j++) {
+				data[j] = (byte)(j % (i + 7));
+			}
+			String name = "xsd/file" + i + ".xsd";
+			JarEntry jarEntry = new JarEntry(name);
+			if (i % 2 == 0) {
+				CRC32 crc = new CRC32();
+				crc.update(data);
+				jarEntry.setMethod(ZipEntry.STORED);
+				jarEntry.setSize(data.length);
+				jarEntry.setCrc(crc.getValue());
+			}
+			jarOutputStream.putNextEntry(jarEntry);
+			jarOutputStream.write(data);
+			jarOutputStream.closeEntry();
+			contents.put(name, data);
+		}
+		jarOutputStream.close();
+		jar = out.toByteArray();
+	}
+
+	@Test
+	public void testGet() throws Exception {
+		JarResources resources = new JarResources(jar, false, 25000);
+		assertEquals(contents.size(), resources.getNames().size());
+		for (int i=0; i<2; i++) {
+			for (Iterator<Map.Entry<String, byte[]>> it = contents.entrySet().iterator(); it.hasNext();) {
+				Map.Entry<String, byte[]> entry = it.next();
+				assertTrue(entry.getKey(), resources.contains(entry.getKey()));
+				assertTrue(entry.getKey(), Arrays.equals(entry.getValue(), resources.get(entry.getKey())));
+			}
+		}
+		assertNull(resources.get("xsd/missing.xsd"));
+	}
+
+	@Test
+	public void testManifest() throws Exception {
+		assertFalse(new JarResources(jar, false, 0).contains(JarFile.MANIFEST_NAME));
+		assertTrue(new JarResources(jar, true, 0).contains(JarFile.MANIFEST_NAME));
+	}
+
+	@Test
+	public void testTruncatedJar() throws Exception {
+		JarResources resources = new JarResources(Arrays.copyOf(jar, jar.length - 10), false, 0);
+		assertEquals(contents.size(), resources.getNames().size());
+		assertTrue(Arrays.equals(contents.get("xsd/file3.xsd"), resources.get("xsd/file3.xsd")));
+	}
+}
@@ -0,0 +1,175 @@
+package nl.nn.adapterframework.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests spilling large session values to encrypted temporary files by the {@link PipeLineSessionBase}.
+ */
+public class PipeLineSessionBaseTest {
+
+	private File dir;
+
+	@Before
+	public void setUp() throws Exception {
+		dir = File.createTempFile("pipeLineSessionBaseTest", "");
+		dir.delete();
+		dir.mkdirs();
+		System.setProperty("upload.dir", dir.getPath());
+	}
+
+	@After
+	public void tearDown() {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (int i=0; i<files.length; i++) {
+				files[i].delete();
+			}
+		}
+		dir.delete();
+		System.clearProperty("upload.dir");
+	}
+
+	private String createValue(int length) {
+		StringBuffer sb = new StringBuffer();
+		for (int i=0; i<length; i++) {
+			sb.append((char)('a' + i % 26));
+		}
+		return sb.toString();
+	}
+
+	@Test
+	public void testLargeValuesAreSpilledAndReadBack() throws Exception {
+		SessionValueSpillStore store = new SessionValueSpillStore("test", 100, -1);
+		PipeLineSessionBase session = new PipeLineSessionBase();
+		session.setSpillStore(store);
+		String value = createValue(500);
+		String unicodeValue = value+"\u20ac\u00eb\r\n";
+		session.put("small", "small value");
+		session.put("large", value);
+		session.put("unicode", unicodeValue);
+
+		assertNull(session.getSpilledValue("small"));
+		SpilledSessionValue spilled = session.getSpilledValue("large");
+		assertNotNull(spilled);
+		assertEquals(2, dir.listFiles().length);
+		assertEquals(value, session.get("large"));
+		assertEquals(unicodeValue, session.get("unicode"));
+		Reader reader = spilled.openReader();
+		assertEquals('a', reader.read());
+		reader.close();
+		assertEquals(2, store.getSpilledValues());
+		assertEquals(500 + 507, store.getBytesInUse());
+
+		session.releaseSpilledValues();
+		assertTrue(spilled.isReleased());
+		assertFalse(session.containsKey("large"));
+		assertEquals("small value", session.get("small"));
+		assertEquals(0, dir.listFiles().length);
+		assertEquals(0, store.getBytesInUse());
+	}
+
+	@Test
+	public void testQuotaKeepsValuesInMemory() throws Exception {
+		SessionValueSpillStore store = new SessionValueSpillStore("test", 100, 1000);
+		PipeLineSessionBase session = new PipeLineSessionBase();
+		session.setSpillStore(store);
+		session.put("first", createValue(600));
+		session.put("second", createValue(600));
+		assertNotNull(session.getSpilledValue("first"));
+		assertNull(session.getSpilledValue("second"));
+		assertEquals(1, store.getQuotaExceeded());
+
+		session.put("first", "replaced");
+		assertEquals(0, store.getBytesInUse());
+		session.put("third", createValue(600));
+		assertNotNull(session.getSpilledValue("third"));
+		session.remove("third");
+		assertEquals(0, store.getBytesInUse());
+		assertEquals(0, dir.listFiles().length);
+	}
+
+	@Test
+	public void testCopyReadsBackSpilledValues() throws Exception {
+		PipeLineSessionBase session = new PipeLineSessionBase();
+		session.setSpillStore(new SessionValueSpillStore("test", 100, -1));
+		String value = createValue(500);
+		session.put("large", value);
+		PipeLineSessionBase copy = new PipeLineSessionBase(session);
+		session.releaseSpilledValues();
+		assertNull(copy.getSpilledValue("large"));
+		assertEquals(value, copy.get("large"));
+	}
+
+	@Test
+	public void testPutAndRemoveReturnCachedPreviousContent() throws Exception {
+		PipeLineSessionBase session = new PipeLineSessionBase();
+		session.setSpillStore(new SessionValueSpillStore("test", 100, -1));
+		String value = createValue(500);
+		session.put("large", value);
+		// the previous value is not read back from its file
+		assertNull(session.put("large", value+"x"));
+		assertEquals(value+"x", session.get("large"));
+		String removed = (String)session.remove("large");
+		assertEquals(value+"x", removed);
+		assertEquals(0, dir.listFiles().length);
+	}
+
+	@Test
+	public void testRemovingThroughViewsReleasesSpilledValues() throws Exception {
+		SessionValueSpillStore store = new SessionValueSpillStore("test", 100, -1);
+		PipeLineSessionBase session = new PipeLineSessionBase();
+		session.setSpillStore(store);
+		session.put("first", createValue(500));
+		session.put("second", createValue(500));
+		session.put("small", "small value");
+		SpilledSessionValue first = session.getSpilledValue("first");
+		SpilledSessionValue second = session.getSpilledValue("second");
+		for (Iterator it=session.keySet().iterator(); it.hasNext();) {
+			if ("first".equals(it.next())) {
+				it.remove();
+			}
+		}
+		assertTrue(first.isReleased());
+		for (Iterator it=session.entrySet().iterator(); it.hasNext();) {
+			if ("second".equals(((Map.Entry)it.next()).getKey())) {
+				it.remove();
+			}
+		}
+		assertTrue(second.isReleased());
+		assertEquals(1, session.size());
+		assertEquals(0, dir.listFiles().length);
+		assertEquals(0, store.getBytesInUse());
+	}
+
+	@Test
+	public void testViewsReadBackSpilledValues() throws Exception {
+		PipeLineSessionBase session = new PipeLineSessionBase();
+		session.setSpillStore(new SessionValueSpillStore("test", 100, -1));
+		String value = createValue(500);
+		session.put("large", value);
+		for (Iterator it=session.entrySet().iterator(); it.hasNext();) {
+			assertEquals(value, ((Map.Entry)it.next()).getValue());
+		}
+		assertEquals(value, session.values().iterator().next());
+		assertTrue(session.containsValue(value));
+
+		Map context = new HashMap();
+		context.putAll(session);
+		session.releaseSpilledValues();
+		assertEquals(value, context.get("large"));
+	}
+}
@@ -0,0 +1,192 @@
+package nl.nn.adapterframework.extensions.rekenbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import nl.nn.adapterframework.core.PipeForward;
+import nl.nn.adapterframework.core.PipeLineSessionBase;
+import nl.nn.adapterframework.core.PipeRunException;
+import nl.nn.adapterframework.util.Misc;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the persistent workers of the {@link RekenBoxCaller}, using this class as a stand-in rekenbox, that
+ * converts its input to upper case.
+ */
+public class RekenBoxCallerTest {
+
+	private File dir;
+	private RekenBoxCaller pipe;
+
+	/**
+	 * Stand-in rekenbox. Called with /S it handles framed requests on stdin, otherwise it is called like
+	 * 'straight': inputFileName outputFileName templateDir. With the first argument 'plain' it cannot run persistently.
+	 */
+	public static void main(String[] args) throws Exception {
+		int first=0;
+		boolean plain=args[0].equals("plain");
+		if (plain) {
+			first++;
+		}
+		if (args[first].equals("/S")) {
+			if (plain) {
+				System.exit(1);
+			}
+			InputStream in = System.in;
+			OutputStream out = System.out;
+			while (true) {
+				int length=0;
+				int c;
+				while ((c=in.read())!='\n') {
+					if (c<0) {
+						return;
+					}
+					length=length*10+(c-'0');
+				}
+				byte[] request=new byte[length];
+				int pos=0;
+				while (pos<length) {
+					pos+=in.read(request, pos, length-pos);
+				}
+				String input=new String(request);
+				if (input.indexOf("sleep")>=0) {
+					Thread.sleep(60000);
+				}
+				byte[] reply=input.toUpperCase().getBytes();
+				out.write((reply.length+"\n").getBytes());
+				out.write(reply);
+				out.flush();
+			}
+		}
+		Misc.stringToFile(Misc.fileToString(args[first]).toUpperCase(), args[first+1]);
+	}
+
+	private void createExecutable(String name, String arguments) throws IOException {
+		File file = new File(dir, name+".sh");
+		String javaExe = System.getProperty("java.home")+File.separator+"bin"+File.separator+"java";
+		ByteArrayOutputStream script = new ByteArrayOutputStream();
+		script.write(("#!/bin/sh\nexec \""+javaExe+"\" -cp \""+System.getProperty("java.class.path")+"\" "+getClass().getName()+" "+arguments+" \"$@\"\n").getBytes());
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(script.toByteArray());
+		} finally {
+			out.close();
+		}
+		file.setExecutable(true);
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		Assume.assumeTrue(File.separatorChar=='/' && new File("/bin/sh").exists());
+		dir = File.createTempFile("rekenBoxCallerTest", "");
+		dir.delete();
+		dir.mkdirs();
+		createExecutable("RBTEST", "");
+		createExecutable("RBPLAIN", "plain");
+		pipe = new RekenBoxCaller();
+		pipe.setName("RekenBoxCallerTest");
+		pipe.setRunPath(dir.getPath()+File.separator);
+		pipe.setExecutableExtension("sh");
+		pipe.setInputOutputDirectory(dir.getPath()+File.separator);
+		pipe.setTemplateDir(dir.getPath());
+		pipe.registerForward(new PipeForward("success", "EXIT"));
+	}
+
+	@After
+	public void tearDown() {
+		if (pipe!=null) {
+			pipe.stop();
+		}
+		if (dir!=null) {
+			File[] files = dir.listFiles();
+			if (files != null) {
+				for (int i=0; i<files.length; i++) {
+					files[i].delete();
+				}
+			}
+			dir.delete();
+		}
+	}
+
+	private String call(String input) throws PipeRunException {
+		return (String)pipe.doPipe(input, new PipeLineSessionBase()).getResult();
+	}
+
+	private RekenBoxWorkerPool getWorkerPool(String rekenboxName) {
+		return pipe.getWorkerPool(dir.getPath()+File.separator+rekenboxName+".sh");
+	}
+
+	@Test
+	public void testProcessPerRequest() throws Exception {
+		pipe.configure();
+		pipe.start();
+		assertEquals("HELLO WORLD", call("RBTEST:hello world"));
+	}
+
+	@Test
+	public void testPersistentWorkerIsReused() throws Exception {
+		pipe.setPersistent(true);
+		pipe.configure();
+		pipe.start();
+		for (int i=0; i<5; i++) {
+			assertEquals("HELLO WORLD "+i, call("RBTEST:hello world "+i));
+		}
+		RekenBoxWorkerPool pool = getWorkerPool("RBTEST");
+		assertEquals(1, pool.getWorkersStarted());
+		assertEquals(4, pool.getWorkersReused());
+	}
+
+	@Test
+	public void testWorkerIsRecycledAfterMaxUses() throws Exception {
+		pipe.setPersistent(true);
+		pipe.setMaxWorkerUses(2);
+		pipe.configure();
+		pipe.start();
+		for (int i=0; i<5; i++) {
+			assertEquals("MESSAGE "+i, call("RBTEST:message "+i));
+		}
+		assertEquals(3, getWorkerPool("RBTEST").getWorkersStarted());
+	}
+
+	@Test
+	public void testWorkerIsKilledOnTimeout() throws Exception {
+		pipe.setPersistent(true);
+		pipe.setWorkerTimeout(5000);
+		pipe.configure();
+		pipe.start();
+		assertEquals("BEFORE", call("RBTEST:before"));
+		try {
+			call("RBTEST:sleep");
+			fail("expected timeout");
+		} catch (PipeRunException e) {
+			// expected
+		}
+		RekenBoxWorkerPool pool = getWorkerPool("RBTEST");
+		assertEquals(1, pool.getWorkersKilled());
+		assertEquals(0, pool.getIdleCount());
+	}
+
+	@Test
+	public void testFallbackForExecutableThatCannotRunPersistently() throws Exception {
+		pipe.setPersistent(true);
+		pipe.configure();
+		pipe.start();
+		assertEquals("HELLO", call("RBPLAIN:hello"));
+		assertEquals("WORLD", call("RBPLAIN:world"));
+		RekenBoxWorkerPool pool = getWorkerPool("RBPLAIN");
+		assertTrue(pool.isUnsupported());
+		assertEquals(1, pool.getWorkersStarted());
+	}
+}
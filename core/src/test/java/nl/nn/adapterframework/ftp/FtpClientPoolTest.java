@@ -0,0 +1,201 @@
+package nl.nn.adapterframework.ftp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link FtpClientPool} with sessions that create connections to a stubbed FTP client.
+ */
+public class FtpClientPoolTest {
+
+	private FtpClientPool pool;
+
+	private static class StubFtpClient extends FTPClient {
+		private boolean connected = true;
+		private boolean alive = true;
+
+		public boolean isConnected() {
+			return connected;
+		}
+
+		public boolean sendNoOp() throws IOException {
+			return alive;
+		}
+
+		public int quit() {
+			return 221;
+		}
+
+		public void disconnect() {
+			connected = false;
+		}
+	}
+
+	private static class StubFtpSession extends FtpSession {
+		private String poolKey;
+		private int created = 0;
+		private StubFtpClient lastClient;
+
+		StubFtpSession(String poolKey, long idleTimeout) {
+			this.poolKey = poolKey;
+			setIdleTimeout(idleTimeout);
+			setMaxConnectionsPerHost(2);
+			setMaxWaitTime(100);
+		}
+
+		String getPoolKey(String remoteDirectory) {
+			return remoteDirectory == null ? poolKey : poolKey + "/" + remoteDirectory;
+		}
+
+		String getHostKey() {
+			return "ftp://host:21";
+		}
+
+		FtpConnection createConnection(String remoteDirectory) {
+			created++;
+			lastClient = new StubFtpClient();
+			return new FtpConnection(getPoolKey(remoteDirectory), getHostKey(), lastClient);
+		}
+	}
+
+	@Before
+	public void setUp() {
+		pool = new FtpClientPool();
+	}
+
+	@Test
+	public void testReleasedConnectionIsReused() throws Exception {
+		StubFtpSession session = new StubFtpSession("key", 60000);
+		FtpConnection connection = pool.borrow(session, null);
+		pool.release(connection);
+		assertEquals(1, pool.getIdleCount("key"));
+		assertSame(connection, pool.borrow(session, null));
+		assertEquals(1, session.created);
+		assertEquals(1, pool.getConnectionCountForHost("ftp://host:21"));
+	}
+
+	@Test
+	public void testDeadConnectionIsReplaced() throws Exception {
+		StubFtpSession session = new StubFtpSession("key", 60000);
+		FtpConnection connection = pool.borrow(session, null);
+		StubFtpClient client = session.lastClient;
+		pool.release(connection);
+		client.alive = false;
+		assertNotSame(connection, pool.borrow(session, null));
+		assertEquals(2, session.created);
+		assertFalse(client.connected);
+		assertEquals(1, pool.getConnectionCountForHost("ftp://host:21"));
+	}
+
+	@Test
+	public void testInvalidatedConnectionIsClosed() throws Exception {
+		StubFtpSession session = new StubFtpSession("key", 60000);
+		FtpConnection connection = pool.borrow(session, null);
+		StubFtpClient client = session.lastClient;
+		pool.invalidate(connection);
+		assertFalse(client.connected);
+		assertEquals(0, pool.getIdleCount("key"));
+		assertEquals(0, pool.getConnectionCountForHost("ftp://host:21"));
+	}
+
+	@Test
+	public void testMaxConnectionsPerHost() throws Exception {
+		StubFtpSession session = new StubFtpSession("key", 60000);
+		pool.borrow(session, null);
+		pool.borrow(session, null);
+		try {
+			pool.borrow(session, null);
+			fail("expected FtpConnectException");
+		} catch (FtpConnectException e) {
+			assertEquals(2, session.created);
+		}
+	}
+
+	@Test
+	public void testIdleConnectionsAreEvictedWithTimeoutOfTheirOwnKey() throws Exception {
+		StubFtpSession shortTimeout = new StubFtpSession("short", 1);
+		StubFtpSession longTimeout = new StubFtpSession("long", 60000);
+		pool.release(pool.borrow(shortTimeout, null));
+		StubFtpClient shortClient = shortTimeout.lastClient;
+		pool.release(pool.borrow(longTimeout, null));
+		StubFtpClient longClient = longTimeout.lastClient;
+		Thread.sleep(20);
+
+		// borrowing for the key with the long timeout must not keep the short-lived connection open...
+		FtpConnection connection = pool.borrow(longTimeout, null);
+		assertFalse(shortClient.connected);
+		assertEquals(0, pool.getIdleCount("short"));
+		// ...nor close its own connection, that has been idle shorter than its own timeout
+		assertTrue(longClient.connected);
+		assertEquals(1, longTimeout.created);
+		pool.release(connection);
+
+		pool.evictIdle();
+		assertEquals(1, pool.getIdleCount("long"));
+	}
+
+	@Test
+	public void testIdleConnectionOfOtherDirectoryIsClosedAtHostLimit() throws Exception {
+		StubFtpSession session = new StubFtpSession("key", 60000);
+		session.setMaxConnectionsPerHost(1);
+		FtpConnection first = pool.borrow(session, "first");
+		StubFtpClient firstClient = session.lastClient;
+		pool.release(first);
+		long start = System.currentTimeMillis();
+		FtpConnection second = pool.borrow(session, "second");
+		// the idle connection for the other directory made room, without waiting for maxWaitTime
+		assertTrue(System.currentTimeMillis() - start < 100);
+		assertEquals("key/second", second.getPoolKey());
+		assertFalse(firstClient.connected);
+		assertEquals(0, pool.getIdleCount("key/first"));
+		assertEquals(1, pool.getConnectionCountForHost("ftp://host:21"));
+		assertEquals(2, session.created);
+	}
+
+	@Test
+	public void testConnectionOfOtherDirectoryInUseIsNotClosedAtHostLimit() throws Exception {
+		StubFtpSession session = new StubFtpSession("key", 60000);
+		session.setMaxConnectionsPerHost(1);
+		pool.borrow(session, "first");
+		StubFtpClient firstClient = session.lastClient;
+		try {
+			pool.borrow(session, "second");
+			fail("expected FtpConnectException");
+		} catch (FtpConnectException e) {
+			assertTrue(firstClient.connected);
+			assertEquals(1, session.created);
+		}
+	}
+
+	private FtpSession createSession(String password) {
+		FtpSession session = new FtpSession();
+		session.setHost("host");
+		session.setUsername("user");
+		session.setPassword(password);
+		return session;
+	}
+
+	@Test
+	public void testPoolKeyDiffersForCredentialsAndTlsSettings() throws Exception {
+		String key = createSession("secret").getPoolKey("dir");
+		assertEquals(key, createSession("secret").getPoolKey("dir"));
+		assertFalse(key.contains("secret"));
+		assertFalse(key.equals(createSession("other").getPoolKey("dir")));
+		FtpSession unverified = createSession("secret");
+		unverified.setVerifyHostname(false);
+		assertFalse(key.equals(unverified.getPoolKey("dir")));
+		FtpSession proxied = createSession("secret");
+		proxied.setProxyHost("proxy");
+		assertFalse(key.equals(proxied.getPoolKey("dir")));
+	}
+}
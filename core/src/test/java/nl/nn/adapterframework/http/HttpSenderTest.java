@@ -0,0 +1,209 @@
+package nl.nn.adapterframework.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import nl.nn.adapterframework.core.PipeLineSessionBase;
+import nl.nn.adapterframework.core.SenderException;
+import nl.nn.adapterframework.parameters.ParameterResolutionContext;
+import nl.nn.adapterframework.statistics.HasStatistics;
+import nl.nn.adapterframework.statistics.StatisticsKeeper;
+import nl.nn.adapterframework.statistics.StatisticsKeeperIterationHandler;
+import nl.nn.adapterframework.util.Misc;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests the streaming modes and the connection statistics of the {@link HttpSender} against an embedded http server.
+ */
+public class HttpSenderTest {
+
+	private HttpServer server;
+	private String baseUrl;
+	private byte[] contents;
+	private File dir;
+
+	@Before
+	public void setUp() throws Exception {
+		contents = new byte[500000];
+		for (int i=0; i<contents.length; i++) {
+			contents[i] = (byte)(i % 253);
+		}
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/download", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+				exchange.sendResponseHeaders(200, contents.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(contents);
+				out.close();
+			}
+		});
+		server.createContext("/truncated", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+				exchange.sendResponseHeaders(200, 0);
+				OutputStream out = exchange.getResponseBody();
+				out.write(contents, 0, contents.length / 2);
+				out.flush();
+				// drop the connection without ending the chunked response
+				throw new IOException("connection dropped");
+			}
+		});
+		server.start();
+		baseUrl = "http://localhost:"+server.getAddress().getPort();
+
+		dir = File.createTempFile("httpSenderTest", "");
+		dir.delete();
+		dir.mkdirs();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (int i=0; i<files.length; i++) {
+				files[i].delete();
+			}
+		}
+		dir.delete();
+	}
+
+	private HttpSender createSender() throws Exception {
+		HttpSender sender = new HttpSender();
+		sender.setName("HttpSenderTest");
+		sender.setUrl(baseUrl+"/download");
+		return sender;
+	}
+
+	private byte[] readFile(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			return Misc.streamToBytes(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	@Test
+	public void testStreamResultToFile() throws Exception {
+		HttpSender sender = createSender();
+		sender.setStreamResultToFileNameSessionKey("fileName");
+		sender.configure();
+		sender.open();
+		try {
+			File file = new File(dir, "result.bin");
+			PipeLineSessionBase session = new PipeLineSessionBase();
+			session.put("fileName", file.getPath());
+			String result = sender.sendMessage(null, "", new ParameterResolutionContext("", session));
+			assertEquals(file.getPath(), result);
+			assertTrue(Arrays.equals(contents, readFile(file)));
+		} finally {
+			sender.close();
+		}
+	}
+
+	@Test
+	public void testPartialFileIsDeletedOnError() throws Exception {
+		HttpSender sender = createSender();
+		sender.setUrl(baseUrl+"/truncated");
+		sender.setStreamResultToFileNameSessionKey("fileName");
+		sender.configure();
+		sender.open();
+		try {
+			File file = new File(dir, "result.bin");
+			PipeLineSessionBase session = new PipeLineSessionBase();
+			session.put("fileName", file.getPath());
+			try {
+				sender.sendMessage(null, "", new ParameterResolutionContext("", session));
+				fail("expected SenderException");
+			} catch (SenderException e) {
+				assertFalse(file.exists());
+			}
+		} finally {
+			sender.close();
+		}
+	}
+
+	@Test
+	public void testStoreResultAsStream() throws Exception {
+		HttpSender sender = createSender();
+		sender.setStoreResultAsStreamInSessionKey("stream");
+		sender.configure();
+		sender.open();
+		try {
+			PipeLineSessionBase session = new PipeLineSessionBase();
+			sender.sendMessage(null, "", new ParameterResolutionContext("", session));
+			InputStream stream = (InputStream)session.get("stream");
+			assertTrue(Arrays.equals(contents, Misc.streamToBytes(stream)));
+			stream.close();
+		} finally {
+			sender.close();
+		}
+	}
+
+	@Test
+	public void testConnectionStatistics() throws Exception {
+		HttpSender sender = createSender();
+		sender.setStoreResultAsByteArrayInSessionKey("bytes");
+		sender.configure();
+		sender.open();
+		try {
+			for (int i=0; i<3; i++) {
+				sender.sendMessage(null, "", new ParameterResolutionContext("", new PipeLineSessionBase()));
+			}
+			final Map<String,Long> scalars = new HashMap<String,Long>();
+			final Map<String,Long> leaseWaits = new HashMap<String,Long>();
+			sender.iterateOverStatistics(new StatisticsKeeperIterationHandler() {
+				public void configure() {
+				}
+				public Object start(Date now, Date mainMark, Date detailMark) {
+					return null;
+				}
+				public void end(Object data) {
+				}
+				public void handleStatisticsKeeper(Object data, StatisticsKeeper sk) {
+					leaseWaits.put(sk.getName(), sk.getCount());
+				}
+				public void handleScalar(Object data, String scalarName, long value) {
+					scalars.put(scalarName.substring(scalarName.lastIndexOf(' ')+1), value);
+				}
+				public void handleScalar(Object data, String scalarName, Date value) {
+				}
+				public Object openGroup(Object parentData, String name, String type) {
+					return null;
+				}
+				public void closeGroup(Object data) {
+				}
+			}, null, HasStatistics.STATISTICS_ACTION_FULL);
+			assertEquals(new Long(3), scalars.get("leases"));
+			assertEquals(new Long(2), scalars.get("reusedConnections"));
+			assertEquals(new Long(66), scalars.get("reusePercentage"));
+			assertEquals(new Long(1), scalars.get("connectionsInPool"));
+			assertEquals(new Long(0), scalars.get("idleEvictions"));
+			assertEquals(new Long(3), leaseWaits.get(baseUrl+" lease wait"));
+		} finally {
+			sender.close();
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package nl.nn.adapterframework.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Date;
+
+import nl.nn.adapterframework.jdbc.dbms.GenericDbmsSupport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Tests the chunked deletion of expired records by the {@link JdbcTableCleaner} against an embedded HSQLDB database.
+ */
+public class JdbcTableCleanerTest {
+
+	private Connection connection;
+	private Date now;
+
+	@Before
+	public void setUp() throws Exception {
+		Class.forName("org.hsqldb.jdbc.JDBCDriver");
+		connection = DriverManager.getConnection("jdbc:hsqldb:mem:cleanup", "sa", "");
+		Statement statement = connection.createStatement();
+		statement.execute("CREATE TABLE IBISSTORE (MESSAGEKEY INTEGER PRIMARY KEY, TYPE CHAR(1), EXPIRYDATE TIMESTAMP)");
+		statement.close();
+		now = new Date();
+		PreparedStatement insert = connection.prepareStatement("INSERT INTO IBISSTORE (MESSAGEKEY, TYPE, EXPIRYDATE) VALUES (?,?,?)");
+		for (int i=0; i<2500; i++) {
+			insert.setInt(1, i);
+			// types L and A are messagelogs, E is an errorstore
+			insert.setString(2, i % 5 == 0 ? "E" : i % 2 == 0 ? "L" : "A");
+			// two thirds of the records are expired
+			insert.setTimestamp(3, new Timestamp(now.getTime() + (i % 3 == 0 ? 3600000 : -3600000)));
+			insert.executeUpdate();
+		}
+		insert.close();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Statement statement = connection.createStatement();
+		statement.execute("DROP TABLE IBISSTORE");
+		statement.close();
+		connection.close();
+	}
+
+	private JdbcTableCleaner createCleaner(int chunkSize) {
+		JdbcTableCleaner cleaner = new JdbcTableCleaner();
+		cleaner.setTableName("IBISSTORE");
+		cleaner.setKeyField("MESSAGEKEY");
+		cleaner.setExpiryDateField("EXPIRYDATE");
+		cleaner.setTypeField("TYPE");
+		cleaner.setTypes(new String[] {"L", "A"});
+		cleaner.setChunkSize(chunkSize);
+		return cleaner;
+	}
+
+	private int count(String condition) throws Exception {
+		Statement statement = connection.createStatement();
+		try {
+			ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM IBISSTORE WHERE "+condition);
+			rs.next();
+			return rs.getInt(1);
+		} finally {
+			statement.close();
+		}
+	}
+
+	private int countExpired() throws Exception {
+		return count("TYPE IN ('L','A') AND EXPIRYDATE < CURRENT_TIMESTAMP");
+	}
+
+	@Test
+	public void testCleanupInChunks() throws Exception {
+		int expired = countExpired();
+		int others = count("1=1") - expired;
+		assertTrue(expired > 1000);
+
+		JdbcTableCleaner cleaner = createCleaner(100);
+		assertEquals(expired, cleaner.cleanup(connection, new GenericDbmsSupport(), now));
+		assertTrue(cleaner.isCompleted());
+		assertEquals(0, countExpired());
+		assertEquals(others, count("1=1"));
+
+		assertEquals(0, cleaner.cleanup(connection, new GenericDbmsSupport(), now));
+		assertTrue(cleaner.isCompleted());
+	}
+
+	@Test
+	public void testCleanupStopsAfterMaxDuration() throws Exception {
+		int expired = countExpired();
+
+		JdbcTableCleaner cleaner = createCleaner(100);
+		cleaner.setChunkPause(20);
+		cleaner.setMaxDuration(1);
+		assertEquals(100, cleaner.cleanup(connection, new GenericDbmsSupport(), now));
+		assertFalse(cleaner.isCompleted());
+		assertEquals(expired - 100, countExpired());
+
+		cleaner.setMaxDuration(0);
+		assertEquals(expired - 100, cleaner.cleanup(connection, new GenericDbmsSupport(), now));
+		assertTrue(cleaner.isCompleted());
+		assertEquals(0, countExpired());
+	}
+
+	@Test
+	public void testChunksAreNotCommittedWithinTransaction() throws Exception {
+		int expired = countExpired();
+		connection.setAutoCommit(false);
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			assertEquals(expired, createCleaner(100).cleanup(connection, new GenericDbmsSupport(), now));
+			assertEquals(0, countExpired());
+			connection.rollback();
+		} finally {
+			TransactionSynchronizationManager.clearSynchronization();
+			connection.setAutoCommit(true);
+		}
+		// the deletes are left to the transaction, that has been rolled back
+		assertEquals(expired, countExpired());
+	}
+}
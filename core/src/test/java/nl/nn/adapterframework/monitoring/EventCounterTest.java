@@ -0,0 +1,80 @@
+package nl.nn.adapterframework.monitoring;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests the sliding window of the {@link EventCounter} used by {@link Trigger}s with a threshold.
+ */
+public class EventCounterTest {
+
+	@Test
+	public void testCountWithinWindow() {
+		EventCounter counter = new EventCounter(10000, 10);
+		long start = 1000000;
+		assertEquals(1, counter.increment(start));
+		assertEquals(2, counter.increment(start + 500));
+		assertEquals(3, counter.increment(start + 9000));
+		assertEquals(3, counter.getCount(start + 9500));
+	}
+
+	@Test
+	public void testEventsExpire() {
+		EventCounter counter = new EventCounter(10000, 10);
+		long start = 1000000;
+		counter.increment(start);
+		counter.increment(start + 5000);
+		assertEquals(1, counter.getCount(start + 11000));
+		assertEquals(0, counter.getCount(start + 16000));
+		assertEquals(1, counter.increment(start + 100000));
+	}
+
+	@Test
+	public void testEventExactlyOnePeriodOldIsCounted() {
+		EventCounter counter = new EventCounter(60000);
+		long start = 1000123;
+		counter.increment(start);
+		assertEquals(1, counter.getCount(start + 59999));
+		assertEquals(1, counter.getCount(start + 60000));
+		assertEquals(2, counter.increment(start + 60000));
+		assertEquals(1, counter.getCount(start + 60000 + 60000));
+	}
+
+	@Test
+	public void testEventOnBucketBoundaryExactlyOnePeriodOldIsCounted() {
+		EventCounter counter = new EventCounter(10000, 10);
+		long start = 1000999;
+		counter.increment(start);
+		assertEquals(1, counter.getCount(start + 10000));
+		assertEquals(0, counter.getCount(start + 10000 + counter.getBucketWidth()));
+	}
+
+	@Test
+	public void testClear() {
+		EventCounter counter = new EventCounter(10000);
+		counter.increment(1000);
+		counter.increment(1001);
+		counter.clear();
+		assertEquals(0, counter.getCount(1002));
+		assertEquals(1, counter.increment(1003));
+	}
+
+	@Test
+	public void testZeroPeriod() {
+		EventCounter counter = new EventCounter(0);
+		assertEquals(1, counter.increment(1000));
+		assertEquals(2, counter.increment(1000));
+		assertEquals(1, counter.increment(1001));
+	}
+
+	@Test
+	public void testConstantMemoryUnderLoad() {
+		EventCounter counter = new EventCounter(60000);
+		for (int i=0; i<1000000; i++) {
+			counter.increment(1000000 + i / 100);
+		}
+		assertEquals(EventCounter.DEFAULT_BUCKET_COUNT, counter.getBucketCount());
+		assertEquals(1000000, counter.getCount(1000000 + 9999));
+	}
+}
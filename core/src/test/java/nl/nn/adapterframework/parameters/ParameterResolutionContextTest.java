@@ -0,0 +1,106 @@
+package nl.nn.adapterframework.parameters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import nl.nn.adapterframework.core.PipeLineSessionBase;
+
+import org.junit.Test;
+
+/**
+ * Tests that parameters that are evaluated together in a single transformation by the {@link ParameterResolutionContext}
+ * get the same values as when each of them is evaluated separately.
+ */
+public class ParameterResolutionContextTest {
+
+	private static final String INPUT =
+		"<root xmlns:x=\"urn:x\">\n" +
+		" <a>one</a>\n" +
+		" <a> two\nlines </a>\n" +
+		" <b/>\n" +
+		" <x:c>escaped &amp; &lt;value&gt;</x:c>\n" +
+		" <n>12.5</n>\n" +
+		" <d>2016-10-19</d>\n" +
+		"</root>";
+
+	private Parameter createParameter(String name, String xpathExpression) {
+		Parameter p = new Parameter();
+		p.setName(name);
+		p.setXpathExpression(xpathExpression);
+		return p;
+	}
+
+	private ParameterList<Parameter> createParameters() {
+		ParameterList<Parameter> parameters = new ParameterList<Parameter>();
+		parameters.add(createParameter("first", "/root/a"));
+		parameters.add(createParameter("second", "/root/a[2]"));
+		Parameter empty = createParameter("empty", "/root/b");
+		empty.setDefaultValue("default");
+		parameters.add(empty);
+		Parameter namespaced = createParameter("namespaced", "/root/y:c");
+		namespaced.setNamespaceDefs("y=urn:x");
+		parameters.add(namespaced);
+		Parameter number = createParameter("number", "/root/n * 2");
+		number.setType(Parameter.TYPE_NUMBER);
+		number.setDecimalSeparator(".");
+		parameters.add(number);
+		Parameter date = createParameter("date", "/root/d");
+		date.setType(Parameter.TYPE_DATE);
+		parameters.add(date);
+		Parameter withoutNamespaces1 = createParameter("withoutNamespaces1", "/root/c");
+		withoutNamespaces1.setRemoveNamespaces(true);
+		parameters.add(withoutNamespaces1);
+		Parameter withoutNamespaces2 = createParameter("withoutNamespaces2", "count(/root/*)");
+		withoutNamespaces2.setRemoveNamespaces(true);
+		parameters.add(withoutNamespaces2);
+		Parameter xml = createParameter("xml", "/root/a[1]");
+		xml.setType(Parameter.TYPE_XML);
+		parameters.add(xml);
+		Parameter fromSession = new Parameter();
+		fromSession.setName("fromSession");
+		fromSession.setSessionKey("key");
+		parameters.add(fromSession);
+		return parameters;
+	}
+
+	@Test
+	public void testParametersEvaluatedTogetherHaveSameValues() throws Exception {
+		ParameterList<Parameter> parameters = createParameters();
+		parameters.configure();
+		assertNotNull(parameters.getXPathEvaluator(parameters.findParameter("first")));
+		assertNotNull(parameters.getXPathEvaluator(parameters.findParameter("withoutNamespaces1")));
+		assertNull(parameters.getXPathEvaluator(parameters.findParameter("xml")));
+		assertNull(parameters.getXPathEvaluator(parameters.findParameter("fromSession")));
+
+		PipeLineSessionBase session = new PipeLineSessionBase();
+		session.put("key", "value");
+		ParameterValueList values = new ParameterResolutionContext(INPUT, session, true).getValues(parameters);
+
+		for (int i=0; i<parameters.size(); i++) {
+			ParameterList<Parameter> single = new ParameterList<Parameter>();
+			single.add(createParameters().get(i));
+			single.configure();
+			assertNull(single.getXPathEvaluator(single.getParameter(0)));
+			ParameterValueList expected = new ParameterResolutionContext(INPUT, session, true).getValues(single);
+			assertEquals(single.getParameter(0).getName(), expected.getParameterValue(0).getValue(), values.getParameterValue(i).getValue());
+		}
+		assertEquals("one", values.getParameterValue("first").getValue());
+		assertEquals("default", values.getParameterValue("empty").getValue());
+		assertEquals("escaped & <value>", values.getParameterValue("withoutNamespaces1").getValue());
+	}
+
+	@Test
+	public void testValuesAreDeterminedAgainForNewInput() throws Exception {
+		ParameterList<Parameter> parameters = new ParameterList<Parameter>();
+		parameters.add(createParameter("first", "/root/a"));
+		parameters.add(createParameter("second", "/root/b"));
+		parameters.configure();
+		ParameterResolutionContext prc = new ParameterResolutionContext("<root><a>1</a><b>2</b></root>", new PipeLineSessionBase());
+		assertEquals("1", prc.getValues(parameters).getParameterValue("first").getValue());
+		prc.setInput("<root><a>3</a><b>4</b></root>");
+		ParameterValueList values = prc.getValues(parameters);
+		assertEquals("3", values.getParameterValue("first").getValue());
+		assertEquals("4", values.getParameterValue("second").getValue());
+	}
+}
@@ -0,0 +1,212 @@
+package nl.nn.adapterframework.pipes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import nl.nn.adapterframework.core.Adapter;
+import nl.nn.adapterframework.core.INamedObject;
+import nl.nn.adapterframework.core.ISender;
+import nl.nn.adapterframework.core.ITransactionalStorage;
+import nl.nn.adapterframework.core.PipeForward;
+import nl.nn.adapterframework.core.PipeLine;
+import nl.nn.adapterframework.core.PipeLineExit;
+import nl.nn.adapterframework.core.PipeLineSessionBase;
+import nl.nn.adapterframework.core.PipeRunException;
+import nl.nn.adapterframework.core.PipeRunResult;
+import nl.nn.adapterframework.core.SenderException;
+import nl.nn.adapterframework.statistics.StatisticsKeeper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the circuit breaker and the background retries of the {@link MessageSendingPipe}, with a stub sender.
+ */
+public class MessageSendingPipeTest {
+
+	private class StubSender implements ISender {
+		private String name;
+		int failures;
+		int calls=0;
+
+		StubSender(int failures) {
+			this.failures=failures;
+		}
+		public String getName() {
+			return name;
+		}
+		public void setName(String name) {
+			this.name=name;
+		}
+		public void configure() {
+		}
+		public void open() {
+		}
+		public void close() {
+		}
+		public boolean isSynchronous() {
+			return false;
+		}
+		public synchronized String sendMessage(String correlationID, String message) throws SenderException {
+			calls++;
+			if (calls<=failures) {
+				throw new SenderException("backend down");
+			}
+			return "messageId"+calls;
+		}
+		public synchronized int getCalls() {
+			return calls;
+		}
+	}
+
+	private PipeLine pipeLine;
+	private ITransactionalStorage messageLog;
+	private ITransactionalStorage errorStorage;
+
+	@Before
+	public void setUp() {
+		pipeLine = mock(PipeLine.class);
+		Adapter adapter = mock(Adapter.class);
+		when(pipeLine.getAdapter()).thenReturn(adapter);
+		Map<String,PipeLineExit> exits = new HashMap<String,PipeLineExit>();
+		exits.put("EXIT", new PipeLineExit());
+		when(pipeLine.getPipeLineExits()).thenReturn(exits);
+		when(pipeLine.getPipeStatistics(any(INamedObject.class))).thenReturn(new StatisticsKeeper("messageLog"));
+		messageLog = mock(ITransactionalStorage.class);
+		when(messageLog.isActive()).thenReturn(true);
+		errorStorage = mock(ITransactionalStorage.class);
+		when(errorStorage.isActive()).thenReturn(true);
+	}
+
+	private MessageSendingPipe createPipe(StubSender sender) {
+		MessageSendingPipe pipe = new MessageSendingPipe();
+		pipe.setName("pipe");
+		pipe.setSender(sender);
+		PipeForward forward = new PipeForward();
+		forward.setName("success");
+		forward.setPath("EXIT");
+		pipe.registerForward(forward);
+		return pipe;
+	}
+
+	private PipeLineSessionBase createSession() {
+		PipeLineSessionBase session = new PipeLineSessionBase();
+		session.put(PipeLineSessionBase.messageIdKey, "mid");
+		return session;
+	}
+
+	private void waitForCalls(StubSender sender, int calls) throws InterruptedException {
+		for (int i=0; i<100 && sender.getCalls()<calls; i++) {
+			Thread.sleep(100);
+		}
+		// give the retry the opportunity to finish storing the message
+		Thread.sleep(200);
+	}
+
+	@Test
+	public void testCircuitBreakerRejectsCallsWhenOpen() throws Exception {
+		StubSender sender = new StubSender(Integer.MAX_VALUE);
+		MessageSendingPipe pipe = createPipe(sender);
+		pipe.setCircuitBreakerFailureRateThreshold(100);
+		pipe.setCircuitBreakerWindowSize(2);
+		pipe.configure(pipeLine);
+		pipe.start();
+		for (int i=0; i<3; i++) {
+			try {
+				pipe.doPipe("<message/>", createSession());
+				fail("expected exception");
+			} catch (PipeRunException e) {
+				// expected
+			}
+		}
+		assertEquals(2, sender.getCalls());
+		pipe.stop();
+	}
+
+	@Test
+	public void testBackgroundRetryStoresMessageInMessageLogWhenSent() throws Exception {
+		StubSender sender = new StubSender(2);
+		MessageSendingPipe pipe = createPipe(sender);
+		pipe.setMaxRetries(3);
+		pipe.setRetryInBackground(true);
+		pipe.setMessageLog(messageLog);
+		pipe.setErrorStorage(errorStorage);
+		pipe.configure(pipeLine);
+		pipe.start();
+
+		PipeRunResult prr = pipe.doPipe("<message/>", createSession());
+		assertEquals("", prr.getResult());
+		assertEquals(1, sender.getCalls());
+		verify(messageLog, never()).storeMessage(anyString(), anyString(), any(Date.class), anyString(), anyString(), any(Serializable.class));
+
+		waitForCalls(sender, 3);
+		assertEquals(3, sender.getCalls());
+		verify(messageLog, times(1)).storeMessage(eq("messageId3"), anyString(), any(Date.class), anyString(), anyString(), any(Serializable.class));
+		verify(errorStorage, never()).storeMessage(anyString(), anyString(), any(Date.class), anyString(), anyString(), any(Serializable.class));
+		pipe.stop();
+	}
+
+	@Test
+	public void testExhaustedBackgroundRetryStoresMessageInErrorStorage() throws Exception {
+		StubSender sender = new StubSender(Integer.MAX_VALUE);
+		MessageSendingPipe pipe = createPipe(sender);
+		pipe.setMaxRetries(1);
+		pipe.setRetryInBackground(true);
+		pipe.setMessageLog(messageLog);
+		pipe.setErrorStorage(errorStorage);
+		pipe.configure(pipeLine);
+		pipe.start();
+
+		pipe.doPipe("<message/>", createSession());
+		waitForCalls(sender, 2);
+		assertEquals(2, sender.getCalls());
+		verify(errorStorage, times(1)).storeMessage(eq("mid"), anyString(), any(Date.class), anyString(), anyString(), eq("<message/>"));
+		verify(messageLog, never()).storeMessage(anyString(), anyString(), any(Date.class), anyString(), anyString(), any(Serializable.class));
+		pipe.stop();
+	}
+
+	@Test
+	public void testStopMovesPendingRetriesToErrorStorage() throws Exception {
+		StubSender sender = new StubSender(Integer.MAX_VALUE);
+		MessageSendingPipe pipe = createPipe(sender);
+		pipe.setMaxRetries(3);
+		pipe.setRetryMinInterval(10);
+		pipe.setRetryMaxInterval(10);
+		pipe.setRetryInBackground(true);
+		pipe.setErrorStorage(errorStorage);
+		pipe.configure(pipeLine);
+		pipe.start();
+
+		pipe.doPipe("<message/>", createSession());
+		pipe.stop();
+		assertEquals(1, sender.getCalls());
+		verify(errorStorage, times(1)).storeMessage(eq("mid"), anyString(), any(Date.class), anyString(), anyString(), eq("<message/>"));
+	}
+
+	@Test
+	public void testRetryInBackgroundRequiresErrorStorage() throws Exception {
+		MessageSendingPipe pipe = createPipe(new StubSender(0));
+		pipe.setMaxRetries(1);
+		pipe.setRetryInBackground(true);
+		try {
+			pipe.configure(pipeLine);
+			fail("expected ConfigurationException");
+		} catch (Exception e) {
+			assertTrue(e.getMessage().contains("errorStorage"));
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package nl.nn.adapterframework.pipes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import nl.nn.adapterframework.core.PipeForward;
+import nl.nn.adapterframework.core.PipeLineSessionBase;
+import nl.nn.adapterframework.core.PipeRunException;
+import nl.nn.adapterframework.core.PipeRunResult;
+
+import org.junit.Test;
+
+/**
+ * Tests the transformation of valid messages by the {@link XmlValidator} with styleSheetName or xpathExpression.
+ */
+public class XmlValidatorTransformTest {
+
+	private static final String SCHEMA_LOCATION = "urn:transform /XmlValidatorTransform/document.xsd";
+	private static final String VALID = "<document xmlns=\"urn:transform\"><name>Jan</name><amount>12</amount></document>";
+	private static final String VALID_WITH_STATUS = "<document xmlns=\"urn:transform\" status=\"old\"><name>Jan</name><amount>12</amount></document>";
+	private static final String INVALID = "<document xmlns=\"urn:transform\"><name>Jan</name><amount>twelve</amount></document>";
+	private static final String NOT_WELL_FORMED = "<document xmlns=\"urn:transform\"><name>Jan</name><amount>12</document>";
+
+	private PipeForward forward(String name) {
+		PipeForward forward = new PipeForward();
+		forward.setName(name);
+		forward.setPath(name);
+		return forward;
+	}
+
+	private XmlValidator createValidator(String styleSheetName, String xpathExpression, boolean failureForwards) throws Exception {
+		XmlValidator validator = new XmlValidator();
+		validator.setName("XmlValidatorTransformTest");
+		validator.setSchemaLocation(SCHEMA_LOCATION);
+		validator.setStyleSheetName(styleSheetName);
+		validator.setXpathExpression(xpathExpression);
+		validator.setNamespaceDefs("t=urn:transform");
+		validator.registerForward(forward("success"));
+		if (failureForwards) {
+			validator.registerForward(forward("failure"));
+			validator.registerForward(forward("parserError"));
+		} else {
+			validator.setThrowException(true);
+		}
+		validator.configure();
+		return validator;
+	}
+
+	@Test
+	public void testXpathExpressionOnValidMessage() throws Exception {
+		XmlValidator validator = createValidator(null, "/t:document/t:name", true);
+		PipeRunResult result = validator.doPipe(VALID, new PipeLineSessionBase());
+		assertEquals("success", result.getPipeForward().getName());
+		assertEquals("Jan", result.getResult());
+	}
+
+	@Test
+	public void testStyleSheetOnValidMessage() throws Exception {
+		XmlValidator validator = createValidator("/XmlValidatorTransform/document.xsl", null, true);
+		PipeRunResult result = validator.doPipe(VALID_WITH_STATUS, new PipeLineSessionBase());
+		assertEquals("success", result.getPipeForward().getName());
+		assertEquals("Jan|12|old", result.getResult());
+	}
+
+	@Test
+	public void testSchemaDefaultsAreNotTransformed() throws Exception {
+		XmlValidator validator = createValidator("/XmlValidatorTransform/document.xsl", null, true);
+		PipeRunResult result = validator.doPipe(VALID, new PipeLineSessionBase());
+		// the transformer sees the message as written, without the status defaulted by the schema
+		assertEquals("Jan|12|", result.getResult());
+	}
+
+	@Test
+	public void testInvalidMessageIsForwardedToFailureUntransformed() throws Exception {
+		XmlValidator validator = createValidator("/XmlValidatorTransform/document.xsl", null, true);
+		PipeRunResult result = validator.doPipe(INVALID, new PipeLineSessionBase());
+		assertEquals("failure", result.getPipeForward().getName());
+		assertSame(INVALID, result.getResult());
+	}
+
+	@Test
+	public void testNotWellFormedMessageIsForwardedToParserError() throws Exception {
+		XmlValidator validator = createValidator(null, "/t:document/t:name", true);
+		PipeRunResult result = validator.doPipe(NOT_WELL_FORMED, new PipeLineSessionBase());
+		assertEquals("parserError", result.getPipeForward().getName());
+		assertSame(NOT_WELL_FORMED, result.getResult());
+	}
+
+	@Test(expected = PipeRunException.class)
+	public void testInvalidMessageThrowsException() throws Exception {
+		XmlValidator validator = createValidator(null, "/t:document/t:name", false);
+		validator.doPipe(INVALID, new PipeLineSessionBase());
+	}
+
+	@Test
+	public void testTransformedResultIsIndependentPerCall() throws Exception {
+		XmlValidator validator = createValidator(null, "/t:document/t:amount", true);
+		assertEquals("failure", validator.doPipe(INVALID, new PipeLineSessionBase()).getPipeForward().getName());
+		assertEquals("12", validator.doPipe(VALID, new PipeLineSessionBase()).getResult());
+	}
+}
@@ -0,0 +1,246 @@
+package nl.nn.adapterframework.receivers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import nl.nn.adapterframework.configuration.ConfigurationException;
+import nl.nn.adapterframework.core.ListenerException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the event-driven mode of the {@link DirectoryListener}.
+ */
+public class DirectoryListenerTest {
+
+	private static final long TIMEOUT = 5000;
+
+	private File inputDirectory;
+	private File outputDirectory;
+	private DirectoryListener listener;
+
+	@Before
+	public void setUp() throws Exception {
+		inputDirectory = createDirectory("input");
+		outputDirectory = createDirectory("output");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (listener != null) {
+			listener.close();
+		}
+		delete(inputDirectory);
+		delete(outputDirectory);
+	}
+
+	private File createDirectory(String name) throws IOException {
+		File dir = File.createTempFile("directoryListenerTest" + name, "");
+		dir.delete();
+		dir.mkdirs();
+		return dir;
+	}
+
+	private void delete(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (int i = 0; i < files.length; i++) {
+				files[i].delete();
+			}
+		}
+		dir.delete();
+	}
+
+	private File createFile(String name, long lastModified) throws IOException {
+		File file = new File(inputDirectory, name);
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(name.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		file.setLastModified(lastModified);
+		return file;
+	}
+
+	private DirectoryListener createListener() {
+		DirectoryListener listener = new DirectoryListener();
+		listener.setName("DirectoryListenerTest");
+		listener.setInputDirectory(inputDirectory.getPath());
+		listener.setWildcard("*.txt");
+		listener.setEventDriven(true);
+		listener.setMinStableTime(0);
+		listener.setScanInterval(10);
+		listener.setReconcileInterval(10);
+		return listener;
+	}
+
+	private void open(DirectoryListener listener) throws Exception {
+		this.listener = listener;
+		listener.configure();
+		listener.open();
+	}
+
+	private String nextMessage(Map threadContext) throws Exception {
+		long end = System.currentTimeMillis() + TIMEOUT;
+		while (System.currentTimeMillis() < end) {
+			Object rawMessage = listener.getRawMessage(threadContext);
+			if (rawMessage != null) {
+				return listener.getStringFromRawMessage(rawMessage, threadContext);
+			}
+			Thread.sleep(10);
+		}
+		return null;
+	}
+
+	private void assertNoMessage(Map threadContext) throws Exception {
+		Thread.sleep(200);
+		assertNull(listener.getRawMessage(threadContext));
+	}
+
+	@Test
+	public void testFilesAreReceivedInModificationOrder() throws Exception {
+		long now = System.currentTimeMillis();
+		File oldest = createFile("c.txt", now - 30000);
+		File middle = createFile("a.txt", now - 20000);
+		File newest = createFile("b.txt", now - 10000);
+		createFile("ignored.xml", now - 40000);
+		open(createListener());
+		Map threadContext = new HashMap();
+		List<String> received = new ArrayList<String>();
+		for (int i = 0; i < 3; i++) {
+			received.add(nextMessage(threadContext));
+		}
+		assertEquals(Arrays.asList(oldest.getCanonicalPath(), middle.getCanonicalPath(), newest.getCanonicalPath()), received);
+		assertNoMessage(threadContext);
+	}
+
+	@Test
+	public void testQueueIsBoundedByMaxQueueSize() throws Exception {
+		long now = System.currentTimeMillis();
+		File first = createFile("first.txt", now - 30000);
+		File second = createFile("second.txt", now - 20000);
+		File third = createFile("third.txt", now - 10000);
+		DirectoryListener listener = createListener();
+		listener.setMaxQueueSize(1);
+		open(listener);
+		Map threadContext = new HashMap();
+		// each file is picked up once the previous one has left the queue
+		Set<String> received = new HashSet<String>();
+		for (int i = 0; i < 3; i++) {
+			received.add(nextMessage(threadContext));
+		}
+		assertEquals(new HashSet<String>(Arrays.asList(first.getCanonicalPath(), second.getCanonicalPath(), third.getCanonicalPath())), received);
+	}
+
+	@Test
+	public void testFileInProcessIsNotReceivedTwice() throws Exception {
+		File file = createFile("file.txt", System.currentTimeMillis() - 10000);
+		open(createListener());
+		Map threadContext = new HashMap();
+		String message = nextMessage(threadContext);
+		assertEquals(file.getCanonicalPath(), message);
+		// the file stays in the inputDirectory while it is processed
+		assertNoMessage(threadContext);
+		listener.afterMessageProcessed(null, message, threadContext);
+		// without outputDirectory, processedDirectory or delete the file is left to be received again
+		assertEquals(file.getCanonicalPath(), nextMessage(threadContext));
+	}
+
+	@Test
+	public void testFileIsClaimedByMovingToOutputDirectory() throws Exception {
+		File file = createFile("file.txt", System.currentTimeMillis() - 10000);
+		DirectoryListener listener = createListener();
+		listener.setOutputDirectory(outputDirectory.getPath());
+		open(listener);
+		Map threadContext = new HashMap();
+		String message = nextMessage(threadContext);
+		assertFalse(file.exists());
+		assertTrue(new File(message).exists());
+		assertEquals(outputDirectory.getCanonicalPath(), new File(message).getParentFile().getCanonicalPath());
+		assertNoMessage(threadContext);
+	}
+
+	@Test
+	public void testFileRemovedFromQueueIsSkipped() throws Exception {
+		long now = System.currentTimeMillis();
+		File claimed = createFile("claimed.txt", now - 20000);
+		File other = createFile("other.txt", now - 10000);
+		DirectoryListener listener = createListener();
+		listener.setReconcileInterval(60000);
+		listener.setScanInterval(60000);
+		open(listener);
+		// wait until the watcher has queued both files, then let another instance claim the first
+		Thread.sleep(200);
+		claimed.delete();
+		assertEquals(other.getCanonicalPath(), nextMessage(new HashMap()));
+	}
+
+	@Test
+	public void testFileClaimedByOtherInstanceIsSkipped() throws Exception {
+		long now = System.currentTimeMillis();
+		File claimed = createFile("claimed.txt", now - 20000);
+		createFile("other.txt", now - 10000);
+		DirectoryListener listener = createListener();
+		listener.setOutputDirectory(outputDirectory.getPath());
+		listener.setReconcileInterval(60000);
+		listener.setScanInterval(60000);
+		open(listener);
+		Thread.sleep(200);
+		// another instance renames the first file into the outputDirectory
+		assertTrue(claimed.renameTo(new File(outputDirectory, "claimed.txt")));
+		String message = nextMessage(new HashMap());
+		assertEquals(new File(outputDirectory, "other.txt").getCanonicalPath(), new File(message).getCanonicalPath());
+		assertNoMessage(new HashMap());
+	}
+
+	@Test
+	public void testUnstableFileIsNotReceived() throws Exception {
+		createFile("file.txt", System.currentTimeMillis());
+		DirectoryListener listener = createListener();
+		listener.setMinStableTime(60000);
+		open(listener);
+		assertNoMessage(new HashMap());
+	}
+
+	@Test(expected = ConfigurationException.class)
+	public void testRandomIsNotAllowed() throws Exception {
+		DirectoryListener listener = createListener();
+		listener.setWildcard(null);
+		listener.setRandom(true);
+		listener.configure();
+	}
+
+	@Test(expected = ConfigurationException.class)
+	public void testMaxQueueSizeMustBePositive() throws Exception {
+		DirectoryListener listener = createListener();
+		listener.setMaxQueueSize(0);
+		listener.configure();
+	}
+
+	@Test(expected = ListenerException.class)
+	public void testMoveFailureIsReported() throws Exception {
+		createFile("file.txt", System.currentTimeMillis() - 10000);
+		DirectoryListener listener = createListener();
+		listener.setOutputDirectory(outputDirectory.getPath());
+		open(listener);
+		// the outputDirectory disappears after configure, so the file cannot be claimed
+		delete(outputDirectory);
+		nextMessage(new HashMap());
+	}
+}
@@ -0,0 +1,124 @@
+package nl.nn.adapterframework.receivers;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import nl.nn.adapterframework.core.Adapter;
+import nl.nn.adapterframework.core.IPipe;
+import nl.nn.adapterframework.core.IPipeLineSession;
+import nl.nn.adapterframework.core.IPushingListener;
+import nl.nn.adapterframework.core.PipeLine;
+import nl.nn.adapterframework.core.PipeLineExit;
+import nl.nn.adapterframework.core.PipeLineResult;
+import nl.nn.adapterframework.core.PipeLineSessionBase;
+import nl.nn.adapterframework.processors.PipeLineProcessor;
+import nl.nn.adapterframework.util.RunStateEnum;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+
+/**
+ * Tests that session values spilled to disk by the pipeline are still available for the returnedSessionKeys of the {@link ReceiverBase}.
+ */
+public class ReceiverBaseTest {
+
+	private File dir;
+	private String largeValue;
+	private PipeLineSessionBase pipeLineSession;
+
+	@Before
+	public void setUp() throws Exception {
+		dir = File.createTempFile("receiverBaseTest", "");
+		dir.delete();
+		dir.mkdirs();
+		System.setProperty("upload.dir", dir.getPath());
+		StringBuffer sb = new StringBuffer();
+		for (int i=0; i<1000; i++) {
+			sb.append((char)('a' + i % 26));
+		}
+		largeValue = sb.toString();
+	}
+
+	@After
+	public void tearDown() {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (int i=0; i<files.length; i++) {
+				files[i].delete();
+			}
+		}
+		dir.delete();
+		System.clearProperty("upload.dir");
+	}
+
+	private PipeLine createPipeLine(Adapter adapter) throws Exception {
+		PipeLine pipeLine = new PipeLine();
+		pipeLine.setOwner(adapter);
+		IPipe pipe = mock(IPipe.class);
+		when(pipe.getName()).thenReturn("pipe");
+		pipeLine.addPipe(pipe);
+		pipeLine.setFirstPipe("pipe");
+		PipeLineExit exit = new PipeLineExit();
+		exit.setPath("EXIT");
+		exit.setState("success");
+		pipeLine.registerPipeLineExit(exit);
+		pipeLine.setSessionValueSpillThreshold("100");
+		pipeLine.setPipeLineProcessor(new PipeLineProcessor() {
+			public PipeLineResult processPipeLine(PipeLine pipeLine, String messageId, String message, IPipeLineSession session, String firstPipe) {
+				pipeLineSession = (PipeLineSessionBase)session;
+				session.put("large", largeValue);
+				PipeLineResult result = new PipeLineResult();
+				result.setResult("<ok/>");
+				result.setState("success");
+				return result;
+			}
+		});
+		pipeLine.configure();
+		return pipeLine;
+	}
+
+	@Test
+	public void testReturnedSessionKeysContainSpilledValues() throws Exception {
+		Adapter adapter = mock(Adapter.class);
+		when(adapter.getName()).thenReturn("adapter");
+		final PipeLine pipeLine = createPipeLine(adapter);
+		when(adapter.getPipeLine()).thenReturn(pipeLine);
+		when(adapter.processMessageWithExceptions(anyString(), anyString(), any(IPipeLineSession.class))).thenAnswer(new Answer<PipeLineResult>() {
+			public PipeLineResult answer(InvocationOnMock invocation) throws Throwable {
+				Object[] args = invocation.getArguments();
+				return pipeLine.process((String)args[0], (String)args[1], (IPipeLineSession)args[2]);
+			}
+		});
+		PlatformTransactionManager txManager = mock(PlatformTransactionManager.class);
+		when(txManager.getTransaction(any(TransactionDefinition.class))).thenReturn(mock(TransactionStatus.class));
+
+		ReceiverBase receiver = new ReceiverBase();
+		receiver.setName("receiver");
+		receiver.setAdapter(adapter);
+		receiver.setTxManager(txManager);
+		receiver.setReturnedSessionKeys("large");
+		receiver.setRunState(RunStateEnum.STARTED);
+
+		Map context = new HashMap();
+		String result = receiver.processRequest(mock(IPushingListener.class), "cid", "<request/>", context);
+
+		assertEquals("<ok/>", result);
+		assertEquals(largeValue, context.get("large"));
+		assertEquals(null, pipeLineSession.getSpilledValue("large"));
+		assertEquals(0, dir.listFiles().length);
+		assertEquals(0, pipeLine.getSessionValueSpillStore().getBytesInUse());
+	}
+}
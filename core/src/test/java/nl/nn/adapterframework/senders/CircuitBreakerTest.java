@@ -0,0 +1,99 @@
+package nl.nn.adapterframework.senders;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests the state transitions of the {@link CircuitBreaker}.
+ */
+public class CircuitBreakerTest {
+
+	private void call(CircuitBreaker breaker, boolean failed, long duration) {
+		long permit = breaker.tryAcquire();
+		assertTrue(permit!=CircuitBreaker.REJECTED);
+		breaker.onResult(permit, failed, duration);
+	}
+
+	@Test
+	public void testOpensOnFailureRate() {
+		CircuitBreaker breaker = new CircuitBreaker("test", 4, 50, 0, 100, 60000, 1);
+		call(breaker, true, 0);
+		call(breaker, true, 0);
+		call(breaker, false, 0);
+		assertEquals(CircuitBreaker.CLOSED, breaker.getState());
+		call(breaker, false, 0);
+		assertEquals(CircuitBreaker.OPEN, breaker.getState());
+		assertEquals(CircuitBreaker.REJECTED, breaker.tryAcquire());
+		assertEquals(CircuitBreaker.REJECTED, breaker.tryAcquire());
+		assertEquals(2, breaker.getRejectedCalls());
+	}
+
+	@Test
+	public void testStaysClosedBelowFailureRate() {
+		CircuitBreaker breaker = new CircuitBreaker("test", 4, 50, 0, 100, 60000, 1);
+		for (int i=0; i<20; i++) {
+			call(breaker, i%4==0, 0);
+		}
+		assertEquals(CircuitBreaker.CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void testOpensOnSlowCallRate() {
+		CircuitBreaker breaker = new CircuitBreaker("test", 3, 0, 100, 60, 60000, 1);
+		call(breaker, false, 50);
+		call(breaker, false, 150);
+		call(breaker, false, 50);
+		assertEquals(CircuitBreaker.CLOSED, breaker.getState());
+		call(breaker, false, 150);
+		assertEquals(CircuitBreaker.OPEN, breaker.getState());
+	}
+
+	@Test
+	public void testHalfOpenClosesAfterSuccessfulTrialCalls() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker("test", 2, 100, 0, 100, 50, 2);
+		call(breaker, true, 0);
+		call(breaker, true, 0);
+		assertTrue(breaker.isOpen());
+		Thread.sleep(100);
+		long permit1 = breaker.tryAcquire();
+		assertTrue(permit1!=CircuitBreaker.REJECTED);
+		assertEquals(CircuitBreaker.HALF_OPEN, breaker.getState());
+		long permit2 = breaker.tryAcquire();
+		assertTrue(permit2!=CircuitBreaker.REJECTED);
+		assertEquals(CircuitBreaker.REJECTED, breaker.tryAcquire());
+		breaker.onResult(permit1, false, 0);
+		breaker.onResult(permit2, false, 0);
+		assertEquals(CircuitBreaker.CLOSED, breaker.getState());
+		assertEquals(1, breaker.getOpened());
+	}
+
+	@Test
+	public void testHalfOpenReopensOnFailedTrialCall() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker("test", 2, 100, 0, 100, 50, 1);
+		call(breaker, true, 0);
+		call(breaker, true, 0);
+		Thread.sleep(100);
+		call(breaker, true, 0);
+		assertTrue(breaker.isOpen());
+		assertEquals(CircuitBreaker.REJECTED, breaker.tryAcquire());
+		assertEquals(2, breaker.getOpened());
+	}
+
+	@Test
+	public void testHalfOpenIgnoresLateResultsOfCallsPermittedWhileClosed() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker("test", 2, 100, 0, 100, 50, 1);
+		long latePermit = breaker.tryAcquire();
+		call(breaker, true, 0);
+		call(breaker, true, 0);
+		assertTrue(breaker.isOpen());
+		Thread.sleep(100);
+		long trialPermit = breaker.tryAcquire();
+		assertEquals(CircuitBreaker.HALF_OPEN, breaker.getState());
+		breaker.onResult(latePermit, false, 0);
+		assertEquals(CircuitBreaker.HALF_OPEN, breaker.getState());
+		breaker.onResult(trialPermit, true, 0);
+		assertTrue(breaker.isOpen());
+	}
+}
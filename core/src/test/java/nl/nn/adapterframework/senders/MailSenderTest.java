@@ -0,0 +1,187 @@
+package nl.nn.adapterframework.senders;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import nl.nn.adapterframework.core.PipeLineSessionBase;
+import nl.nn.adapterframework.core.SenderException;
+import nl.nn.adapterframework.parameters.ParameterResolutionContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests connection reuse of the {@link MailSender}, using a minimal local SMTP stand-in.
+ */
+public class MailSenderTest {
+
+	private static final String INVALID_EMAIL="<email><from>from@example.com</from><subject>test</subject><message>no recipients</message></email>";
+	private static final String EMAIL="<email><recipients><recipient>to@example.com</recipient></recipients><from>from@example.com</from><subject>test</subject><message>hello</message></email>";
+
+	private SmtpStandIn smtp;
+	private MailSender sender;
+
+	@Before
+	public void setUp() throws Exception {
+		smtp = new SmtpStandIn();
+		smtp.start();
+		sender = new MailSender();
+		sender.setName("testMailSender");
+		sender.setSmtpHost("localhost");
+		sender.setSmtpPort(smtp.getPort());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		sender.close();
+		smtp.shutdown();
+	}
+
+	private void send(int count) throws Exception {
+		sender.configure();
+		sender.open();
+		for (int i=0; i<count; i++) {
+			sender.sendMessage("cid"+i, EMAIL);
+		}
+		sender.close();
+	}
+
+	@Test
+	public void testConnectionPerMessage() throws Exception {
+		send(5);
+		assertEquals(5, smtp.getMessageCount());
+		assertEquals(5, smtp.getConnectionCount());
+	}
+
+	@Test
+	public void testKeepAlive() throws Exception {
+		sender.setKeepAlive(true);
+		send(5);
+		assertEquals(5, smtp.getMessageCount());
+		assertEquals(1, smtp.getConnectionCount());
+	}
+
+	@Test
+	public void testKeepAliveMaxMessagesPerConnection() throws Exception {
+		sender.setKeepAlive(true);
+		sender.setMaxMessagesPerConnection(2);
+		send(5);
+		assertEquals(5, smtp.getMessageCount());
+		assertEquals(3, smtp.getConnectionCount());
+	}
+
+	@Test
+	public void testBatch() throws Exception {
+		sender.configure();
+		sender.open();
+		sender.sendMessage("cid", "<block>"+EMAIL+EMAIL+EMAIL+"</block>");
+		sender.close();
+		assertEquals(3, smtp.getMessageCount());
+		assertEquals(1, smtp.getConnectionCount());
+	}
+
+	@Test
+	public void testBatchRetrySendsOnlyUnsentMails() throws Exception {
+		sender.setKeepAlive(true);
+		sender.configure();
+		sender.open();
+		String batch = "<block>"+EMAIL+EMAIL+INVALID_EMAIL+EMAIL+"</block>";
+		ParameterResolutionContext prc = new ParameterResolutionContext(batch, new PipeLineSessionBase());
+		for (int i=0; i<2; i++) {
+			try {
+				sender.sendMessage("cid", batch, prc);
+				fail("expected SenderException");
+			} catch (SenderException e) {
+				// the third mail has no recipients
+			}
+		}
+		sender.close();
+		assertEquals(2, smtp.getMessageCount());
+		// the connection is kept open when a mail cannot be created
+		assertEquals(1, smtp.getConnectionCount());
+	}
+
+	/**
+	 * Accepts SMTP connections and accepts every message, counting connections and messages.
+	 */
+	private class SmtpStandIn extends Thread {
+		private ServerSocket serverSocket;
+		private int connectionCount=0;
+		private int messageCount=0;
+
+		SmtpStandIn() throws IOException {
+			serverSocket = new ServerSocket(0);
+			setDaemon(true);
+		}
+
+		public int getPort() {
+			return serverSocket.getLocalPort();
+		}
+		public synchronized int getConnectionCount() {
+			return connectionCount;
+		}
+		public synchronized int getMessageCount() {
+			return messageCount;
+		}
+
+		public void shutdown() throws IOException {
+			serverSocket.close();
+		}
+
+		public void run() {
+			try {
+				while (true) {
+					Socket socket = serverSocket.accept();
+					synchronized (this) {
+						connectionCount++;
+					}
+					handle(socket);
+				}
+			} catch (IOException e) {
+				// server socket closed
+			}
+		}
+
+		private void handle(Socket socket) throws IOException {
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),"US-ASCII"));
+			OutputStream out = socket.getOutputStream();
+			reply(out,"220 localhost SMTP stand-in");
+			try {
+				String line;
+				while ((line=in.readLine())!=null) {
+					String command=line.length()>4?line.substring(0,4).toUpperCase():line.toUpperCase();
+					if (command.equals("DATA")) {
+						reply(out,"354 end data with <CR><LF>.<CR><LF>");
+						while ((line=in.readLine())!=null && !line.equals(".")) {
+							// skip message content
+						}
+						synchronized (this) {
+							messageCount++;
+						}
+						reply(out,"250 OK");
+					} else if (command.equals("QUIT")) {
+						reply(out,"221 bye");
+						break;
+					} else {
+						reply(out,"250 OK");
+					}
+				}
+			} finally {
+				socket.close();
+			}
+		}
+
+		private void reply(OutputStream out, String line) throws IOException {
+			out.write((line+"\r\n").getBytes("US-ASCII"));
+			out.flush();
+		}
+	}
+}
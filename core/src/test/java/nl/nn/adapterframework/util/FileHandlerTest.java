@@ -0,0 +1,126 @@
+package nl.nn.adapterframework.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import nl.nn.adapterframework.core.PipeLineSessionBase;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the streaming, memory mapped and copy/move modes of the {@link FileHandler}.
+ */
+public class FileHandlerTest {
+
+	private File dir;
+	private File source;
+	private byte[] contents;
+
+	@Before
+	public void setUp() throws Exception {
+		dir = File.createTempFile("fileHandlerTest", "");
+		dir.delete();
+		dir.mkdirs();
+		contents = new byte[300000];
+		for (int i=0; i<contents.length; i++) {
+			contents[i] = (byte)(i % 251);
+		}
+		source = new File(dir, "source.bin");
+		write(source, contents);
+	}
+
+	@After
+	public void tearDown() {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (int i=0; i<files.length; i++) {
+				files[i].delete();
+			}
+		}
+		dir.delete();
+	}
+
+	private void write(File file, byte[] data) throws IOException {
+		FileOutputStream fos = new FileOutputStream(file);
+		try {
+			fos.write(data);
+		} finally {
+			fos.close();
+		}
+	}
+
+	private FileHandler createHandler(String actions, boolean streaming, boolean memoryMapped) {
+		FileHandler handler = new FileHandler();
+		handler.setActions(actions);
+		handler.setDirectory(dir.getPath());
+		handler.setStreaming(streaming);
+		handler.setMemoryMapped(memoryMapped);
+		handler.setOutputType("bytes");
+		return handler;
+	}
+
+	private byte[] readFile(String actions, boolean streaming, boolean memoryMapped) throws Exception {
+		FileHandler handler = createHandler(actions, streaming, memoryMapped);
+		handler.configure();
+		return (byte[])handler.handle(source.getName(), new PipeLineSessionBase());
+	}
+
+	@Test
+	public void testRead() throws Exception {
+		assertTrue(Arrays.equals(contents, readFile("read", false, false)));
+		assertTrue(Arrays.equals(contents, readFile("read", false, true)));
+		assertTrue(Arrays.equals(contents, readFile("read", true, true)));
+	}
+
+	@Test
+	public void testStreamingEncode() throws Exception {
+		byte[] expected = Base64.encodeBase64(contents);
+		assertTrue(Arrays.equals(expected, readFile("read,encode", false, false)));
+		assertTrue(Arrays.equals(expected, readFile("read,encode", true, false)));
+		assertTrue(Arrays.equals(expected, readFile("read,encode", true, true)));
+	}
+
+	@Test
+	public void testStreamingReadWrite() throws Exception {
+		FileHandler handler = createHandler("read,encode,decode,write", true, false);
+		handler.setOutputType("string");
+		handler.configure();
+		PipeLineSessionBase session = new PipeLineSessionBase();
+		String target = (String)handler.handle(source.getName(), session);
+		FileHandler reader = createHandler("read", false, false);
+		reader.setDirectory(null);
+		reader.configure();
+		assertTrue(Arrays.equals(contents, (byte[])reader.handle(target, session)));
+	}
+
+	@Test
+	public void testCopyAndMove() throws Exception {
+		File destination = new File(dir, "destination");
+		FileHandler handler = createHandler("copy", false, false);
+		handler.setDestinationDirectory(destination.getPath());
+		handler.setCreateDirectory(true);
+		handler.setOutputType("string");
+		handler.configure();
+		String copy = (String)handler.handle(source.getName(), new PipeLineSessionBase());
+		assertEquals(contents.length, new File(copy).length());
+		assertTrue(source.exists());
+		new File(copy).delete();
+
+		handler.setActions("move");
+		handler.configure();
+		String moved = (String)handler.handle(source.getName(), new PipeLineSessionBase());
+		assertEquals(contents.length, new File(moved).length());
+		assertFalse(source.exists());
+		new File(moved).delete();
+		destination.delete();
+	}
+}
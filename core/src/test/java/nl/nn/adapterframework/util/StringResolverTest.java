@@ -0,0 +1,68 @@
+package nl.nn.adapterframework.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests resolving strings with {@link StringResolver}, both with and without a cached template.
+ */
+public class StringResolverTest {
+
+	private Properties properties;
+
+	@Before
+	public void setUp() {
+		properties = new Properties();
+		properties.put("test.name", "this is a name with ${test.xx}");
+		properties.put("test.xx", "again");
+		properties.put("test.password", "secret");
+	}
+
+	@Test
+	public void testRecursive() {
+		for (int i=0; i<2; i++) {
+			assertEquals("this is a name with again", StringResolver.substVars("${test.name}", properties));
+			assertEquals("[again][]", StringResolver.substVars("[${test.xx}][${test.unknown}]", properties));
+			assertEquals("no variables", StringResolver.substVars("no variables", properties));
+		}
+	}
+
+	@Test
+	public void testSecondProperties() {
+		Map<String, Object> props2 = new HashMap<String, Object>();
+		props2.put("test.xx", "overridden");
+		props2.put("test.number", new Integer(5));
+		assertEquals("again 5", StringResolver.substVars("${test.xx} ${test.number}", properties, props2));
+	}
+
+	@Test
+	public void testHide() {
+		assertEquals("****** again", StringResolver.substVars("${test.password} ${test.xx}", properties, null, Arrays.asList("test.password")));
+	}
+
+	@Test
+	public void testNoClosingBrace() {
+		try {
+			StringResolver.substVars("${test.xx} ${test.name", properties);
+			fail("expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			assertEquals("[${test.xx} ${test.name] has no closing brace. Opening brace at position [11]", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testTemplate() {
+		StringResolver.Template template = StringResolver.getTemplate("${test.xx}-${test.xx}");
+		assertEquals("again-again", template.resolve(properties, null, null));
+		properties.put("test.xx", "changed");
+		assertEquals("changed-changed", template.resolve(properties, null, null));
+	}
+}
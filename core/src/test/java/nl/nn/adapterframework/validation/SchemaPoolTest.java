@@ -0,0 +1,197 @@
+package nl.nn.adapterframework.validation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nl.nn.adapterframework.configuration.ConfigurationException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the keys under which the {@link SchemaPool} shares compiled schemas, and the sharing itself.
+ */
+public class SchemaPoolTest {
+
+	private static final String MAIN_XSD = "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\">"
+			+ "<xs:include schemaLocation=\"included.xsd\"/>"
+			+ "<xs:element name=\"root\" type=\"xs:string\"/>"
+			+ "</xs:schema>";
+
+	private SchemaPool schemaPool;
+	private File dir;
+
+	@Before
+	public void setUp() throws Exception {
+		schemaPool = new SchemaPool();
+		dir = File.createTempFile("schemaPoolTest", "");
+		dir.delete();
+		dir.mkdirs();
+	}
+
+	@After
+	public void tearDown() {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (int i=0; i<files.length; i++) {
+				files[i].delete();
+			}
+		}
+		dir.delete();
+	}
+
+	private List<Schema> schemas(final String contents, final String systemId) {
+		return Collections.<Schema>singletonList(new Schema() {
+			public InputStream getInputStream() throws IOException {
+				return new ByteArrayInputStream(contents.getBytes("UTF-8"));
+			}
+
+			public String getSystemId() {
+				return systemId;
+			}
+		});
+	}
+
+	private String write(String name, String contents) throws IOException {
+		File file = new File(dir, name);
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(contents.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		return file.toURI().toURL().toExternalForm();
+	}
+
+	private String included(String elementName) {
+		return "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\">"
+				+ "<xs:element name=\"" + elementName + "\" type=\"xs:string\"/>"
+				+ "</xs:schema>";
+	}
+
+	@Test
+	public void testSameSchemasHaveSameKey() throws Exception {
+		String key1 = schemaPool.read("id1", schemas(MAIN_XSD, "bytesclassloader:main.xsd"), "xerces").getKey();
+		String key2 = schemaPool.read("id2", schemas(MAIN_XSD, "bytesclassloader:main.xsd"), "xerces").getKey();
+		assertEquals(key1, key2);
+		assertFalse(key1.equals(schemaPool.read("id1", schemas(MAIN_XSD, "bytesclassloader:main.xsd"), "javax").getKey()));
+	}
+
+	@Test
+	public void testClassLoaderIsPartOfKey() throws Exception {
+		String key1 = schemaPool.read("id", schemas(MAIN_XSD, "bytesclassloader:main.xsd"), "xerces").getKey();
+		ClassLoader original = Thread.currentThread().getContextClassLoader();
+		ClassLoader other = new URLClassLoader(new URL[0], original);
+		Thread.currentThread().setContextClassLoader(other);
+		String key2;
+		try {
+			key2 = schemaPool.read("id", schemas(MAIN_XSD, "bytesclassloader:main.xsd"), "xerces").getKey();
+		} finally {
+			Thread.currentThread().setContextClassLoader(original);
+		}
+		assertFalse(key1.equals(key2));
+		assertEquals(schemaPool.getClassLoaderId(other), schemaPool.getClassLoaderId(other));
+		assertFalse(schemaPool.getClassLoaderId(other) == schemaPool.getClassLoaderId(original));
+	}
+
+	@Test
+	public void testIncludedSchemasArePartOfKey() throws Exception {
+		String systemId = write("main.xsd", MAIN_XSD);
+		write("included.xsd", included("first"));
+		String key1 = schemaPool.read("id", schemas(MAIN_XSD, systemId), "xerces").getKey();
+		assertEquals(key1, schemaPool.read("id", schemas(MAIN_XSD, systemId), "xerces").getKey());
+		write("included.xsd", included("second"));
+		String key2 = schemaPool.read("id", schemas(MAIN_XSD, systemId), "xerces").getKey();
+		assertFalse(key1.equals(key2));
+	}
+
+	@Test
+	public void testMissingIncludeDoesNotFailRead() throws Exception {
+		String systemId = write("main.xsd", MAIN_XSD);
+		schemaPool.read("id", schemas(MAIN_XSD, systemId), "xerces");
+	}
+
+	@Test
+	public void testCompiledSchemasAreShared() throws Exception {
+		final AtomicInteger compilations = new AtomicInteger();
+		Callable<Object> compiler = new Callable<Object>() {
+			public Object call() {
+				compilations.incrementAndGet();
+				return new Object();
+			}
+		};
+		Object first = schemaPool.await("id1", "key", schemaPool.get("key", compiler, false));
+		Object second = schemaPool.await("id2", "key", schemaPool.get("key", compiler, true));
+		assertSame(first, second);
+		assertEquals(1, compilations.get());
+	}
+
+	@Test
+	public void testFailedCompilationIsRetried() throws Exception {
+		final AtomicInteger compilations = new AtomicInteger();
+		Callable<Object> compiler = new Callable<Object>() {
+			public Object call() throws ConfigurationException {
+				if (compilations.incrementAndGet() == 1) {
+					throw new ConfigurationException("invalid schema");
+				}
+				return new Object();
+			}
+		};
+		Future<Object> future = schemaPool.get("key", compiler, false);
+		try {
+			schemaPool.await("id", "key", future);
+			fail("expected ConfigurationException");
+		} catch (ConfigurationException e) {
+			assertEquals(1, compilations.get());
+		}
+		schemaPool.await("id", "key", schemaPool.get("key", compiler, false));
+		assertEquals(2, compilations.get());
+	}
+
+	@Test
+	public void testReadWithoutKey() throws Exception {
+		SchemaPool.SchemaContents contents = schemaPool.read("id", schemas(MAIN_XSD, "bytesclassloader:main.xsd"));
+		assertNull(contents.getKey());
+		assertEquals(1, contents.size());
+		assertEquals("bytesclassloader:main.xsd", contents.getSystemId(0));
+	}
+
+	@Test
+	public void testLeastRecentlyUsedSchemasAreRemoved() throws Exception {
+		final AtomicInteger compilations = new AtomicInteger();
+		Callable<Object> compiler = new Callable<Object>() {
+			public Object call() {
+				compilations.incrementAndGet();
+				return new Object();
+			}
+		};
+		schemaPool.setMaxSize(2);
+		schemaPool.get("key1", compiler, false);
+		schemaPool.get("key2", compiler, false);
+		schemaPool.get("key1", compiler, false);
+		schemaPool.get("key3", compiler, false);
+		assertEquals(2, schemaPool.size());
+		assertEquals(3, compilations.get());
+		schemaPool.get("key1", compiler, false);
+		assertEquals(3, compilations.get());
+		schemaPool.get("key2", compiler, false);
+		assertEquals(4, compilations.get());
+	}
+}
@@ -0,0 +1,7 @@
+<?xml version="1.0" encoding="UTF-8"?>
+<xsl:stylesheet version="1.0" xmlns:xsl="http://www.w3.org/1999/XSL/Transform" xmlns:t="urn:transform">
+	<xsl:output method="text"/>
+	<xsl:template match="/">
+		<xsl:value-of select="concat(t:document/t:name, '|', t:document/t:amount, '|', t:document/@status)"/>
+	</xsl:template>
+</xsl:stylesheet>
@@ -1,5 +1,5 @@
 /*
-   Copyright 2013 Nationale-Nederlanden
+   Copyright 2013, 2016 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -462,6 +462,16 @@ public class IfsaFacade implements INamedObject, HasPhysicalDestination {
      * @return the correlationID of the sent message
      */
     public TextMessage sendMessage(QueueSession session, QueueSender sender, String message, Map udzMap, String bifName, byte btcData[])
+        throws IfsaException {
+    	return sendMessage(session, sender, message, udzMap, bifName, btcData, null);
+    }
+
+    /**
+     * Sends a message like {@link #sendMessage(QueueSession, QueueSender, String, Map, String, byte[])}, using
+     * <code>replyQueue</code> as reply-to address for Request/Reply messages. When <code>replyQueue</code> is null
+     * a reply queue is obtained from the messaging source.
+     */
+    public TextMessage sendMessage(QueueSession session, QueueSender sender, String message, Map udzMap, String bifName, byte btcData[], Queue replyQueue)
         throws IfsaException {
 
 	    try {
@@ -481,7 +491,7 @@ public class IfsaFacade implements INamedObject, HasPhysicalDestination {
 	        //Client side
 	        if (messageProtocol.equals(IfsaMessageProtocolEnum.REQUEST_REPLY)) {
 	            // set reply-to address
-	            Queue replyTo=getMessagingSource().getClientReplyQueue(session);
+	            Queue replyTo=replyQueue!=null?replyQueue:getMessagingSource().getClientReplyQueue(session);
 	            msg.setJMSReplyTo(replyTo);
 	            replyToQueueName=replyTo.getQueueName();
 	        }
@@ -1,5 +1,5 @@
 /*
-   Copyright 2013 Nationale-Nederlanden
+   Copyright 2013, 2016 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -20,6 +20,7 @@ import java.util.Map;
 
 import javax.jms.JMSException;
 import javax.jms.Message;
+import javax.jms.Queue;
 import javax.jms.QueueReceiver;
 import javax.jms.QueueSender;
 import javax.jms.QueueSession;
@@ -71,6 +72,8 @@ import com.ing.ifsa.IFSATimeOutMessage;
  * <tr><td>{@link #setTimeOut(long) timeOut}</td><td>receiver timeout, in milliseconds. To use the timeout defined as IFSA expiry, set this value to -1</td><td>20000 (20s)</td></tr>
  * <tr><td>{@link #setThrowExceptions(boolean) throwExceptions}</td><td>when <code>true</code>, IFSA reports and response messages consisting of a &lt;exception&gt;-element are converted into an exception</td><td><code>true</code></td></tr>
  * <tr><td>{@link #setBifNameSessionKey(String) bifNameSessionKey}</td><td>The session key that contains the BIF name to use</td><td>&nbsp;</td></tr>
+ * <tr><td>{@link #setMaxIdleSessions(int) maxIdleSessions}</td><td>only for RR: the maximum number of idle sessions, with their senders and reply receivers, kept open for subsequent requests. When set to 0, a session is created and closed for every request</td><td>5</td></tr>
+ * <tr><td>{@link #setSessionIdleTimeout(long) sessionIdleTimeout}</td><td>only for RR: time (in milliseconds) after which an idle session is closed</td><td>60000</td></tr>
  * </table>
  * <table border="1">
  * <p><b>Parameters:</b>
@@ -90,6 +93,10 @@ public class IfsaRequesterSender extends IfsaFacade implements ISenderWithParame
 	
 	protected ParameterList paramList = null;
 	private StatisticsKeeper businessProcessTimes;
+	private int maxIdleSessions=5;
+	private long sessionIdleTimeout=60000;
+
+	private IfsaSessionPool sessionPool;
 
 	public IfsaRequesterSender() {
   		super(false); // instantiate IfsaFacade as a requestor	
@@ -109,6 +116,9 @@ public class IfsaRequesterSender extends IfsaFacade implements ISenderWithParame
   	public void open() throws SenderException {
 	  	try {
 		 	openService();
+		 	if (isSynchronous() && getMaxIdleSessions()>0) {
+		 		sessionPool = new IfsaSessionPool("IfsaRequesterSender ["+getName()+"]", createSessionFactory(), getMaxIdleSessions(), getSessionIdleTimeout());
+		 	}
 		} catch (IfsaException e) {
 			throw new SenderException(getLogPrefix()+"could not start Sender", e);
 	  	}
@@ -118,12 +128,45 @@ public class IfsaRequesterSender extends IfsaFacade implements ISenderWithParame
 	 */
 	public void close() throws SenderException {
 	    try {
+	    	if (sessionPool!=null) {
+	    		sessionPool.close();
+	    		sessionPool=null;
+	    	}
 	        closeService();
 	    } catch (Throwable e) {
 	        throw new SenderException(getLogPrefix() + "got error occured stopping sender", e);
 	    }
 	}
 
+	/**
+	 * Creates the sessions of the {@link IfsaSessionPool} with the acknowledge mode of this sender, and obtains
+	 * their reply queues from the messaging source.
+	 */
+	private class PoolSessionFactory implements IfsaSessionPool.SessionFactory {
+		public QueueSession createSession() throws IfsaException {
+			return IfsaRequesterSender.this.createSession();
+		}
+		public void releaseSession(QueueSession session) {
+			closeSession(session);
+		}
+		public Queue getReplyQueue(QueueSession session) throws IfsaException {
+			return getMessagingSource().getClientReplyQueue(session);
+		}
+		public void releaseReplyQueue(Queue replyQueue) throws IfsaException {
+			getMessagingSource().releaseClientReplyQueue(replyQueue);
+		}
+		public boolean isReplyQueuePerSession() throws IfsaException {
+			return getMessagingSource().canUseIfsaModeSessions();
+		}
+		public QueueReceiver createReplyReceiver(QueueSession session, Message sentMessage) throws IfsaException {
+			return getReplyReceiver(session, sentMessage);
+		}
+	}
+
+	IfsaSessionPool.SessionFactory createSessionFactory() {
+		return new PoolSessionFactory();
+	}
+
 	/**
 	 * returns true for Request/Reply configurations
 	 */
@@ -134,18 +177,26 @@ public class IfsaRequesterSender extends IfsaFacade implements ISenderWithParame
 	/**
 	 * Retrieves a message with the specified correlationId from queue or other channel, but does no processing on it.
 	 */
-	private Message getRawReplyMessage(QueueSession session, IFSAQueue queue, TextMessage sentMessage) throws SenderException, TimeOutException {
+	private Message getRawReplyMessage(QueueSession session, IfsaSessionPool.PooledSession pooledSession, IFSAQueue queue, TextMessage sentMessage) throws SenderException, TimeOutException {
 	
 		String selector=null;
 	    Message msg = null;
 		QueueReceiver replyReceiver=null;
 		try {
-		    replyReceiver = getReplyReceiver(session, sentMessage);
+			if (pooledSession!=null) {
+				replyReceiver = pooledSession.getReplyReceiver(sentMessage);
+			} else {
+			    replyReceiver = getReplyReceiver(session, sentMessage);
+			}
 			selector=replyReceiver.getMessageSelector();
 			
 			long timeout = getExpiry(queue);
 			log.debug(getLogPrefix()+"start waiting at most ["+timeout+"] ms for reply on message using selector ["+selector+"]");
-		    msg = replyReceiver.receive(timeout);
+			if (pooledSession!=null && StringUtils.isEmpty(selector)) {
+				msg = receiveCorrelatedReply(replyReceiver, sentMessage.getJMSMessageID(), timeout);
+			} else {
+			    msg = replyReceiver.receive(timeout);
+			}
 			if (msg==null) {	
 				log.info(getLogPrefix()+"received null reply");
 			} else {
@@ -155,11 +206,15 @@ public class IfsaRequesterSender extends IfsaFacade implements ISenderWithParame
 	    } catch (Exception e) {
 	        throw new SenderException(getLogPrefix()+"got exception retrieving reply", e);
 	    } finally {
-			try {
-				closeReplyReceiver(replyReceiver);
-			} catch (IfsaException e) {
-				log.error(getLogPrefix()+"error closing replyreceiver", e);
-	        } 
+	    	if (pooledSession!=null) {
+	    		pooledSession.releaseReplyReceiver(replyReceiver);
+	    	} else {
+				try {
+					closeReplyReceiver(replyReceiver);
+				} catch (IfsaException e) {
+					log.error(getLogPrefix()+"error closing replyreceiver", e);
+		        }
+	    	}
 		}
 	    if (msg == null) {
 	        throw new TimeOutException(getLogPrefix()+" timed out waiting for reply using selector ["+selector+"]");
@@ -176,6 +231,25 @@ public class IfsaRequesterSender extends IfsaFacade implements ISenderWithParame
 //		}
 	}
 
+	/**
+	 * Receives the reply on a reply queue that is kept with a pooled session, skipping replies to earlier
+	 * messages that might have arrived after their requester stopped waiting.
+	 */
+	private Message receiveCorrelatedReply(QueueReceiver replyReceiver, String correlationId, long timeout) throws JMSException {
+		long deadline = System.currentTimeMillis()+timeout;
+		while (true) {
+			Message msg = replyReceiver.receive(timeout);
+			if (msg==null || correlationId==null || correlationId.equals(msg.getJMSCorrelationID())) {
+				return msg;
+			}
+			log.warn(getLogPrefix()+"discarding reply with correlationId ["+msg.getJMSCorrelationID()+"], waiting for reply with correlationId ["+correlationId+"]");
+			timeout = deadline-System.currentTimeMillis();
+			if (timeout<=0) {
+				return null;
+			}
+		}
+	}
+
 	public String sendMessage(String message) throws SenderException, TimeOutException {
 		return sendMessage(null, message, (Map)null);
 	}
@@ -235,11 +309,11 @@ public class IfsaRequesterSender extends IfsaFacade implements ISenderWithParame
 		QueueSession session = null;
 		QueueSender sender = null;
 		Map udzMap = null;
-		    
+		IfsaSessionPool pool = isSynchronous() ? sessionPool : null;
+		IfsaSessionPool.PooledSession pooledSession = null;
+		boolean sessionReusable = false;
 		
 		try {
-			log.debug(getLogPrefix()+"creating session and sender");
-			session = createSession();
 			IFSAQueue queue;
 			if (params != null && params.size() > 0) {
 				// Use first param as serviceId
@@ -268,17 +342,29 @@ public class IfsaRequesterSender extends IfsaFacade implements ISenderWithParame
 			} else {
 				queue = getServiceQueue();
 			}
-			sender = createSender(session, queue);
+			Queue replyQueue = null;
+			if (pool!=null) {
+				log.debug(getLogPrefix()+"obtaining pooled session and sender");
+				pooledSession = pool.borrow();
+				session = pooledSession.getSession();
+				sender = pooledSession.getSender(queue);
+				replyQueue = pooledSession.getReplyQueue();
+			} else {
+				log.debug(getLogPrefix()+"creating session and sender");
+				session = createSession();
+				sender = createSender(session, queue);
+			}
 
 			log.debug(getLogPrefix()+"sending message with bifName [" + bifName + "]");
 
-		    TextMessage sentMessage=sendMessage(session, sender, message, udzMap, bifName, btcData);
+		    TextMessage sentMessage=sendMessage(session, sender, message, udzMap, bifName, btcData, replyQueue);
 			log.debug(getLogPrefix()+"message sent");
 
 			if (isSynchronous()){
 		
 				log.debug(getLogPrefix()+"waiting for reply");
-				Message msg=getRawReplyMessage(session, queue, sentMessage);
+				Message msg=getRawReplyMessage(session, pooledSession, queue, sentMessage);
+				sessionReusable = true;
 				try {
 					long tsReplyReceived = System.currentTimeMillis();
 					long tsRequestSent = sentMessage.getJMSTimestamp();
@@ -353,15 +439,24 @@ public class IfsaRequesterSender extends IfsaFacade implements ISenderWithParame
 		} catch (IfsaException e) {
 			throw new SenderException(getLogPrefix()+"caught IfsaException in sendMessage()",e);
 		} finally {
-			if (sender != null) {
-				try {
-					log.debug(getLogPrefix()+"closing sender");
-					sender.close();
-				} catch (JMSException e) {
-					log.debug(getLogPrefix()+"Exception closing sender", e);
+			if (pool!=null) {
+				if (sessionReusable) {
+					pool.release(pooledSession);
+				} else {
+					// the session might be broken, or a late reply might arrive on its reply queue
+					pool.invalidate(pooledSession);
 				}
+			} else {
+				if (sender != null) {
+					try {
+						log.debug(getLogPrefix()+"closing sender");
+						sender.close();
+					} catch (JMSException e) {
+						log.debug(getLogPrefix()+"Exception closing sender", e);
+					}
+				}
+				closeSession(session);
 			}
-			closeSession(session);
 		}
 		if (isThrowExceptions() && result!=null && result.startsWith("<exception>")) {
 			throw new SenderException("Retrieved exception message from IFSA bus: "+result);
@@ -374,6 +469,10 @@ public class IfsaRequesterSender extends IfsaFacade implements ISenderWithParame
 			hski.handleStatisticsKeeper(data,businessProcessTimes);
 			businessProcessTimes.performAction(action);
 		}
+		IfsaSessionPool pool=sessionPool;
+		if (pool!=null) {
+			pool.iterateOverStatistics(hski, data, action);
+		}
 	}
 	
 
@@ -407,4 +506,18 @@ public class IfsaRequesterSender extends IfsaFacade implements ISenderWithParame
 	public String getBifNameSessionKey() {
 		return bifNameSessionKey;
 	}
+
+	public void setMaxIdleSessions(int i) {
+		maxIdleSessions = i;
+	}
+	public int getMaxIdleSessions() {
+		return maxIdleSessions;
+	}
+
+	public void setSessionIdleTimeout(long l) {
+		sessionIdleTimeout = l;
+	}
+	public long getSessionIdleTimeout() {
+		return sessionIdleTimeout;
+	}
 }
@@ -0,0 +1,333 @@
+/*
+   Copyright 2016 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.extensions.ifsa.jms;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Queue;
+import javax.jms.QueueReceiver;
+import javax.jms.QueueSender;
+import javax.jms.QueueSession;
+
+import nl.nn.adapterframework.core.SenderException;
+import nl.nn.adapterframework.extensions.ifsa.IfsaException;
+import nl.nn.adapterframework.statistics.HasStatistics;
+import nl.nn.adapterframework.statistics.StatisticsKeeper;
+import nl.nn.adapterframework.statistics.StatisticsKeeperIterationHandler;
+import nl.nn.adapterframework.util.CounterStatistic;
+import nl.nn.adapterframework.util.LogUtil;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Pool of non-transacted IFSA sessions, used by the {@link IfsaRequesterSender} to avoid creating and closing a
+ * session, a sender and a reply receiver for every Request/Reply message.
+ * <p>
+ * Each pooled session keeps its senders (per service queue) and its reply queue. When the reply queue is
+ * a temporary queue dedicated to the session, also the receiver on it is kept; otherwise a receiver with a
+ * selector on the correlationId is created for each message, as before.
+ * Sessions, senders and reply queues are created by a {@link SessionFactory}, so the pool only depends on
+ * the JMS api and can be tested with any JMS provider standing in for IFSA.
+ * <p>
+ * An idle session that can no longer be used, for instance because its connection was broken, is closed
+ * when it is borrowed and replaced by a new session. A session that has encountered an error, or that has
+ * timed out waiting for a reply (a late reply could otherwise be taken for the reply of a next request), must
+ * be handed back by {@link #invalidate(PooledSession)}. A session is closed when it has been idle for longer
+ * than <code>idleTimeout</code> milliseconds, or when more than <code>maxIdle</code> sessions would be kept open.
+ * <p>
+ * Transacted sessions, as used for Fire &amp; Forget, must not be pooled: they can be enlisted in a
+ * transaction and are therefore still created and closed for every message.
+ * 
+ * @since   7.0
+ */
+public class IfsaSessionPool implements HasStatistics {
+	protected Logger log = LogUtil.getLogger(this);
+
+	private final static int MAX_SENDERS_PER_SESSION=10;
+
+	public interface SessionFactory {
+		QueueSession createSession() throws IfsaException;
+		void releaseSession(QueueSession session);
+		/**
+		 * Returns the queue on which replies for messages sent from the session are received.
+		 */
+		Queue getReplyQueue(QueueSession session) throws IfsaException;
+		void releaseReplyQueue(Queue replyQueue) throws IfsaException;
+		/**
+		 * Returns true when the reply queue is dedicated to a single session, so that
+		 * a receiver on it does not need a selector and can be kept with the session.
+		 */
+		boolean isReplyQueuePerSession() throws IfsaException;
+		QueueReceiver createReplyReceiver(QueueSession session, Message sentMessage) throws IfsaException;
+	}
+
+	private String name;
+	private SessionFactory sessionFactory;
+	private int maxIdle;
+	private long idleTimeout;
+
+	private LinkedList<PooledSession> idleSessions = new LinkedList<PooledSession>();
+	private boolean closed=false;
+
+	private StatisticsKeeper createStatistics;
+	private CounterStatistic sessionsCreated = new CounterStatistic(0);
+	private CounterStatistic sessionsReused = new CounterStatistic(0);
+	private CounterStatistic sessionsInvalidated = new CounterStatistic(0);
+
+	public class PooledSession {
+		private QueueSession session;
+		private Map<String,QueueSender> senders;
+		private Queue replyQueue;
+		private QueueReceiver replyReceiver;
+		private long lastUsed;
+
+		PooledSession(QueueSession session) {
+			this.session=session;
+			lastUsed=System.currentTimeMillis();
+			senders=new LinkedHashMap<String,QueueSender>(16, 0.75f, true) {
+				protected boolean removeEldestEntry(Map.Entry<String,QueueSender> eldest) {
+					if (size()>MAX_SENDERS_PER_SESSION) {
+						closeSender(eldest.getValue());
+						return true;
+					}
+					return false;
+				}
+			};
+		}
+
+		public QueueSession getSession() {
+			return session;
+		}
+
+		/**
+		 * Returns a sender for the queue, that is kept with the session for subsequent messages to the same queue.
+		 */
+		public QueueSender getSender(Queue queue) throws JMSException {
+			String queueName=queue.getQueueName();
+			QueueSender sender=senders.get(queueName);
+			if (sender==null) {
+				sender=session.createSender(queue);
+				senders.put(queueName, sender);
+			}
+			return sender;
+		}
+
+		public Queue getReplyQueue() throws IfsaException {
+			if (replyQueue==null) {
+				replyQueue=sessionFactory.getReplyQueue(session);
+			}
+			return replyQueue;
+		}
+
+		/**
+		 * Returns a receiver for the reply to the sentMessage. Must be handed back by {@link #releaseReplyReceiver(QueueReceiver)}.
+		 */
+		public QueueReceiver getReplyReceiver(Message sentMessage) throws IfsaException {
+			if (!sessionFactory.isReplyQueuePerSession()) {
+				return sessionFactory.createReplyReceiver(session, sentMessage);
+			}
+			if (replyReceiver==null) {
+				replyReceiver=sessionFactory.createReplyReceiver(session, sentMessage);
+			}
+			return replyReceiver;
+		}
+
+		public void releaseReplyReceiver(QueueReceiver receiver) {
+			if (receiver!=null && receiver!=replyReceiver) {
+				try {
+					receiver.close();
+				} catch (JMSException e) {
+					log.warn(name+" got exception closing reply receiver", e);
+				}
+			}
+		}
+
+		boolean isExpired(long now) {
+			return idleTimeout>0 && now-lastUsed>idleTimeout;
+		}
+
+		boolean isValid() {
+			try {
+				session.getTransacted();
+				return true;
+			} catch (JMSException e) {
+				return false;
+			}
+		}
+	}
+
+	public IfsaSessionPool(String name, SessionFactory sessionFactory, int maxIdle, long idleTimeout) {
+		this.name=name;
+		this.sessionFactory=sessionFactory;
+		this.maxIdle=maxIdle;
+		this.idleTimeout=idleTimeout;
+		createStatistics = new StatisticsKeeper(name+" create session");
+	}
+
+	/**
+	 * Returns a session, either an idle one from the pool or a newly created one.
+	 * Each session obtained must be handed back by {@link #release(PooledSession)} or {@link #invalidate(PooledSession)}.
+	 */
+	public PooledSession borrow() throws IfsaException {
+		evictIdle();
+		long now=System.currentTimeMillis();
+		while (true) {
+			PooledSession candidate;
+			synchronized (this) {
+				if (idleSessions.isEmpty()) {
+					break;
+				}
+				candidate=idleSessions.removeFirst();
+			}
+			if (candidate.isExpired(now) || !candidate.isValid()) {
+				if (log.isDebugEnabled()) log.debug(name+" discarding expired or broken session");
+				sessionsInvalidated.increase();
+				closeSession(candidate);
+			} else {
+				sessionsReused.increase();
+				return candidate;
+			}
+		}
+		long start=System.currentTimeMillis();
+		QueueSession session=sessionFactory.createSession();
+		long duration=System.currentTimeMillis()-start;
+		synchronized (createStatistics) {
+			createStatistics.addValue(duration);
+		}
+		sessionsCreated.increase();
+		return new PooledSession(session);
+	}
+
+	/**
+	 * Hands a session back after successful use. Sessions that do not fit in the pool are closed.
+	 */
+	public void release(PooledSession pooledSession) {
+		if (pooledSession==null) {
+			return;
+		}
+		pooledSession.lastUsed=System.currentTimeMillis();
+		synchronized (this) {
+			if (!closed && idleSessions.size()<maxIdle) {
+				idleSessions.addFirst(pooledSession);
+				return;
+			}
+		}
+		closeSession(pooledSession);
+	}
+
+	/**
+	 * Closes a session that has encountered an error or a timeout, so it will not be reused.
+	 */
+	public void invalidate(PooledSession pooledSession) {
+		if (pooledSession!=null) {
+			sessionsInvalidated.increase();
+			closeSession(pooledSession);
+		}
+	}
+
+	/**
+	 * Closes sessions that have been idle for longer than <code>idleTimeout</code>.
+	 */
+	public void evictIdle() {
+		long now=System.currentTimeMillis();
+		LinkedList<PooledSession> expired = new LinkedList<PooledSession>();
+		synchronized (this) {
+			for (Iterator<PooledSession> it=idleSessions.iterator();it.hasNext();) {
+				PooledSession candidate=it.next();
+				if (candidate.isExpired(now)) {
+					it.remove();
+					expired.add(candidate);
+				}
+			}
+		}
+		for (PooledSession candidate:expired) {
+			closeSession(candidate);
+		}
+	}
+
+	public void close() {
+		LinkedList<PooledSession> toClose;
+		synchronized (this) {
+			closed=true;
+			toClose=idleSessions;
+			idleSessions=new LinkedList<PooledSession>();
+		}
+		for (PooledSession candidate:toClose) {
+			closeSession(candidate);
+		}
+	}
+
+	private void closeSender(QueueSender sender) {
+		try {
+			sender.close();
+		} catch (JMSException e) {
+			log.warn(name+" got exception closing sender", e);
+		}
+	}
+
+	private void closeSession(PooledSession pooledSession) {
+		for (QueueSender sender:pooledSession.senders.values()) {
+			closeSender(sender);
+		}
+		pooledSession.senders.clear();
+		if (pooledSession.replyReceiver!=null) {
+			try {
+				pooledSession.replyReceiver.close();
+			} catch (JMSException e) {
+				log.warn(name+" got exception closing reply receiver", e);
+			}
+		}
+		if (pooledSession.replyQueue!=null) {
+			try {
+				sessionFactory.releaseReplyQueue(pooledSession.replyQueue);
+			} catch (IfsaException e) {
+				log.warn(name+" got exception releasing reply queue", e);
+			}
+		}
+		sessionFactory.releaseSession(pooledSession.session);
+	}
+
+	public synchronized int getIdleCount() {
+		return idleSessions.size();
+	}
+
+	public void iterateOverStatistics(StatisticsKeeperIterationHandler hski, Object data, int action) throws SenderException {
+		hski.handleScalar(data, name+" sessionsCreated", sessionsCreated.getValue());
+		hski.handleScalar(data, name+" sessionsReused", sessionsReused.getValue());
+		hski.handleScalar(data, name+" sessionsInvalidated", sessionsInvalidated.getValue());
+		hski.handleScalar(data, name+" idleSessions", getIdleCount());
+		hski.handleStatisticsKeeper(data, createStatistics);
+		sessionsCreated.performAction(action);
+		sessionsReused.performAction(action);
+		sessionsInvalidated.performAction(action);
+		createStatistics.performAction(action);
+	}
+
+	public long getSessionsCreated() {
+		return sessionsCreated.getValue();
+	}
+	public long getSessionsReused() {
+		return sessionsReused.getValue();
+	}
+	public long getSessionsInvalidated() {
+		return sessionsInvalidated.getValue();
+	}
+}
@@ -0,0 +1,381 @@
+package nl.nn.adapterframework.extensions.ifsa.jms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.Queue;
+import javax.jms.QueueConnection;
+import javax.jms.QueueReceiver;
+import javax.jms.QueueSender;
+import javax.jms.QueueSession;
+import javax.jms.Session;
+import javax.jms.TemporaryQueue;
+import javax.jms.TextMessage;
+
+import nl.nn.adapterframework.core.TimeOutException;
+import nl.nn.adapterframework.extensions.ifsa.IfsaException;
+import nl.nn.adapterframework.extensions.ifsa.jms.IfsaSessionPool.PooledSession;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ing.ifsa.IFSAQueue;
+
+/**
+ * Tests the {@link IfsaSessionPool}, and its use by the {@link IfsaRequesterSender}, with an in-memory ActiveMQ broker standing in for IFSA.
+ */
+public class IfsaSessionPoolTest {
+
+	private QueueConnection connection;
+	private QueueSession responderSession;
+	private Queue serviceQueue;
+	private Queue sharedReplyQueue;
+
+	private class JmsSessionFactory implements IfsaSessionPool.SessionFactory {
+		private boolean replyQueuePerSession;
+		private int sessionsReleased = 0;
+		private List<Queue> replyQueues = new ArrayList<Queue>();
+
+		JmsSessionFactory(boolean replyQueuePerSession) {
+			this.replyQueuePerSession = replyQueuePerSession;
+		}
+
+		public QueueSession createSession() throws IfsaException {
+			try {
+				return connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
+			} catch (JMSException e) {
+				throw new IfsaException(e);
+			}
+		}
+
+		public void releaseSession(QueueSession session) {
+			sessionsReleased++;
+			try {
+				session.close();
+			} catch (JMSException e) {
+				// already closed
+			}
+		}
+
+		public Queue getReplyQueue(QueueSession session) throws IfsaException {
+			try {
+				Queue replyQueue = replyQueuePerSession ? session.createTemporaryQueue() : sharedReplyQueue;
+				replyQueues.add(replyQueue);
+				return replyQueue;
+			} catch (JMSException e) {
+				throw new IfsaException(e);
+			}
+		}
+
+		public void releaseReplyQueue(Queue replyQueue) throws IfsaException {
+			if (replyQueue instanceof TemporaryQueue) {
+				try {
+					((TemporaryQueue)replyQueue).delete();
+				} catch (JMSException e) {
+					throw new IfsaException(e);
+				}
+			}
+		}
+
+		public boolean isReplyQueuePerSession() {
+			return replyQueuePerSession;
+		}
+
+		public QueueReceiver createReplyReceiver(QueueSession session, Message sentMessage) throws IfsaException {
+			try {
+				Queue replyQueue = (Queue)sentMessage.getJMSReplyTo();
+				if (replyQueuePerSession) {
+					return session.createReceiver(replyQueue);
+				}
+				return session.createReceiver(replyQueue, "JMSCorrelationID='" + sentMessage.getJMSMessageID() + "'");
+			} catch (JMSException e) {
+				throw new IfsaException(e);
+			}
+		}
+	}
+
+	/**
+	 * Requester that sends plain JMS messages, instead of IFSA messages, on the sessions of the test.
+	 */
+	private class JmsRequesterSender extends IfsaRequesterSender {
+		private JmsSessionFactory sessionFactory;
+		private List<Queue> replyQueuesSent = new ArrayList<Queue>();
+
+		JmsRequesterSender(JmsSessionFactory sessionFactory, long timeout) {
+			this.sessionFactory = sessionFactory;
+			setName("test");
+			setMessageProtocol("RR");
+			setTimeOut(timeout);
+		}
+
+		public void openService() {
+		}
+
+		public void closeService() {
+		}
+
+		protected IFSAQueue getServiceQueue() {
+			// IFSAQueue is a Queue that also provides the IFSA properties of the service, only the queue is needed here
+			return (IFSAQueue)Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { IFSAQueue.class }, new InvocationHandler() {
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					return method.invoke(serviceQueue, args);
+				}
+			});
+		}
+
+		IfsaSessionPool.SessionFactory createSessionFactory() {
+			return sessionFactory;
+		}
+
+		public TextMessage sendMessage(QueueSession session, QueueSender sender, String message, Map udzMap, String bifName, byte btcData[], Queue replyQueue) throws IfsaException {
+			try {
+				replyQueuesSent.add(replyQueue);
+				TextMessage request = session.createTextMessage(message);
+				request.setJMSReplyTo(replyQueue);
+				sender.send(request);
+				return request;
+			} catch (JMSException e) {
+				throw new IfsaException(e);
+			}
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		ActiveMQConnectionFactory connectionFactory = new ActiveMQConnectionFactory("vm://ifsaSessionPoolTest?broker.persistent=false&broker.useJmx=false");
+		connection = connectionFactory.createQueueConnection();
+		connection.start();
+		responderSession = connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
+		serviceQueue = responderSession.createQueue("service");
+		sharedReplyQueue = responderSession.createQueue("replies");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		connection.close();
+	}
+
+	/**
+	 * Replies to each request with the text of the request in upper case, correlated on the message id.
+	 */
+	private void startResponder() throws JMSException {
+		final QueueSender replySender = responderSession.createSender(null);
+		responderSession.createReceiver(serviceQueue).setMessageListener(new MessageListener() {
+			public void onMessage(Message message) {
+				try {
+					TextMessage reply = responderSession.createTextMessage(((TextMessage)message).getText().toUpperCase());
+					reply.setJMSCorrelationID(message.getJMSMessageID());
+					replySender.send(message.getJMSReplyTo(), reply);
+				} catch (JMSException e) {
+					// the reply queue of a request that timed out has been deleted
+				}
+			}
+		});
+	}
+
+	private TextMessage send(PooledSession pooledSession, String text) throws Exception {
+		TextMessage request = pooledSession.getSession().createTextMessage(text);
+		request.setJMSReplyTo(pooledSession.getReplyQueue());
+		pooledSession.getSender(serviceQueue).send(request);
+		return request;
+	}
+
+	private String receiveReply(PooledSession pooledSession, Message request, long timeout) throws Exception {
+		QueueReceiver receiver = pooledSession.getReplyReceiver(request);
+		try {
+			TextMessage reply = (TextMessage)receiver.receive(timeout);
+			if (reply == null) {
+				return null;
+			}
+			assertEquals(request.getJMSMessageID(), reply.getJMSCorrelationID());
+			return reply.getText();
+		} finally {
+			pooledSession.releaseReplyReceiver(receiver);
+		}
+	}
+
+	@Test
+	public void testReleasedSessionIsReused() throws Exception {
+		IfsaSessionPool pool = new IfsaSessionPool("test", new JmsSessionFactory(true), 2, 60000);
+		PooledSession first = pool.borrow();
+		pool.release(first);
+		assertEquals(1, pool.getIdleCount());
+		PooledSession second = pool.borrow();
+		assertSame(first, second);
+		assertSame(second.getSender(serviceQueue), second.getSender(serviceQueue));
+		assertEquals(1, pool.getSessionsCreated());
+		assertEquals(1, pool.getSessionsReused());
+	}
+
+	@Test
+	public void testSessionsAboveMaxIdleAreClosed() throws Exception {
+		JmsSessionFactory sessionFactory = new JmsSessionFactory(true);
+		IfsaSessionPool pool = new IfsaSessionPool("test", sessionFactory, 1, 60000);
+		PooledSession first = pool.borrow();
+		PooledSession second = pool.borrow();
+		pool.release(first);
+		pool.release(second);
+		assertEquals(1, pool.getIdleCount());
+		assertEquals(1, sessionFactory.sessionsReleased);
+	}
+
+	@Test
+	public void testCorrelatedReplyOnSessionReplyQueue() throws Exception {
+		startResponder();
+		IfsaSessionPool pool = new IfsaSessionPool("test", new JmsSessionFactory(true), 2, 60000);
+		for (int i = 0; i < 3; i++) {
+			PooledSession pooledSession = pool.borrow();
+			Message request = send(pooledSession, "request" + i);
+			assertEquals("REQUEST" + i, receiveReply(pooledSession, request, 5000));
+			pool.release(pooledSession);
+		}
+		assertEquals(1, pool.getSessionsCreated());
+	}
+
+	@Test
+	public void testCorrelatedReplyOnSharedReplyQueue() throws Exception {
+		IfsaSessionPool pool = new IfsaSessionPool("test", new JmsSessionFactory(false), 2, 60000);
+		PooledSession first = pool.borrow();
+		PooledSession second = pool.borrow();
+		Message firstRequest = send(first, "first");
+		Message secondRequest = send(second, "second");
+		startResponder();
+		// the replies are on the same queue, each session must receive the reply to its own request
+		assertEquals("SECOND", receiveReply(second, secondRequest, 5000));
+		assertEquals("FIRST", receiveReply(first, firstRequest, 5000));
+		pool.release(first);
+		pool.release(second);
+	}
+
+	@Test
+	public void testSessionIsInvalidatedAfterTimeout() throws Exception {
+		JmsSessionFactory sessionFactory = new JmsSessionFactory(true);
+		IfsaSessionPool pool = new IfsaSessionPool("test", sessionFactory, 2, 60000);
+		PooledSession timedOut = pool.borrow();
+		Message request = send(timedOut, "late");
+		assertNull(receiveReply(timedOut, request, 100));
+		pool.invalidate(timedOut);
+		assertEquals(1, pool.getSessionsInvalidated());
+		assertEquals(1, sessionFactory.sessionsReleased);
+		assertEquals(0, pool.getIdleCount());
+
+		// the late reply must not be taken for the reply to the next request
+		startResponder();
+		PooledSession next = pool.borrow();
+		assertNotSame(timedOut, next);
+		Message nextRequest = send(next, "next");
+		assertEquals("NEXT", receiveReply(next, nextRequest, 5000));
+		pool.release(next);
+	}
+
+	@Test
+	public void testBrokenSessionIsReplacedWhenBorrowed() throws Exception {
+		IfsaSessionPool pool = new IfsaSessionPool("test", new JmsSessionFactory(true), 2, 60000);
+		PooledSession broken = pool.borrow();
+		pool.release(broken);
+		broken.getSession().close();
+		PooledSession replacement = pool.borrow();
+		assertNotSame(broken, replacement);
+		assertEquals(2, pool.getSessionsCreated());
+		assertEquals(1, pool.getSessionsInvalidated());
+	}
+
+	@Test
+	public void testIdleSessionsExpire() throws Exception {
+		JmsSessionFactory sessionFactory = new JmsSessionFactory(true);
+		IfsaSessionPool pool = new IfsaSessionPool("test", sessionFactory, 2, 10);
+		PooledSession expired = pool.borrow();
+		pool.release(expired);
+		Thread.sleep(50);
+		pool.evictIdle();
+		assertEquals(0, pool.getIdleCount());
+		assertEquals(1, sessionFactory.sessionsReleased);
+		assertNotSame(expired, pool.borrow());
+	}
+
+	@Test
+	public void testCloseReleasesIdleSessions() throws Exception {
+		JmsSessionFactory sessionFactory = new JmsSessionFactory(true);
+		IfsaSessionPool pool = new IfsaSessionPool("test", sessionFactory, 2, 60000);
+		PooledSession inUse = pool.borrow();
+		pool.release(pool.borrow());
+		pool.close();
+		assertEquals(1, sessionFactory.sessionsReleased);
+		pool.release(inUse);
+		assertEquals(2, sessionFactory.sessionsReleased);
+		assertEquals(0, pool.getIdleCount());
+	}
+
+	@Test
+	public void testRequesterSenderReusesPooledSession() throws Exception {
+		startResponder();
+		JmsSessionFactory sessionFactory = new JmsSessionFactory(true);
+		JmsRequesterSender sender = new JmsRequesterSender(sessionFactory, 5000);
+		sender.open();
+		for (int i = 0; i < 3; i++) {
+			assertEquals("REQUEST" + i, sender.sendMessage("cid", "request" + i));
+		}
+		// each request is sent with the reply queue of the pooled session, which is released after the reply
+		assertEquals(1, sessionFactory.replyQueues.size());
+		assertEquals(3, sender.replyQueuesSent.size());
+		for (Queue replyQueue : sender.replyQueuesSent) {
+			assertSame(sessionFactory.replyQueues.get(0), replyQueue);
+		}
+		assertEquals(0, sessionFactory.sessionsReleased);
+		sender.close();
+		assertEquals(1, sessionFactory.sessionsReleased);
+	}
+
+	@Test
+	public void testRequesterSenderDiscardsLateReply() throws Exception {
+		startResponder();
+		JmsSessionFactory sessionFactory = new JmsSessionFactory(true);
+		JmsRequesterSender sender = new JmsRequesterSender(sessionFactory, 5000);
+		sender.open();
+		assertEquals("FIRST", sender.sendMessage("cid", "first"));
+		// a reply to an earlier request arrives on the reply queue of the idle session
+		TextMessage lateReply = responderSession.createTextMessage("LATE");
+		lateReply.setJMSCorrelationID("ID:late");
+		responderSession.createSender(sessionFactory.replyQueues.get(0)).send(lateReply);
+		assertEquals("SECOND", sender.sendMessage("cid", "second"));
+		assertEquals(1, sessionFactory.replyQueues.size());
+		assertEquals(0, sessionFactory.sessionsReleased);
+		sender.close();
+	}
+
+	@Test
+	public void testRequesterSenderInvalidatesSessionAfterTimeout() throws Exception {
+		JmsSessionFactory sessionFactory = new JmsSessionFactory(true);
+		JmsRequesterSender sender = new JmsRequesterSender(sessionFactory, 100);
+		sender.open();
+		try {
+			sender.sendMessage("cid", "late");
+			fail("expected TimeOutException");
+		} catch (TimeOutException e) {
+			// no responder yet
+		}
+		// the session is closed, so the late reply cannot be taken for the reply to the next request
+		assertEquals(1, sessionFactory.sessionsReleased);
+		startResponder();
+		sender.setTimeOut(5000);
+		assertEquals("NEXT", sender.sendMessage("cid", "next"));
+		assertEquals(2, sessionFactory.replyQueues.size());
+		assertSame(sessionFactory.replyQueues.get(1), sender.replyQueuesSent.get(1));
+		sender.close();
+	}
+}
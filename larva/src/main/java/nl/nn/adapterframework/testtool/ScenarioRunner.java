@@ -0,0 +1,396 @@
+package nl.nn.adapterframework.testtool;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import nl.nn.adapterframework.configuration.IbisContext;
+import nl.nn.adapterframework.statistics.StatisticsKeeper;
+import nl.nn.adapterframework.util.AppConstants;
+import nl.nn.adapterframework.util.LogUtil;
+import nl.nn.adapterframework.util.XmlUtils;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Executes scenarios concurrently on a pool of threads, either each scenario once (a regression run) or
+ * repeatedly for a fixed duration at a given rate or concurrency (a load run).
+ *
+ * <p>
+ * Listeners opened by the Test Tool (e.g. a JavaListener registered under a serviceName, or a FileListener
+ * on a file) are shared by everything that uses the same name. Scenarios that use the same listener are
+ * therefore never executed at the same time: before a scenario is executed, a lock is obtained for every
+ * such queue it defines, keyed on the name of the shared resource (serviceName, queue, file, etc.) regardless
+ * of the type of queue used to access it. Locks are obtained in a fixed order, so scenarios cannot deadlock
+ * each other.
+ * </p>
+ *
+ * <p>
+ * A run as a whole holds the same step synchronizer as a sequential run of the Test Tool, so it never
+ * overlaps with scenarios executed by another request.
+ * </p>
+ *
+ * <p>
+ * The output of each scenario is buffered and written as a whole when the scenario has finished, so the
+ * output of concurrently executed scenarios is not interleaved. During a load run only the output of the
+ * first failing runs is written.
+ * </p>
+ */
+public class ScenarioRunner {
+	private static Logger log = LogUtil.getLogger(ScenarioRunner.class);
+
+	private static final String[] EXCLUSIVE_QUEUE_CLASS_NAMES = {
+		"nl.nn.adapterframework.receivers.JavaListener",
+		"nl.nn.adapterframework.http.WebServiceListener",
+		"nl.nn.adapterframework.jms.JmsListener",
+		"nl.nn.adapterframework.testtool.FileListener",
+		"nl.nn.adapterframework.testtool.FileSender",
+		"nl.nn.adapterframework.testtool.XsltProviderListener"
+	};
+	private static final String[] QUEUE_IDENTITY_PROPERTIES = {"serviceName", "serviceNamespaceURI", "queue", "filename.absolutepath", "filename", "directory.absolutepath", "directory"};
+	private static final int MAX_FAILED_RUNS_REPORTED = 10;
+
+	private static ConcurrentHashMap<String,ReentrantLock> queueLocks = new ConcurrentHashMap<String,ReentrantLock>();
+
+	private AppConstants appConstants;
+	private IbisContext ibisContext;
+	private String scenariosRootDirectory;
+	private int waitBeforeCleanUp;
+	private int threads;
+	private Map writers;
+
+	private ScenarioStatistics statistics = new ScenarioStatistics();
+	private AtomicInteger scenariosPassed = new AtomicInteger();
+	private AtomicInteger scenariosFailed = new AtomicInteger();
+	private AtomicInteger runCounter = new AtomicInteger();
+	private AtomicInteger failedRunsReported = new AtomicInteger();
+	private boolean loadRun = false;
+	private long runTime = 0;
+
+	public ScenarioRunner(AppConstants appConstants, IbisContext ibisContext, String scenariosRootDirectory, int waitBeforeCleanUp, int threads, Map writers) {
+		this.appConstants = appConstants;
+		this.ibisContext = ibisContext;
+		this.scenariosRootDirectory = scenariosRootDirectory;
+		this.waitBeforeCleanUp = waitBeforeCleanUp;
+		this.threads = Math.max(1, threads);
+		this.writers = writers;
+	}
+
+	/**
+	 * Executes every scenario once.
+	 */
+	public void runOnce(List scenarioFiles) {
+		List<Scenario> scenarios = prepare(scenarioFiles);
+		synchronized (TestTool.STEP_SYNCHRONIZER) {
+			long startTime = System.currentTimeMillis();
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			for (final Scenario scenario : scenarios) {
+				executor.execute(new Runnable() {
+					public void run() {
+						execute(scenario);
+					}
+				});
+			}
+			awaitTermination(executor);
+			runTime = System.currentTimeMillis() - startTime;
+		}
+	}
+
+	/**
+	 * Executes the scenarios round robin during <code>duration</code> milliseconds. When <code>rate</code>
+	 * is larger than 0, a scenario is started <code>rate</code> times per second, otherwise every thread
+	 * starts the next scenario as soon as it has finished the previous one.
+	 */
+	public void runLoad(List scenarioFiles, long duration, int rate) {
+		loadRun = true;
+		final List<Scenario> scenarios = prepare(scenarioFiles);
+		if (scenarios.isEmpty()) {
+			return;
+		}
+		synchronized (TestTool.STEP_SYNCHRONIZER) {
+			final AtomicInteger next = new AtomicInteger();
+			final long startTime = System.currentTimeMillis();
+			final long endTime = startTime + duration;
+			if (rate > 0) {
+				ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(threads));
+				final ThreadPoolExecutor workers = executor;
+				ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+				scheduler.scheduleAtFixedRate(new Runnable() {
+					public void run() {
+						final Scenario scenario = scenarios.get(next.getAndIncrement() % scenarios.size());
+						try {
+							workers.execute(new Runnable() {
+								public void run() {
+									execute(scenario);
+								}
+							});
+						} catch (RejectedExecutionException e) {
+							statistics.runSkipped();
+						}
+					}
+				}, 0, Math.max(1, 1000000L / rate), TimeUnit.MICROSECONDS);
+				try {
+					Thread.sleep(duration);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				scheduler.shutdownNow();
+				awaitTermination(executor);
+			} else {
+				ExecutorService executor = Executors.newFixedThreadPool(threads);
+				for (int i = 0; i < threads; i++) {
+					executor.execute(new Runnable() {
+						public void run() {
+							while (System.currentTimeMillis() < endTime) {
+								execute(scenarios.get(next.getAndIncrement() % scenarios.size()));
+							}
+						}
+					});
+				}
+				awaitTermination(executor);
+			}
+			runTime = System.currentTimeMillis() - startTime;
+		}
+	}
+
+	private void awaitTermination(ExecutorService executor) {
+		executor.shutdown();
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+				log.debug("waiting for scenarios to finish");
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Reads the properties and steps of all scenarios up front, so they are shared by all runs.
+	 */
+	private List<Scenario> prepare(List scenarioFiles) {
+		List<Scenario> scenarios = new ArrayList<Scenario>();
+		for (Iterator iterator = scenarioFiles.iterator(); iterator.hasNext(); ) {
+			File scenarioFile = (File)iterator.next();
+			Scenario scenario = new Scenario();
+			scenario.directory = scenarioFile.getParentFile().getAbsolutePath() + File.separator;
+			String longName = scenarioFile.getAbsolutePath();
+			scenario.shortName = longName.substring(scenariosRootDirectory.length() - 1, longName.length() - ".properties".length());
+			TestTool.debugMessage("Read property file " + scenarioFile.getName(), writers);
+			scenario.properties = TestTool.readProperties(appConstants, scenarioFile, writers);
+			if (scenario.properties != null) {
+				TestTool.debugMessage("Read steps from property file", writers);
+				scenario.steps = TestTool.getSteps(scenario.properties, writers);
+			}
+			if (scenario.steps == null) {
+				TestTool.scenarioFailedMessage("Scenario '" + scenario.shortName + "' failed", writers);
+				scenariosFailed.incrementAndGet();
+			} else {
+				scenario.queueLockKeys = getQueueLockKeys(scenario.properties);
+				scenarios.add(scenario);
+			}
+		}
+		return scenarios;
+	}
+
+	/**
+	 * Returns the names of the shared resources used by the exclusive queues of a scenario, in sorted order.
+	 */
+	static List<String> getQueueLockKeys(Properties properties) {
+		TreeSet<String> keys = new TreeSet<String>();
+		for (Iterator iterator = properties.keySet().iterator(); iterator.hasNext(); ) {
+			String key = (String)iterator.next();
+			if (!key.endsWith(".className")) {
+				continue;
+			}
+			String queueName = key.substring(0, key.length() - ".className".length());
+			String className = properties.getProperty(key);
+			for (int i = 0; i < EXCLUSIVE_QUEUE_CLASS_NAMES.length; i++) {
+				if (EXCLUSIVE_QUEUE_CLASS_NAMES[i].equals(className)) {
+					String identity = queueName;
+					for (int j = 0; j < QUEUE_IDENTITY_PROPERTIES.length; j++) {
+						String value = properties.getProperty(queueName + "." + QUEUE_IDENTITY_PROPERTIES[j]);
+						if (value != null) {
+							identity = value;
+							break;
+						}
+					}
+					keys.add(identity);
+				}
+			}
+		}
+		return new ArrayList<String>(keys);
+	}
+
+	private void execute(Scenario scenario) {
+		int runIndex = runCounter.incrementAndGet();
+		Map scenarioWriters = createWriters(runIndex);
+		boolean scenarioPassed = false;
+		long startTime = System.currentTimeMillis();
+		List<ReentrantLock> locks = new ArrayList<ReentrantLock>();
+		try {
+			for (String key : scenario.queueLockKeys) {
+				ReentrantLock lock = queueLocks.get(key);
+				if (lock == null) {
+					ReentrantLock newLock = new ReentrantLock();
+					lock = queueLocks.putIfAbsent(key, newLock);
+					if (lock == null) {
+						lock = newLock;
+					}
+				}
+				lock.lock();
+				locks.add(lock);
+			}
+			startTime = System.currentTimeMillis();
+			scenarioPassed = executeScenario(scenario.shortName, scenario.directory, scenario.steps, scenario.properties, scenarioWriters);
+		} catch (Throwable t) {
+			TestTool.errorMessage("Exception executing scenario '" + scenario.shortName + "': " + t.getMessage(), scenarioWriters);
+			log.warn("exception executing scenario [" + scenario.shortName + "]", t);
+		} finally {
+			for (int i = locks.size() - 1; i >= 0; i--) {
+				locks.get(i).unlock();
+			}
+		}
+		statistics.scenarioExecuted(System.currentTimeMillis() - startTime, scenarioPassed);
+		String description = scenario.shortName + " - " + scenario.properties.getProperty("scenario.description");
+		if (scenarioPassed) {
+			TestTool.scenarioPassedMessage("Scenario '" + description + "' passed", scenarioWriters);
+			scenariosPassed.incrementAndGet();
+		} else {
+			TestTool.scenarioFailedMessage("Scenario '" + description + "' failed", scenarioWriters);
+			scenariosFailed.incrementAndGet();
+		}
+		TestTool.writeHtml("</div>", scenarioWriters, false);
+		if (!loadRun || (!scenarioPassed && failedRunsReported.incrementAndGet() <= MAX_FAILED_RUNS_REPORTED)) {
+			flush(scenarioWriters);
+		}
+	}
+
+	protected boolean executeScenario(String shortName, String directory, List steps, Properties properties, Map scenarioWriters) {
+		return TestTool.executeScenario(shortName, directory, steps, properties, ibisContext, waitBeforeCleanUp, scenarioWriters, statistics);
+	}
+
+	/**
+	 * Creates writers that buffer the output of a single run. The counters used for the ids of html
+	 * elements get a distinct range per run, to keep them unique when the output is combined.
+	 */
+	private Map createWriters(int runIndex) {
+		if (writers == null) {
+			return null;
+		}
+		Map scenarioWriters = new HashMap();
+		scenarioWriters.put("out", new StringWriter());
+		scenarioWriters.put("htmlbuffer", new StringWriter());
+		scenarioWriters.put("logbuffer", new StringWriter());
+		scenarioWriters.put("loglevel", writers.get("loglevel"));
+		scenarioWriters.put("autoscroll", "false");
+		scenarioWriters.put("usehtmlbuffer", "false");
+		scenarioWriters.put("uselogbuffer", "false");
+		scenarioWriters.put("messagecounter", new Integer(runIndex * 100000));
+		scenarioWriters.put("scenariocounter", new Integer(runIndex * 1000 + 1));
+		TestTool.writeHtml("<br/>", scenarioWriters, false);
+		TestTool.writeHtml("<br/>", scenarioWriters, false);
+		TestTool.writeHtml("<div class='scenario'>", scenarioWriters, false);
+		return scenarioWriters;
+	}
+
+	private void flush(Map scenarioWriters) {
+		if (scenarioWriters != null) {
+			synchronized (writers) {
+				TestTool.writeHtml(scenarioWriters.get("out").toString(), writers, true);
+			}
+		}
+	}
+
+	/**
+	 * Writes throughput, error counts and the latency percentiles of every step.
+	 */
+	public void printStatistics() {
+		if (writers == null) {
+			return;
+		}
+		String method = "totals";
+		DecimalFormat format = new DecimalFormat("#0.0");
+		int runs = scenariosPassed.get() + scenariosFailed.get();
+		double throughput = runTime > 0 ? runs * 1000.0 / runTime : 0;
+		TestTool.writeLog("<h1 class='total'>" + XmlUtils.encodeChars(runs + " runs on " + threads + " threads, throughput " + format.format(throughput) + " scenarios/s, " + statistics.getScenariosFailed() + " failed, " + statistics.getRunsSkipped() + " skipped") + "</h1>", method, writers, false);
+		TestTool.writeLog("<table>", method, writers, false);
+		StatisticsKeeper scenarioDurations = statistics.getScenarioDurations();
+		writeStatisticsHeader(scenarioDurations, method);
+		writeStatisticsRow("scenario", scenarioDurations, statistics.getScenariosFailed(), format, method);
+		for (String stepName : statistics.getStepNames()) {
+			writeStatisticsRow(stepName, statistics.getStepDurations(stepName), statistics.getStepErrors(stepName), format, method);
+		}
+		TestTool.writeLog("</table>", method, writers, true);
+	}
+
+	private void writeStatisticsHeader(StatisticsKeeper statisticsKeeper, String method) {
+		StringBuffer header = new StringBuffer("<tr><th>step</th><th>count</th><th>errors</th><th>min</th><th>avg</th><th>max</th>");
+		for (int i = 0; i < statisticsKeeper.getItemCount(); i++) {
+			String itemName = statisticsKeeper.getItemName(i);
+			if (itemName != null && itemName.startsWith("p")) {
+				header.append("<th>" + itemName + "</th>");
+			}
+		}
+		header.append("</tr>");
+		TestTool.writeLog(header.toString(), method, writers, false);
+	}
+
+	private void writeStatisticsRow(String name, StatisticsKeeper statisticsKeeper, int errors, DecimalFormat format, String method) {
+		StringBuffer row = new StringBuffer("<tr><td>" + XmlUtils.encodeChars(name) + "</td>");
+		synchronized (statistics) {
+			row.append("<td>" + statisticsKeeper.getCount() + "</td><td>" + errors + "</td>");
+			if (statisticsKeeper.getCount() > 0) {
+				row.append("<td>" + statisticsKeeper.getMin() + "</td><td>" + format.format(statisticsKeeper.getAvg()) + "</td><td>" + statisticsKeeper.getMax() + "</td>");
+			} else {
+				row.append("<td/><td/><td/>");
+			}
+			for (int i = 0; i < statisticsKeeper.getItemCount(); i++) {
+				String itemName = statisticsKeeper.getItemName(i);
+				if (itemName != null && itemName.startsWith("p")) {
+					Object value = statisticsKeeper.getItemValue(i);
+					row.append("<td>" + (value == null ? "" : format.format(((Number)value).doubleValue())) + "</td>");
+				}
+			}
+		}
+		row.append("</tr>");
+		TestTool.writeLog(row.toString(), method, writers, false);
+	}
+
+	public int getScenariosPassed() {
+		return scenariosPassed.get();
+	}
+
+	public int getScenariosFailed() {
+		return scenariosFailed.get();
+	}
+
+	public ScenarioStatistics getStatistics() {
+		return statistics;
+	}
+
+	private class Scenario {
+		String shortName;
+		String directory;
+		Properties properties;
+		List steps;
+		List<String> queueLockKeys;
+	}
+}
@@ -0,0 +1,73 @@
+package nl.nn.adapterframework.testtool;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import nl.nn.adapterframework.statistics.StatisticsKeeper;
+
+/**
+ * Collects the durations and error counts of scenarios and their steps while they are executed by
+ * the {@link ScenarioRunner}. All methods may be called concurrently.
+ */
+public class ScenarioStatistics {
+
+	private StatisticsKeeper scenarioDurations = new StatisticsKeeper("scenario");
+	private Map<String,StatisticsKeeper> stepDurations = new LinkedHashMap<String,StatisticsKeeper>();
+	private Map<String,Integer> stepErrors = new LinkedHashMap<String,Integer>();
+	private int scenariosFailed = 0;
+	private int runsSkipped = 0;
+
+	public synchronized void stepExecuted(String stepName, long duration, boolean passed) {
+		StatisticsKeeper statisticsKeeper = stepDurations.get(stepName);
+		if (statisticsKeeper == null) {
+			statisticsKeeper = new StatisticsKeeper(stepName);
+			stepDurations.put(stepName, statisticsKeeper);
+			stepErrors.put(stepName, new Integer(0));
+		}
+		statisticsKeeper.addValue(duration);
+		if (!passed) {
+			stepErrors.put(stepName, new Integer(stepErrors.get(stepName).intValue() + 1));
+		}
+	}
+
+	public synchronized void scenarioExecuted(long duration, boolean passed) {
+		scenarioDurations.addValue(duration);
+		if (!passed) {
+			scenariosFailed++;
+		}
+	}
+
+	/**
+	 * Registers a run that could not be started because all threads were busy at the requested rate.
+	 */
+	public synchronized void runSkipped() {
+		runsSkipped++;
+	}
+
+	public synchronized StatisticsKeeper getScenarioDurations() {
+		return scenarioDurations;
+	}
+
+	public synchronized List<String> getStepNames() {
+		return new ArrayList<String>(stepDurations.keySet());
+	}
+
+	public synchronized StatisticsKeeper getStepDurations(String stepName) {
+		return stepDurations.get(stepName);
+	}
+
+	public synchronized int getStepErrors(String stepName) {
+		Integer errors = stepErrors.get(stepName);
+		return errors == null ? 0 : errors.intValue();
+	}
+
+	public synchronized int getScenariosFailed() {
+		return scenariosFailed;
+	}
+
+	public synchronized int getRunsSkipped() {
+		return runsSkipped;
+	}
+}
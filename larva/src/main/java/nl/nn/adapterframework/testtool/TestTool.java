@@ -94,7 +94,7 @@ import com.sun.syndication.io.XmlReader;
 public class TestTool {
 	private static Logger logger = LogUtil.getLogger(TestTool.class);
 	private static final String LOG_LEVEL_ORDER = "[debug], [pipeline messages prepared for diff], [pipeline messages], [wrong pipeline messages prepared for diff], [wrong pipeline messages], [step passed/failed], [scenario passed/failed], [totals], [error]";
-	private static final String STEP_SYNCHRONIZER = "Step synchronizer";
+	static final String STEP_SYNCHRONIZER = "Step synchronizer";
 	protected static final int DEFAULT_TIMEOUT = 30000;
 	protected static final String TESTTOOL_CORRELATIONID = "Test Tool correlation id";
 	protected static final String TESTTOOL_BIFNAME = "Test Tool bif name";
@@ -178,8 +178,12 @@ public class TestTool {
 				} catch(NumberFormatException e) {
 				}
 			}
+			debugMessage("Read threads, loadduration and loadrate parameters", writers);
+			int threads = parseIntParameter(request, "threads", 1);
+			int loadDuration = parseIntParameter(request, "loadduration", 0);
+			int loadRate = parseIntParameter(request, "loadrate", 0);
 			debugMessage("Write html form", writers);
-			printHtmlForm(scenariosRootDirectories, scenariosRootDescriptions, currentScenariosRootDirectory, appConstants, allScenarioFiles, waitBeforeCleanUp, paramExecute, autoScroll, writers);
+			printHtmlForm(scenariosRootDirectories, scenariosRootDescriptions, currentScenariosRootDirectory, appConstants, allScenarioFiles, waitBeforeCleanUp, threads, loadDuration, loadRate, paramExecute, autoScroll, writers);
 			debugMessage("Stop logging to logbuffer", writers);
 			if (writers!=null) {
 				writers.put("uselogbuffer", "stop");
@@ -212,97 +216,77 @@ public class TestTool {
 						debugMessage("Read all scenarios from directory '" + paramExecute + "'", writers);
 						scenarioFiles = readScenarioFiles(appConstants, paramExecute, writers);
 					}
-					boolean evenStep = false;
 					debugMessage("Initialize statistics variables", writers);
 					int scenariosPassed = 0;
 					int scenariosFailed = 0;
 					long startTime = System.currentTimeMillis();
-					debugMessage("Execute scenario('s)", writers);
-					Iterator scenarioFilesIterator = scenarioFiles.iterator();
-					while (scenarioFilesIterator.hasNext()) {
-						boolean scenarioPassed = false;
-						File scenarioFile = (File)scenarioFilesIterator.next();
+					ScenarioRunner scenarioRunner = null;
+					if (threads > 1 || loadDuration > 0) {
+						debugMessage("Execute scenario('s) using " + threads + " threads", writers);
+						scenarioRunner = new ScenarioRunner(appConstants, ibisContext, currentScenariosRootDirectory, waitBeforeCleanUp, threads, writers);
+						if (loadDuration > 0) {
+							scenarioRunner.runLoad(scenarioFiles, loadDuration * 1000L, loadRate);
+						} else {
+							scenarioRunner.runOnce(scenarioFiles);
+						}
+						scenariosPassed = scenarioRunner.getScenariosPassed();
+						scenariosFailed = scenarioRunner.getScenariosFailed();
+						if (silent) {
+							try {
+								for (int i = 0; i < scenariosPassed; i++) {
+									out.write("[***PASSED***]");
+								}
+							} catch (IOException e) {
+							}
+						}
+					} else {
+						debugMessage("Execute scenario('s)", writers);
+						Iterator scenarioFilesIterator = scenarioFiles.iterator();
+						while (scenarioFilesIterator.hasNext()) {
+							boolean scenarioPassed = false;
+							File scenarioFile = (File)scenarioFilesIterator.next();
 				
-						String scenarioDirectory = scenarioFile.getParentFile().getAbsolutePath() + File.separator;
-						String longName = scenarioFile.getAbsolutePath();
-						String shortName = longName.substring(currentScenariosRootDirectory.length() - 1, longName.length() - ".properties".length());
+							String scenarioDirectory = scenarioFile.getParentFile().getAbsolutePath() + File.separator;
+							String longName = scenarioFile.getAbsolutePath();
+							String shortName = longName.substring(currentScenariosRootDirectory.length() - 1, longName.length() - ".properties".length());
 	
-						if (writers!=null) {
-							if (LOG_LEVEL_ORDER.indexOf("[" + (String)writers.get("loglevel") + "]") < LOG_LEVEL_ORDER.indexOf("[scenario passed/failed]")) {
-								writeHtml("<br/>", writers, false);
-								writeHtml("<br/>", writers, false);
-								writeHtml("<div class='scenario'>", writers, false);
+							if (writers!=null) {
+								if (LOG_LEVEL_ORDER.indexOf("[" + (String)writers.get("loglevel") + "]") < LOG_LEVEL_ORDER.indexOf("[scenario passed/failed]")) {
+									writeHtml("<br/>", writers, false);
+									writeHtml("<br/>", writers, false);
+									writeHtml("<div class='scenario'>", writers, false);
+								}
 							}
-						}
-						debugMessage("Read property file " + scenarioFile.getName(), writers);
-						Properties properties = readProperties(appConstants, scenarioFile, writers);
-						List steps = null;
+							debugMessage("Read property file " + scenarioFile.getName(), writers);
+							Properties properties = readProperties(appConstants, scenarioFile, writers);
+							List steps = null;
 	
-						if (properties != null) {
-							debugMessage("Read steps from property file", writers);
-							steps = getSteps(properties, writers);
-							if (steps != null) {
-								synchronized(STEP_SYNCHRONIZER) {
-									debugMessage("Open queues", writers);
-									Map queues = openQueues(scenarioDirectory, steps, properties, ibisContext, writers);
-									if (queues != null) {
-										debugMessage("Execute steps", writers);
-										boolean allStepsPassed = true;
-										Iterator iterator = steps.iterator();
-										while (allStepsPassed && iterator.hasNext()) {
-											if (evenStep) {
-												writeHtml("<div class='even'>", writers, false);
-												evenStep = false;
-											} else {
-												writeHtml("<div class='odd'>", writers, false);
-												evenStep = true;
-											}
-											String step = (String)iterator.next();
-											String stepDisplayName = shortName + " - " + step + " - " + properties.get(step);
-											debugMessage("Execute step '" + stepDisplayName + "'", writers);
-											boolean stepPassed = executeStep(step, properties, stepDisplayName, queues, writers);
-											if (stepPassed) {
-												stepPassedMessage("Step '" + stepDisplayName + "' passed", writers);
-											} else {
-												stepFailedMessage("Step '" + stepDisplayName + "' failed", writers);
-												allStepsPassed = false;
-											}
-											writeHtml("</div>", writers, false);
-										}
-										if (allStepsPassed) {
-											scenarioPassed = true;
-										}
-										debugMessage("Wait " + waitBeforeCleanUp + " ms before clean up", writers);
-										try {
-											Thread.sleep(waitBeforeCleanUp);
-										} catch(InterruptedException e) {
-										}
-										debugMessage("Close queues", writers);
-										boolean remainingMessagesFound = closeQueues(queues, properties, writers);
-										if (remainingMessagesFound) {
-											stepFailedMessage("Found one or more messages on queues or in database after scenario executed", writers);
-											scenarioPassed = false;
-										}
+							if (properties != null) {
+								debugMessage("Read steps from property file", writers);
+								steps = getSteps(properties, writers);
+								if (steps != null) {
+									synchronized(STEP_SYNCHRONIZER) {
+										scenarioPassed = executeScenario(shortName, scenarioDirectory, steps, properties, ibisContext, waitBeforeCleanUp, writers, null);
 									}
 								}
 							}
-						}
 	
-						if (scenarioPassed) {
-							scenarioPassedMessage("Scenario '" + shortName + " - " + properties.getProperty("scenario.description") + "' passed", writers);
-							if (silent) {
-								try {
-									out.write("[***PASSED***]");
-								} catch (IOException e) {
+							if (scenarioPassed) {
+								scenarioPassedMessage("Scenario '" + shortName + " - " + properties.getProperty("scenario.description") + "' passed", writers);
+								if (silent) {
+									try {
+										out.write("[***PASSED***]");
+									} catch (IOException e) {
+									}
 								}
+								scenariosPassed++;
+							} else {
+								scenarioFailedMessage("Scenario '" + shortName + " - " + properties.getProperty("scenario.description") + "' failed", writers);
+								scenariosFailed++;
 							}
-							scenariosPassed++;
-						} else {
-							scenarioFailedMessage("Scenario '" + shortName + " - " + properties.getProperty("scenario.description") + "' failed", writers);
-							scenariosFailed++;
-						}
 						
-						writeHtml("</div>", writers, false);
+							writeHtml("</div>", writers, false);
+						}
 					}
 					long executeTime = System.currentTimeMillis() - startTime;
 					debugMessage("Print statistics information", writers);
@@ -346,6 +330,9 @@ public class TestTool {
 								scenariosFailedTotalMessage(scenariosFailed + " scenarios failed", writers);
 							}
 						}
+						if (scenarioRunner != null) {
+							scenarioRunner.printStatistics();
+						}
 					}
 					debugMessage("Start logging to htmlbuffer until form is written", writers);
 					if (writers!=null) {
@@ -353,7 +340,7 @@ public class TestTool {
 					}
 					writeHtml("<br/>", writers, false);
 					writeHtml("<br/>", writers, false);
-					printHtmlForm(scenariosRootDirectories, scenariosRootDescriptions, currentScenariosRootDirectory, appConstants, allScenarioFiles, waitBeforeCleanUp, paramExecute, autoScroll, writers);
+					printHtmlForm(scenariosRootDirectories, scenariosRootDescriptions, currentScenariosRootDirectory, appConstants, allScenarioFiles, waitBeforeCleanUp, threads, loadDuration, loadRate, paramExecute, autoScroll, writers);
 					debugMessage("Stop logging to htmlbuffer", writers);
 					if (writers!=null) {
 						writers.put("usehtmlbuffer", "stop");
@@ -364,7 +351,75 @@ public class TestTool {
 		}
 	}
 
-	public static void printHtmlForm(List scenariosRootDirectories, List scenariosRootDescriptions, String scenariosRootDirectory, AppConstants appConstants, List scenarioFiles, int waitBeforeCleanUp, String paramExecute, String autoScroll, Map writers) {
+	private static int parseIntParameter(HttpServletRequest request, String name, int defaultValue) {
+		String value = request.getParameter(name);
+		if (value != null) {
+			try {
+				return Integer.parseInt(value);
+			} catch(NumberFormatException e) {
+			}
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * Opens the queues of a scenario, executes its steps and closes the queues again. Callers must make
+	 * sure that no other scenario uses the same listeners at the same time.
+	 * 
+	 * @return <code>true</code> when all steps passed and no messages were left on the queues
+	 */
+	public static boolean executeScenario(String shortName, String scenarioDirectory, List steps, Properties properties, IbisContext ibisContext, int waitBeforeCleanUp, Map writers, ScenarioStatistics statistics) {
+		boolean scenarioPassed = false;
+		debugMessage("Open queues", writers);
+		Map queues = openQueues(scenarioDirectory, steps, properties, ibisContext, writers);
+		if (queues != null) {
+			debugMessage("Execute steps", writers);
+			boolean evenStep = false;
+			boolean allStepsPassed = true;
+			Iterator iterator = steps.iterator();
+			while (allStepsPassed && iterator.hasNext()) {
+				if (evenStep) {
+					writeHtml("<div class='even'>", writers, false);
+					evenStep = false;
+				} else {
+					writeHtml("<div class='odd'>", writers, false);
+					evenStep = true;
+				}
+				String step = (String)iterator.next();
+				String stepDisplayName = shortName + " - " + step + " - " + properties.get(step);
+				debugMessage("Execute step '" + stepDisplayName + "'", writers);
+				long stepStartTime = System.currentTimeMillis();
+				boolean stepPassed = executeStep(step, properties, stepDisplayName, queues, writers);
+				if (statistics != null) {
+					statistics.stepExecuted(shortName + " - " + step, System.currentTimeMillis() - stepStartTime, stepPassed);
+				}
+				if (stepPassed) {
+					stepPassedMessage("Step '" + stepDisplayName + "' passed", writers);
+				} else {
+					stepFailedMessage("Step '" + stepDisplayName + "' failed", writers);
+					allStepsPassed = false;
+				}
+				writeHtml("</div>", writers, false);
+			}
+			if (allStepsPassed) {
+				scenarioPassed = true;
+			}
+			debugMessage("Wait " + waitBeforeCleanUp + " ms before clean up", writers);
+			try {
+				Thread.sleep(waitBeforeCleanUp);
+			} catch(InterruptedException e) {
+			}
+			debugMessage("Close queues", writers);
+			boolean remainingMessagesFound = closeQueues(queues, properties, writers);
+			if (remainingMessagesFound) {
+				stepFailedMessage("Found one or more messages on queues or in database after scenario executed", writers);
+				scenarioPassed = false;
+			}
+		}
+		return scenarioPassed;
+	}
+
+	public static void printHtmlForm(List scenariosRootDirectories, List scenariosRootDescriptions, String scenariosRootDirectory, AppConstants appConstants, List scenarioFiles, int waitBeforeCleanUp, int threads, int loadDuration, int loadRate, String paramExecute, String autoScroll, Map writers) {
 		if (writers!=null) {
 			writeHtml("<form action=\"index.jsp\" method=\"post\">", writers, false);
 
@@ -465,6 +520,26 @@ public class TestTool {
 			writeHtml("</tr>", writers, false);
 			writeHtml("</table>", writers, false);
 
+			writeHtml("<span style=\"float: left; font-size: 10pt; width: 0px\">&nbsp; &nbsp; &nbsp;</span>", writers, false);
+			writeHtml("<table align=\"left\">", writers, false);
+			writeHtml("<tr>", writers, false);
+			writeHtml("<td>Threads</td>", writers, false);
+			writeHtml("<td>Load duration (s)</td>", writers, false);
+			writeHtml("<td>Load rate (scenarios/s)</td>", writers, false);
+			writeHtml("</tr>", writers, false);
+			writeHtml("<tr>", writers, false);
+			writeHtml("<td>", writers, false);
+			writeHtml("<input type=\"text\" name=\"threads\" size=\"3\" value=\"" + threads + "\">", writers, false);
+			writeHtml("</td>", writers, false);
+			writeHtml("<td>", writers, false);
+			writeHtml("<input type=\"text\" name=\"loadduration\" size=\"5\" value=\"" + loadDuration + "\">", writers, false);
+			writeHtml("</td>", writers, false);
+			writeHtml("<td>", writers, false);
+			writeHtml("<input type=\"text\" name=\"loadrate\" size=\"5\" value=\"" + loadRate + "\">", writers, false);
+			writeHtml("</td>", writers, false);
+			writeHtml("</tr>", writers, false);
+			writeHtml("</table>", writers, false);
+
 			writeHtml("<span style=\"float: left; font-size: 10pt; width: 0px\">&nbsp; &nbsp; &nbsp;</span>", writers, false);
 			writeHtml("<table align=\"left\">", writers, false);
 			writeHtml("<tr>", writers, false);
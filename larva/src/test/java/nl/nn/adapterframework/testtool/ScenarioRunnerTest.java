@@ -0,0 +1,176 @@
+package nl.nn.adapterframework.testtool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nl.nn.adapterframework.util.AppConstants;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the locking and counting of the {@link ScenarioRunner}, with the execution of the steps stubbed.
+ */
+public class ScenarioRunnerTest {
+
+	private static final String JAVA_LISTENER = "nl.nn.adapterframework.receivers.JavaListener";
+	private static final String FILE_LISTENER = "nl.nn.adapterframework.testtool.FileListener";
+
+	private File root;
+
+	@Before
+	public void setUp() throws Exception {
+		root = File.createTempFile("scenarioRunnerTest", "");
+		root.delete();
+		root.mkdirs();
+	}
+
+	@After
+	public void tearDown() {
+		File[] files = root.listFiles();
+		if (files != null) {
+			for (int i = 0; i < files.length; i++) {
+				files[i].delete();
+			}
+		}
+		root.delete();
+	}
+
+	private File scenario(String name, String description, String serviceName) throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty("scenario.description", description);
+		properties.setProperty("java." + name + ".className", JAVA_LISTENER);
+		properties.setProperty("java." + name + ".serviceName", serviceName);
+		properties.setProperty("step1.java." + name + ".read", "expected.xml");
+		File file = new File(root, name + ".properties");
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			properties.store(out, null);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private String rootDirectory() {
+		return root.getAbsolutePath() + File.separator;
+	}
+
+	@Test
+	public void testLockKeysAreResourceIdentity() {
+		Properties properties = new Properties();
+		properties.setProperty("java.First.className", JAVA_LISTENER);
+		properties.setProperty("java.First.serviceName", "service");
+		properties.setProperty("java.Second.className", JAVA_LISTENER);
+		properties.setProperty("java.Second.serviceName", "service");
+		properties.setProperty("file.Input.className", FILE_LISTENER);
+		properties.setProperty("file.Input.filename", "input.txt");
+		properties.setProperty("file.Input.filename.absolutepath", "/scenarios/input.txt");
+		properties.setProperty("java.Other.className", "nl.nn.adapterframework.senders.IbisJavaSender");
+		properties.setProperty("java.Other.serviceName", "other");
+		assertEquals(Arrays.asList("/scenarios/input.txt", "service"), ScenarioRunner.getQueueLockKeys(properties));
+	}
+
+	@Test
+	public void testScenariosSharingAResourceDoNotOverlap() throws Exception {
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		List<File> scenarioFiles = new ArrayList<File>();
+		for (int i = 0; i < 4; i++) {
+			scenarioFiles.add(scenario("Scenario" + i, "shared", "sharedService"));
+		}
+		ScenarioRunner scenarioRunner = new ScenarioRunner(AppConstants.getInstance(), null, rootDirectory(), 0, 4, null) {
+			protected boolean executeScenario(String shortName, String directory, List steps, Properties properties, Map scenarioWriters) {
+				int current = running.incrementAndGet();
+				synchronized (maxRunning) {
+					maxRunning.set(Math.max(maxRunning.get(), current));
+				}
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				running.decrementAndGet();
+				return true;
+			}
+		};
+		scenarioRunner.runOnce(scenarioFiles);
+		assertEquals(1, maxRunning.get());
+		assertEquals(4, scenarioRunner.getScenariosPassed());
+	}
+
+	@Test
+	public void testScenariosOnDistinctResourcesRunConcurrently() throws Exception {
+		final CyclicBarrier barrier = new CyclicBarrier(2);
+		List<File> scenarioFiles = Arrays.asList(scenario("First", "first", "firstService"), scenario("Second", "second", "secondService"));
+		ScenarioRunner scenarioRunner = new ScenarioRunner(AppConstants.getInstance(), null, rootDirectory(), 0, 2, null) {
+			protected boolean executeScenario(String shortName, String directory, List steps, Properties properties, Map scenarioWriters) {
+				try {
+					// only passes when both scenarios are executed at the same time
+					barrier.await(5, TimeUnit.SECONDS);
+					return true;
+				} catch (Exception e) {
+					return false;
+				}
+			}
+		};
+		scenarioRunner.runOnce(scenarioFiles);
+		assertEquals(2, scenarioRunner.getScenariosPassed());
+	}
+
+	@Test
+	public void testPassedAndFailedAreCounted() throws Exception {
+		List<File> scenarioFiles = Arrays.asList(scenario("Passing", "pass", "passingService"), scenario("Failing", "fail", "failingService"));
+		ScenarioRunner scenarioRunner = new ScenarioRunner(AppConstants.getInstance(), null, rootDirectory(), 0, 2, null) {
+			protected boolean executeScenario(String shortName, String directory, List steps, Properties properties, Map scenarioWriters) {
+				return "pass".equals(properties.getProperty("scenario.description"));
+			}
+		};
+		scenarioRunner.runOnce(scenarioFiles);
+		assertEquals(1, scenarioRunner.getScenariosPassed());
+		assertEquals(1, scenarioRunner.getScenariosFailed());
+		assertEquals(2, scenarioRunner.getStatistics().getScenarioDurations().getCount());
+		assertEquals(1, scenarioRunner.getStatistics().getScenariosFailed());
+	}
+
+	@Test
+	public void testRunWaitsForStepSynchronizer() throws Exception {
+		final AtomicInteger executed = new AtomicInteger();
+		final List<File> scenarioFiles = Arrays.asList(scenario("Synchronized", "synchronized", "synchronizedService"));
+		final ScenarioRunner scenarioRunner = new ScenarioRunner(AppConstants.getInstance(), null, rootDirectory(), 0, 2, null) {
+			protected boolean executeScenario(String shortName, String directory, List steps, Properties properties, Map scenarioWriters) {
+				executed.incrementAndGet();
+				return true;
+			}
+		};
+		final CountDownLatch finished = new CountDownLatch(1);
+		Thread thread = new Thread() {
+			public void run() {
+				scenarioRunner.runOnce(scenarioFiles);
+				finished.countDown();
+			}
+		};
+		synchronized (TestTool.STEP_SYNCHRONIZER) {
+			thread.start();
+			assertFalse(finished.await(200, TimeUnit.MILLISECONDS));
+			assertEquals(0, executed.get());
+		}
+		assertTrue(finished.await(5, TimeUnit.SECONDS));
+		assertEquals(1, executed.get());
+	}
+}
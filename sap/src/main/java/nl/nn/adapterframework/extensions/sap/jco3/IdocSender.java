@@ -1,5 +1,5 @@
 /*
-   Copyright 2013 Nationale-Nederlanden
+   Copyright 2013, 2016 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -71,12 +71,13 @@ public class IdocSender extends SapSenderBase {
 	
 	public String sendMessage(String correlationID, String message, ParameterResolutionContext prc) throws SenderException, TimeOutException {
 		String tid=null;
+		SapSystem sapSystem=null;
 		try {
 			ParameterValueList pvl = null;
 			if (prc!=null) {
 				pvl=prc.getValues(paramList);
 			}
-			SapSystem sapSystem = getSystem(pvl);
+			sapSystem = getSystem(pvl);
 			
 			IDocDocument idoc = parseIdoc(sapSystem,message);
 			
@@ -99,6 +100,9 @@ public class IdocSender extends SapSenderBase {
 			JCoIDoc.send(idoc,IDocFactory.IDOC_VERSION_DEFAULT ,destination,tid);
 			return tid;
 		} catch (Exception e) {
+			if (sapSystem!=null) {
+				sapSystem.invalidateMetadataOnError(e);
+			}
 			throw new SenderException(e);
 		}
 	}
@@ -1,5 +1,5 @@
 /*
-   Copyright 2013 Nationale-Nederlanden
+   Copyright 2013, 2016 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -159,7 +159,13 @@ public class IdocXmlHandler extends DefaultHandler {
 					IDocSegment segment = (IDocSegment)segmentStack.get(segmentStack.size()-1);
 					if (log.isDebugEnabled()) log.debug("setting field ["+currentField+"] to ["+value+"]");  
 					try {
-						segment.setValue(currentField,value);
+						int fieldIndex=sapSystem.getIDocFieldIndex(segment, currentField);
+						if (fieldIndex>=0) {
+							segment.setValue(fieldIndex,value);
+						} else {
+							// not in the metadata, let JCo report the unknown field
+							segment.setValue(currentField,value);
+						}
 					} catch (IDocFieldNotFoundException e) {
 						throw new SAXException("could not set field ["+currentField+"] to ["+value+"], idoc field not found", e);
 					} catch (IDocConversionException e) {
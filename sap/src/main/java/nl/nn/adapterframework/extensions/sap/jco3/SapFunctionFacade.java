@@ -1,5 +1,5 @@
 /*
-   Copyright 2013 Nationale-Nederlanden
+   Copyright 2013, 2016 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -19,6 +19,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import nl.nn.adapterframework.configuration.ConfigurationException;
 import nl.nn.adapterframework.core.HasPhysicalDestination;
@@ -35,7 +36,6 @@ import org.apache.log4j.Logger;
 import com.sap.conn.jco.JCoFunction;
 import com.sap.conn.jco.JCoFunctionTemplate;
 import com.sap.conn.jco.JCoParameterList;
-import com.sap.conn.jco.JCoStructure;
 /**
  * Wrapper round SAP-functions, either SAP calling Ibis, or Ibis calling SAP.
  * <p><b>Configuration:</b>
@@ -74,6 +74,8 @@ public class SapFunctionFacade implements INamedObject, HasPhysicalDestination {
 	private SapSystem sapSystem;
 	private boolean fieldIndicesCalculated=false;
 
+	private Map<String,SapFunctionMapping> functionMappings = new ConcurrentHashMap<String,SapFunctionMapping>();
+
 	static Map extractors = new HashMap();
 
 	protected String getLogPrefix() {
@@ -119,6 +121,7 @@ public class SapFunctionFacade implements INamedObject, HasPhysicalDestination {
 		}
 		fieldIndicesCalculated=false;
 		ftemplate = null;
+		functionMappings.clear();
 	}
 
 	public String getPhysicalDestinationName() {
@@ -246,8 +249,19 @@ public class SapFunctionFacade implements INamedObject, HasPhysicalDestination {
 
 	public String functionResult2message(JCoFunction function) {
 		JCoParameterList export = function.getExportParameterList();
+		return functionResult2message(function, findFieldIndex(export, getReplyFieldIndex(), getReplyFieldName()));
+	}
+
+	/**
+	 * Same as {@link #functionResult2message(JCoFunction)}, using the field index of the mapping.
+	 */
+	public String functionResult2message(SapFunctionMapping mapping, JCoFunction function) {
+		return functionResult2message(function, mapping.getReplyFieldIndex());
+	}
+
+	private String functionResult2message(JCoFunction function, int replyFieldIndex) {
+		JCoParameterList export = function.getExportParameterList();
 		
-		int replyFieldIndex = findFieldIndex(export, getReplyFieldIndex(), getReplyFieldName());
 		String result=null;
 		if (replyFieldIndex>0) {
 			if (export!=null) {
@@ -276,17 +290,7 @@ public class SapFunctionFacade implements INamedObject, HasPhysicalDestination {
 		if (pvl!=null) {
 			for (int i=0; i<pvl.size(); i++) {
 				ParameterValue pv = pvl.getParameterValue(i);
-				String name = pv.getDefinition().getName();
-				String value = pv.asStringValue("");
-				int slashPos=name.indexOf('/');
-				if (slashPos<0) {
-					input.setValue(name,value);
-				} else {
-					String structName=name.substring(0,slashPos);
-					String elemName=name.substring(slashPos+1);
-					JCoStructure struct=input.getStructure(structName);
-					struct.setValue(elemName,value);
-				}
+				SapFunctionMapping.setParameterValueByName(input, pv.getDefinition().getName(), pv.asStringValue(""));
 			}
 		}
 		int correlationIdFieldIndex = findFieldIndex(input, getCorrelationIdFieldIndex(), getCorrelationIdFieldName());
@@ -295,6 +299,24 @@ public class SapFunctionFacade implements INamedObject, HasPhysicalDestination {
 		}
 	}
 
+	/**
+	 * Same as {@link #message2FunctionCall(JCoFunction, String, String, ParameterValueList)}, using the field indices of the mapping.
+	 */
+	public void message2FunctionCall(SapFunctionMapping mapping, JCoFunction function, String request, String correlationId, ParameterValueList pvl) throws SapException {
+		JCoParameterList input = function.getImportParameterList();
+		setParameters(input, function.getTableParameterList(), request, mapping.getRequestFieldIndex());
+		if (pvl!=null) {
+			for (int i=0; i<pvl.size(); i++) {
+				ParameterValue pv = pvl.getParameterValue(i);
+				mapping.setParameterValue(input, pv.getDefinition().getName(), pv.asStringValue(""));
+			}
+		}
+		int correlationIdFieldIndex = mapping.getCorrelationIdFieldIndex();
+		if (correlationIdFieldIndex>0 && input!=null) {
+			input.setValue(correlationIdFieldIndex-1, correlationId);
+		}
+	}
+
 	public void message2FunctionResult(JCoFunction function, String result) throws SapException {
 		JCoParameterList output = function.getExportParameterList();
 		int replyFieldIndex = findFieldIndex(output, getReplyFieldIndex(), getReplyFieldName());
@@ -325,7 +347,7 @@ public class SapFunctionFacade implements INamedObject, HasPhysicalDestination {
 	protected JCoFunctionTemplate getFunctionTemplate(SapSystem sapSystem, String functionName) throws SapException {
 		JCoFunctionTemplate functionTemplate;
 		try {
-			functionTemplate = sapSystem.getJcoRepository().getFunctionTemplate(functionName);
+			functionTemplate = sapSystem.getFunctionTemplate(functionName);
 		} catch (Exception e) {
 			throw new SapException(getLogPrefix()+"exception obtaining template for function ["+functionName+"] from sapSystem ["+sapSystem.getName()+"]", e);
 		}
@@ -335,6 +357,21 @@ public class SapFunctionFacade implements INamedObject, HasPhysicalDestination {
 		return functionTemplate;
 	}
 
+	/**
+	 * Returns the mapping of messages and parameters to the fields of the function, derived from its template
+	 * when it is first used, or when the metadata of the system has been invalidated since.
+	 */
+	protected SapFunctionMapping getFunctionMapping(SapSystem sapSystem, String functionName) throws SapException {
+		String key = sapSystem.getName()+"/"+functionName;
+		SapFunctionMapping mapping = functionMappings.get(key);
+		int metadataGeneration = sapSystem.getMetadataGeneration();
+		if (mapping==null || mapping.getMetadataGeneration()!=metadataGeneration) {
+			mapping = new SapFunctionMapping(getFunctionTemplate(sapSystem, functionName), metadataGeneration, this);
+			functionMappings.put(key, mapping);
+		}
+		return mapping;
+	}
+
 	public int getCorrelationIdFieldIndex() {
 		return correlationIdFieldIndex;
 	}
@@ -0,0 +1,138 @@
+/*
+   Copyright 2016 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.extensions.sap.jco3;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.sap.conn.jco.JCoFunctionTemplate;
+import com.sap.conn.jco.JCoListMetaData;
+import com.sap.conn.jco.JCoParameterList;
+import com.sap.conn.jco.JCoRecordMetaData;
+
+/**
+ * Mapping of messages and parameters to the fields of a SAP function, derived once from the function template.
+ * <p>
+ * The indices of the request, reply and correlationId fields and of the fields that parameters are copied to are
+ * looked up in the metadata of the template when the mapping is created, or when a parameter is mapped for the first
+ * time, so calling a function only involves copying the values to fields by index.
+ * A mapping belongs to a generation of the metadata of the {@link SapSystem}, and is derived again when the metadata
+ * of the system has been invalidated.
+ * 
+ * @since   7.0
+ */
+public class SapFunctionMapping {
+
+	private JCoFunctionTemplate functionTemplate;
+	private int metadataGeneration;
+	private JCoListMetaData importMetaData;
+
+	private int requestFieldIndex;
+	private int replyFieldIndex;
+	private int correlationIdFieldIndex;
+
+	private Map<String,int[]> parameterFieldIndices = new ConcurrentHashMap<String,int[]>();
+
+	public SapFunctionMapping(JCoFunctionTemplate functionTemplate, int metadataGeneration, SapFunctionFacade facade) {
+		this.functionTemplate=functionTemplate;
+		this.metadataGeneration=metadataGeneration;
+		importMetaData=functionTemplate.getImportParameterList();
+		JCoListMetaData exportMetaData=functionTemplate.getExportParameterList();
+		requestFieldIndex=findFieldIndex(importMetaData, facade.getRequestFieldIndex(), facade.getRequestFieldName());
+		replyFieldIndex=findFieldIndex(exportMetaData, facade.getReplyFieldIndex(), facade.getReplyFieldName());
+		correlationIdFieldIndex=findFieldIndex(importMetaData, facade.getCorrelationIdFieldIndex(), facade.getCorrelationIdFieldName());
+	}
+
+	/**
+	 * Same as {@link SapFunctionFacade#findFieldIndex(JCoParameterList, int, String)}, but on the metadata of the template.
+	 */
+	private int findFieldIndex(JCoListMetaData metaData, int index, String name) {
+		if (index!=0 || StringUtils.isEmpty(name)) {
+			return index;
+		}
+		if (metaData==null) {
+			return 0;
+		}
+		return 1+metaData.indexOf(name);
+	}
+
+	/**
+	 * Copies a parameter value to the field of the import parameters with the same name, or to an element of a
+	 * structure when the name has the form <code>structure/element</code>.
+	 */
+	public void setParameterValue(JCoParameterList input, String name, String value) {
+		int[] indices=parameterFieldIndices.get(name);
+		if (indices==null) {
+			indices=calculateParameterFieldIndices(name);
+			if (indices==null) {
+				// not in the template, let JCo report the unknown field
+				setParameterValueByName(input, name, value);
+				return;
+			}
+			parameterFieldIndices.put(name, indices);
+		}
+		if (indices.length==1) {
+			input.setValue(indices[0], value);
+		} else {
+			input.getStructure(indices[0]).setValue(indices[1], value);
+		}
+	}
+
+	private int[] calculateParameterFieldIndices(String name) {
+		if (importMetaData==null) {
+			return null;
+		}
+		int slashPos=name.indexOf('/');
+		if (slashPos<0) {
+			int index=importMetaData.indexOf(name);
+			return index<0 ? null : new int[] {index};
+		}
+		int structIndex=importMetaData.indexOf(name.substring(0,slashPos));
+		if (structIndex<0 || !importMetaData.isStructure(structIndex)) {
+			return null;
+		}
+		JCoRecordMetaData structMetaData=importMetaData.getRecordMetaData(structIndex);
+		int elemIndex=structMetaData.indexOf(name.substring(slashPos+1));
+		return elemIndex<0 ? null : new int[] {structIndex, elemIndex};
+	}
+
+	static void setParameterValueByName(JCoParameterList input, String name, String value) {
+		int slashPos=name.indexOf('/');
+		if (slashPos<0) {
+			input.setValue(name,value);
+		} else {
+			input.getStructure(name.substring(0,slashPos)).setValue(name.substring(slashPos+1),value);
+		}
+	}
+
+	public JCoFunctionTemplate getFunctionTemplate() {
+		return functionTemplate;
+	}
+	public int getMetadataGeneration() {
+		return metadataGeneration;
+	}
+	public int getRequestFieldIndex() {
+		return requestFieldIndex;
+	}
+	public int getReplyFieldIndex() {
+		return replyFieldIndex;
+	}
+	public int getCorrelationIdFieldIndex() {
+		return correlationIdFieldIndex;
+	}
+}
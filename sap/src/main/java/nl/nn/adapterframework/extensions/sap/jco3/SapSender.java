@@ -1,5 +1,5 @@
 /*
-   Copyright 2013 Nationale-Nederlanden
+   Copyright 2013, 2016 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -100,9 +100,10 @@ public class SapSender extends SapSenderBase {
 	}
 
 	public JCoFunction getFunction(SapSystem sapSystem, ParameterValueList pvl) throws SapException {
-		if (StringUtils.isNotEmpty(getSapSystemName()) && StringUtils.isNotEmpty(getFunctionName())) {
-			return getFunctionTemplate().getFunction();
-		}
+		return getFunctionMapping(sapSystem, pvl).getFunctionTemplate().getFunction();
+	}
+
+	protected SapFunctionMapping getFunctionMapping(SapSystem sapSystem, ParameterValueList pvl) throws SapException {
 		String functionName=getFunctionName();
 		if (StringUtils.isEmpty(functionName)) {
 			if (pvl==null) {
@@ -117,19 +118,21 @@ public class SapSender extends SapSenderBase {
 		if (StringUtils.isEmpty(functionName)) {
 			throw new SapException("could not determine functionName using parameter ["+getFunctionNameParam()+"]");
 		}
-		return getFunctionTemplate(sapSystem, functionName).getFunction();
+		return getFunctionMapping(sapSystem, functionName);
 	}
 
 	public String sendMessage(String correlationID, String message, ParameterResolutionContext prc) throws SenderException, TimeOutException {
 		String tid=null;
+		SapSystem sapSystem=null;
 		try {
 			ParameterValueList pvl = null;
 			if (prc!=null) {
 				pvl=prc.getValues(paramList);
 			}
-			SapSystem sapSystem = getSystem(pvl);
+			sapSystem = getSystem(pvl);
 			
-			JCoFunction function=getFunction(sapSystem, pvl);
+			SapFunctionMapping mapping=getFunctionMapping(sapSystem, pvl);
+			JCoFunction function=mapping.getFunctionTemplate().getFunction();
 
 			if (StringUtils.isEmpty(getSapSystemName())) {
 				pvl.removeParameterValue(getSapSystemNameParam());
@@ -137,7 +140,7 @@ public class SapSender extends SapSenderBase {
 			if (StringUtils.isEmpty(getFunctionName())) {
 				pvl.removeParameterValue(getFunctionNameParam());
 			}
-			message2FunctionCall(function, message, correlationID, pvl);
+			message2FunctionCall(mapping, function, message, correlationID, pvl);
 			if (log.isDebugEnabled()) log.debug(getLogPrefix()+" function call ["+functionCall2message(function)+"]");
 
 			JCoDestination destination = getDestination(prc.getSession(), sapSystem);
@@ -149,11 +152,14 @@ public class SapSender extends SapSenderBase {
 			}
 
 			if (isSynchronous()) {
-				return functionResult2message(function);
+				return functionResult2message(mapping, function);
 			} else {
 				return tid;
 			}
 		} catch (Exception e) {
+			if (sapSystem!=null) {
+				sapSystem.invalidateMetadataOnError(e);
+			}
 			throw new SenderException(e);
 		}
 	}
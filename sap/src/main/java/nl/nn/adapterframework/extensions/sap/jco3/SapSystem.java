@@ -1,5 +1,5 @@
 /*
-   Copyright 2013 Nationale-Nederlanden
+   Copyright 2013, 2016 Nationale-Nederlanden
 
    Licensed under the Apache License, Version 2.0 (the "License");
    you may not use this file except in compliance with the License.
@@ -16,7 +16,10 @@
 package nl.nn.adapterframework.extensions.sap.jco3;
 
 import java.lang.reflect.Field;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import nl.nn.adapterframework.util.AppConstants;
 import nl.nn.adapterframework.util.CredentialFactory;
@@ -26,13 +29,19 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.builder.ReflectionToStringBuilder;
 import org.apache.commons.lang.builder.ToStringBuilder;
 
+import com.sap.conn.idoc.IDocFieldNotFoundException;
+import com.sap.conn.idoc.IDocMetaDataUnavailableException;
+import com.sap.conn.idoc.IDocRecordMetaData;
 import com.sap.conn.idoc.IDocRepository;
+import com.sap.conn.idoc.IDocSegment;
 import com.sap.conn.idoc.jco.JCoIDoc;
 import com.sap.conn.jco.JCo;
 import com.sap.conn.jco.JCoDestination;
 import com.sap.conn.jco.JCoDestinationManager;
 import com.sap.conn.jco.JCoException;
+import com.sap.conn.jco.JCoFunctionTemplate;
 import com.sap.conn.jco.JCoRepository;
+import com.sap.conn.jco.JCoRuntimeException;
 /**
  * A SapSystem is a provider of repository information and connections to a SAP-system.
  * <p><b>Configuration:</b>
@@ -56,6 +65,7 @@ import com.sap.conn.jco.JCoRepository;
  * <tr><td>{@link #setUnicode(boolean) unicode}</td><td>when set <code>true</code> the SAP system is interpreted as Unicode SAP system, otherwise as non-Unicode (only applies to SapListeners, not to SapSenders)</td><td>false</td></tr>
  * <tr><td>{@link #setMaxConnections(int) maxConnections}</td><td>maximum number of connections that may connect simultaneously to the SAP system</td><td>10</td></tr>
  * <tr><td>{@link #setTraceLevel(int) traceLevel}</td><td>trace level (effective only when logging level is debug). 0=none, 10= maximum</td><td>0</td></tr>
+ * <tr><td>{@link #setMetadataMaxAge(int) metadataMaxAge}</td><td>time (in seconds) after which the function templates and IDoc metadata obtained from the SAP system are obtained again. 0 means they are kept until the system is closed, or a call fails because the metadata does not match the SAP system anymore</td><td>0</td></tr>
  * </table>
  * </p>	
  * @author Gerrit van Brakel
@@ -81,9 +91,16 @@ public class SapSystem extends GlobalListItem {
 	private boolean unicode = false;
 	private int maxConnections = 10;
 	private int traceLevel = 0;
+	private int metadataMaxAge = 0;
 
 	private int referenceCount=0;
 
+	private Map<String,JCoFunctionTemplate> functionTemplates = new ConcurrentHashMap<String,JCoFunctionTemplate>();
+	private IDocRepository idocRepository;
+	private Map<String,Map<String,Integer>> idocFieldIndices = new ConcurrentHashMap<String,Map<String,Integer>>();
+	private volatile int metadataGeneration=0;
+	private volatile long metadataTimestamp=System.currentTimeMillis();
+
 
 	/**
 	 * Retrieve a SapSystem from the list of systems.
@@ -94,6 +111,7 @@ public class SapSystem extends GlobalListItem {
 
 	private void clearSystem() {
 		SapSystemDataProvider.getInstance().unregisterSystem(this);
+		invalidateMetadata();
 	}
 
 	private void initSystem() throws SapException {
@@ -162,7 +180,103 @@ public class SapSystem extends GlobalListItem {
 	}
 
 	public synchronized IDocRepository getIDocRepository() throws JCoException {
-		return JCoIDoc.getIDocRepository(getDestination());
+		checkMetadataAge();
+		if (idocRepository==null) {
+			idocRepository=JCoIDoc.getIDocRepository(getDestination());
+		}
+		return idocRepository;
+	}
+
+	/**
+	 * Returns the template of the function, obtained from the repository once and shared by all senders and
+	 * listeners of this system, until {@link #invalidateMetadata()} is called.
+	 */
+	public JCoFunctionTemplate getFunctionTemplate(String functionName) throws JCoException {
+		checkMetadataAge();
+		JCoFunctionTemplate functionTemplate=functionTemplates.get(functionName);
+		if (functionTemplate==null) {
+			functionTemplate=loadFunctionTemplate(functionName);
+			if (functionTemplate!=null) {
+				functionTemplates.put(functionName, functionTemplate);
+			}
+		}
+		return functionTemplate;
+	}
+
+	protected JCoFunctionTemplate loadFunctionTemplate(String functionName) throws JCoException {
+		if (log.isDebugEnabled()) log.debug(getLogPrefix()+"obtaining template for function ["+functionName+"] from repository");
+		return getJcoRepository().getFunctionTemplate(functionName);
+	}
+
+	/**
+	 * Returns the index of the field in segments of the type of <code>segment</code>, derived once from the metadata
+	 * of the segment type, or -1 when the segment has no such field.
+	 */
+	public int getIDocFieldIndex(IDocSegment segment, String fieldName) {
+		String segmentType=segment.getType();
+		Map<String,Integer> indices=idocFieldIndices.get(segmentType);
+		if (indices==null) {
+			IDocRecordMetaData metaData=segment.getRecordMetaData();
+			indices=new HashMap<String,Integer>();
+			for (int i=0; i<metaData.getNumFields(); i++) {
+				indices.put(metaData.getName(i), i);
+			}
+			idocFieldIndices.put(segmentType, indices);
+		}
+		Integer index=indices.get(fieldName);
+		return index==null ? -1 : index;
+	}
+
+	/**
+	 * Discards the cached function templates, IDoc repository and IDoc field indices, and the field mappings that
+	 * were derived from them, e.g. after the definition of a function in SAP has changed.
+	 */
+	public synchronized void invalidateMetadata() {
+		functionTemplates.clear();
+		idocRepository=null;
+		idocFieldIndices.clear();
+		metadataGeneration++;
+		metadataTimestamp=System.currentTimeMillis();
+		log.debug(getLogPrefix()+"invalidated metadata");
+	}
+
+	/**
+	 * Invalidates the metadata when <code>t</code>, or one of its causes, indicates that the metadata does not match
+	 * the SAP system anymore, so that it is obtained again for the next call.
+	 * @return <code>true</code> when the metadata was invalidated
+	 */
+	public boolean invalidateMetadataOnError(Throwable t) {
+		for (Throwable cause=t; cause!=null; cause=cause.getCause()) {
+			if (cause instanceof JCoException && isMetadataErrorGroup(((JCoException)cause).getGroup())
+					|| cause instanceof JCoRuntimeException && isMetadataErrorGroup(((JCoRuntimeException)cause).getGroup())
+					|| cause instanceof IDocMetaDataUnavailableException
+					|| cause instanceof IDocFieldNotFoundException) {
+				log.info(getLogPrefix()+"invalidating metadata after error ["+cause.getMessage()+"]");
+				invalidateMetadata();
+				return true;
+			}
+			if (cause.getCause()==cause) {
+				break;
+			}
+		}
+		return false;
+	}
+
+	private boolean isMetadataErrorGroup(int group) {
+		return group==JCoException.JCO_ERROR_FUNCTION_NOT_FOUND || group==JCoException.JCO_ERROR_FIELD_NOT_FOUND;
+	}
+
+	private void checkMetadataAge() {
+		if (getMetadataMaxAge()>0 && System.currentTimeMillis()-metadataTimestamp>getMetadataMaxAge()*1000L) {
+			invalidateMetadata();
+		}
+	}
+
+	/**
+	 * Incremented each time the metadata is invalidated, to detect field mappings that must be derived again.
+	 */
+	public int getMetadataGeneration() {
+		return metadataGeneration;
 	}
 
 	public String getLogPrefix() {
@@ -334,4 +448,12 @@ public class SapSystem extends GlobalListItem {
 	public int getTraceLevel() {
 		return traceLevel;
 	}
+
+	public void setMetadataMaxAge(int i) {
+		metadataMaxAge = i;
+	}
+
+	public int getMetadataMaxAge() {
+		return metadataMaxAge;
+	}
 }
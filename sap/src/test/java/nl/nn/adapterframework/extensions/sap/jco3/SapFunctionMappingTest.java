@@ -0,0 +1,98 @@
+package nl.nn.adapterframework.extensions.sap.jco3;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sap.conn.jco.JCoFunctionTemplate;
+import com.sap.conn.jco.JCoListMetaData;
+import com.sap.conn.jco.JCoParameterList;
+import com.sap.conn.jco.JCoRecordMetaData;
+import com.sap.conn.jco.JCoStructure;
+
+/**
+ * Tests the {@link SapFunctionMapping} against the metadata of a stub function template.
+ */
+public class SapFunctionMappingTest {
+
+	private JCoFunctionTemplate template;
+	private JCoListMetaData importMetaData;
+	private JCoListMetaData exportMetaData;
+	private SapFunctionFacade facade;
+
+	@Before
+	public void setUp() {
+		importMetaData = mock(JCoListMetaData.class);
+		when(importMetaData.indexOf("CORRID")).thenReturn(0);
+		when(importMetaData.indexOf("REQUEST")).thenReturn(1);
+		when(importMetaData.indexOf("PARAM")).thenReturn(2);
+		when(importMetaData.indexOf("STRUCT")).thenReturn(3);
+		when(importMetaData.indexOf("UNKNOWN")).thenReturn(-1);
+		when(importMetaData.isStructure(3)).thenReturn(true);
+		JCoRecordMetaData structMetaData = mock(JCoRecordMetaData.class);
+		when(structMetaData.indexOf("ELEM")).thenReturn(4);
+		when(importMetaData.getRecordMetaData(3)).thenReturn(structMetaData);
+
+		exportMetaData = mock(JCoListMetaData.class);
+		when(exportMetaData.indexOf("REPLY")).thenReturn(0);
+
+		template = mock(JCoFunctionTemplate.class);
+		when(template.getImportParameterList()).thenReturn(importMetaData);
+		when(template.getExportParameterList()).thenReturn(exportMetaData);
+
+		facade = new SapFunctionFacade();
+		facade.setRequestFieldName("REQUEST");
+		facade.setReplyFieldName("REPLY");
+		facade.setCorrelationIdFieldName("CORRID");
+	}
+
+	@Test
+	public void testFieldIndicesAreDerivedFromTemplate() {
+		SapFunctionMapping mapping = new SapFunctionMapping(template, 3, facade);
+		assertEquals(2, mapping.getRequestFieldIndex());
+		assertEquals(1, mapping.getReplyFieldIndex());
+		assertEquals(1, mapping.getCorrelationIdFieldIndex());
+		assertEquals(3, mapping.getMetadataGeneration());
+	}
+
+	@Test
+	public void testConfiguredFieldIndicesTakePrecedence() {
+		facade.setRequestFieldIndex(5);
+		SapFunctionMapping mapping = new SapFunctionMapping(template, 0, facade);
+		assertEquals(5, mapping.getRequestFieldIndex());
+	}
+
+	@Test
+	public void testParameterIsSetByIndex() {
+		SapFunctionMapping mapping = new SapFunctionMapping(template, 0, facade);
+		JCoParameterList input = mock(JCoParameterList.class);
+		mapping.setParameterValue(input, "PARAM", "a");
+		mapping.setParameterValue(input, "PARAM", "b");
+		verify(input).setValue(2, "a");
+		verify(input).setValue(2, "b");
+		verify(importMetaData, times(1)).indexOf("PARAM");
+	}
+
+	@Test
+	public void testStructureElementIsSetByIndex() {
+		SapFunctionMapping mapping = new SapFunctionMapping(template, 0, facade);
+		JCoParameterList input = mock(JCoParameterList.class);
+		JCoStructure structure = mock(JCoStructure.class);
+		when(input.getStructure(3)).thenReturn(structure);
+		mapping.setParameterValue(input, "STRUCT/ELEM", "a");
+		verify(structure).setValue(4, "a");
+	}
+
+	@Test
+	public void testUnknownParameterIsSetByName() {
+		SapFunctionMapping mapping = new SapFunctionMapping(template, 0, facade);
+		JCoParameterList input = mock(JCoParameterList.class);
+		mapping.setParameterValue(input, "UNKNOWN", "a");
+		verify(input).setValue("UNKNOWN", "a");
+	}
+}
@@ -0,0 +1,115 @@
+package nl.nn.adapterframework.extensions.sap.jco3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import nl.nn.adapterframework.core.SenderException;
+
+import org.junit.Test;
+
+import com.sap.conn.idoc.IDocRecordMetaData;
+import com.sap.conn.idoc.IDocSegment;
+import com.sap.conn.jco.JCoException;
+import com.sap.conn.jco.JCoFunctionTemplate;
+import com.sap.conn.jco.JCoRuntimeException;
+
+/**
+ * Tests the metadata caches of the {@link SapSystem}, with a system that provides stub function templates
+ * instead of obtaining them from a SAP repository.
+ */
+public class SapSystemTest {
+
+	public static class StubSapSystem extends SapSystem {
+		Map<String,Integer> loads = new HashMap<String,Integer>();
+
+		protected JCoFunctionTemplate loadFunctionTemplate(String functionName) {
+			Integer count = loads.get(functionName);
+			loads.put(functionName, count==null ? 1 : count+1);
+			return mock(JCoFunctionTemplate.class);
+		}
+
+		int getLoads(String functionName) {
+			Integer count = loads.get(functionName);
+			return count==null ? 0 : count;
+		}
+	}
+
+	@Test
+	public void testFunctionTemplatesAreShared() throws Exception {
+		StubSapSystem sapSystem = new StubSapSystem();
+		JCoFunctionTemplate template = sapSystem.getFunctionTemplate("FUNC");
+		assertSame(template, sapSystem.getFunctionTemplate("FUNC"));
+		assertEquals(1, sapSystem.getLoads("FUNC"));
+		assertNotSame(template, sapSystem.getFunctionTemplate("OTHER"));
+	}
+
+	@Test
+	public void testInvalidateMetadata() throws Exception {
+		StubSapSystem sapSystem = new StubSapSystem();
+		JCoFunctionTemplate template = sapSystem.getFunctionTemplate("FUNC");
+		int generation = sapSystem.getMetadataGeneration();
+		sapSystem.invalidateMetadata();
+		assertEquals(generation+1, sapSystem.getMetadataGeneration());
+		assertNotSame(template, sapSystem.getFunctionTemplate("FUNC"));
+		assertEquals(2, sapSystem.getLoads("FUNC"));
+	}
+
+	@Test
+	public void testMetadataMaxAge() throws Exception {
+		StubSapSystem sapSystem = new StubSapSystem();
+		sapSystem.setMetadataMaxAge(1);
+		sapSystem.getFunctionTemplate("FUNC");
+		sapSystem.getFunctionTemplate("FUNC");
+		assertEquals(1, sapSystem.getLoads("FUNC"));
+		Thread.sleep(1100);
+		sapSystem.getFunctionTemplate("FUNC");
+		assertEquals(2, sapSystem.getLoads("FUNC"));
+	}
+
+	@Test
+	public void testInvalidateMetadataOnError() throws Exception {
+		StubSapSystem sapSystem = new StubSapSystem();
+		sapSystem.getFunctionTemplate("FUNC");
+		int generation = sapSystem.getMetadataGeneration();
+
+		assertFalse(sapSystem.invalidateMetadataOnError(new SenderException("connection refused")));
+		assertEquals(generation, sapSystem.getMetadataGeneration());
+
+		JCoRuntimeException fieldNotFound = new JCoRuntimeException(JCoException.JCO_ERROR_FIELD_NOT_FOUND, "JCO_ERROR_FIELD_NOT_FOUND", "Field REQUEST not a member of INPUT");
+		assertTrue(sapSystem.invalidateMetadataOnError(new SenderException(fieldNotFound)));
+		assertEquals(generation+1, sapSystem.getMetadataGeneration());
+		sapSystem.getFunctionTemplate("FUNC");
+		assertEquals(2, sapSystem.getLoads("FUNC"));
+	}
+
+	@Test
+	public void testIDocFieldIndices() throws Exception {
+		StubSapSystem sapSystem = new StubSapSystem();
+		IDocRecordMetaData metaData = mock(IDocRecordMetaData.class);
+		when(metaData.getNumFields()).thenReturn(2);
+		when(metaData.getName(0)).thenReturn("MATNR");
+		when(metaData.getName(1)).thenReturn("MAKTX");
+		IDocSegment segment = mock(IDocSegment.class);
+		when(segment.getType()).thenReturn("E1MARAM");
+		when(segment.getRecordMetaData()).thenReturn(metaData);
+
+		assertEquals(0, sapSystem.getIDocFieldIndex(segment, "MATNR"));
+		assertEquals(1, sapSystem.getIDocFieldIndex(segment, "MAKTX"));
+		assertEquals(-1, sapSystem.getIDocFieldIndex(segment, "UNKNOWN"));
+		verify(segment, times(1)).getRecordMetaData();
+
+		sapSystem.invalidateMetadata();
+		sapSystem.getIDocFieldIndex(segment, "MATNR");
+		verify(segment, times(2)).getRecordMetaData();
+	}
+}
@@ -28,7 +28,6 @@ import java.util.LinkedList;
 import java.util.Map;
 
 import javax.jms.Connection;
-import javax.jms.ConnectionFactory;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.Queue;
@@ -62,7 +61,6 @@ import com.tibco.tibjms.admin.QueueInfo;
 import com.tibco.tibjms.admin.ServerInfo;
 import com.tibco.tibjms.admin.TibjmsAdmin;
 import com.tibco.tibjms.admin.TibjmsAdminException;
-import com.tibco.tibjms.admin.TibjmsAdminInvalidNameException;
 import com.tibco.tibjms.admin.UserInfo;
 
 /**
@@ -155,15 +153,30 @@ public class GetTibcoQueues extends TimeoutGuardPipe {
 		CredentialFactory cf = new CredentialFactory(authAlias_work,
 				userName_work, password_work);
 
+		queueName_work = getParameterValue(pvl, "queueName");
+		if (StringUtils.isNotEmpty(queueName_work)) {
+			String countOnly_work = getParameterValue(pvl, "countOnly");
+			boolean countOnly = ("true".equalsIgnoreCase(countOnly_work) ? true
+					: false);
+			if (countOnly) {
+				try {
+					return getQueueMessageCountOnly(url_work, cf, queueName_work);
+				} catch (Exception e) {
+					throw new PipeRunException(this, getLogPrefix(session)
+							+ "exception on counting messages of Tibco queue, url ["
+							+ url_work + "] queue [" + queueName_work + "]", e);
+				}
+			}
+		}
+
+		TibcoConnectionPool<TibjmsAdmin> adminPool = TibcoUtils.getAdminPool(url_work, cf);
+		TibcoConnectionPool<Connection> connectionPool = TibcoUtils.getConnectionPool(url_work, cf);
 		Connection connection = null;
 		Session jSession = null;
 		TibjmsAdmin admin = null;
+		boolean failed = true;
 		try {
-			admin = TibcoUtils.getActiveServerAdmin(url_work, cf);
-			if (admin == null) {
-				throw new PipeRunException(this,
-						"could not find an active server");
-			}
+			admin = adminPool.borrow();
 
 			String ldapUrl = getParameterValue(pvl, "ldapUrl");
 			LdapSender ldapSender = null;
@@ -171,20 +184,7 @@ public class GetTibcoQueues extends TimeoutGuardPipe {
 				ldapSender = retrieveLdapSender(ldapUrl, cf);
 			}
 
-			queueName_work = getParameterValue(pvl, "queueName");
-			if (StringUtils.isNotEmpty(queueName_work)) {
-				String countOnly_work = getParameterValue(pvl, "countOnly");
-				boolean countOnly = ("true".equalsIgnoreCase(countOnly_work) ? true
-						: false);
-				if (countOnly) {
-					return getQueueMessageCountOnly(admin, queueName_work);
-				}
-			}
-
-			ConnectionFactory factory = new com.tibco.tibjms.TibjmsConnectionFactory(
-					url_work);
-			connection = factory.createConnection(cf.getUsername(),
-					cf.getPassword());
+			connection = connectionPool.borrow();
 			jSession = connection.createSession(false,
 					javax.jms.Session.AUTO_ACKNOWLEDGE);
 
@@ -203,6 +203,7 @@ public class GetTibcoQueues extends TimeoutGuardPipe {
 						: false);
 				result = getQueuesInfo(jSession, admin, showAge, ldapSender);
 			}
+			failed = false;
 		} catch (Exception e) {
 			String msg = getLogPrefix(session)
 					+ "exception on showing Tibco queues, url ["
@@ -212,22 +213,21 @@ public class GetTibcoQueues extends TimeoutGuardPipe {
 							+ queueName_work + "]" : "");
 			throw new PipeRunException(this, msg, e);
 		} finally {
-			if (admin != null) {
-				try {
-					admin.close();
-				} catch (TibjmsAdminException e) {
-					log.warn(getLogPrefix(session)
-							+ "exception on closing Tibjms Admin", e);
-				}
-			}
-			if (connection != null) {
+			if (jSession != null) {
 				try {
-					connection.close();
+					jSession.close();
 				} catch (JMSException e) {
 					log.warn(getLogPrefix(session)
-							+ "exception on closing connection", e);
+							+ "exception on closing session", e);
 				}
 			}
+			if (failed) {
+				adminPool.invalidate(admin);
+				connectionPool.invalidate(connection);
+			} else {
+				adminPool.release(admin);
+				connectionPool.release(connection);
+			}
 		}
 		return result;
 	}
@@ -391,10 +391,9 @@ public class GetTibcoQueues extends TimeoutGuardPipe {
 		return qMessageXml.toXML();
 	}
 
-	private String getQueueMessageCountOnly(TibjmsAdmin admin, String queueName)
-			throws TibjmsAdminInvalidNameException, TibjmsAdminException {
-		QueueInfo queueInfo = admin.getQueue(queueName);
-		long pendingMessageCount = queueInfo.getPendingMessageCount();
+	private String getQueueMessageCountOnly(String url, CredentialFactory cf, String queueName)
+			throws Exception {
+		long pendingMessageCount = TibcoUtils.getQueuePendingMessageCount(url, cf, queueName);
 		return "<qCount>" + String.valueOf(pendingMessageCount) + "</qCount>";
 	}
 
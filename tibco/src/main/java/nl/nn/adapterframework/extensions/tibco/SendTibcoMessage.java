@@ -42,7 +42,6 @@ import org.apache.commons.lang.StringUtils;
 
 import com.tibco.tibjms.admin.QueueInfo;
 import com.tibco.tibjms.admin.TibjmsAdmin;
-import com.tibco.tibjms.admin.TibjmsAdminException;
 
 /**
  * Sends a message to a Tibco queue.
@@ -201,10 +200,11 @@ public class SendTibcoMessage extends TimeoutGuardPipe {
 
 		CredentialFactory cf = new CredentialFactory(authAlias_work, userName_work, password_work);
 		try {
+			TibcoConnectionPool<TibjmsAdmin> adminPool = TibcoUtils.getAdminPool(url_work, cf);
 			TibjmsAdmin admin;
 			try {
-				admin = TibcoUtils.getActiveServerAdmin(url_work, cf);
-			} catch (TibjmsAdminException e) {
+				admin = adminPool.borrow();
+			} catch (Exception e) {
 				log.debug(getLogPrefix(session) + "caught exception", e);
 				admin = null;
 			}
@@ -213,20 +213,15 @@ public class SendTibcoMessage extends TimeoutGuardPipe {
 				try {
 					queueInfo = admin.getQueue(queueName_work);
 				} catch (Exception e) {
+					adminPool.invalidate(admin);
 					throw new PipeRunException(this, getLogPrefix(session)
 							+ " exception on getting queue info", e);
 				}
+				adminPool.release(admin);
 				if (queueInfo == null) {
 					throw new PipeRunException(this, getLogPrefix(session)
 							+ " queue [" + queueName_work + "] does not exist");
 				}
-
-				try {
-					admin.close();
-				} catch (TibjmsAdminException e) {
-					log.warn(getLogPrefix(session)
-							+ "exception on closing Tibjms Admin", e);
-				}
 			}			
 			
 			ConnectionFactory factory = new com.tibco.tibjms.TibjmsConnectionFactory(
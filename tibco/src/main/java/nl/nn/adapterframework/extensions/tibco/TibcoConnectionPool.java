@@ -0,0 +1,218 @@
+/*
+   Copyright 2016 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.extensions.tibco;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import nl.nn.adapterframework.util.CounterStatistic;
+import nl.nn.adapterframework.util.LogUtil;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Pool of connections to a TIBCO server, used to avoid opening a new (admin) connection for every
+ * queue that is inspected.
+ * <p>
+ * Connections are created and checked by a {@link Connector}, so the same pool is used for
+ * {@link com.tibco.tibjms.admin.TibjmsAdmin} and JMS connections, and can be tested with a stub.
+ * An idle connection that is no longer valid, for instance because the server has failed over,
+ * is closed when it is borrowed and replaced by a new connection. A connection is closed when it
+ * has been idle for longer than <code>idleTimeout</code> milliseconds, or when more than
+ * <code>maxIdle</code> connections would be kept open. Idle connections are evicted when a connection is
+ * borrowed, and periodically by {@link TibcoUtils} for the pools it keeps.
+ * 
+ * @since   7.0
+ */
+public class TibcoConnectionPool<C> {
+	protected Logger log = LogUtil.getLogger(this);
+
+	public interface Connector<C> {
+		/**
+		 * Opens a new connection.
+		 */
+		C connect() throws Exception;
+		/**
+		 * Checks if an idle connection can still be used.
+		 */
+		boolean isValid(C connection);
+		void close(C connection);
+	}
+
+	public interface Action<C,T> {
+		T execute(C connection) throws Exception;
+	}
+
+	private class IdleConnection {
+		C connection;
+		long lastUsed;
+
+		IdleConnection(C connection, long lastUsed) {
+			this.connection=connection;
+			this.lastUsed=lastUsed;
+		}
+	}
+
+	private String name;
+	private Connector<C> connector;
+	private int maxIdle;
+	private long idleTimeout;
+
+	private LinkedList<IdleConnection> idleConnections = new LinkedList<IdleConnection>();
+	private int inUse=0;
+	private boolean closed=false;
+
+	private CounterStatistic connectionsOpened = new CounterStatistic(0);
+	private CounterStatistic connectionsReused = new CounterStatistic(0);
+
+	public TibcoConnectionPool(String name, Connector<C> connector, int maxIdle, long idleTimeout) {
+		this.name=name;
+		this.connector=connector;
+		this.maxIdle=maxIdle;
+		this.idleTimeout=idleTimeout;
+	}
+
+	/**
+	 * Returns a valid connection, either an idle one from the pool or a new one.
+	 * Each connection obtained must be handed back by {@link #release(Object)} or {@link #invalidate(Object)}.
+	 */
+	public C borrow() throws Exception {
+		evictIdle();
+		while (true) {
+			IdleConnection candidate;
+			synchronized (this) {
+				if (idleConnections.isEmpty()) {
+					break;
+				}
+				candidate=idleConnections.removeFirst();
+			}
+			if (connector.isValid(candidate.connection)) {
+				connectionsReused.increase();
+				borrowed();
+				return candidate.connection;
+			}
+			if (log.isDebugEnabled()) log.debug(name+" discarding connection that is no longer valid");
+			connector.close(candidate.connection);
+		}
+		C connection = connector.connect();
+		connectionsOpened.increase();
+		borrowed();
+		if (log.isDebugEnabled()) log.debug(name+" opened new connection");
+		return connection;
+	}
+
+	/**
+	 * Hands a connection back after successful use. Connections that do not fit in the pool are closed.
+	 */
+	public void release(C connection) {
+		if (connection==null) {
+			return;
+		}
+		synchronized (this) {
+			inUse--;
+			if (!closed && idleConnections.size()<maxIdle) {
+				idleConnections.addFirst(new IdleConnection(connection, System.currentTimeMillis()));
+				return;
+			}
+		}
+		connector.close(connection);
+	}
+
+	/**
+	 * Closes a connection that has encountered an error, so it will not be reused.
+	 */
+	public void invalidate(C connection) {
+		if (connection!=null) {
+			synchronized (this) {
+				inUse--;
+			}
+			connector.close(connection);
+		}
+	}
+
+	private synchronized void borrowed() {
+		inUse++;
+	}
+
+	/**
+	 * Executes the action on a pooled connection. The connection is invalidated when the action fails.
+	 */
+	public <T> T execute(Action<C,T> action) throws Exception {
+		C connection = borrow();
+		T result;
+		try {
+			result = action.execute(connection);
+		} catch (Exception e) {
+			invalidate(connection);
+			throw e;
+		}
+		release(connection);
+		return result;
+	}
+
+	/**
+	 * Closes connections that have been idle for longer than <code>idleTimeout</code>.
+	 */
+	public void evictIdle() {
+		long now=System.currentTimeMillis();
+		LinkedList<IdleConnection> expired = new LinkedList<IdleConnection>();
+		synchronized (this) {
+			for (Iterator<IdleConnection> it=idleConnections.iterator();it.hasNext();) {
+				IdleConnection candidate=it.next();
+				if (idleTimeout>0 && now-candidate.lastUsed>idleTimeout) {
+					it.remove();
+					expired.add(candidate);
+				}
+			}
+		}
+		for (IdleConnection candidate:expired) {
+			connector.close(candidate.connection);
+		}
+	}
+
+	/**
+	 * Closes the pool when it has no idle connections and no connections in use, and returns whether it was closed.
+	 * Connections borrowed from a closed pool are closed when they are released.
+	 */
+	public synchronized boolean closeIfUnused() {
+		if (idleConnections.isEmpty() && inUse<=0) {
+			closed=true;
+		}
+		return closed;
+	}
+
+	public void close() {
+		LinkedList<IdleConnection> toClose;
+		synchronized (this) {
+			closed=true;
+			toClose=idleConnections;
+			idleConnections=new LinkedList<IdleConnection>();
+		}
+		for (IdleConnection candidate:toClose) {
+			connector.close(candidate.connection);
+		}
+	}
+
+	public synchronized int getIdleCount() {
+		return idleConnections.size();
+	}
+	public long getConnectionsOpened() {
+		return connectionsOpened.getValue();
+	}
+	public long getConnectionsReused() {
+		return connectionsReused.getValue();
+	}
+}
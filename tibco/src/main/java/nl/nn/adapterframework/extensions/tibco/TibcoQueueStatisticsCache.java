@@ -0,0 +1,94 @@
+/*
+   Copyright 2016 Nationale-Nederlanden
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.nn.adapterframework.extensions.tibco;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Short-lived snapshot cache of queue statistics, like pending message counts and the timestamp of the
+ * first message of a queue. Monitoring that polls the same queues in quick succession is served from
+ * memory, and the server is only queried again when the snapshot is older than <code>maxAge</code>
+ * milliseconds. A <code>maxAge</code> of 0 disables the cache.
+ * 
+ * @since   7.0
+ */
+public class TibcoQueueStatisticsCache<V> {
+
+	private static final int MAX_ENTRIES=10000;
+
+	public interface Loader<V> {
+		V load() throws Exception;
+	}
+
+	private class Snapshot {
+		V value;
+		long timestamp;
+
+		Snapshot(V value, long timestamp) {
+			this.value=value;
+			this.timestamp=timestamp;
+		}
+	}
+
+	private long maxAge;
+	private Map<String,Snapshot> snapshots = new HashMap<String,Snapshot>();
+
+	public TibcoQueueStatisticsCache(long maxAge) {
+		this.maxAge=maxAge;
+	}
+
+	/**
+	 * Returns the value of the snapshot for the key when it is younger than <code>maxAge</code>,
+	 * otherwise the value is loaded and stored as new snapshot.
+	 */
+	public V get(String key, Loader<V> loader) throws Exception {
+		if (maxAge<=0) {
+			return loader.load();
+		}
+		long now=System.currentTimeMillis();
+		synchronized (this) {
+			Snapshot snapshot=snapshots.get(key);
+			if (snapshot!=null && now-snapshot.timestamp<maxAge) {
+				return snapshot.value;
+			}
+		}
+		V value=loader.load();
+		synchronized (this) {
+			if (snapshots.size()>=MAX_ENTRIES) {
+				for (Iterator<Snapshot> it=snapshots.values().iterator();it.hasNext();) {
+					if (now-it.next().timestamp>=maxAge) {
+						it.remove();
+					}
+				}
+				if (snapshots.size()>=MAX_ENTRIES) {
+					snapshots.clear();
+				}
+			}
+			snapshots.put(key, new Snapshot(value, now));
+		}
+		return value;
+	}
+
+	public synchronized void clear() {
+		snapshots.clear();
+	}
+
+	public synchronized int size() {
+		return snapshots.size();
+	}
+}
@@ -15,7 +15,19 @@
  */
 package nl.nn.adapterframework.extensions.tibco;
 
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Enumeration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
@@ -25,25 +37,45 @@ import javax.jms.Queue;
 import javax.jms.QueueBrowser;
 import javax.jms.Session;
 
+import nl.nn.adapterframework.util.AppConstants;
 import nl.nn.adapterframework.util.CredentialFactory;
 import nl.nn.adapterframework.util.LogUtil;
 
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.time.DurationFormatUtils;
 import org.apache.log4j.Logger;
 
+import com.tibco.tibjms.admin.QueueInfo;
 import com.tibco.tibjms.admin.ServerInfo;
 import com.tibco.tibjms.admin.TibjmsAdmin;
 import com.tibco.tibjms.admin.TibjmsAdminException;
 
 /**
  * Some utilities for working with TIBCO.
+ * <p>
+ * Admin and JMS connections are kept in a {@link TibcoConnectionPool} per url and credentials, and the
+ * first message age and message count of queues are served from a {@link TibcoQueueStatisticsCache}.
+ * The pools and the cache are configured by the properties <code>tibco.connections.maxIdle</code>,
+ * <code>tibco.connections.idleTimeout</code> and <code>tibco.queueStatistics.maxAge</code>.
+ * Idle connections are closed periodically, every <code>tibco.connections.idleTimeout</code> milliseconds, and
+ * pools without idle connections or connections in use are removed, so no connections are kept open to urls
+ * that are no longer inspected.
+ * </p>
  * 
  * @author Peter Leeuwenburgh
  */
 public class TibcoUtils {
 	static Logger log = LogUtil.getLogger(TibcoUtils.class);
 
+	private static final int CONNECTIONS_MAX_IDLE = AppConstants.getInstance().getInt("tibco.connections.maxIdle", 2);
+	private static final long CONNECTIONS_IDLE_TIMEOUT = AppConstants.getInstance().getLong("tibco.connections.idleTimeout", 60000);
+
+	private static Map<String,TibcoConnectionPool<TibjmsAdmin>> adminPools = new HashMap<String,TibcoConnectionPool<TibjmsAdmin>>();
+	private static Map<String,TibcoConnectionPool<Connection>> connectionPools = new HashMap<String,TibcoConnectionPool<Connection>>();
+	private static ScheduledExecutorService evictor;
+	private static TibcoQueueStatisticsCache<Long> queueStatistics = new TibcoQueueStatisticsCache<Long>(AppConstants.getInstance().getLong("tibco.queueStatistics.maxAge", 0));
+
 	public static long getQueueFirstMessageAge(String provUrl,
 			String authAlias, String userName, String password, String queueName)
 			throws JMSException {
@@ -55,32 +87,46 @@ public class TibcoUtils {
 	 * return -1: no message found
 	 * return -2: message found, but not of type Message.
 	 */
-	public static long getQueueFirstMessageAge(String provUrl,
+	public static long getQueueFirstMessageAge(final String provUrl,
 			String authAlias, String userName, String password,
-			String queueName, String messageSelector) throws JMSException {
-		Connection connection = null;
-		Session jSession = null;
-		try {
-			connection = getConnection(provUrl, authAlias, userName, password);
-			jSession = connection.createSession(false,
-					javax.jms.Session.AUTO_ACKNOWLEDGE);
-			return getQueueFirstMessageAge(jSession, queueName, messageSelector);
-		} finally {
-			if (connection != null) {
-				try {
-					connection.close();
-				} catch (JMSException e) {
-					log.warn("Exception on closing connection", e);
-				}
-			}
+			final String queueName, final String messageSelector) throws JMSException {
+		final CredentialFactory cf = new CredentialFactory(authAlias, userName,
+				password);
+		String key = getKey(provUrl, cf) + "|firstMessageTimestamp|"
+				+ queueName + "|" + messageSelector;
+		long firstMessageTimestamp = getQueueStatistic(key,
+				new TibcoQueueStatisticsCache.Loader<Long>() {
+					public Long load() throws Exception {
+						return getConnectionPool(provUrl, cf).execute(
+								new TibcoConnectionPool.Action<Connection, Long>() {
+									public Long execute(Connection connection) throws JMSException {
+										Session jSession = connection.createSession(false,
+												javax.jms.Session.AUTO_ACKNOWLEDGE);
+										try {
+											return getQueueFirstMessageTimestamp(jSession,
+													queueName, messageSelector, true);
+										} finally {
+											jSession.close();
+										}
+									}
+								});
+					}
+				});
+		if (firstMessageTimestamp < 0) {
+			return firstMessageTimestamp;
 		}
+		return System.currentTimeMillis() - firstMessageTimestamp;
 	}
 
 	public static Connection getConnection(String provUrl, String authAlias,
 			String userName, String password) throws JMSException {
+		return getConnection(provUrl, new CredentialFactory(authAlias,
+				userName, password));
+	}
+
+	public static Connection getConnection(String provUrl, CredentialFactory cf)
+			throws JMSException {
 		String url = StringUtils.replace(provUrl, "tibjmsnaming:", "tcp:");
-		CredentialFactory cf = new CredentialFactory(authAlias, userName,
-				password);
 		ConnectionFactory factory = new com.tibco.tibjms.TibjmsConnectionFactory(
 				url);
 		return factory.createConnection(cf.getUsername(), cf.getPassword());
@@ -112,6 +158,21 @@ public class TibcoUtils {
 	protected static long getQueueFirstMessageAge(Session jSession,
 			String queueName, String messageSelector, long currentTime,
 			boolean warn) throws JMSException {
+		long firstMessageTimestamp = getQueueFirstMessageTimestamp(jSession,
+				queueName, messageSelector, warn);
+		if (firstMessageTimestamp < 0) {
+			return firstMessageTimestamp;
+		}
+		return currentTime - firstMessageTimestamp;
+	}
+
+	/**
+	 * return -1: no message found
+	 * return -2: message found, but not of type Message.
+	 */
+	private static long getQueueFirstMessageTimestamp(Session jSession,
+			String queueName, String messageSelector, boolean warn)
+			throws JMSException {
 		QueueBrowser queueBrowser = null;
 		try {
 			Queue queue = jSession.createQueue(queueName);
@@ -125,8 +186,7 @@ public class TibcoUtils {
 				Object o = enm.nextElement();
 				if (o instanceof Message) {
 					Message msg = (Message) o;
-					long jmsTimestamp = msg.getJMSTimestamp();
-					return currentTime - jmsTimestamp;
+					return msg.getJMSTimestamp();
 				} else {
 					if (warn) {
 						log.warn("message was not of type Message, but ["
@@ -165,24 +225,68 @@ public class TibcoUtils {
 		}
 	}
 
-	public static long getQueueMessageCount(String provUrl, String authAlias,
-			String userName, String password, String queueName,
-			String messageSelector) throws JMSException {
-		Connection connection = null;
-		Session jSession = null;
+	public static long getQueueMessageCount(final String provUrl, String authAlias,
+			String userName, String password, final String queueName,
+			final String messageSelector) throws JMSException {
+		final CredentialFactory cf = new CredentialFactory(authAlias, userName,
+				password);
+		String key = getKey(provUrl, cf) + "|messageCount|" + queueName + "|"
+				+ messageSelector;
+		return getQueueStatistic(key,
+				new TibcoQueueStatisticsCache.Loader<Long>() {
+					public Long load() throws Exception {
+						return getConnectionPool(provUrl, cf).execute(
+								new TibcoConnectionPool.Action<Connection, Long>() {
+									public Long execute(Connection connection) throws JMSException {
+										Session jSession = connection.createSession(false,
+												javax.jms.Session.AUTO_ACKNOWLEDGE);
+										try {
+											return getQueueMessageCount(jSession,
+													queueName, messageSelector);
+										} finally {
+											jSession.close();
+										}
+									}
+								});
+					}
+				});
+	}
+
+	/**
+	 * Returns the number of pending messages of the queue, as administered by the server.
+	 */
+	public static long getQueuePendingMessageCount(final String url,
+			final CredentialFactory cf, final String queueName) throws Exception {
+		String key = getKey(url, cf) + "|pendingMessageCount|" + queueName;
+		return queueStatistics.get(key,
+				new TibcoQueueStatisticsCache.Loader<Long>() {
+					public Long load() throws Exception {
+						return getAdminPool(url, cf).execute(
+								new TibcoConnectionPool.Action<TibjmsAdmin, Long>() {
+									public Long execute(TibjmsAdmin admin) throws TibjmsAdminException {
+										QueueInfo queueInfo = admin.getQueue(queueName);
+										if (queueInfo == null) {
+											throw new TibjmsAdminException("queue [" + queueName + "] does not exist");
+										}
+										return queueInfo.getPendingMessageCount();
+									}
+								});
+					}
+				});
+	}
+
+	private static long getQueueStatistic(String key,
+			TibcoQueueStatisticsCache.Loader<Long> loader) throws JMSException {
 		try {
-			connection = getConnection(provUrl, authAlias, userName, password);
-			jSession = connection.createSession(false,
-					javax.jms.Session.AUTO_ACKNOWLEDGE);
-			return getQueueMessageCount(jSession, queueName, messageSelector);
-		} finally {
-			if (connection != null) {
-				try {
-					connection.close();
-				} catch (JMSException e) {
-					log.warn("Exception on closing connection", e);
-				}
-			}
+			return queueStatistics.get(key, loader);
+		} catch (JMSException e) {
+			throw e;
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			JMSException jmse = new JMSException(e.getMessage());
+			jmse.setLinkedException(e);
+			throw jmse;
 		}
 	}
 
@@ -246,4 +350,171 @@ public class TibcoUtils {
 			return admin;
 		}
 	}
+
+	private static String getKey(String url, CredentialFactory cf) {
+		return getKey(url, cf.getAlias(), cf.getUsername(), cf.getPassword());
+	}
+
+	/**
+	 * Returns the key of the pools and cached statistics. It contains a digest of the password, so
+	 * connections opened with other credentials for the same username are not shared.
+	 */
+	static String getKey(String url, String alias, String username, String password) {
+		String passwordDigest;
+		if (password == null) {
+			passwordDigest = null;
+		} else {
+			try {
+				MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+				passwordDigest = new String(Hex.encodeHex(messageDigest.digest(password.getBytes("UTF-8"))));
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e.getMessage());
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e.getMessage());
+			}
+		}
+		return url + "|" + alias + "|" + username + "|" + passwordDigest;
+	}
+
+	/**
+	 * Starts the periodic eviction of idle connections and unused pools, when it is not running yet.
+	 */
+	private static synchronized void startEvictor() {
+		if (evictor == null) {
+			long interval = CONNECTIONS_IDLE_TIMEOUT > 0 ? CONNECTIONS_IDLE_TIMEOUT : 60000;
+			evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "TibcoConnectionPoolEvictor");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			evictor.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					try {
+						evictIdleConnections();
+					} catch (Throwable t) {
+						log.warn("exception evicting idle tibco connections", t);
+					}
+				}
+			}, interval, interval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Closes the idle connections of all pools that have been idle too long, and removes the pools
+	 * that have no connections left.
+	 */
+	static void evictIdleConnections() {
+		evictIdleConnections(adminPools);
+		evictIdleConnections(connectionPools);
+	}
+
+	private static <C> void evictIdleConnections(Map<String,TibcoConnectionPool<C>> pools) {
+		List<TibcoConnectionPool<C>> toEvict;
+		synchronized (pools) {
+			toEvict = new ArrayList<TibcoConnectionPool<C>>(pools.values());
+		}
+		for (TibcoConnectionPool<C> pool : toEvict) {
+			pool.evictIdle();
+		}
+		synchronized (pools) {
+			for (Iterator<TibcoConnectionPool<C>> it = pools.values().iterator(); it.hasNext();) {
+				if (it.next().closeIfUnused()) {
+					it.remove();
+				}
+			}
+		}
+	}
+
+	static int getPoolCount() {
+		synchronized (adminPools) {
+			synchronized (connectionPools) {
+				return adminPools.size() + connectionPools.size();
+			}
+		}
+	}
+
+	/**
+	 * Returns the pool of admin connections to the first active server of the (comma separated) url.
+	 */
+	public static TibcoConnectionPool<TibjmsAdmin> getAdminPool(
+			final String url, final CredentialFactory cf) {
+		String key = getKey(url, cf);
+		synchronized (adminPools) {
+			TibcoConnectionPool<TibjmsAdmin> pool = adminPools.get(key);
+			if (pool == null) {
+				pool = new TibcoConnectionPool<TibjmsAdmin>("TibjmsAdmin ["
+						+ url + "]", new TibcoConnectionPool.Connector<TibjmsAdmin>() {
+					public TibjmsAdmin connect() throws TibjmsAdminException {
+						TibjmsAdmin admin = getActiveServerAdmin(url, cf);
+						if (admin == null) {
+							throw new TibjmsAdminException("could not find an active server");
+						}
+						return admin;
+					}
+
+					public boolean isValid(TibjmsAdmin admin) {
+						try {
+							return admin.getInfo().getState() == ServerInfo.SERVER_ACTIVE;
+						} catch (TibjmsAdminException e) {
+							log.debug("Tibjms Admin is no longer valid", e);
+							return false;
+						}
+					}
+
+					public void close(TibjmsAdmin admin) {
+						try {
+							admin.close();
+						} catch (TibjmsAdminException e) {
+							log.warn("Exception on closing Tibjms Admin", e);
+						}
+					}
+				}, CONNECTIONS_MAX_IDLE, CONNECTIONS_IDLE_TIMEOUT);
+				adminPools.put(key, pool);
+				startEvictor();
+			}
+			return pool;
+		}
+	}
+
+	/**
+	 * Returns the pool of JMS connections to the url.
+	 */
+	public static TibcoConnectionPool<Connection> getConnectionPool(
+			final String provUrl, final CredentialFactory cf) {
+		String key = getKey(provUrl, cf);
+		synchronized (connectionPools) {
+			TibcoConnectionPool<Connection> pool = connectionPools.get(key);
+			if (pool == null) {
+				pool = new TibcoConnectionPool<Connection>("Connection ["
+						+ provUrl + "]", new TibcoConnectionPool.Connector<Connection>() {
+					public Connection connect() throws JMSException {
+						return getConnection(provUrl, cf);
+					}
+
+					public boolean isValid(Connection connection) {
+						try {
+							connection.getMetaData();
+							return true;
+						} catch (JMSException e) {
+							log.debug("Connection is no longer valid", e);
+							return false;
+						}
+					}
+
+					public void close(Connection connection) {
+						try {
+							connection.close();
+						} catch (JMSException e) {
+							log.warn("Exception on closing connection", e);
+						}
+					}
+				}, CONNECTIONS_MAX_IDLE, CONNECTIONS_IDLE_TIMEOUT);
+				connectionPools.put(key, pool);
+				startEvictor();
+			}
+			return pool;
+		}
+	}
 }
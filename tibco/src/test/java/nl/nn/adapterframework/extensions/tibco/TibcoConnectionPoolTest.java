@@ -0,0 +1,140 @@
+package nl.nn.adapterframework.extensions.tibco;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link TibcoConnectionPool} with a stub connector instead of a TIBCO server.
+ */
+public class TibcoConnectionPoolTest {
+
+	private class StubConnection {
+		boolean valid=true;
+		boolean closed=false;
+	}
+
+	private List<StubConnection> opened;
+	private TibcoConnectionPool.Connector<StubConnection> connector;
+
+	@Before
+	public void setUp() {
+		opened = new ArrayList<StubConnection>();
+		connector = new TibcoConnectionPool.Connector<StubConnection>() {
+			public StubConnection connect() {
+				StubConnection connection = new StubConnection();
+				opened.add(connection);
+				return connection;
+			}
+			public boolean isValid(StubConnection connection) {
+				return connection.valid;
+			}
+			public void close(StubConnection connection) {
+				connection.closed=true;
+			}
+		};
+	}
+
+	@Test
+	public void testConnectionIsReused() throws Exception {
+		TibcoConnectionPool<StubConnection> pool = new TibcoConnectionPool<StubConnection>("test", connector, 2, 60000);
+		for (int i=0; i<50; i++) {
+			StubConnection connection = pool.borrow();
+			pool.release(connection);
+		}
+		assertEquals(1, opened.size());
+		assertEquals(1, pool.getConnectionsOpened());
+		assertEquals(49, pool.getConnectionsReused());
+	}
+
+	@Test
+	public void testInvalidIdleConnectionIsReplaced() throws Exception {
+		TibcoConnectionPool<StubConnection> pool = new TibcoConnectionPool<StubConnection>("test", connector, 2, 60000);
+		StubConnection first = pool.borrow();
+		pool.release(first);
+		first.valid=false;
+		StubConnection second = pool.borrow();
+		assertNotSame(first, second);
+		assertTrue(first.closed);
+	}
+
+	@Test
+	public void testFailedActionInvalidatesConnection() throws Exception {
+		TibcoConnectionPool<StubConnection> pool = new TibcoConnectionPool<StubConnection>("test", connector, 2, 60000);
+		try {
+			pool.execute(new TibcoConnectionPool.Action<StubConnection,String>() {
+				public String execute(StubConnection connection) throws Exception {
+					throw new Exception("server failed");
+				}
+			});
+			fail("expected exception");
+		} catch (Exception e) {
+			assertEquals("server failed", e.getMessage());
+		}
+		assertTrue(opened.get(0).closed);
+		assertEquals(0, pool.getIdleCount());
+	}
+
+	@Test
+	public void testMaxIdleAndClose() throws Exception {
+		TibcoConnectionPool<StubConnection> pool = new TibcoConnectionPool<StubConnection>("test", connector, 1, 60000);
+		StubConnection first = pool.borrow();
+		StubConnection second = pool.borrow();
+		pool.release(first);
+		pool.release(second);
+		assertEquals(1, pool.getIdleCount());
+		assertTrue(second.closed);
+		pool.close();
+		assertTrue(first.closed);
+		StubConnection third = pool.borrow();
+		pool.release(third);
+		assertTrue(third.closed);
+	}
+
+	@Test
+	public void testIdleConnectionIsEvicted() throws Exception {
+		TibcoConnectionPool<StubConnection> pool = new TibcoConnectionPool<StubConnection>("test", connector, 2, 10);
+		StubConnection first = pool.borrow();
+		pool.release(first);
+		Thread.sleep(50);
+		StubConnection second = pool.borrow();
+		assertTrue(first.closed);
+		assertNotSame(first, second);
+		pool.release(second);
+		assertSame(second, pool.borrow());
+	}
+
+	@Test
+	public void testPoolIsClosedOnlyWhenUnused() throws Exception {
+		TibcoConnectionPool<StubConnection> pool = new TibcoConnectionPool<StubConnection>("test", connector, 2, 10);
+		StubConnection inUse = pool.borrow();
+		assertFalse(pool.closeIfUnused());
+		pool.release(inUse);
+		assertFalse(pool.closeIfUnused());
+		Thread.sleep(50);
+		pool.evictIdle();
+		assertTrue(inUse.closed);
+		assertTrue(pool.closeIfUnused());
+		// a connection borrowed from a closed pool is not kept
+		StubConnection late = pool.borrow();
+		pool.release(late);
+		assertTrue(late.closed);
+		assertEquals(0, pool.getIdleCount());
+	}
+
+	@Test
+	public void testInvalidatedConnectionIsNotInUse() throws Exception {
+		TibcoConnectionPool<StubConnection> pool = new TibcoConnectionPool<StubConnection>("test", connector, 2, 60000);
+		pool.invalidate(pool.borrow());
+		assertTrue(pool.closeIfUnused());
+	}
+}
@@ -0,0 +1,39 @@
+package nl.nn.adapterframework.extensions.tibco;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link TibcoQueueStatisticsCache}.
+ */
+public class TibcoQueueStatisticsCacheTest {
+
+	private class CountingLoader implements TibcoQueueStatisticsCache.Loader<Long> {
+		long loads=0;
+
+		public Long load() {
+			return ++loads;
+		}
+	}
+
+	@Test
+	public void testDisabledByDefault() throws Exception {
+		TibcoQueueStatisticsCache<Long> cache = new TibcoQueueStatisticsCache<Long>(0);
+		CountingLoader loader = new CountingLoader();
+		assertEquals(1L, (long)cache.get("queue", loader));
+		assertEquals(2L, (long)cache.get("queue", loader));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testSnapshotIsReusedUntilMaxAge() throws Exception {
+		TibcoQueueStatisticsCache<Long> cache = new TibcoQueueStatisticsCache<Long>(50);
+		CountingLoader loader = new CountingLoader();
+		assertEquals(1L, (long)cache.get("queue", loader));
+		assertEquals(1L, (long)cache.get("queue", loader));
+		assertEquals(2L, (long)cache.get("otherQueue", loader));
+		Thread.sleep(100);
+		assertEquals(3L, (long)cache.get("queue", loader));
+	}
+}
@@ -0,0 +1,38 @@
+package nl.nn.adapterframework.extensions.tibco;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import javax.jms.Connection;
+
+import nl.nn.adapterframework.util.CredentialFactory;
+
+import org.junit.Test;
+
+/**
+ * Tests the keys and eviction of the connection pools and cached statistics of {@link TibcoUtils}.
+ */
+public class TibcoUtilsTest {
+
+	@Test
+	public void testKeyDependsOnPassword() {
+		String key = TibcoUtils.getKey("tcp://localhost:7222", null, "admin", "secret");
+		assertEquals(key, TibcoUtils.getKey("tcp://localhost:7222", null, "admin", "secret"));
+		assertFalse(key.equals(TibcoUtils.getKey("tcp://localhost:7222", null, "admin", "other")));
+		assertFalse(key.equals(TibcoUtils.getKey("tcp://localhost:7222", null, "admin", null)));
+		assertFalse(key.contains("secret"));
+	}
+
+	@Test
+	public void testUnusedPoolIsEvicted() {
+		CredentialFactory cf = new CredentialFactory(null, "admin", "secret");
+		TibcoConnectionPool<Connection> pool = TibcoUtils.getConnectionPool("tcp://unused:7222", cf);
+		assertSame(pool, TibcoUtils.getConnectionPool("tcp://unused:7222", cf));
+		int poolCount = TibcoUtils.getPoolCount();
+		TibcoUtils.evictIdleConnections();
+		assertEquals(poolCount - 1, TibcoUtils.getPoolCount());
+		assertNotSame(pool, TibcoUtils.getConnectionPool("tcp://unused:7222", cf));
+	}
+}
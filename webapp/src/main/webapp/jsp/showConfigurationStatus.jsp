@@ -267,6 +267,7 @@ refresh="showConfigurationStatus.do">
 									<td>
 										<xtags:valueOf select="@upSince"/>
 										<xtags:if test="@upSinceAge!=''"> (<xtags:valueOf select="@upSinceAge"/>)</xtags:if>
+										<xtags:if test="@startupDuration!=''"><br/>startup in <xtags:valueOf select="@startupDuration"/> ms</xtags:if>
 									</td>
 									<td>
 										<xtags:valueOf select="@lastMessageDate"/>
@@ -345,6 +346,7 @@ refresh="showConfigurationStatus.do">
 									<td>
 										<xtags:valueOf select="@upSince"/>
 										<xtags:if test="@upSinceAge!=''"> (<xtags:valueOf select="@upSinceAge"/>)</xtags:if>
+										<xtags:if test="@startupDuration!=''"><br/>startup in <xtags:valueOf select="@startupDuration"/> ms</xtags:if>
 									</td>
 									<td>
 										<xtags:valueOf select="@lastMessageDate"/>